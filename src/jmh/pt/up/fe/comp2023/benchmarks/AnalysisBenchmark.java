@@ -0,0 +1,49 @@
+package pt.up.fe.comp2023.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp2023.analysis.JmmVisitorForAnalysis;
+import pt.up.fe.comp2023.symbolTable.JmmSymbolTable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AnalysisBenchmark {
+    @Param({"corpus", "synthetic"})
+    public String inputSet;
+
+    private final List<JmmNode> rootNodes = new ArrayList<>();
+    private final List<JmmSymbolTable> symbolTables = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setup(){
+        for(String source:BenchmarkInputs.load(inputSet)){
+            JmmNode rootNode = BenchmarkInputs.parse(source).getRootNode();
+            rootNodes.add(rootNode);
+            symbolTables.add(new JmmSymbolTable(rootNode));
+        }
+    }
+
+    @Benchmark
+    public void symbolTable(Blackhole blackhole){
+        for(JmmNode rootNode:rootNodes)
+            blackhole.consume(new JmmSymbolTable(rootNode));
+    }
+
+    @Benchmark
+    public void semanticAnalysis(Blackhole blackhole){
+        for(int i=0;i<rootNodes.size();i++){
+            JmmVisitorForAnalysis visitor = new JmmVisitorForAnalysis(symbolTables.get(i));
+            visitor.visit(rootNodes.get(i));
+            blackhole.consume(visitor.getReports());
+        }
+    }
+}
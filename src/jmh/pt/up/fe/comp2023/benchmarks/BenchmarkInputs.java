@@ -0,0 +1,125 @@
+package pt.up.fe.comp2023.benchmarks;
+
+import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.parser.JmmParserResult;
+import pt.up.fe.comp2023.SimpleParser;
+import pt.up.fe.comp2023.analysis.JmmAnalysisImpl;
+import pt.up.fe.comp2023.jasmin.JasminBackend;
+import pt.up.fe.comp2023.ollir.JmmOptimizationImpl;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Sources used by the benchmarks. The "corpus" set has every program of the checkpoint tests that
+ * goes through the whole pipeline, the "synthetic" set has a generated class with many large methods.
+ */
+public class BenchmarkInputs {
+    public static final String CORPUS_DIR = "test/pt/up/fe/comp/cpf";
+    public static final int SYNTHETIC_METHODS = 200;
+    public static final String REGISTERS = "0";
+
+    public static List<String> load(String inputSet){
+        List<String> sources = switch (inputSet) {
+            case "corpus" -> readCorpus();
+            case "synthetic" -> List.of(syntheticClass(SYNTHETIC_METHODS));
+            default -> throw new IllegalArgumentException("Unknown input set '" + inputSet + "'");
+        };
+        List<String> compilable = sources.stream().filter(BenchmarkInputs::compiles).collect(Collectors.toList());
+        if(compilable.isEmpty())
+            throw new RuntimeException("No compilable inputs in set '" + inputSet + "', run the benchmarks from the project folder");
+        return compilable;
+    }
+
+    public static Map<String, String> config(){
+        Map<String, String> config = new HashMap<>();
+        config.put("inputFile", "benchmark.jmm");
+        config.put("optimize", "true");
+        config.put("registerAllocation", REGISTERS);
+        config.put("debug", "false");
+        return config;
+    }
+
+    public static JmmParserResult parse(String code){
+        return new SimpleParser().parse(code, config());
+    }
+
+    public static JmmSemanticsResult analyse(String code){
+        return new JmmAnalysisImpl().semanticAnalysis(parse(code));
+    }
+
+    public static String toOllirCode(String code){
+        JmmOptimizationImpl optimization = new JmmOptimizationImpl();
+        return optimization.toOllir(optimization.optimize(analyse(code))).getOllirCode();
+    }
+
+    private static boolean compiles(String code){
+        try {
+            JmmSemanticsResult semanticsResult = analyse(code);
+            if(!semanticsResult.getReports().isEmpty())
+                return false;
+            JmmOptimizationImpl optimization = new JmmOptimizationImpl();
+            OllirResult ollirResult = optimization.optimize(new OllirResult(toOllirCode(code), config()));
+            if(!ollirResult.getReports().isEmpty())
+                return false;
+            JasminResult jasminResult = new JasminBackend().toJasmin(ollirResult);
+            return jasminResult.getJasminCode()!=null;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static List<String> readCorpus(){
+        Path corpus = Paths.get(CORPUS_DIR);
+        try(Stream<Path> paths = Files.walk(corpus)) {
+            return paths.filter(path -> path.toString().endsWith(".jmm"))
+                    .sorted()
+                    .map(path -> SpecsIo.read(path.toFile()))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read the corpus in " + new File(CORPUS_DIR).getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Generates a class whose methods mix loops, conditions, arrays, arithmetic and calls to the previous method.
+     */
+    public static String syntheticClass(int nrMethods){
+        StringBuilder code = new StringBuilder("import io;\n\nclass Synthetic {\n\n");
+        for(int i=0;i<nrMethods;i++){
+            code.append("\tpublic int method").append(i).append("(int n) {\n")
+                    .append("\t\tint i;\n\t\tint acc;\n\t\tint[] values;\n\t\tboolean flag;\n")
+                    .append("\t\ti = 0;\n\t\tacc = ").append(i).append(";\n\t\tflag = true;\n")
+                    .append("\t\tvalues = new int[n + 1];\n")
+                    .append("\t\twhile (i < n) {\n")
+                    .append("\t\t\tif (flag && i < n) {\n")
+                    .append("\t\t\t\tvalues[i] = acc * 2 + i;\n")
+                    .append("\t\t\t} else {\n")
+                    .append("\t\t\t\tacc = acc - values[i - 1] / 2;\n")
+                    .append("\t\t\t}\n")
+                    .append("\t\t\tflag = !flag;\n")
+                    .append("\t\t\ti = i + 1;\n")
+                    .append("\t\t}\n");
+            if(i>0)
+                code.append("\t\tacc = acc + this.method").append(i - 1).append("(n - 1);\n");
+            code.append("\t\treturn acc;\n\t}\n\n");
+        }
+        code.append("\tpublic static void main(String[] args) {\n")
+                .append("\t\tSynthetic synthetic;\n")
+                .append("\t\tsynthetic = new Synthetic();\n")
+                .append("\t\tio.println(synthetic.method").append(nrMethods - 1).append("(10));\n")
+                .append("\t}\n}\n");
+        return code.toString();
+    }
+}
@@ -0,0 +1,70 @@
+package pt.up.fe.comp2023.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.specs.comp.ollir.ClassUnit;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2023.jasmin.OllirVisitorForJasmin;
+import pt.up.fe.comp2023.ollir.JmmOptimizationImpl;
+import pt.up.fe.comp2023.ollir.JmmVisitorForOllir;
+import pt.up.fe.comp2023.symbolTable.JmmSymbolTable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ollir generation annotates the tree and fills the symbol table, so every invocation gets fresh copies.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GenerationBenchmark {
+    @Param({"corpus", "synthetic"})
+    public String inputSet;
+
+    private List<String> sources;
+    private final List<JmmNode> rootNodes = new ArrayList<>();
+    private final List<JmmSymbolTable> symbolTables = new ArrayList<>();
+    private final List<ClassUnit> ollirClasses = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setup(){
+        sources = BenchmarkInputs.load(inputSet);
+        JmmOptimizationImpl optimization = new JmmOptimizationImpl();
+        for(String source:sources){
+            OllirResult ollirResult = new OllirResult(BenchmarkInputs.toOllirCode(source), BenchmarkInputs.config());
+            ollirClasses.add(optimization.optimize(ollirResult).getOllirClass());
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void freshInputs(){
+        rootNodes.clear();
+        symbolTables.clear();
+        for(String source:sources){
+            JmmNode rootNode = BenchmarkInputs.parse(source).getRootNode();
+            rootNodes.add(rootNode);
+            symbolTables.add(new JmmSymbolTable(rootNode));
+        }
+    }
+
+    @Benchmark
+    public void ollirGeneration(Blackhole blackhole){
+        for(int i=0;i<rootNodes.size();i++){
+            JmmVisitorForOllir visitor = new JmmVisitorForOllir(symbolTables.get(i));
+            visitor.visit(rootNodes.get(i));
+            blackhole.consume(visitor.getSymbolTable());
+        }
+    }
+
+    @Benchmark
+    public void jasminGeneration(Blackhole blackhole){
+        for(ClassUnit ollirClass:ollirClasses)
+            blackhole.consume(new OllirVisitorForJasmin().visit(ollirClass));
+    }
+}
@@ -0,0 +1,71 @@
+package pt.up.fe.comp2023.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.parser.JmmParserResult;
+import pt.up.fe.comp2023.ollir.JmmOptimizationImpl;
+import pt.up.fe.comp2023.symbolTable.JmmSymbolTable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Both optimizations change the tree or the ollir class they receive, so every invocation gets fresh copies.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OptimizationBenchmark {
+    @Param({"corpus", "synthetic"})
+    public String inputSet;
+
+    @Param({"graph", "linear"})
+    public String allocator;
+
+    private final JmmOptimizationImpl optimization = new JmmOptimizationImpl();
+    private List<String> sources;
+    private final List<String> ollirCodes = new ArrayList<>();
+    private final List<JmmSemanticsResult> semanticsResults = new ArrayList<>();
+    private final List<OllirResult> ollirResults = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setup(){
+        sources = BenchmarkInputs.load(inputSet);
+        for(String source:sources)
+            ollirCodes.add(BenchmarkInputs.toOllirCode(source));
+    }
+
+    @Setup(Level.Invocation)
+    public void freshInputs(){
+        semanticsResults.clear();
+        for(String source:sources){
+            JmmParserResult parserResult = BenchmarkInputs.parse(source);
+            semanticsResults.add(new JmmSemanticsResult(parserResult, new JmmSymbolTable(parserResult.getRootNode()), new ArrayList<>()));
+        }
+        ollirResults.clear();
+        for(String ollirCode:ollirCodes){
+            Map<String, String> config = BenchmarkInputs.config();
+            config.put("allocator", allocator);
+            ollirResults.add(new OllirResult(ollirCode, config));
+        }
+    }
+
+    @Benchmark
+    public void astOptimization(Blackhole blackhole){
+        for(JmmSemanticsResult semanticsResult:semanticsResults)
+            blackhole.consume(optimization.optimize(semanticsResult));
+    }
+
+    @Benchmark
+    public void ollirOptimization(Blackhole blackhole){
+        for(OllirResult ollirResult:ollirResults)
+            blackhole.consume(optimization.optimize(ollirResult));
+    }
+}
@@ -0,0 +1,37 @@
+package pt.up.fe.comp2023.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import pt.up.fe.comp2023.SimpleParser;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParserBenchmark {
+    @Param({"corpus", "synthetic"})
+    public String inputSet;
+
+    private List<String> sources;
+    private Map<String, String> config;
+    private SimpleParser parser;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        sources = BenchmarkInputs.load(inputSet);
+        config = BenchmarkInputs.config();
+        parser = new SimpleParser();
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole){
+        for(String source:sources)
+            blackhole.consume(parser.parse(source, config));
+    }
+}
@@ -0,0 +1,133 @@
+package pt.up.fe.comp2023;
+
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2023.metrics.CompilationMetrics;
+import pt.up.fe.comp2023.output.OutputSink;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compiles many classes at once on a work-stealing pool. Every file goes through the whole
+ * pipeline independently and gets its own result, in the same order as the input files.
+ * The artifacts are named after the class, so a class declared by two files is only written
+ * for the first one to finish, the other gets an error.
+ */
+public class BatchCompiler {
+    private final JmmCompiler compiler;
+    private final ForkJoinPool pool;
+
+    public BatchCompiler(int parallelism){
+        this(parallelism, CompilationMetrics.DISABLED);
+    }
+
+    public BatchCompiler(int parallelism, CompilationMetrics metrics){
+        this.compiler = new JmmCompiler(metrics);
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Expands the given paths into the list of files to compile. Folders are searched recursively
+     * for .jmm files and any other file that is not a .jmm file is read as a list of paths, one per line.
+     */
+    public static List<File> collectInputFiles(List<String> paths){
+        List<File> inputFiles = new ArrayList<>();
+        for(String path:paths){
+            File file = new File(path);
+            if(file.isDirectory()){
+                try (Stream<Path> walk = Files.walk(file.toPath())) {
+                    inputFiles.addAll(walk.filter(p -> p.toString().endsWith(".jmm")).sorted().map(Path::toFile).collect(Collectors.toList()));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            else if(file.getName().endsWith(".jmm"))
+                inputFiles.add(file);
+            else if(file.isFile())
+                inputFiles.addAll(collectInputFiles(SpecsIo.read(file).lines().map(String::trim).filter(line -> !line.isEmpty()).collect(Collectors.toList())));
+            else
+                throw new RuntimeException("Expected a path to an existing input file or folder, got '" + file + "'.");
+        }
+        return inputFiles;
+    }
+
+    public List<JasminResult> compile(List<File> inputFiles, Map<String, String> config, File outputDir){
+        JasminResult[] results = new JasminResult[inputFiles.size()];
+        if(results.length>0)
+            pool.invoke(new CompileTask(inputFiles, config, new OutputSink(outputDir), new ConcurrentHashMap<>(), results, 0, results.length));
+        return Arrays.asList(results);
+    }
+
+    private JasminResult compileFile(File inputFile, Map<String, String> config, OutputSink sink, Map<String, File> classFiles){
+        Map<String, String> fileConfig = new HashMap<>(config);
+        fileConfig.remove("inputFiles");
+        fileConfig.put("inputFile", inputFile.getPath());
+        try {
+            JasminResult result = compiler.compile(SpecsIo.read(inputFile), fileConfig);
+            if(result.getJasminCode()==null)
+                return result;
+            File previous = classFiles.putIfAbsent(result.getClassName(), inputFile);
+            if(previous!=null){
+                List<Report> reports = new ArrayList<>(result.getReports());
+                reports.add(new Report(ReportType.ERROR, Stage.OTHER, -1, -1, "Class " + result.getClassName() + " is also declared in " + previous + ", its artifacts were not written"));
+                return new JasminResult(result.getClassName(), null, reports, fileConfig);
+            }
+            JmmCompiler.writeArtifacts(result, sink);
+            return result;
+        } catch (RuntimeException e) {
+            List<Report> reports = new ArrayList<>();
+            reports.add(Report.newError(Stage.OTHER, -1, -1, "Exception during compilation", e));
+            return new JasminResult(inputFile.getName(), null, reports, fileConfig);
+        }
+    }
+
+    /**
+     * Splits the files in halves until a single file is left, so idle workers can steal the
+     * remaining halves when some classes take much longer to compile than others.
+     */
+    private class CompileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<File> inputFiles;
+        private final Map<String, String> config;
+        private final OutputSink sink;
+        private final Map<String, File> classFiles;
+        private final JasminResult[] results;
+        private final int start;
+        private final int end;
+
+        public CompileTask(List<File> inputFiles, Map<String, String> config, OutputSink sink, Map<String, File> classFiles, JasminResult[] results, int start, int end){
+            this.inputFiles = inputFiles;
+            this.config = config;
+            this.sink = sink;
+            this.classFiles = classFiles;
+            this.results = results;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if(end-start==1) {
+                results[start] = compileFile(inputFiles.get(start), config, sink, classFiles);
+                return;
+            }
+            int middle = (start+end)/2;
+            invokeAll(new CompileTask(inputFiles, config, sink, classFiles, results, start, middle),
+                    new CompileTask(inputFiles, config, sink, classFiles, results, middle, end));
+        }
+    }
+}
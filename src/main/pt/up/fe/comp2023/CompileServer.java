@@ -0,0 +1,85 @@
+package pt.up.fe.comp2023;
+
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp2023.execution.InMemoryRunner;
+import pt.up.fe.comp2023.output.OutputSink;
+import pt.up.fe.specs.util.SpecsIo;
+import pt.up.fe.specs.util.system.ProcessOutputAsString;
+
+import java.io.*;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Long-lived compilation daemon that keeps the JVM, the ANTLR caches and the stage instances warm.
+ * <p>
+ * Requests are read from the input one per line, using the same arguments as the command line
+ * (e.g. {@code Foo.jmm -o -r=2}). For every request the server answers with one {@code report}
+ * line per report, one {@code artifact} line per generated file and a final {@code ok} or
+ * {@code error} line. With {@code -run=memory} the program is also run inside the server and each
+ * line it prints is answered as an {@code output} line, followed by an {@code exit} line with its return value.
+ * The line {@code quit} (or the end of the input) stops the server.
+ */
+public class CompileServer {
+    private final JmmCompiler compiler;
+    private final OutputSink sink;
+    private final InMemoryRunner runner;
+
+    public CompileServer(File outputDir){
+        this.compiler = new JmmCompiler();
+        this.sink = new OutputSink(outputDir);
+        this.runner = new InMemoryRunner();
+    }
+
+    public void serve(InputStream in, PrintStream out) throws IOException {
+        PrintStream previousOut = System.out;
+        System.setOut(System.err); //debug dumps of the stages must not be mixed with the protocol
+        try(BufferedReader reader = new BufferedReader(new InputStreamReader(in))){
+            String line;
+            while((line = reader.readLine())!=null){
+                line = line.trim();
+                if(line.isEmpty())
+                    continue;
+                if(line.equals("quit"))
+                    break;
+                handleRequest(line, out);
+                out.flush();
+            }
+        }
+        finally {
+            System.setOut(previousOut);
+        }
+    }
+
+    private void handleRequest(String request, PrintStream out){
+        try {
+            Map<String, String> config = Launcher.parseArgs(request.split("\\s+"));
+            File inputFile = new File(config.get("inputFile"));
+            if (!inputFile.isFile()) {
+                out.println("error Expected a path to an existing input file, got '" + inputFile + "'.");
+                return;
+            }
+
+            JasminResult result = compiler.compile(SpecsIo.read(inputFile), config);
+            for(Report report:result.getReports())
+                out.println("report " + report.toString().replace('\n', ' '));
+
+            if(result.getJasminCode()==null) {
+                out.println("error");
+                return;
+            }
+
+            for(File artifact:JmmCompiler.writeArtifacts(result, sink))
+                out.println("artifact " + artifact.getPath());
+            if(config.getOrDefault("run", "process").equals("memory")) {
+                ProcessOutputAsString output = runner.run(result.getClassName(), JmmCompiler.toClassFile(result), List.of());
+                output.getOutput().lines().forEach(outputLine -> out.println("output " + outputLine));
+                out.println("exit " + output.getReturnValue());
+            }
+            out.println("ok");
+        } catch (RuntimeException e) {
+            out.println("error " + String.valueOf(e.getMessage()).replace('\n', ' '));
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package pt.up.fe.comp2023;
+
+import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.jasmin.JasminUtils;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.parser.JmmParserResult;
+import pt.up.fe.comp2023.analysis.JmmAnalysisImpl;
+import pt.up.fe.comp2023.jasmin.ClassFileBackend;
+import pt.up.fe.comp2023.jasmin.ClassFileResult;
+import pt.up.fe.comp2023.jasmin.JasminBackend;
+import pt.up.fe.comp2023.metrics.CompilationMetrics;
+import pt.up.fe.comp2023.output.OutputSink;
+import pt.up.fe.comp2023.ollir.JmmOptimizationImpl;
+
+import jasmin.ClassFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the whole parse -> analysis -> optimization -> backend pipeline for a single class.
+ * The stage instances are kept between calls, so a long-lived compiler reuses the warmed
+ * parser and backend instead of creating them for every file.
+ */
+public class JmmCompiler {
+    private static final Object assemblerLock = new Object();
+    private static final Object parserLock = new Object();
+
+    private final CompilationMetrics metrics;
+    private final SimpleParser parser;
+    private final JmmAnalysisImpl analysis;
+    private final JmmOptimizationImpl optimization;
+    private final JasminBackend backend;
+    private final ClassFileBackend classFileBackend;
+
+    public JmmCompiler(){
+        this(CompilationMetrics.DISABLED);
+    }
+
+    /**
+     * Every stage records its wall time, cpu time and allocations in the given metrics.
+     */
+    public JmmCompiler(CompilationMetrics metrics){
+        this.metrics = metrics;
+        this.parser = new SimpleParser();
+        this.analysis = new JmmAnalysisImpl(metrics);
+        this.optimization = new JmmOptimizationImpl(metrics);
+        this.backend = new JasminBackend(metrics);
+        this.classFileBackend = new ClassFileBackend(metrics);
+    }
+
+    /**
+     * Compiles the given code. When some stage reports a problem the pipeline stops and the
+     * returned result has no jasmin code, only the reports of that stage.
+     */
+    public JasminResult compile(String code, Map<String, String> config){
+        JmmParserResult parserResult;
+        synchronized (parserLock) { //the conversion of the parse tree caches methods in a static map
+            parserResult = metrics.measure(CompilationMetrics.PARSE, () -> parser.parse(code, config));
+        }
+        if(parserResult.getReports().size()>0)
+            return new JasminResult("Unknown", null, parserResult.getReports(), config);
+
+        JmmSemanticsResult jmmSemanticsResult = analysis.semanticAnalysis(parserResult);
+        String className = jmmSemanticsResult.getSymbolTable()!=null ? jmmSemanticsResult.getSymbolTable().getClassName() : "Unknown";
+        if(jmmSemanticsResult.getReports().size()>0)
+            return new JasminResult(className, null, jmmSemanticsResult.getReports(), config);
+
+        jmmSemanticsResult = optimization.optimize(jmmSemanticsResult);
+        OllirResult ollirResult = optimization.toOllir(jmmSemanticsResult);
+        ollirResult = optimization.optimize(ollirResult);
+        if(ollirResult.getReports().size()>0)
+            return new JasminResult(className, null, ollirResult.getReports(), config);
+
+        if(isClassFileBackend(config))
+            return classFileBackend.toJasmin(ollirResult);
+        return backend.toJasmin(ollirResult);
+    }
+
+    /**
+     * The "backend" config option chooses between the Jasmin text ("jasmin", the default) and writing the class file directly ("classfile").
+     */
+    public static boolean isClassFileBackend(Map<String, String> config){
+        String backend = config.getOrDefault("backend", "jasmin");
+        return switch (backend) {
+            case "jasmin" -> false;
+            case "classfile" -> true;
+            default -> throw new RuntimeException("Unknown backend '" + backend + "', expected jasmin or classfile.");
+        };
+    }
+
+    /**
+     * Writes the jasmin code and the assembled class file of a successful compilation to the folder of the sink.
+     * The class file backend only writes the class file, and its Jasmin listing in debug mode.
+     */
+    public static List<File> writeArtifacts(JasminResult result, OutputSink sink){
+        if(result instanceof ClassFileResult classFileResult){
+            File classFile = sink.writeArtifact(result.getClassName() + ".class", classFileResult.getClassFile());
+            if(!OutputSink.isDebug(result.getConfig()))
+                return List.of(classFile);
+            return List.of(sink.writeArtifact(result.getClassName() + ".j", result.getJasminCode()), classFile);
+        }
+        File jasminFile = sink.writeArtifact(result.getClassName() + ".j", result.getJasminCode());
+        File classFile;
+        synchronized (assemblerLock) { //the jasmin assembler keeps static state
+            classFile = JasminUtils.assemble(jasminFile, sink.getOutputDir());
+        }
+        return List.of(jasminFile, classFile);
+    }
+
+    /**
+     * Bytes of the class file of a successful compilation. The Jasmin code is assembled in memory, without temporary files.
+     */
+    public static byte[] toClassFile(JasminResult result){
+        if(result instanceof ClassFileResult classFileResult)
+            return classFileResult.getClassFile();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            synchronized (assemblerLock) {
+                ClassFile classFile = new ClassFile();
+                classFile.readJasmin(new StringReader(result.getJasminCode()), result.getClassName() + ".j", true);
+                if(classFile.errorCount()>0)
+                    throw new RuntimeException("Found " + classFile.errorCount() + " errors while compiling Jasmin code.");
+                classFile.write(bytes);
+            }
+            return bytes.toByteArray();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Could not assemble the Jasmin code of " + result.getClassName(), e);
+        }
+    }
+}
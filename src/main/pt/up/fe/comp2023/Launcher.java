@@ -1,33 +1,69 @@
 package pt.up.fe.comp2023;
 
 import java.io.File;
+import java.io.IOException;
 import java.sql.SQLOutput;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
-import org.specs.comp.ollir.OllirErrorException;
-import pt.up.fe.comp.TestUtils;
-import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
 import pt.up.fe.comp.jmm.jasmin.JasminResult;
-import pt.up.fe.comp.jmm.ollir.OllirResult;
-import pt.up.fe.comp.jmm.parser.JmmParserResult;
-import pt.up.fe.comp2023.analysis.JmmAnalysisImpl;
-import pt.up.fe.comp2023.jasmin.JasminBackend;
-import pt.up.fe.comp2023.ollir.JmmOptimizationImpl;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.comp2023.execution.InMemoryRunner;
+import pt.up.fe.comp2023.metrics.CompilationMetrics;
+import pt.up.fe.comp2023.output.OutputSink;
 import pt.up.fe.specs.util.SpecsIo;
 import pt.up.fe.specs.util.SpecsLogs;
 import pt.up.fe.specs.util.SpecsSystem;
 
 public class Launcher {
 
-    public static void main(String[] args) throws OllirErrorException {
+    public static void main(String[] args) throws IOException {
         // Setups console logging and other things
         SpecsSystem.programStandardInit();
 
+        // Compile server mode, keeps the JVM and the compiler stages warm between requests
+        if (args.length >= 1 && args[0].equals("-server")) {
+            File outputDir = new File(args.length > 1 ? args[1] : ".");
+            new CompileServer(outputDir).serve(System.in, System.out);
+            return;
+        }
+
+        SpecsLogs.info("Executing with args: " + Arrays.toString(args));
+
         // Parse arguments as a map with predefined options
         var config = parseArgs(args);
 
+        // Per stage time and allocation metrics, only measured when asked for
+        CompilationMetrics metrics = config.containsKey("metrics") ? new CompilationMetrics() : CompilationMetrics.DISABLED;
+
+        // Batch mode, compiles every given file (or every .jmm file in the given folders) in parallel
+        if (config.get("batch").equals("true")) {
+            List<File> inputFiles = BatchCompiler.collectInputFiles(Arrays.asList(config.get("inputFiles").split(File.pathSeparator)));
+            File outputDir = new File(config.getOrDefault("outputDir", "."));
+            int threads = Integer.parseInt(config.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+            List<JasminResult> results = new BatchCompiler(threads, metrics).compile(inputFiles, config, outputDir);
+            int failed = 0;
+            for (int i = 0; i < inputFiles.size(); i++) {
+                JasminResult result = results.get(i);
+                if (result.getJasminCode() == null) {
+                    failed++;
+                    System.out.println(inputFiles.get(i) + ": error " + result.getReports());
+                }
+                else if (getWarnings(result).isEmpty())
+                    System.out.println(inputFiles.get(i) + ": ok");
+                else
+                    System.out.println(inputFiles.get(i) + ": ok " + getWarnings(result));
+            }
+            System.out.println("Compiled " + inputFiles.size() + " files, " + failed + " failed");
+            printMetrics(metrics, config);
+            return;
+        }
+
         // Get input file
         File inputFile = new File(config.get("inputFile"));
 
@@ -39,85 +75,97 @@ public class Launcher {
         // Read contents of input file
         String code = SpecsIo.read(inputFile);
 
-        // Instantiate JmmParser
-        SimpleParser parser = new SimpleParser();
-
-        // Parse stage
-        JmmParserResult parserResult = parser.parse(code, config);
-
-        // Check if there are parsing errors
-        TestUtils.noErrors(parserResult.getReports());
-
-
-        JmmAnalysisImpl jmmAnalysisImpl = new JmmAnalysisImpl();
-        JmmSemanticsResult jmmSemanticsResult = jmmAnalysisImpl.semanticAnalysis(parserResult);
-        if(jmmSemanticsResult.getReports().size()==0) {
-            JmmOptimizationImpl jmmOptimizationImpl = new JmmOptimizationImpl();
-            jmmSemanticsResult = jmmOptimizationImpl.optimize(jmmSemanticsResult);
-            OllirResult ollirResult = jmmOptimizationImpl.toOllir(jmmSemanticsResult);
-            ollirResult = jmmOptimizationImpl.optimize(ollirResult);
-            if(ollirResult.getReports().size()==0) {
-                JasminBackend backend = new JasminBackend();
-                JasminResult result = backend.toJasmin(ollirResult);
-                String output = result.run();
-                System.out.println("Program output: " + output);
-            }
+        // Parse, analyse, optimize and generate the jasmin code
+        JasminResult result = new JmmCompiler(metrics).compile(code, config);
+        printMetrics(metrics, config);
+
+        if (result.getJasminCode() != null) {
+            for (Report warning : getWarnings(result))
+                System.out.println(warning);
+            if (config.containsKey("outputDir"))
+                JmmCompiler.writeArtifacts(result, new OutputSink(new File(config.get("outputDir"))));
+            String output;
+            if (config.getOrDefault("run", "process").equals("memory"))
+                output = new InMemoryRunner().run(result.getClassName(), JmmCompiler.toClassFile(result), List.of()).getOutput();
             else
-                System.out.println(ollirResult.getReports());
+                output = result.run();
+            System.out.println("Program output: " + output);
         }
         else
-            System.out.println(jmmSemanticsResult.getReports());
+            System.out.println(result.getReports());
 
     }
 
 
-    private static Map<String, String> parseArgs(String[] args) {
-        SpecsLogs.info("Executing with args: " + Arrays.toString(args));
+    private static List<Report> getWarnings(JasminResult result) {
+        return result.getReports().stream().filter(report -> report.getType() == ReportType.WARNING).toList();
+    }
+
+    private static void printMetrics(CompilationMetrics metrics, Map<String, String> config) {
+        if (config.containsKey("metrics"))
+            System.out.println(metrics.format(config.get("metrics")));
+    }
+
+    static Map<String, String> parseArgs(String[] args) {
         Map<String, String> config = new HashMap<>();
-        switch (args.length) {
-            case 1 -> {
-                config.put("inputFile", args[0]);
-                config.put("optimize", "false");
-                config.put("registerAllocation", "-1");
-                config.put("debug", "false");
-                return config;
-            }
-            case 2 -> {
-                if (args[1].equals("-o")) {
-                    config.put("inputFile", args[0]);
-                    config.put("optimize", "true");
-                    config.put("registerAllocation", "-1");
-                    config.put("debug", "false");
-
-                    return config;
-                } else if (args[1].startsWith("-r")) {
-                    config.put("inputFile", args[0]);
-                    config.put("optimize", "false");
-                    config.put("registerAllocation", args[1].substring(3));
-                    config.put("debug", "false");
-
-                    return config;
-                }
-            }
-            case 3 -> {
-                if (args[1].equals("-o") && args[2].startsWith("-r")) {
-                    config.put("inputFile", args[0]);
-                    config.put("optimize", "true");
-                    config.put("registerAllocation", args[2].substring(3));
-                    config.put("debug", "false");
-
-                    return config;
-                }
-                else if (args[2].equals("-o") && args[1].startsWith("-r")) {
-                    config.put("inputFile", args[0]);
-                    config.put("optimize", "true");
-                    config.put("registerAllocation", args[1].substring(3));
-                    config.put("debug", "false");
+        config.put("optimize", "false");
+        config.put("registerAllocation", "-1");
+        config.put("debug", "false");
+        config.put("batch", "false");
+
+        List<String> inputs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("-d"))
+                config.put("debug", "true");
+            else if (arg.equals("-o"))
+                config.put("optimize", "true");
+            else if (arg.startsWith("-r="))
+                config.put("registerAllocation", arg.substring(3));
+            else if (arg.equals("-batch"))
+                config.put("batch", "true");
+            else if (arg.startsWith("-j="))
+                config.put("threads", arg.substring(3));
+            else if (arg.startsWith("-out="))
+                config.put("outputDir", arg.substring(5));
+            else if (arg.equals("-metrics=json") || arg.equals("-metrics=prometheus"))
+                config.put("metrics", arg.substring(9));
+            else if (arg.equals("-backend=jasmin") || arg.equals("-backend=classfile"))
+                config.put("backend", arg.substring(9));
+            else if (arg.equals("-run=process") || arg.equals("-run=memory"))
+                config.put("run", arg.substring(5));
+            else if (arg.equals("-allocator=graph") || arg.equals("-allocator=linear"))
+                config.put("allocator", arg.substring(11));
+            else if (arg.startsWith("-inline=") && isCount(arg.substring(8)))
+                config.put("inlining", arg.substring(8));
+            else if (arg.startsWith("-unroll=") && isCount(arg.substring(8)))
+                config.put("unroll", arg.substring(8));
+            else if (arg.equals("-gvn=none") || arg.equals("-gvn=local") || arg.equals("-gvn=global"))
+                config.put("valueNumbering", arg.substring(5));
+            else if (arg.startsWith("-"))
+                throw new RuntimeException("Provided arguments are not valid.");
+            else
+                inputs.add(arg);
+        }
 
-                    return config;
-                }
-            }
+        if (config.get("batch").equals("true") && inputs.size() > 0) {
+            config.put("inputFiles", String.join(File.pathSeparator, inputs));
+            return config;
+        }
+        else if (inputs.size() == 1) {
+            config.put("inputFile", inputs.get(0));
+            return config;
         }
         throw new RuntimeException("Provided arguments are not valid.");
     }
+
+    /**
+     * Whether the value of an option is a non-negative int.
+     */
+    private static boolean isCount(String value) {
+        try {
+            return Integer.parseInt(value) >= 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
 }
@@ -0,0 +1,220 @@
+package pt.up.fe.comp2023.algebraicSimplification;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp2023.controlFlow.OllirInstructions;
+import pt.up.fe.comp2023.ssa.SsaForm;
+
+import java.util.*;
+
+/**
+ * Replaces the operations whose result follows from the identities of their operators by that result
+ * (x + 0, x * 1 and x / 1 are x, x * 0 is 0, b && true is b, x < x is false, ...) and the multiplications by
+ * a power of two by a shift. The operands of an OLLIR operation are variables or literals, so dropping one of
+ * them has no other effect.
+ *
+ * On a method in SSA form, a variable has the value of its only assignment everywhere, so the negation of a
+ * negation also becomes the value negated twice. Run before the constant propagation, the comparisons that
+ * become constants let the propagation remove the branches they decide.
+ */
+public class AlgebraicSimplification {
+    private final Method method;
+    private final SsaForm ssa;
+    private final Map<String,Instruction> definitions;
+
+    public AlgebraicSimplification(Method method){
+        this.method = method;
+        this.ssa = null;
+        this.definitions = Map.of();
+    }
+
+    public AlgebraicSimplification(SsaForm ssa){
+        this.method = ssa.getMethod();
+        this.ssa = ssa;
+        this.definitions = new HashMap<>();
+        for(int block=0;block<ssa.getNrBlocks();block++){
+            for(Instruction instruction:ssa.getInstructions(block)){
+                String dest = OllirInstructions.getDefinedVariable(instruction);
+                if(dest!=null && ssa.isVariable(dest))
+                    definitions.put(dest, ((AssignInstruction) instruction).getRhs());
+            }
+        }
+    }
+
+    /**
+     * Returns true when an operation was simplified.
+     */
+    public boolean optimize(){
+        boolean changed = false;
+        if(ssa==null){
+            List<Instruction> instructions = method.getInstructions();
+            Map<Instruction,List<String>> labels = OllirInstructions.getLabelsByInstruction(method);
+            for(int i=0;i<instructions.size();i++){
+                Instruction simplified = simplify(instructions.get(i));
+                if(simplified==null)
+                    continue;
+                OllirInstructions.moveLabels(method, labels.get(instructions.get(i)), simplified);
+                instructions.set(i, simplified);
+                changed = true;
+            }
+            return changed;
+        }
+        for(int block=0;block<ssa.getNrBlocks();block++){
+            List<Instruction> instructions = ssa.getInstructions(block);
+            for(int i=0;i<instructions.size();i++){
+                Instruction simplified = simplify(instructions.get(i));
+                if(simplified==null)
+                    continue;
+                instructions.set(i, simplified);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Simplified copy of the assignment or branch, or null when it stays as it is.
+     */
+    private Instruction simplify(Instruction instruction){
+        switch(instruction.getInstType()){
+            case ASSIGN -> {
+                AssignInstruction assign = (AssignInstruction) instruction;
+                Instruction rhs = simplifyValue(assign.getRhs());
+                return rhs==null ? null : new AssignInstruction(assign.getDest(), assign.getTypeOfAssign(), rhs);
+            }
+            case BRANCH -> {
+                CondBranchInstruction branch = (CondBranchInstruction) instruction;
+                Instruction condition = simplifyValue(branch.getCondition());
+                if(condition==null)
+                    return null;
+                CondBranchInstruction simplified = condition instanceof SingleOpInstruction single
+                        ? new SingleOpCondInstruction(single)
+                        : new OpCondInstruction((OpInstruction) condition);
+                simplified.setLabel(branch.getLabel());
+                return simplified;
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+
+    private Instruction simplifyValue(Instruction value){
+        if(value instanceof UnaryOpInstruction operation)
+            return simplifyNegation(operation);
+        if(!(value instanceof BinaryOpInstruction operation))
+            return null;
+        Element left = operation.getLeftOperand();
+        Element right = operation.getRightOperand();
+        if(left instanceof ArrayOperand || right instanceof ArrayOperand)
+            return null;
+        switch(operation.getOperation().getOpType()){
+            case ADD -> {
+                if(isLiteral(right, 0))
+                    return new SingleOpInstruction(left);
+                if(isLiteral(left, 0))
+                    return new SingleOpInstruction(right);
+            }
+            case SUB -> {
+                if(isLiteral(right, 0))
+                    return new SingleOpInstruction(left);
+                if(isSame(left, right))
+                    return literal(0, ElementType.INT32);
+            }
+            case MUL -> {
+                if(isLiteral(right, 1))
+                    return new SingleOpInstruction(left);
+                if(isLiteral(left, 1))
+                    return new SingleOpInstruction(right);
+                if(isLiteral(right, 0) || isLiteral(left, 0))
+                    return literal(0, ElementType.INT32);
+                if(getPowerOfTwo(right)>0)
+                    return shift(left, getPowerOfTwo(right));
+                if(getPowerOfTwo(left)>0)
+                    return shift(right, getPowerOfTwo(left));
+            }
+            case DIV -> {
+                if(isLiteral(right, 1))
+                    return new SingleOpInstruction(left);
+            }
+            case ANDB -> {
+                if(isLiteral(right, 1) || isSame(left, right))
+                    return new SingleOpInstruction(left);
+                if(isLiteral(left, 1))
+                    return new SingleOpInstruction(right);
+                if(isLiteral(right, 0) || isLiteral(left, 0))
+                    return literal(0, ElementType.BOOLEAN);
+            }
+            case LTH, GTH, NEQ -> {
+                if(isSame(left, right))
+                    return literal(0, ElementType.BOOLEAN);
+            }
+            case LTE, GTE, EQ -> {
+                if(isSame(left, right))
+                    return literal(1, ElementType.BOOLEAN);
+            }
+            default -> {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private Instruction simplifyNegation(UnaryOpInstruction operation){
+        if(operation.getOperation().getOpType()!=OperationType.NOTB || !(operation.getOperand() instanceof Operand operand)
+                || operand instanceof ArrayOperand)
+            return null;
+        if(!(definitions.get(operand.getName()) instanceof UnaryOpInstruction negated)
+                || negated.getOperation().getOpType()!=OperationType.NOTB)
+            return null;
+        Element value = negated.getOperand();
+        if(value instanceof ArrayOperand)
+            return null;
+        //the value negated twice must be the same one, which only holds for the variables of the SSA form
+        if(value instanceof Operand variable && !ssa.isVariable(variable.getName()))
+            return null;
+        return new SingleOpInstruction(copy(value));
+    }
+
+    private static boolean isLiteral(Element element, int value){
+        return element instanceof LiteralElement literal && literal.getLiteral().equals(String.valueOf(value));
+    }
+
+    private static boolean isSame(Element left, Element right){
+        if(left instanceof Operand leftOperand && right instanceof Operand rightOperand)
+            return leftOperand.getName().equals(rightOperand.getName());
+        return left instanceof LiteralElement leftLiteral && right instanceof LiteralElement rightLiteral
+                && leftLiteral.getLiteral().equals(rightLiteral.getLiteral());
+    }
+
+    /**
+     * Exponent of the literal when it is a power of two above 1, or 0.
+     */
+    private static int getPowerOfTwo(Element element){
+        if(!(element instanceof LiteralElement literal))
+            return 0;
+        int value;
+        try {
+            value = Integer.parseInt(literal.getLiteral());
+        }
+        catch(NumberFormatException exception){
+            return 0;
+        }
+        return value>1 && (value & (value - 1))==0 ? Integer.numberOfTrailingZeros(value) : 0;
+    }
+
+    private static Instruction shift(Element value, int exponent){
+        Type type = new Type(ElementType.INT32);
+        return new BinaryOpInstruction(value, new Operation(OperationType.SHL, type), new LiteralElement(String.valueOf(exponent), type));
+    }
+
+    private static Instruction literal(int value, ElementType type){
+        return new SingleOpInstruction(new LiteralElement(String.valueOf(value), new Type(type)));
+    }
+
+    private static Element copy(Element element){
+        if(element instanceof LiteralElement literal)
+            return new LiteralElement(literal.getLiteral(), literal.getType());
+        Operand operand = (Operand) element;
+        return new Operand(operand.getName(), operand.getType());
+    }
+}
@@ -7,6 +7,8 @@ import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.report.Report;
 import pt.up.fe.comp.jmm.report.ReportType;
 import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2023.metrics.CompilationMetrics;
+import pt.up.fe.comp2023.output.OutputSink;
 import pt.up.fe.comp2023.symbolTable.JmmSymbolTable;
 import pt.up.fe.comp2023.symbolTable.SemanticAnalysisException;
 
@@ -14,23 +16,33 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class JmmAnalysisImpl implements JmmAnalysis {
+    private final CompilationMetrics metrics;
+
+    public JmmAnalysisImpl(){
+        this(CompilationMetrics.DISABLED);
+    }
+
+    public JmmAnalysisImpl(CompilationMetrics metrics){
+        this.metrics = metrics;
+    }
+
     @Override
     public JmmSemanticsResult semanticAnalysis(JmmParserResult jmmParserResult) {
 
         JmmNode rootNode = jmmParserResult.getRootNode();
         JmmSymbolTable symbolTable;
         try {
-            symbolTable = new JmmSymbolTable(rootNode);
+            symbolTable = metrics.measure(CompilationMetrics.SYMBOL_TABLE, () -> new JmmSymbolTable(rootNode));
         } catch (SemanticAnalysisException e) {
             Report report = new Report(ReportType.ERROR, Stage.SEMANTIC, e.getLine(), e.getCol(), e.getMessage());
             List<Report> reports = new ArrayList<>();
             reports.add(report);
             return new JmmSemanticsResult(jmmParserResult, null, reports);
         }
-        System.out.println(rootNode.toTree());
+        OutputSink.debug(jmmParserResult.getConfig(), rootNode::toTree);
         // Type verification
         JmmVisitorForAnalysis gen = new JmmVisitorForAnalysis(symbolTable);
-        gen.visit(rootNode);
+        metrics.measure(CompilationMetrics.ANALYSIS, () -> gen.visit(rootNode));
         List<Report> reports = gen.getReports();
 
         return new JmmSemanticsResult(jmmParserResult, symbolTable, reports);
@@ -0,0 +1,326 @@
+package pt.up.fe.comp2023.bytecode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+/**
+ * Writes a class file. The code of each method is laid out first, to know the offset of every label,
+ * and then encoded with the jump offsets. The frames of each method go in its StackMapTable, each one
+ * written in the shortest form that describes it from the frame before.
+ */
+public class ClassFileWriter {
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int MAJOR_VERSION = 52;
+    private static final int WIDE = 196;
+    private static final int LDC = 18;
+    private static final int LDC_W = 19;
+    private static final int BIPUSH = 16;
+    private static final int SIPUSH = 17;
+    private static final int ICONST_0 = 3;
+    private static final int SAME_LOCALS_1_STACK_ITEM = 64;
+    private static final int SAME_LOCALS_1_STACK_ITEM_EXTENDED = 247;
+    private static final int SAME_FRAME_EXTENDED = 251;
+    private static final int FULL_FRAME = 255;
+    private static final int ITEM_TOP = 0;
+    private static final int ITEM_INTEGER = 1;
+    private static final int ITEM_OBJECT = 7;
+
+    private final ConstantPool constantPool = new ConstantPool();
+    private String className;
+
+    public static byte[] write(JvmClass jvmClass){
+        return new ClassFileWriter().writeClass(jvmClass);
+    }
+
+    private byte[] writeClass(JvmClass jvmClass){
+        className = jvmClass.getName();
+        try {
+            int thisClass = constantPool.classRef(jvmClass.getName());
+            int superClass = constantPool.classRef(jvmClass.getSuperName());
+
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(body);
+            out.writeShort(jvmClass.getAccess());
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+
+            out.writeShort(jvmClass.getFields().size());
+            for(JvmField field:jvmClass.getFields()){
+                out.writeShort(field.getAccess());
+                out.writeShort(constantPool.utf8(field.getName()));
+                out.writeShort(constantPool.utf8(field.getDescriptor()));
+                out.writeShort(0);
+            }
+
+            out.writeShort(jvmClass.getMethods().size());
+            for(JvmMethod method:jvmClass.getMethods())
+                writeMethod(out, method);
+            out.writeShort(0);
+
+            ByteArrayOutputStream classFile = new ByteArrayOutputStream(body.size() + 1024);
+            DataOutputStream header = new DataOutputStream(classFile);
+            header.writeInt(MAGIC);
+            header.writeShort(0);
+            header.writeShort(MAJOR_VERSION);
+            constantPool.writeTo(header);
+            body.writeTo(classFile);
+            return classFile.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void writeMethod(DataOutputStream out, JvmMethod method) throws IOException {
+        out.writeShort(method.getAccess());
+        out.writeShort(constantPool.utf8(method.getName()));
+        out.writeShort(constantPool.utf8(method.getDescriptor()));
+        out.writeShort(1);
+
+        Map<String, Integer> labels = layout(method);
+        byte[] code = assemble(method, labels);
+        byte[] stackMap = writeStackMap(method, labels);
+        out.writeShort(constantPool.utf8("Code"));
+        out.writeInt(12 + code.length + (stackMap==null ? 0 : 6 + stackMap.length));
+        out.writeShort(method.getMaxStack());
+        out.writeShort(method.getMaxLocals());
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);
+        if(stackMap==null){
+            out.writeShort(0);
+            return;
+        }
+        out.writeShort(1);
+        out.writeShort(constantPool.utf8("StackMapTable"));
+        out.writeInt(stackMap.length);
+        out.write(stackMap);
+    }
+
+    private Map<String, Integer> layout(JvmMethod method){
+        Map<String, Integer> labels = new HashMap<>();
+        int offset = 0;
+        for(JvmInstruction instruction:method.getInstructions()){
+            if(instruction.isLabel())
+                labels.put(instruction.getLabel(), offset);
+            offset += size(instruction);
+        }
+        if(offset>0xFFFF)
+            throw new RuntimeException("Method " + method.getName() + " is too large");
+        return labels;
+    }
+
+    private byte[] assemble(JvmMethod method, Map<String, Integer> labels) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream code = new DataOutputStream(bytes);
+        for(JvmInstruction instruction:method.getInstructions())
+            encode(code, instruction, labels, method);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Contents of the StackMapTable attribute of the method, or null when it has no frames.
+     */
+    private byte[] writeStackMap(JvmMethod method, Map<String, Integer> labels) throws IOException {
+        if(method.getFrames().isEmpty())
+            return null;
+        SortedMap<Integer, StackMapFrames.Frame> frames = new TreeMap<>();
+        for(Map.Entry<String, StackMapFrames.Frame> frame:method.getFrames().entrySet())
+            frames.put(labels.get(frame.getKey()), frame.getValue());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(frames.size());
+        List<String> previousLocals = getInitialLocals(method);
+        int previousOffset = -1;
+        for(Map.Entry<Integer, StackMapFrames.Frame> entry:frames.entrySet()){
+            int delta = entry.getKey() - previousOffset - 1;
+            List<String> locals = trimLocals(entry.getValue().locals());
+            List<String> stack = entry.getValue().stack();
+            int sizeChange = locals.size() - previousLocals.size();
+            boolean sameLocals = locals.equals(previousLocals);
+            if(sameLocals && stack.isEmpty() && delta<SAME_LOCALS_1_STACK_ITEM){
+                out.writeByte(delta);
+            } else if(sameLocals && stack.size()==1){
+                if(delta<SAME_LOCALS_1_STACK_ITEM){
+                    out.writeByte(SAME_LOCALS_1_STACK_ITEM + delta);
+                } else {
+                    out.writeByte(SAME_LOCALS_1_STACK_ITEM_EXTENDED);
+                    out.writeShort(delta);
+                }
+                writeType(out, stack.get(0));
+            } else if(stack.isEmpty() && sizeChange>=-3 && sizeChange<=3 && isPrefix(locals, previousLocals)){
+                out.writeByte(SAME_FRAME_EXTENDED + sizeChange);
+                out.writeShort(delta);
+                for(int i=previousLocals.size();i<locals.size();i++)
+                    writeType(out, locals.get(i));
+            } else {
+                out.writeByte(FULL_FRAME);
+                out.writeShort(delta);
+                out.writeShort(locals.size());
+                for(String type:locals)
+                    writeType(out, type);
+                out.writeShort(stack.size());
+                for(String type:stack)
+                    writeType(out, type);
+            }
+            previousLocals = locals;
+            previousOffset = entry.getKey();
+        }
+        return bytes.toByteArray();
+    }
+
+    private List<String> getInitialLocals(JvmMethod method){
+        List<String> locals = new ArrayList<>();
+        for(String argument:Descriptors.argumentTypes(method.getDescriptor()))
+            locals.add(argument.length()==1 ? StackMapFrames.INTEGER : argument);
+        if(!method.isStatic())
+            locals.add(0, "L" + className + ";");
+        return locals;
+    }
+
+    private static List<String> trimLocals(List<String> locals){
+        int size = locals.size();
+        while(size>0 && locals.get(size - 1).equals(StackMapFrames.TOP))
+            size--;
+        return locals.subList(0, size);
+    }
+
+    /**
+     * True when one of the lists starts with the other.
+     */
+    private static boolean isPrefix(List<String> first, List<String> second){
+        int size = Math.min(first.size(), second.size());
+        return first.subList(0, size).equals(second.subList(0, size));
+    }
+
+    private void writeType(DataOutputStream out, String type) throws IOException {
+        if(type.equals(StackMapFrames.TOP)){
+            out.writeByte(ITEM_TOP);
+        } else if(type.equals(StackMapFrames.INTEGER)){
+            out.writeByte(ITEM_INTEGER);
+        } else {
+            out.writeByte(ITEM_OBJECT);
+            out.writeShort(constantPool.classRef(type.startsWith("L") ? type.substring(1, type.length() - 1) : type));
+        }
+    }
+
+    private int size(JvmInstruction instruction){
+        int operand = instruction.getOperand();
+        return switch (instruction.getOpcode().getKind()) {
+            case LABEL -> 0;
+            case NONE -> 1;
+            case CONSTANT -> {
+                if(operand>=-1 && operand<=5)
+                    yield 1;
+                if(operand>=Byte.MIN_VALUE && operand<=Byte.MAX_VALUE)
+                    yield 2;
+                if(operand>=Short.MIN_VALUE && operand<=Short.MAX_VALUE)
+                    yield 3;
+                yield constantPool.integer(operand)<=0xFF ? 2 : 3;
+            }
+            case LOCAL -> operand<=3 ? 1 : operand<=0xFF ? 2 : 4;
+            case IINC -> isWideIinc(instruction) ? 6 : 3;
+            case NEWARRAY -> 2;
+            case JUMP, FIELD, METHOD, CLASS -> 3;
+        };
+    }
+
+    private boolean isWideIinc(JvmInstruction instruction){
+        int increment = instruction.getIncrement();
+        return instruction.getOperand()>0xFF || increment<Byte.MIN_VALUE || increment>Byte.MAX_VALUE;
+    }
+
+    private void encode(DataOutputStream code, JvmInstruction instruction, Map<String, Integer> labels, JvmMethod method) throws IOException {
+        Opcode opcode = instruction.getOpcode();
+        int operand = instruction.getOperand();
+        switch (opcode.getKind()) {
+            case LABEL -> {
+            }
+            case NONE -> code.writeByte(opcode.getCode());
+            case CONSTANT -> {
+                if(operand>=-1 && operand<=5){
+                    code.writeByte(ICONST_0 + operand);
+                } else if(operand>=Byte.MIN_VALUE && operand<=Byte.MAX_VALUE){
+                    code.writeByte(BIPUSH);
+                    code.writeByte(operand);
+                } else if(operand>=Short.MIN_VALUE && operand<=Short.MAX_VALUE){
+                    code.writeByte(SIPUSH);
+                    code.writeShort(operand);
+                } else {
+                    int index = constantPool.integer(operand);
+                    if(index<=0xFF){
+                        code.writeByte(LDC);
+                        code.writeByte(index);
+                    } else {
+                        code.writeByte(LDC_W);
+                        code.writeShort(index);
+                    }
+                }
+            }
+            case LOCAL -> {
+                if(operand<=3){
+                    code.writeByte(getShortFormBase(opcode) + operand);
+                } else if(operand<=0xFF){
+                    code.writeByte(opcode.getCode());
+                    code.writeByte(operand);
+                } else {
+                    code.writeByte(WIDE);
+                    code.writeByte(opcode.getCode());
+                    code.writeShort(operand);
+                }
+            }
+            case IINC -> {
+                if(isWideIinc(instruction)){
+                    code.writeByte(WIDE);
+                    code.writeByte(opcode.getCode());
+                    code.writeShort(operand);
+                    code.writeShort(instruction.getIncrement());
+                } else {
+                    code.writeByte(opcode.getCode());
+                    code.writeByte(operand);
+                    code.writeByte(instruction.getIncrement());
+                }
+            }
+            case JUMP -> {
+                Integer target = labels.get(instruction.getLabel());
+                if(target==null)
+                    throw new RuntimeException("Unknown label " + instruction.getLabel() + " in method " + method.getName());
+                int jump = target - code.size();
+                if(jump<Short.MIN_VALUE || jump>Short.MAX_VALUE)
+                    throw new RuntimeException("Jump to " + instruction.getLabel() + " is too far in method " + method.getName());
+                code.writeByte(opcode.getCode());
+                code.writeShort(jump);
+            }
+            case FIELD -> {
+                code.writeByte(opcode.getCode());
+                code.writeShort(constantPool.fieldRef(instruction.getOwner(), instruction.getName(), instruction.getDescriptor()));
+            }
+            case METHOD -> {
+                code.writeByte(opcode.getCode());
+                code.writeShort(constantPool.methodRef(instruction.getOwner(), instruction.getName(), instruction.getDescriptor()));
+            }
+            case CLASS -> {
+                code.writeByte(opcode.getCode());
+                code.writeShort(constantPool.classRef(instruction.getOwner()));
+            }
+            case NEWARRAY -> {
+                code.writeByte(opcode.getCode());
+                code.writeByte(operand);
+            }
+        }
+    }
+
+    private int getShortFormBase(Opcode opcode){
+        return switch (opcode) {
+            case ILOAD -> 26;
+            case ALOAD -> 42;
+            case ISTORE -> 59;
+            case ASTORE -> 75;
+            default -> throw new RuntimeException("No short form for " + opcode.getMnemonic());
+        };
+    }
+}
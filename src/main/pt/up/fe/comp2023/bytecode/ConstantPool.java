@@ -0,0 +1,124 @@
+package pt.up.fe.comp2023.bytecode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Constant pool of a class file. Each constant is added only once, adding it again returns the same index.
+ */
+public class ConstantPool {
+    private static final int UTF8 = 1;
+    private static final int INTEGER = 3;
+    private static final int CLASS = 7;
+    private static final int STRING = 8;
+    private static final int FIELDREF = 9;
+    private static final int METHODREF = 10;
+    private static final int NAME_AND_TYPE = 12;
+
+    private final Map<String, Integer> indices = new HashMap<>();
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+    private int nextIndex = 1;
+
+    public int utf8(String value){
+        Integer index = indices.get("U" + value);
+        if(index!=null)
+            return index;
+        try {
+            out.writeByte(UTF8);
+            out.writeUTF(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return register("U" + value);
+    }
+
+    public int integer(int value){
+        Integer index = indices.get("I" + value);
+        if(index!=null)
+            return index;
+        write(INTEGER, value >>> 16, value & 0xFFFF);
+        return register("I" + value);
+    }
+
+    public int classRef(String internalName){
+        String key = "C" + internalName;
+        Integer index = indices.get(key);
+        if(index!=null)
+            return index;
+        int name = utf8(internalName);
+        write(CLASS, name);
+        return register(key);
+    }
+
+    public int string(String value){
+        String key = "S" + value;
+        Integer index = indices.get(key);
+        if(index!=null)
+            return index;
+        int utf8 = utf8(value);
+        write(STRING, utf8);
+        return register(key);
+    }
+
+    public int nameAndType(String name, String descriptor){
+        String key = "N" + name + " " + descriptor;
+        Integer index = indices.get(key);
+        if(index!=null)
+            return index;
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        write(NAME_AND_TYPE, nameIndex, descriptorIndex);
+        return register(key);
+    }
+
+    public int fieldRef(String owner, String name, String descriptor){
+        return memberRef(FIELDREF, owner, name, descriptor);
+    }
+
+    public int methodRef(String owner, String name, String descriptor){
+        return memberRef(METHODREF, owner, name, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor){
+        String key = tag + owner + "." + name + " " + descriptor;
+        Integer index = indices.get(key);
+        if(index!=null)
+            return index;
+        int ownerIndex = classRef(owner);
+        int nameAndType = nameAndType(name, descriptor);
+        write(tag, ownerIndex, nameAndType);
+        return register(key);
+    }
+
+    private void write(int tag, int... shorts){
+        try {
+            out.writeByte(tag);
+            for(int value:shorts)
+                out.writeShort(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int register(String key){
+        if(nextIndex>0xFFFF)
+            throw new RuntimeException("Too many constants in the class");
+        int index = nextIndex++;
+        indices.put(key, index);
+        return index;
+    }
+
+    public int size(){
+        return nextIndex - 1;
+    }
+
+    public void writeTo(DataOutputStream stream) throws IOException {
+        stream.writeShort(nextIndex);
+        bytes.writeTo(stream);
+    }
+}
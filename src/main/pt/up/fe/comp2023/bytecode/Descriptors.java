@@ -0,0 +1,62 @@
+package pt.up.fe.comp2023.bytecode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helpers to read field and method descriptors.
+ */
+public class Descriptors {
+    private Descriptors(){
+    }
+
+    public static int slotSize(String descriptor){
+        return switch (descriptor.charAt(0)) {
+            case 'V' -> 0;
+            case 'J', 'D' -> 2;
+            default -> 1;
+        };
+    }
+
+    public static int returnSlotSize(String methodDescriptor){
+        return slotSize(methodDescriptor.substring(methodDescriptor.indexOf(')') + 1));
+    }
+
+    public static int argumentSlots(String methodDescriptor){
+        int slots = 0;
+        int i = 1;
+        while(methodDescriptor.charAt(i)!=')'){
+            char c = methodDescriptor.charAt(i);
+            int end = i;
+            while(methodDescriptor.charAt(end)=='[')
+                end++;
+            if(methodDescriptor.charAt(end)=='L')
+                end = methodDescriptor.indexOf(';', end);
+            slots += (end==i && (c=='J' || c=='D')) ? 2 : 1;
+            i = end + 1;
+        }
+        return slots;
+    }
+
+    /**
+     * Descriptors of the arguments of a method, in order.
+     */
+    public static List<String> argumentTypes(String methodDescriptor){
+        List<String> types = new ArrayList<>();
+        int i = 1;
+        while(methodDescriptor.charAt(i)!=')'){
+            int end = i;
+            while(methodDescriptor.charAt(end)=='[')
+                end++;
+            if(methodDescriptor.charAt(end)=='L')
+                end = methodDescriptor.indexOf(';', end);
+            types.add(methodDescriptor.substring(i, end + 1));
+            i = end + 1;
+        }
+        return types;
+    }
+
+    public static String returnType(String methodDescriptor){
+        return methodDescriptor.substring(methodDescriptor.indexOf(')') + 1);
+    }
+}
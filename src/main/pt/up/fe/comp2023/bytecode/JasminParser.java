@@ -0,0 +1,83 @@
+package pt.up.fe.comp2023.bytecode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the instructions of a method written as Jasmin code back into instructions, the opposite of
+ * {@link JasminPrinter#printInstructions}. Only the instructions the compiler uses are known.
+ */
+public class JasminParser {
+    private JasminParser(){
+    }
+
+    /**
+     * The instructions and labels of the code, one per line. Throws when a line is not understood.
+     */
+    public static List<JvmInstruction> parseInstructions(String code){
+        List<JvmInstruction> instructions = new ArrayList<>();
+        for(String line:code.split("\n")){
+            line = line.trim();
+            if(line.isEmpty())
+                continue;
+            JvmInstruction instruction;
+            try {
+                instruction = parseInstruction(line);
+            }
+            catch(RuntimeException exception){
+                instruction = null;
+            }
+            if(instruction==null)
+                throw new RuntimeException("Unknown Jasmin instruction '" + line + "'");
+            instructions.add(instruction);
+        }
+        return instructions;
+    }
+
+    private static JvmInstruction parseInstruction(String line){
+        if(line.endsWith(":") && !line.contains(" "))
+            return JvmInstruction.label(line.substring(0, line.length() - 1));
+        String[] parts = line.split("\\s+");
+        String mnemonic = parts[0];
+        if(mnemonic.equals("iconst_m1") && parts.length==1)
+            return JvmInstruction.constant(-1);
+        if(mnemonic.startsWith("iconst_") && parts.length==1)
+            return JvmInstruction.constant(Integer.parseInt(mnemonic.substring(7)));
+        if((mnemonic.equals("bipush") || mnemonic.equals("sipush") || mnemonic.equals("ldc")) && parts.length==2)
+            return JvmInstruction.constant(Integer.parseInt(parts[1]));
+        int underscore = mnemonic.indexOf('_');
+        if(underscore>0 && parts.length==1){
+            Opcode opcode = Opcode.fromMnemonic(mnemonic.substring(0, underscore));
+            if(opcode==null || opcode.getKind()!=Opcode.Kind.LOCAL)
+                return null;
+            return JvmInstruction.local(opcode, Integer.parseInt(mnemonic.substring(underscore + 1)));
+        }
+
+        Opcode opcode = Opcode.fromMnemonic(mnemonic);
+        if(opcode==null)
+            return null;
+        return switch (opcode.getKind()) {
+            case NONE -> parts.length==1 ? JvmInstruction.of(opcode) : null;
+            case LOCAL -> parts.length==2 ? JvmInstruction.local(opcode, Integer.parseInt(parts[1])) : null;
+            case IINC -> parts.length==3 ? JvmInstruction.iinc(Integer.parseInt(parts[1]), Integer.parseInt(parts[2])) : null;
+            case JUMP -> parts.length==2 ? JvmInstruction.jump(opcode, parts[1]) : null;
+            case FIELD -> {
+                if(parts.length!=3)
+                    yield null;
+                int slash = parts[1].lastIndexOf('/');
+                yield JvmInstruction.member(opcode, parts[1].substring(0, slash), parts[1].substring(slash + 1), parts[2]);
+            }
+            case METHOD -> {
+                if(parts.length!=2)
+                    yield null;
+                int parenthesis = parts[1].indexOf('(');
+                int slash = parts[1].lastIndexOf('/', parenthesis);
+                yield JvmInstruction.member(opcode, parts[1].substring(0, slash), parts[1].substring(slash + 1, parenthesis),
+                        parts[1].substring(parenthesis));
+            }
+            case CLASS -> parts.length==2 ? JvmInstruction.type(opcode, parts[1]) : null;
+            case NEWARRAY -> parts.length==2 && parts[1].equals("int") ? JvmInstruction.newIntArray() : null;
+            default -> null;
+        };
+    }
+}
@@ -0,0 +1,86 @@
+package pt.up.fe.comp2023.bytecode;
+
+import java.util.List;
+
+/**
+ * Prints a class as Jasmin code, used for the debug dumps and to keep the listing of the class file backend.
+ */
+public class JasminPrinter {
+    private JasminPrinter(){
+    }
+
+    public static String print(JvmClass jvmClass){
+        StringBuilder result = new StringBuilder();
+        result.append(".class ").append(accessToString(jvmClass.getAccess())).append(jvmClass.getName()).append("\n");
+        result.append(".super ").append(jvmClass.getSuperName()).append("\n");
+        for(JvmField field:jvmClass.getFields())
+            result.append(".field ").append(accessToString(field.getAccess())).append(field.getName()).append(" ").append(field.getDescriptor()).append("\n");
+        result.append("\n");
+        for(JvmMethod method:jvmClass.getMethods())
+            result.append(printMethod(method)).append("\n");
+        return result.toString();
+    }
+
+    public static String printMethod(JvmMethod method){
+        StringBuilder result = new StringBuilder();
+        result.append(".method ").append(accessToString(method.getAccess())).append(method.getName()).append(method.getDescriptor()).append("\n");
+        result.append("\t.limit stack ").append(method.getMaxStack()).append("\n");
+        result.append("\t.limit locals ").append(method.getMaxLocals()).append("\n");
+        result.append(printInstructions(method.getInstructions()));
+        result.append(".end method\n");
+        return result.toString();
+    }
+
+    public static String printInstructions(List<JvmInstruction> instructions){
+        StringBuilder result = new StringBuilder();
+        for(JvmInstruction instruction:instructions){
+            if(instruction.isLabel())
+                result.append(instruction.getLabel()).append(":\n");
+            else
+                result.append("\t").append(instructionToString(instruction)).append("\n");
+        }
+        return result.toString();
+    }
+
+    private static String accessToString(int access){
+        StringBuilder result = new StringBuilder();
+        if((access & JvmClass.ACC_PUBLIC)!=0)
+            result.append("public ");
+        if((access & JvmClass.ACC_PRIVATE)!=0)
+            result.append("private ");
+        if((access & JvmClass.ACC_PROTECTED)!=0)
+            result.append("protected ");
+        if((access & JvmClass.ACC_STATIC)!=0)
+            result.append("static ");
+        if((access & JvmClass.ACC_FINAL)!=0)
+            result.append("final ");
+        return result.toString();
+    }
+
+    public static String instructionToString(JvmInstruction instruction){
+        Opcode opcode = instruction.getOpcode();
+        int operand = instruction.getOperand();
+        return switch (opcode.getKind()) {
+            case NONE -> opcode.getMnemonic();
+            case LABEL -> instruction.getLabel() + ":";
+            case CONSTANT -> {
+                if(operand==-1)
+                    yield "iconst_m1";
+                if(operand>=0 && operand<=5)
+                    yield "iconst_" + operand;
+                if(operand>=Byte.MIN_VALUE && operand<=Byte.MAX_VALUE)
+                    yield "bipush " + operand;
+                if(operand>=Short.MIN_VALUE && operand<=Short.MAX_VALUE)
+                    yield "sipush " + operand;
+                yield "ldc " + operand;
+            }
+            case LOCAL -> opcode.getMnemonic() + (operand<=3 ? "_" : " ") + operand;
+            case IINC -> "iinc " + operand + " " + instruction.getIncrement();
+            case JUMP -> opcode.getMnemonic() + " " + instruction.getLabel();
+            case FIELD -> opcode.getMnemonic() + " " + instruction.getOwner() + "/" + instruction.getName() + " " + instruction.getDescriptor();
+            case METHOD -> opcode.getMnemonic() + " " + instruction.getOwner() + "/" + instruction.getName() + instruction.getDescriptor();
+            case CLASS -> opcode.getMnemonic() + " " + instruction.getOwner();
+            case NEWARRAY -> opcode.getMnemonic() + " int";
+        };
+    }
+}
@@ -0,0 +1,58 @@
+package pt.up.fe.comp2023.bytecode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A class ready to be written as a class file or printed as Jasmin, with internal names (java/lang/Object).
+ */
+public class JvmClass {
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_PRIVATE = 0x0002;
+    public static final int ACC_PROTECTED = 0x0004;
+    public static final int ACC_STATIC = 0x0008;
+    public static final int ACC_FINAL = 0x0010;
+    public static final int ACC_SUPER = 0x0020;
+
+    private final int access;
+    private final String name;
+    private final String superName;
+    private final List<JvmField> fields;
+    private final List<JvmMethod> methods;
+
+    public JvmClass(int access, String name, String superName){
+        this.access = access;
+        this.name = name;
+        this.superName = superName;
+        this.fields = new ArrayList<>();
+        this.methods = new ArrayList<>();
+    }
+
+    public int getAccess() {
+        return access;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getSuperName() {
+        return superName;
+    }
+
+    public List<JvmField> getFields() {
+        return fields;
+    }
+
+    public List<JvmMethod> getMethods() {
+        return methods;
+    }
+
+    public void addField(JvmField field){
+        fields.add(field);
+    }
+
+    public void addMethod(JvmMethod method){
+        methods.add(method);
+    }
+}
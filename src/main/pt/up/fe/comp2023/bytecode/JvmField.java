@@ -0,0 +1,25 @@
+package pt.up.fe.comp2023.bytecode;
+
+public class JvmField {
+    private final int access;
+    private final String name;
+    private final String descriptor;
+
+    public JvmField(int access, String name, String descriptor){
+        this.access = access;
+        this.name = name;
+        this.descriptor = descriptor;
+    }
+
+    public int getAccess() {
+        return access;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescriptor() {
+        return descriptor;
+    }
+}
@@ -0,0 +1,140 @@
+package pt.up.fe.comp2023.bytecode;
+
+import java.util.Objects;
+
+/**
+ * A single instruction of a method. Depending on the kind of the opcode it has a local variable index,
+ * an integer constant, a label (jumps and label markers) or a symbolic reference to a class, field or method.
+ */
+public class JvmInstruction {
+    private final Opcode opcode;
+    private final int operand;
+    private final int increment;
+    private final String label;
+    private final String owner;
+    private final String name;
+    private final String descriptor;
+
+    private JvmInstruction(Opcode opcode, int operand, int increment, String label, String owner, String name, String descriptor){
+        this.opcode = opcode;
+        this.operand = operand;
+        this.increment = increment;
+        this.label = label;
+        this.owner = owner;
+        this.name = name;
+        this.descriptor = descriptor;
+    }
+
+    public static JvmInstruction of(Opcode opcode){
+        return new JvmInstruction(opcode, 0, 0, null, null, null, null);
+    }
+
+    public static JvmInstruction constant(int value){
+        return new JvmInstruction(Opcode.ICONST, value, 0, null, null, null, null);
+    }
+
+    public static JvmInstruction local(Opcode opcode, int index){
+        return new JvmInstruction(opcode, index, 0, null, null, null, null);
+    }
+
+    public static JvmInstruction iinc(int index, int increment){
+        return new JvmInstruction(Opcode.IINC, index, increment, null, null, null, null);
+    }
+
+    public static JvmInstruction jump(Opcode opcode, String label){
+        return new JvmInstruction(opcode, 0, 0, label, null, null, null);
+    }
+
+    public static JvmInstruction label(String label){
+        return new JvmInstruction(Opcode.LABEL, 0, 0, label, null, null, null);
+    }
+
+    public static JvmInstruction member(Opcode opcode, String owner, String name, String descriptor){
+        return new JvmInstruction(opcode, 0, 0, null, owner, name, descriptor);
+    }
+
+    public static JvmInstruction type(Opcode opcode, String className){
+        return new JvmInstruction(opcode, 0, 0, null, className, null, null);
+    }
+
+    public static JvmInstruction newIntArray(){
+        return new JvmInstruction(Opcode.NEWARRAY, 10, 0, null, null, null, null);
+    }
+
+    public Opcode getOpcode() {
+        return opcode;
+    }
+
+    /**
+     * The local variable index, the constant value or the array type of newarray.
+     */
+    public int getOperand() {
+        return operand;
+    }
+
+    public int getIncrement() {
+        return increment;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescriptor() {
+        return descriptor;
+    }
+
+    public boolean isLabel(){
+        return opcode==Opcode.LABEL;
+    }
+
+    public int getStackDelta(){
+        return switch (opcode.getKind()) {
+            case FIELD -> fieldStackDelta();
+            case METHOD -> methodStackDelta();
+            default -> opcode.getStackDelta();
+        };
+    }
+
+    private int fieldStackDelta(){
+        int size = Descriptors.slotSize(descriptor);
+        return switch (opcode) {
+            case GETSTATIC -> size;
+            case PUTSTATIC -> -size;
+            case GETFIELD -> size - 1;
+            default -> -size - 1;
+        };
+    }
+
+    private int methodStackDelta(){
+        int delta = Descriptors.returnSlotSize(descriptor) - Descriptors.argumentSlots(descriptor);
+        return opcode==Opcode.INVOKESTATIC ? delta : delta - 1;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof JvmInstruction that)) return false;
+        return operand == that.operand && increment == that.increment && opcode == that.opcode
+                && Objects.equals(label, that.label) && Objects.equals(owner, that.owner)
+                && Objects.equals(name, that.name) && Objects.equals(descriptor, that.descriptor);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(opcode, operand, increment, label, owner, name, descriptor);
+    }
+
+    @Override
+    public String toString() {
+        return JasminPrinter.instructionToString(this);
+    }
+}
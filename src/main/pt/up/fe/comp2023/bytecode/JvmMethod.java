@@ -0,0 +1,74 @@
+package pt.up.fe.comp2023.bytecode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class JvmMethod {
+    private final int access;
+    private final String name;
+    private final String descriptor;
+    private final List<JvmInstruction> instructions;
+    private int maxLocals;
+    private int maxStack;
+    private Map<String, StackMapFrames.Frame> frames = new HashMap<>();
+
+    public JvmMethod(int access, String name, String descriptor){
+        this.access = access;
+        this.name = name;
+        this.descriptor = descriptor;
+        this.instructions = new ArrayList<>();
+    }
+
+    public int getAccess() {
+        return access;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescriptor() {
+        return descriptor;
+    }
+
+    public boolean isStatic(){
+        return (access & JvmClass.ACC_STATIC)!=0;
+    }
+
+    public List<JvmInstruction> getInstructions() {
+        return instructions;
+    }
+
+    public void addInstruction(JvmInstruction instruction){
+        instructions.add(instruction);
+    }
+
+    public int getMaxLocals() {
+        return maxLocals;
+    }
+
+    public void setMaxLocals(int maxLocals) {
+        this.maxLocals = maxLocals;
+    }
+
+    public int getMaxStack() {
+        return maxStack;
+    }
+
+    public void setMaxStack(int maxStack) {
+        this.maxStack = maxStack;
+    }
+
+    /**
+     * Frames of the places that are jumped to, by the label written last before each of them.
+     */
+    public Map<String, StackMapFrames.Frame> getFrames() {
+        return frames;
+    }
+
+    public void setFrames(Map<String, StackMapFrames.Frame> frames) {
+        this.frames = frames;
+    }
+}
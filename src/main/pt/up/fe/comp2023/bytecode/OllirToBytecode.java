@@ -0,0 +1,486 @@
+package pt.up.fe.comp2023.bytecode;
+
+import org.specs.comp.ollir.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.specs.comp.ollir.ElementType.*;
+
+/**
+ * Translates an OLLIR class into the instruction list of each method, ready to be written as a class file.
+ */
+public class OllirToBytecode {
+    private ClassUnit classUnit;
+    private String className;
+    private int conditionNumber = 0;
+    private final boolean peephole;
+
+    public OllirToBytecode(){
+        this(false);
+    }
+
+    /**
+     * With peephole, the instructions of each method go through the {@link PeepholeOptimizer}.
+     */
+    public OllirToBytecode(boolean peephole){
+        this.peephole = peephole;
+    }
+
+    public JvmClass visit(ClassUnit classUnit){
+        this.classUnit = classUnit;
+        this.className = classUnit.getClassName();
+        this.conditionNumber = 0;
+
+        JvmClass jvmClass = new JvmClass(JvmClass.ACC_PUBLIC | JvmClass.ACC_SUPER, className, getSuperName());
+        for(Field field:classUnit.getFields())
+            jvmClass.addField(new JvmField(getFieldAccess(field.getFieldAccessModifier()), field.getFieldName(), getDescriptor(field.getFieldType())));
+        for(Method method:classUnit.getMethods())
+            jvmClass.addMethod(visitMethod(method));
+        return jvmClass;
+    }
+
+    private String getSuperName(){
+        if(classUnit.getSuperClass()==null)
+            return "java/lang/Object";
+        return getInternalName(classUnit.getSuperClass());
+    }
+
+    /**
+     * Full name of a class as used in the class file, using the imports to find its package.
+     */
+    public String getInternalName(String simpleName){
+        if(simpleName.equals(className) || simpleName.equals("this"))
+            return className;
+        for(String imported:classUnit.getImports()){
+            if(imported.equals(simpleName) || imported.endsWith("." + simpleName))
+                return imported.replace('.', '/');
+        }
+        return simpleName.replace('.', '/');
+    }
+
+    private int getFieldAccess(AccessModifiers modifier){
+        return switch (modifier) {
+            case PUBLIC -> JvmClass.ACC_PUBLIC;
+            case PROTECTED -> JvmClass.ACC_PROTECTED;
+            default -> JvmClass.ACC_PRIVATE;
+        };
+    }
+
+    private int getMethodAccess(Method method){
+        int access = switch (method.getMethodAccessModifier()) {
+            case PRIVATE -> JvmClass.ACC_PRIVATE;
+            case PROTECTED -> JvmClass.ACC_PROTECTED;
+            default -> JvmClass.ACC_PUBLIC;
+        };
+        if(method.isStaticMethod())
+            access |= JvmClass.ACC_STATIC;
+        if(method.isFinalMethod())
+            access |= JvmClass.ACC_FINAL;
+        return access;
+    }
+
+    public String getDescriptor(Type type){
+        return switch (type.getTypeOfElement()) {
+            case INT32 -> "I";
+            case BOOLEAN -> "Z";
+            case VOID -> "V";
+            case STRING -> "Ljava/lang/String;";
+            case ARRAYREF -> "[" + getDescriptor(((ArrayType) type).getElementType());
+            case OBJECTREF, CLASS -> "L" + getInternalName(((ClassType) type).getName()) + ";";
+            case THIS -> "L" + className + ";";
+        };
+    }
+
+    private String getMethodDescriptor(List<Element> params, Type returnType){
+        StringBuilder descriptor = new StringBuilder("(");
+        for(Element param:params)
+            descriptor.append(getDescriptor(param.getType()));
+        return descriptor.append(")").append(getDescriptor(returnType)).toString();
+    }
+
+    public JvmMethod visitMethod(Method method){
+        if(method.isConstructMethod()){
+            JvmMethod constructor = new JvmMethod(JvmClass.ACC_PUBLIC, "<init>", "()V");
+            constructor.addInstruction(JvmInstruction.local(Opcode.ALOAD, 0));
+            constructor.addInstruction(JvmInstruction.member(Opcode.INVOKESPECIAL, getSuperName(), "<init>", "()V"));
+            constructor.addInstruction(JvmInstruction.of(Opcode.RETURN));
+            constructor.setMaxLocals(1);
+            constructor.setMaxStack(StackSimulator.maxStack(constructor));
+            return constructor;
+        }
+
+        JvmMethod jvmMethod = new JvmMethod(getMethodAccess(method), method.getMethodName(), getMethodDescriptor(method.getParams(), method.getReturnType()));
+        HashMap<String, Descriptor> varTable = method.getVarTable();
+        for(Instruction instruction:method.getInstructions()){
+            for(String label:method.getLabels(instruction))
+                jvmMethod.addInstruction(JvmInstruction.label(label));
+            visitInstruction(jvmMethod, instruction, varTable);
+        }
+        List<JvmInstruction> instructions = jvmMethod.getInstructions();
+        if(method.getReturnType().getTypeOfElement()==VOID && (instructions.isEmpty() || !instructions.get(instructions.size() - 1).getOpcode().endsBlock()))
+            jvmMethod.addInstruction(JvmInstruction.of(Opcode.RETURN));
+        if(peephole)
+            PeepholeOptimizer.optimize(jvmMethod);
+
+        jvmMethod.setMaxLocals(calculateMaxLocals(method, jvmMethod));
+        jvmMethod.setMaxStack(StackSimulator.maxStack(jvmMethod));
+        jvmMethod.setFrames(StackMapFrames.compute(className, jvmMethod, getRegisterTypes(method)));
+        return jvmMethod;
+    }
+
+    /**
+     * Descriptor of the variables of each register, leaving out the registers shared by variables of different types.
+     */
+    private Map<Integer, String> getRegisterTypes(Method method){
+        Map<Integer, String> types = new HashMap<>();
+        Set<Integer> shared = new HashSet<>();
+        for(Descriptor descriptor:method.getVarTable().values()){
+            int register = descriptor.getVirtualReg();
+            String type = getDescriptor(descriptor.getVarType());
+            String previous = types.putIfAbsent(register, type);
+            if(previous!=null && !previous.equals(type))
+                shared.add(register);
+        }
+        types.keySet().removeAll(shared);
+        return types;
+    }
+
+    private int calculateMaxLocals(Method method, JvmMethod jvmMethod){
+        int maxLocals = method.isStaticMethod() ? 0 : 1;
+        for(Element param:method.getParams())
+            maxLocals += Descriptors.slotSize(getDescriptor(param.getType()));
+        for(Descriptor descriptor:method.getVarTable().values())
+            maxLocals = Math.max(maxLocals, descriptor.getVirtualReg() + 1);
+        for(JvmInstruction instruction:jvmMethod.getInstructions()){
+            Opcode.Kind kind = instruction.getOpcode().getKind();
+            if(kind==Opcode.Kind.LOCAL || kind==Opcode.Kind.IINC)
+                maxLocals = Math.max(maxLocals, instruction.getOperand() + 1);
+        }
+        return maxLocals;
+    }
+
+    private void visitInstruction(JvmMethod method, Instruction instruction, HashMap<String, Descriptor> varTable){
+        switch (instruction.getInstType()) {
+            case ASSIGN -> visitAssign(method, (AssignInstruction) instruction, varTable);
+            case CALL -> {
+                CallInstruction call = (CallInstruction) instruction;
+                visitCall(method, call, varTable);
+                if(call.getReturnType().getTypeOfElement()!=VOID)
+                    method.addInstruction(JvmInstruction.of(Opcode.POP));
+            }
+            case GOTO -> method.addInstruction(JvmInstruction.jump(Opcode.GOTO, ((GotoInstruction) instruction).getLabel()));
+            case BRANCH -> visitCondBranch(method, (CondBranchInstruction) instruction, varTable);
+            case RETURN -> visitReturn(method, (ReturnInstruction) instruction, varTable);
+            case PUTFIELD -> visitPutField(method, (PutFieldInstruction) instruction, varTable);
+            default -> {
+                visitValue(method, instruction, varTable);
+                method.addInstruction(JvmInstruction.of(Opcode.POP));
+            }
+        }
+    }
+
+    private void visitAssign(JvmMethod method, AssignInstruction assign, HashMap<String, Descriptor> varTable){
+        Operand dest = (Operand) assign.getDest();
+        if(dest instanceof ArrayOperand arrayDest){
+            method.addInstruction(JvmInstruction.local(Opcode.ALOAD, getRegister(arrayDest, varTable)));
+            loadElement(method, arrayDest.getIndexOperands().get(0), varTable);
+            visitValue(method, assign.getRhs(), varTable);
+            method.addInstruction(JvmInstruction.of(Opcode.IASTORE));
+            return;
+        }
+
+        int register = getRegister(dest, varTable);
+        if(isIncrement(assign, dest, varTable)){
+            BinaryOpInstruction operation = (BinaryOpInstruction) assign.getRhs();
+            method.addInstruction(JvmInstruction.iinc(register, getIncrement(operation)));
+            return;
+        }
+        visitValue(method, assign.getRhs(), varTable);
+        method.addInstruction(JvmInstruction.local(isReference(dest.getType()) ? Opcode.ASTORE : Opcode.ISTORE, register));
+    }
+
+    private boolean isIncrement(AssignInstruction assign, Operand dest, HashMap<String, Descriptor> varTable){
+        if(!(assign.getRhs() instanceof BinaryOpInstruction operation) || dest.getType().getTypeOfElement()!=INT32)
+            return false;
+        OperationType opType = operation.getOperation().getOpType();
+        if(opType!=OperationType.ADD && opType!=OperationType.SUB)
+            return false;
+        Element left = operation.getLeftOperand();
+        Element right = operation.getRightOperand();
+        boolean rightIsIncrement = isSameVariable(left, dest, varTable) && right.isLiteral();
+        boolean leftIsIncrement = opType==OperationType.ADD && isSameVariable(right, dest, varTable) && left.isLiteral();
+        if(!rightIsIncrement && !leftIsIncrement)
+            return false;
+        int increment = getIncrement(operation);
+        return increment>=Byte.MIN_VALUE && increment<=Byte.MAX_VALUE;
+    }
+
+    private boolean isSameVariable(Element element, Operand dest, HashMap<String, Descriptor> varTable){
+        if(!(element instanceof Operand operand) || operand instanceof ArrayOperand)
+            return false;
+        //variables renamed apart can share a register
+        Descriptor descriptor = varTable.get(operand.getName());
+        Descriptor destDescriptor = varTable.get(dest.getName());
+        if(descriptor==null || destDescriptor==null)
+            return operand.getName().equals(dest.getName());
+        return descriptor.getVirtualReg()==destDescriptor.getVirtualReg();
+    }
+
+    private int getIncrement(BinaryOpInstruction operation){
+        Element literal = operation.getRightOperand().isLiteral() ? operation.getRightOperand() : operation.getLeftOperand();
+        int value = Integer.parseInt(((LiteralElement) literal).getLiteral());
+        return operation.getOperation().getOpType()==OperationType.SUB ? -value : value;
+    }
+
+    /**
+     * Pushes the value of an instruction used as the right side of an assignment.
+     */
+    private void visitValue(JvmMethod method, Instruction instruction, HashMap<String, Descriptor> varTable){
+        switch (instruction.getInstType()) {
+            case NOPER -> loadElement(method, ((SingleOpInstruction) instruction).getSingleOperand(), varTable);
+            case BINARYOPER -> visitBinaryOp(method, (BinaryOpInstruction) instruction, varTable);
+            case UNARYOPER -> visitUnaryOp(method, (UnaryOpInstruction) instruction, varTable);
+            case CALL -> visitCall(method, (CallInstruction) instruction, varTable);
+            case GETFIELD -> visitGetField(method, (GetFieldInstruction) instruction, varTable);
+            default -> throw new RuntimeException("Unsupported instruction in an expression: " + instruction.getInstType());
+        }
+    }
+
+    private void visitBinaryOp(JvmMethod method, BinaryOpInstruction operation, HashMap<String, Descriptor> varTable){
+        OperationType opType = operation.getOperation().getOpType();
+        Opcode arithmetic = getArithmeticOpcode(opType);
+        if(arithmetic!=null){
+            loadElement(method, operation.getLeftOperand(), varTable);
+            loadElement(method, operation.getRightOperand(), varTable);
+            method.addInstruction(JvmInstruction.of(arithmetic));
+            return;
+        }
+
+        String trueLabel = "LABEL" + conditionNumber;
+        String endLabel = "SKIP" + conditionNumber;
+        conditionNumber++;
+        visitComparison(method, operation, trueLabel, varTable);
+        method.addInstruction(JvmInstruction.constant(0));
+        method.addInstruction(JvmInstruction.jump(Opcode.GOTO, endLabel));
+        method.addInstruction(JvmInstruction.label(trueLabel));
+        method.addInstruction(JvmInstruction.constant(1));
+        method.addInstruction(JvmInstruction.label(endLabel));
+    }
+
+    private Opcode getArithmeticOpcode(OperationType opType){
+        return switch (opType) {
+            case ADD -> Opcode.IADD;
+            case SUB -> Opcode.ISUB;
+            case MUL -> Opcode.IMUL;
+            case DIV -> Opcode.IDIV;
+            case SHL -> Opcode.ISHL;
+            case SHR -> Opcode.ISHR;
+            case SHRR -> Opcode.IUSHR;
+            case AND, ANDB -> Opcode.IAND;
+            case OR, ORB -> Opcode.IOR;
+            case XOR -> Opcode.IXOR;
+            default -> null;
+        };
+    }
+
+    /**
+     * Jumps to the label when the comparison holds, comparisons with zero use the single operand jumps.
+     */
+    private void visitComparison(JvmMethod method, BinaryOpInstruction operation, String label, HashMap<String, Descriptor> varTable){
+        OperationType opType = operation.getOperation().getOpType();
+        Element left = operation.getLeftOperand();
+        Element right = operation.getRightOperand();
+        if(isZero(right)){
+            loadElement(method, left, varTable);
+            method.addInstruction(JvmInstruction.jump(getZeroJump(opType), label));
+        } else if(isZero(left)){
+            loadElement(method, right, varTable);
+            method.addInstruction(JvmInstruction.jump(getZeroJump(swap(opType)), label));
+        } else {
+            loadElement(method, left, varTable);
+            loadElement(method, right, varTable);
+            method.addInstruction(JvmInstruction.jump(getCompareJump(opType), label));
+        }
+    }
+
+    private boolean isZero(Element element){
+        return element.isLiteral() && ((LiteralElement) element).getLiteral().equals("0");
+    }
+
+    private OperationType swap(OperationType opType){
+        return switch (opType) {
+            case LTH -> OperationType.GTH;
+            case GTH -> OperationType.LTH;
+            case LTE -> OperationType.GTE;
+            case GTE -> OperationType.LTE;
+            default -> opType;
+        };
+    }
+
+    private Opcode getZeroJump(OperationType opType){
+        return switch (opType) {
+            case LTH -> Opcode.IFLT;
+            case GTH -> Opcode.IFGT;
+            case LTE -> Opcode.IFLE;
+            case GTE -> Opcode.IFGE;
+            case EQ -> Opcode.IFEQ;
+            case NEQ -> Opcode.IFNE;
+            default -> throw new RuntimeException("Unsupported comparison: " + opType);
+        };
+    }
+
+    private Opcode getCompareJump(OperationType opType){
+        return switch (opType) {
+            case LTH -> Opcode.IF_ICMPLT;
+            case GTH -> Opcode.IF_ICMPGT;
+            case LTE -> Opcode.IF_ICMPLE;
+            case GTE -> Opcode.IF_ICMPGE;
+            case EQ -> Opcode.IF_ICMPEQ;
+            case NEQ -> Opcode.IF_ICMPNE;
+            default -> throw new RuntimeException("Unsupported comparison: " + opType);
+        };
+    }
+
+    private void visitUnaryOp(JvmMethod method, UnaryOpInstruction operation, HashMap<String, Descriptor> varTable){
+        loadElement(method, operation.getOperand(), varTable);
+        switch (operation.getOperation().getOpType()) {
+            case NOTB, NOT -> {
+                method.addInstruction(JvmInstruction.constant(1));
+                method.addInstruction(JvmInstruction.of(Opcode.IXOR));
+            }
+            case SUB -> method.addInstruction(JvmInstruction.of(Opcode.INEG));
+            default -> throw new RuntimeException("Unsupported unary operation: " + operation.getOperation().getOpType());
+        }
+    }
+
+    private void visitCondBranch(JvmMethod method, CondBranchInstruction branch, HashMap<String, Descriptor> varTable){
+        Instruction condition = branch.getCondition();
+        String label = branch.getLabel();
+        if(condition instanceof BinaryOpInstruction operation && getArithmeticOpcode(operation.getOperation().getOpType())==null){
+            visitComparison(method, operation, label, varTable);
+        } else if(condition instanceof UnaryOpInstruction operation && operation.getOperation().getOpType()==OperationType.NOTB){
+            loadElement(method, operation.getOperand(), varTable);
+            method.addInstruction(JvmInstruction.jump(Opcode.IFEQ, label));
+        } else if(condition instanceof SingleOpInstruction single && single.getSingleOperand().isLiteral()){
+            if(!isZero(single.getSingleOperand()))
+                method.addInstruction(JvmInstruction.jump(Opcode.GOTO, label));
+        } else {
+            visitValue(method, condition, varTable);
+            method.addInstruction(JvmInstruction.jump(Opcode.IFNE, label));
+        }
+    }
+
+    private void visitReturn(JvmMethod method, ReturnInstruction returnInstruction, HashMap<String, Descriptor> varTable){
+        if(!returnInstruction.hasReturnValue()){
+            method.addInstruction(JvmInstruction.of(Opcode.RETURN));
+            return;
+        }
+        Element operand = returnInstruction.getOperand();
+        loadElement(method, operand, varTable);
+        method.addInstruction(JvmInstruction.of(isReference(operand.getType()) ? Opcode.ARETURN : Opcode.IRETURN));
+    }
+
+    private void visitPutField(JvmMethod method, PutFieldInstruction putField, HashMap<String, Descriptor> varTable){
+        Element object = putField.getFirstOperand();
+        Operand field = (Operand) putField.getSecondOperand();
+        loadElement(method, object, varTable);
+        loadElement(method, putField.getThirdOperand(), varTable);
+        method.addInstruction(JvmInstruction.member(Opcode.PUTFIELD, getOwner(object), field.getName(), getDescriptor(field.getType())));
+    }
+
+    private void visitGetField(JvmMethod method, GetFieldInstruction getField, HashMap<String, Descriptor> varTable){
+        Element object = getField.getFirstOperand();
+        Operand field = (Operand) getField.getSecondOperand();
+        loadElement(method, object, varTable);
+        method.addInstruction(JvmInstruction.member(Opcode.GETFIELD, getOwner(object), field.getName(), getDescriptor(field.getType())));
+    }
+
+    private String getOwner(Element object){
+        Type type = object.getType();
+        if(type.getTypeOfElement()==THIS)
+            return className;
+        if(type instanceof ClassType classType)
+            return getInternalName(classType.getName());
+        return getInternalName(((Operand) object).getName());
+    }
+
+    private void visitCall(JvmMethod method, CallInstruction call, HashMap<String, Descriptor> varTable){
+        List<Element> operands = call.getListOfOperands()==null ? List.of() : call.getListOfOperands();
+        switch (call.getInvocationType()) {
+            case invokestatic -> {
+                for(Element operand:operands)
+                    loadElement(method, operand, varTable);
+                String owner = getInternalName(((Operand) call.getFirstArg()).getName());
+                method.addInstruction(JvmInstruction.member(Opcode.INVOKESTATIC, owner, getMethodName(call), getMethodDescriptor(operands, call.getReturnType())));
+            }
+            case invokevirtual -> {
+                loadElement(method, call.getFirstArg(), varTable);
+                for(Element operand:operands)
+                    loadElement(method, operand, varTable);
+                method.addInstruction(JvmInstruction.member(Opcode.INVOKEVIRTUAL, getOwner(call.getFirstArg()), getMethodName(call), getMethodDescriptor(operands, call.getReturnType())));
+            }
+            case invokespecial -> {
+                Element object = call.getFirstArg();
+                loadElement(method, object, varTable);
+                for(Element operand:operands)
+                    loadElement(method, operand, varTable);
+                String owner = object.getType().getTypeOfElement()==THIS ? getSuperName() : getOwner(object);
+                method.addInstruction(JvmInstruction.member(Opcode.INVOKESPECIAL, owner, getMethodName(call), getMethodDescriptor(operands, call.getReturnType())));
+            }
+            case NEW -> {
+                if(call.getReturnType().getTypeOfElement()==ARRAYREF){
+                    loadElement(method, operands.get(0), varTable);
+                    method.addInstruction(JvmInstruction.newIntArray());
+                } else {
+                    method.addInstruction(JvmInstruction.type(Opcode.NEW, getOwner(call.getFirstArg())));
+                }
+            }
+            case arraylength -> {
+                loadElement(method, call.getFirstArg(), varTable);
+                method.addInstruction(JvmInstruction.of(Opcode.ARRAYLENGTH));
+            }
+            default -> throw new RuntimeException("Unsupported call: " + call.getInvocationType());
+        }
+    }
+
+    private String getMethodName(CallInstruction call){
+        return ((LiteralElement) call.getSecondArg()).getLiteral().replace("\"", "");
+    }
+
+    private void loadElement(JvmMethod method, Element element, HashMap<String, Descriptor> varTable){
+        if(element.isLiteral()){
+            method.addInstruction(JvmInstruction.constant(Integer.parseInt(((LiteralElement) element).getLiteral())));
+            return;
+        }
+        Operand operand = (Operand) element;
+        if(operand instanceof ArrayOperand arrayOperand){
+            method.addInstruction(JvmInstruction.local(Opcode.ALOAD, getRegister(arrayOperand, varTable)));
+            loadElement(method, arrayOperand.getIndexOperands().get(0), varTable);
+            method.addInstruction(JvmInstruction.of(Opcode.IALOAD));
+            return;
+        }
+        if(operand.getType().getTypeOfElement()==THIS){
+            method.addInstruction(JvmInstruction.local(Opcode.ALOAD, 0));
+            return;
+        }
+        method.addInstruction(JvmInstruction.local(isReference(operand.getType()) ? Opcode.ALOAD : Opcode.ILOAD, getRegister(operand, varTable)));
+    }
+
+    private int getRegister(Operand operand, HashMap<String, Descriptor> varTable){
+        Descriptor descriptor = varTable.get(operand.getName());
+        if(descriptor!=null)
+            return descriptor.getVirtualReg();
+        if(operand.isParameter())
+            return operand.getParamId();
+        throw new RuntimeException("Variable " + operand.getName() + " has no register");
+    }
+
+    private boolean isReference(Type type){
+        ElementType elementType = type.getTypeOfElement();
+        return elementType!=INT32 && elementType!=BOOLEAN;
+    }
+}
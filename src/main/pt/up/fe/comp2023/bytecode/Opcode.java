@@ -0,0 +1,120 @@
+package pt.up.fe.comp2023.bytecode;
+
+/**
+ * Instructions of the JVM used by the compiler. Loads, stores and integer constants are kept as a
+ * single instruction with an operand, the short forms (iload_1, iconst_2, bipush...) are only chosen
+ * when the instruction is printed or encoded.
+ */
+public enum Opcode {
+    ICONST(-1, "iconst", Kind.CONSTANT, 1),
+    ILOAD(21, "iload", Kind.LOCAL, 1),
+    ALOAD(25, "aload", Kind.LOCAL, 1),
+    ISTORE(54, "istore", Kind.LOCAL, -1),
+    ASTORE(58, "astore", Kind.LOCAL, -1),
+    IINC(132, "iinc", Kind.IINC, 0),
+    IALOAD(46, "iaload", Kind.NONE, -1),
+    AALOAD(50, "aaload", Kind.NONE, -1),
+    IASTORE(79, "iastore", Kind.NONE, -3),
+    POP(87, "pop", Kind.NONE, -1),
+    DUP(89, "dup", Kind.NONE, 1),
+    SWAP(95, "swap", Kind.NONE, 0),
+    IADD(96, "iadd", Kind.NONE, -1),
+    ISUB(100, "isub", Kind.NONE, -1),
+    IMUL(104, "imul", Kind.NONE, -1),
+    IDIV(108, "idiv", Kind.NONE, -1),
+    IREM(112, "irem", Kind.NONE, -1),
+    INEG(116, "ineg", Kind.NONE, 0),
+    ISHL(120, "ishl", Kind.NONE, -1),
+    ISHR(122, "ishr", Kind.NONE, -1),
+    IUSHR(124, "iushr", Kind.NONE, -1),
+    IAND(126, "iand", Kind.NONE, -1),
+    IOR(128, "ior", Kind.NONE, -1),
+    IXOR(130, "ixor", Kind.NONE, -1),
+    IFEQ(153, "ifeq", Kind.JUMP, -1),
+    IFNE(154, "ifne", Kind.JUMP, -1),
+    IFLT(155, "iflt", Kind.JUMP, -1),
+    IFGE(156, "ifge", Kind.JUMP, -1),
+    IFGT(157, "ifgt", Kind.JUMP, -1),
+    IFLE(158, "ifle", Kind.JUMP, -1),
+    IF_ICMPEQ(159, "if_icmpeq", Kind.JUMP, -2),
+    IF_ICMPNE(160, "if_icmpne", Kind.JUMP, -2),
+    IF_ICMPLT(161, "if_icmplt", Kind.JUMP, -2),
+    IF_ICMPGE(162, "if_icmpge", Kind.JUMP, -2),
+    IF_ICMPGT(163, "if_icmpgt", Kind.JUMP, -2),
+    IF_ICMPLE(164, "if_icmple", Kind.JUMP, -2),
+    IF_ACMPEQ(165, "if_acmpeq", Kind.JUMP, -2),
+    IF_ACMPNE(166, "if_acmpne", Kind.JUMP, -2),
+    GOTO(167, "goto", Kind.JUMP, 0),
+    IRETURN(172, "ireturn", Kind.NONE, -1),
+    ARETURN(176, "areturn", Kind.NONE, -1),
+    RETURN(177, "return", Kind.NONE, 0),
+    GETSTATIC(178, "getstatic", Kind.FIELD, 0),
+    PUTSTATIC(179, "putstatic", Kind.FIELD, 0),
+    GETFIELD(180, "getfield", Kind.FIELD, 0),
+    PUTFIELD(181, "putfield", Kind.FIELD, 0),
+    INVOKEVIRTUAL(182, "invokevirtual", Kind.METHOD, 0),
+    INVOKESPECIAL(183, "invokespecial", Kind.METHOD, 0),
+    INVOKESTATIC(184, "invokestatic", Kind.METHOD, 0),
+    NEW(187, "new", Kind.CLASS, 1),
+    NEWARRAY(188, "newarray", Kind.NEWARRAY, 0),
+    ARRAYLENGTH(190, "arraylength", Kind.NONE, 0),
+    LABEL(-1, "", Kind.LABEL, 0);
+
+    public enum Kind {
+        NONE, CONSTANT, LOCAL, IINC, JUMP, FIELD, METHOD, CLASS, NEWARRAY, LABEL
+    }
+
+    private final int code;
+    private final String mnemonic;
+    private final Kind kind;
+    private final int stackDelta;
+
+    Opcode(int code, String mnemonic, Kind kind, int stackDelta){
+        this.code = code;
+        this.mnemonic = mnemonic;
+        this.kind = kind;
+        this.stackDelta = stackDelta;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getMnemonic() {
+        return mnemonic;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Change in the stack height, for field and method instructions it depends on the descriptor.
+     */
+    public int getStackDelta() {
+        return stackDelta;
+    }
+
+    public boolean isConditionalJump(){
+        return kind==Kind.JUMP && this!=GOTO;
+    }
+
+    public boolean isReturn(){
+        return this==IRETURN || this==ARETURN || this==RETURN;
+    }
+
+    /**
+     * True when the next instruction is never executed after this one.
+     */
+    public boolean endsBlock(){
+        return this==GOTO || isReturn();
+    }
+
+    public static Opcode fromMnemonic(String mnemonic){
+        for(Opcode opcode:values()){
+            if(opcode.mnemonic.equals(mnemonic))
+                return opcode;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,447 @@
+package pt.up.fe.comp2023.bytecode;
+
+import java.util.*;
+
+/**
+ * Rewrites short sequences of instructions into cheaper ones. Each rule of the table looks at the instructions
+ * that start at a position and either rewrites them or leaves them as they are; the rules are tried at every
+ * position until a whole pass changes nothing. To add a rule, add it to {@link #RULES} or pass another table.
+ *
+ * The rules never make the operand stack higher than it was, so a maximum computed before still holds. The
+ * locals that are read later are found once per pass; the rewrites only remove reads, so a local that was not
+ * read after an instruction still is not.
+ */
+public class PeepholeOptimizer {
+    public static final int MAX_PASSES = 16;
+
+    public interface Rule {
+        /**
+         * Rewrites the instructions of the code that start at the index and returns true, or returns false.
+         */
+        boolean apply(Code code, int index);
+    }
+
+    public static final List<Rule> RULES = List.of(
+            PeepholeOptimizer::removeUnreachable,
+            PeepholeOptimizer::removeJumpToNext,
+            PeepholeOptimizer::invertJumpOverGoto,
+            PeepholeOptimizer::chainJumps,
+            PeepholeOptimizer::compareWithZero,
+            PeepholeOptimizer::jumpOnCondition,
+            PeepholeOptimizer::jumpOnNegation,
+            PeepholeOptimizer::removeStoreLoad,
+            PeepholeOptimizer::removeDeadStore,
+            PeepholeOptimizer::removePushPop,
+            PeepholeOptimizer::removeUnusedLabel
+    );
+
+    private PeepholeOptimizer(){
+    }
+
+    public static boolean optimize(JvmMethod method){
+        return optimize(method.getInstructions(), RULES);
+    }
+
+    public static boolean optimize(List<JvmInstruction> instructions){
+        return optimize(instructions, RULES);
+    }
+
+    /**
+     * Returns true when an instruction was rewritten.
+     */
+    public static boolean optimize(List<JvmInstruction> instructions, List<Rule> rules){
+        boolean changed = false;
+        for(int pass=0;pass<MAX_PASSES;pass++){
+            Code code = new Code(instructions);
+            boolean passChanged = false;
+            for(int index=0;index<code.size();index++){
+                for(Rule rule:rules){
+                    if(index<code.size() && rule.apply(code, index))
+                        passChanged = true;
+                }
+            }
+            if(!passChanged)
+                break;
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * The instructions being rewritten, with the number of jumps to each label and the locals read after each
+     * instruction.
+     */
+    public static class Code {
+        private final List<JvmInstruction> instructions;
+        private final Map<String,Integer> labelUses = new HashMap<>();
+        private final Map<JvmInstruction,BitSet> liveOut = new IdentityHashMap<>();
+        private Map<String,Integer> labelPositions;
+
+        private Code(List<JvmInstruction> instructions){
+            this.instructions = instructions;
+            for(JvmInstruction instruction:instructions){
+                if(instruction.getOpcode().getKind()==Opcode.Kind.JUMP)
+                    labelUses.merge(instruction.getLabel(), 1, Integer::sum);
+            }
+            computeLiveness();
+        }
+
+        public int size(){
+            return instructions.size();
+        }
+
+        /**
+         * The instruction at the index, or null past the end.
+         */
+        public JvmInstruction get(int index){
+            return index>=0 && index<instructions.size() ? instructions.get(index) : null;
+        }
+
+        public Opcode getOpcode(int index){
+            JvmInstruction instruction = get(index);
+            return instruction==null ? null : instruction.getOpcode();
+        }
+
+        public int getLabelUses(String label){
+            return labelUses.getOrDefault(label, 0);
+        }
+
+        /**
+         * Position of the label, or -1 when the code does not have it.
+         */
+        public int findLabel(String label){
+            if(labelPositions==null){
+                labelPositions = new HashMap<>();
+                for(int i=0;i<instructions.size();i++){
+                    if(instructions.get(i).isLabel())
+                        labelPositions.put(instructions.get(i).getLabel(), i);
+                }
+            }
+            return labelPositions.getOrDefault(label, -1);
+        }
+
+        /**
+         * Position of the first instruction from the index on that is not a label.
+         */
+        public int skipLabels(int index){
+            while(index<instructions.size() && instructions.get(index).isLabel())
+                index++;
+            return index;
+        }
+
+        /**
+         * False only when the local is not read before being written again on every path after the
+         * instruction at the index.
+         */
+        public boolean isLiveAfter(int index, int local){
+            BitSet live = liveOut.get(get(index));
+            return live==null || live.get(local);
+        }
+
+        /**
+         * Replaces the given number of instructions from the index by the replacement.
+         */
+        public void replace(int index, int count, JvmInstruction... replacement){
+            List<JvmInstruction> removed = instructions.subList(index, index + count);
+            for(JvmInstruction instruction:removed){
+                if(instruction.getOpcode().getKind()==Opcode.Kind.JUMP)
+                    labelUses.merge(instruction.getLabel(), -1, Integer::sum);
+            }
+            removed.clear();
+            instructions.addAll(index, Arrays.asList(replacement));
+            for(JvmInstruction instruction:replacement){
+                if(instruction.getOpcode().getKind()==Opcode.Kind.JUMP)
+                    labelUses.merge(instruction.getLabel(), 1, Integer::sum);
+            }
+            labelPositions = null;
+        }
+
+        private void computeLiveness(){
+            int size = instructions.size();
+            List<int[]> successors = new ArrayList<>();
+            for(int i=0;i<size;i++){
+                JvmInstruction instruction = instructions.get(i);
+                Opcode opcode = instruction.getOpcode();
+                int next = !opcode.endsBlock() && i + 1<size ? i + 1 : -1;
+                int target = -1;
+                if(opcode.getKind()==Opcode.Kind.JUMP){
+                    target = findLabel(instruction.getLabel());
+                    //a jump to a label the code does not have leaves every local live
+                    if(target<0)
+                        return;
+                }
+                successors.add(next>=0 && target>=0 ? new int[]{next, target} : next>=0 ? new int[]{next} : target>=0 ? new int[]{target} : new int[0]);
+            }
+
+            BitSet[] liveIn = new BitSet[size];
+            BitSet[] out = new BitSet[size];
+            for(int i=0;i<size;i++){
+                liveIn[i] = new BitSet();
+                out[i] = new BitSet();
+            }
+            boolean changed = true;
+            while(changed){
+                changed = false;
+                for(int i=size - 1;i>=0;i--){
+                    BitSet live = new BitSet();
+                    for(int successor:successors.get(i))
+                        live.or(liveIn[successor]);
+                    out[i] = live;
+                    BitSet in = (BitSet) live.clone();
+                    JvmInstruction instruction = instructions.get(i);
+                    switch(instruction.getOpcode()){
+                        case ISTORE, ASTORE -> in.clear(instruction.getOperand());
+                        case ILOAD, ALOAD, IINC -> in.set(instruction.getOperand());
+                        default -> {
+                            //does not use the locals
+                        }
+                    }
+                    if(!in.equals(liveIn[i])){
+                        liveIn[i] = in;
+                        changed = true;
+                    }
+                }
+            }
+            for(int i=0;i<size;i++)
+                liveOut.put(instructions.get(i), out[i]);
+        }
+    }
+
+    /**
+     * Instructions after a goto or a return that no jump reaches.
+     */
+    private static boolean removeUnreachable(Code code, int index){
+        Opcode previous = code.getOpcode(index - 1);
+        if(previous==null || !previous.endsBlock() || code.get(index).isLabel())
+            return false;
+        code.replace(index, 1);
+        return true;
+    }
+
+    /**
+     * goto L; L: becomes L:
+     */
+    private static boolean removeJumpToNext(Code code, int index){
+        if(code.getOpcode(index)!=Opcode.GOTO)
+            return false;
+        String label = code.get(index).getLabel();
+        for(int i=index + 1;i<code.size() && code.get(i).isLabel();i++){
+            if(code.get(i).getLabel().equals(label)){
+                code.replace(index, 1);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * if_x L1; goto L2; L1: becomes if_not_x L2; L1:
+     */
+    private static boolean invertJumpOverGoto(Code code, int index){
+        Opcode opcode = code.getOpcode(index);
+        if(opcode==null || !opcode.isConditionalJump() || code.getOpcode(index + 1)!=Opcode.GOTO)
+            return false;
+        JvmInstruction next = code.get(index + 2);
+        if(next==null || !next.isLabel() || !next.getLabel().equals(code.get(index).getLabel()))
+            return false;
+        code.replace(index, 2, JvmInstruction.jump(negate(opcode), code.get(index + 1).getLabel()));
+        return true;
+    }
+
+    /**
+     * A jump to a goto jumps to where the goto goes, and a goto to a return returns.
+     */
+    private static boolean chainJumps(Code code, int index){
+        JvmInstruction jump = code.get(index);
+        if(jump.getOpcode().getKind()!=Opcode.Kind.JUMP)
+            return false;
+        int position = code.findLabel(jump.getLabel());
+        if(position<0)
+            return false;
+        JvmInstruction target = code.get(code.skipLabels(position));
+        if(target==null)
+            return false;
+        if(target.getOpcode()==Opcode.GOTO && !target.getLabel().equals(jump.getLabel()) && target!=jump){
+            code.replace(index, 1, JvmInstruction.jump(jump.getOpcode(), target.getLabel()));
+            return true;
+        }
+        if(jump.getOpcode()==Opcode.GOTO && target.getOpcode().isReturn()){
+            code.replace(index, 1, JvmInstruction.of(target.getOpcode()));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * iconst_0; if_icmp_x L becomes if_x L, and iconst_0; load; if_icmp_x L becomes load; if_swapped_x L.
+     */
+    private static boolean compareWithZero(Code code, int index){
+        if(!isConstant(code.get(index), 0))
+            return false;
+        Opcode next = code.getOpcode(index + 1);
+        if(next!=null && isIntComparison(next)){
+            code.replace(index, 2, JvmInstruction.jump(toZeroJump(next), code.get(index + 1).getLabel()));
+            return true;
+        }
+        Opcode jump = code.getOpcode(index + 2);
+        if(isPush(code.get(index + 1)) && jump!=null && isIntComparison(jump)){
+            code.replace(index, 3, code.get(index + 1), JvmInstruction.jump(toZeroJump(swap(jump)), code.get(index + 2).getLabel()));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * if_x T; iconst_0; goto E; T: iconst_1; E: ifne L (the boolean of a comparison used by a branch) becomes
+     * if_x L, and if_not_x L when it ends with ifeq.
+     */
+    private static boolean jumpOnCondition(Code code, int index){
+        Opcode opcode = code.getOpcode(index);
+        if(opcode==null || !opcode.isConditionalJump() || !isConstant(code.get(index + 1), 0) || code.getOpcode(index + 2)!=Opcode.GOTO)
+            return false;
+        String trueLabel = code.get(index).getLabel();
+        String endLabel = code.get(index + 2).getLabel();
+        JvmInstruction trueMarker = code.get(index + 3);
+        JvmInstruction endMarker = code.get(index + 5);
+        Opcode branch = code.getOpcode(index + 6);
+        if(trueMarker==null || !trueMarker.isLabel() || !trueMarker.getLabel().equals(trueLabel) || !isConstant(code.get(index + 4), 1)
+                || endMarker==null || !endMarker.isLabel() || !endMarker.getLabel().equals(endLabel)
+                || (branch!=Opcode.IFNE && branch!=Opcode.IFEQ))
+            return false;
+        if(code.getLabelUses(trueLabel)!=1 || code.getLabelUses(endLabel)!=1)
+            return false;
+        Opcode condition = branch==Opcode.IFNE ? opcode : negate(opcode);
+        code.replace(index, 7, JvmInstruction.jump(condition, code.get(index + 6).getLabel()));
+        return true;
+    }
+
+    /**
+     * iconst_1; ixor; ifne L (a negated boolean used by a branch) becomes ifeq L, and the other way around.
+     */
+    private static boolean jumpOnNegation(Code code, int index){
+        if(!isConstant(code.get(index), 1) || code.getOpcode(index + 1)!=Opcode.IXOR)
+            return false;
+        Opcode branch = code.getOpcode(index + 2);
+        if(branch!=Opcode.IFNE && branch!=Opcode.IFEQ)
+            return false;
+        code.replace(index, 3, JvmInstruction.jump(negate(branch), code.get(index + 2).getLabel()));
+        return true;
+    }
+
+    /**
+     * istore n; iload n leaves the value on the stack, so both go when n is not read afterwards.
+     */
+    private static boolean removeStoreLoad(Code code, int index){
+        JvmInstruction store = code.get(index);
+        JvmInstruction load = code.get(index + 1);
+        if(load==null || load.getOperand()!=store.getOperand())
+            return false;
+        boolean matches = (store.getOpcode()==Opcode.ISTORE && load.getOpcode()==Opcode.ILOAD)
+                || (store.getOpcode()==Opcode.ASTORE && load.getOpcode()==Opcode.ALOAD);
+        if(!matches || code.isLiveAfter(index + 1, store.getOperand()))
+            return false;
+        code.replace(index, 2);
+        return true;
+    }
+
+    /**
+     * A store to a local that is not read afterwards only pops the value.
+     */
+    private static boolean removeDeadStore(Code code, int index){
+        JvmInstruction store = code.get(index);
+        if((store.getOpcode()!=Opcode.ISTORE && store.getOpcode()!=Opcode.ASTORE) || code.isLiveAfter(index, store.getOperand()))
+            return false;
+        code.replace(index, 1, JvmInstruction.of(Opcode.POP));
+        return true;
+    }
+
+    /**
+     * A value pushed without side effects and popped right away.
+     */
+    private static boolean removePushPop(Code code, int index){
+        if(code.getOpcode(index + 1)!=Opcode.POP || !(isPush(code.get(index)) || code.getOpcode(index)==Opcode.DUP))
+            return false;
+        code.replace(index, 2);
+        return true;
+    }
+
+    private static boolean removeUnusedLabel(Code code, int index){
+        JvmInstruction label = code.get(index);
+        if(!label.isLabel() || code.getLabelUses(label.getLabel())>0)
+            return false;
+        code.replace(index, 1);
+        return true;
+    }
+
+    private static boolean isConstant(JvmInstruction instruction, int value){
+        return instruction!=null && instruction.getOpcode()==Opcode.ICONST && instruction.getOperand()==value;
+    }
+
+    /**
+     * Pushes one value and reads nothing from the stack.
+     */
+    private static boolean isPush(JvmInstruction instruction){
+        if(instruction==null)
+            return false;
+        Opcode opcode = instruction.getOpcode();
+        return opcode==Opcode.ICONST || opcode==Opcode.ILOAD || opcode==Opcode.ALOAD;
+    }
+
+    private static boolean isIntComparison(Opcode opcode){
+        return switch(opcode){
+            case IF_ICMPEQ, IF_ICMPNE, IF_ICMPLT, IF_ICMPGE, IF_ICMPGT, IF_ICMPLE -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * The jump taken when the one given is not.
+     */
+    private static Opcode negate(Opcode opcode){
+        return switch(opcode){
+            case IFEQ -> Opcode.IFNE;
+            case IFNE -> Opcode.IFEQ;
+            case IFLT -> Opcode.IFGE;
+            case IFGE -> Opcode.IFLT;
+            case IFGT -> Opcode.IFLE;
+            case IFLE -> Opcode.IFGT;
+            case IF_ICMPEQ -> Opcode.IF_ICMPNE;
+            case IF_ICMPNE -> Opcode.IF_ICMPEQ;
+            case IF_ICMPLT -> Opcode.IF_ICMPGE;
+            case IF_ICMPGE -> Opcode.IF_ICMPLT;
+            case IF_ICMPGT -> Opcode.IF_ICMPLE;
+            case IF_ICMPLE -> Opcode.IF_ICMPGT;
+            case IF_ACMPEQ -> Opcode.IF_ACMPNE;
+            case IF_ACMPNE -> Opcode.IF_ACMPEQ;
+            default -> throw new RuntimeException("Cannot negate " + opcode.getMnemonic());
+        };
+    }
+
+    /**
+     * The comparison with the operands in the other order.
+     */
+    private static Opcode swap(Opcode opcode){
+        return switch(opcode){
+            case IF_ICMPLT -> Opcode.IF_ICMPGT;
+            case IF_ICMPGT -> Opcode.IF_ICMPLT;
+            case IF_ICMPLE -> Opcode.IF_ICMPGE;
+            case IF_ICMPGE -> Opcode.IF_ICMPLE;
+            default -> opcode;
+        };
+    }
+
+    /**
+     * The comparison of the value on the stack with zero.
+     */
+    private static Opcode toZeroJump(Opcode opcode){
+        return switch(opcode){
+            case IF_ICMPEQ -> Opcode.IFEQ;
+            case IF_ICMPNE -> Opcode.IFNE;
+            case IF_ICMPLT -> Opcode.IFLT;
+            case IF_ICMPGE -> Opcode.IFGE;
+            case IF_ICMPGT -> Opcode.IFGT;
+            case IF_ICMPLE -> Opcode.IFLE;
+            default -> throw new RuntimeException("Not an int comparison: " + opcode.getMnemonic());
+        };
+    }
+}
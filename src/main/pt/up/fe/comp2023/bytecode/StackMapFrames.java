@@ -0,0 +1,283 @@
+package pt.up.fe.comp2023.bytecode;
+
+import java.util.*;
+
+/**
+ * Types of the locals and of the stack where the code of a method is jumped to, for the StackMapTable of the
+ * class file. Every path is followed from the start of the method with the types of its arguments: ints and
+ * booleans are ints, references keep their descriptor and a local without a usable value is top. Where paths
+ * meet with different references in a local, the local gets the type declared for its register, or top when
+ * the register holds variables of different types.
+ *
+ * The verifier also wants a frame after every goto and return, so the code that no path reaches is removed.
+ */
+public class StackMapFrames {
+    public static final String TOP = "T";
+    public static final String INTEGER = "I";
+    private static final String UNINITIALIZED = "new ";
+
+    public record Frame(List<String> locals, List<String> stack){}
+
+    private final String className;
+    private final JvmMethod method;
+    private final Map<Integer, String> registerTypes;
+    private final List<JvmInstruction> instructions;
+    private final Map<String, Integer> labels = new HashMap<>();
+
+    private StackMapFrames(String className, JvmMethod method, Map<Integer, String> registerTypes){
+        this.className = className;
+        this.method = method;
+        this.registerTypes = registerTypes;
+        this.instructions = method.getInstructions();
+    }
+
+    /**
+     * Frames of the method by label, one for each place that is jumped to, given by the last of the labels there.
+     * The registers with a single declared type map to its descriptor.
+     */
+    public static Map<String, Frame> compute(String className, JvmMethod method, Map<Integer, String> registerTypes){
+        return new StackMapFrames(className, method, registerTypes).compute();
+    }
+
+    private Map<String, Frame> compute(){
+        removeUnreachable();
+        findLabels();
+        Frame[] frames = new Frame[instructions.size()];
+        Deque<Integer> worklist = new ArrayDeque<>();
+        if(!instructions.isEmpty()){
+            frames[0] = getInitialFrame();
+            worklist.push(0);
+        }
+        while(!worklist.isEmpty()){
+            int index = worklist.pop();
+            JvmInstruction instruction = instructions.get(index);
+            List<String> locals = new ArrayList<>(frames[index].locals());
+            List<String> stack = new ArrayList<>(frames[index].stack());
+            execute(instruction, index, locals, stack);
+            Frame next = new Frame(locals, stack);
+
+            if(instruction.getOpcode().getKind()==Opcode.Kind.JUMP)
+                reach(frames, worklist, labels.get(instruction.getLabel()), next);
+            if(!instruction.getOpcode().endsBlock() && index + 1<instructions.size())
+                reach(frames, worklist, index + 1, next);
+        }
+
+        Set<String> targets = new HashSet<>();
+        for(JvmInstruction instruction:instructions){
+            if(instruction.getOpcode().getKind()==Opcode.Kind.JUMP)
+                targets.add(instruction.getLabel());
+        }
+        Map<String, Frame> result = new HashMap<>();
+        boolean jumpedTo = false;
+        for(int i=0;i<instructions.size();i++){
+            JvmInstruction instruction = instructions.get(i);
+            if(!instruction.isLabel())
+                continue;
+            jumpedTo |= targets.contains(instruction.getLabel());
+            if(i + 1<instructions.size() && instructions.get(i + 1).isLabel())
+                continue;
+            if(jumpedTo){
+                checkInitialized(frames[i], instruction.getLabel());
+                result.put(instruction.getLabel(), frames[i]);
+            }
+            jumpedTo = false;
+        }
+        return result;
+    }
+
+    private void removeUnreachable(){
+        findLabels();
+        boolean[] reached = new boolean[instructions.size()];
+        Deque<Integer> worklist = new ArrayDeque<>();
+        if(!instructions.isEmpty()){
+            reached[0] = true;
+            worklist.push(0);
+        }
+        while(!worklist.isEmpty()){
+            int index = worklist.pop();
+            JvmInstruction instruction = instructions.get(index);
+            List<Integer> successors = new ArrayList<>();
+            if(instruction.getOpcode().getKind()==Opcode.Kind.JUMP){
+                Integer target = labels.get(instruction.getLabel());
+                if(target==null)
+                    throw new RuntimeException("Unknown label " + instruction.getLabel() + " in method " + method.getName());
+                successors.add(target);
+            }
+            if(!instruction.getOpcode().endsBlock() && index + 1<instructions.size())
+                successors.add(index + 1);
+            for(int successor:successors){
+                if(!reached[successor]){
+                    reached[successor] = true;
+                    worklist.push(successor);
+                }
+            }
+        }
+
+        List<JvmInstruction> reachable = new ArrayList<>();
+        for(int i=0;i<instructions.size();i++){
+            if(reached[i])
+                reachable.add(instructions.get(i));
+        }
+        instructions.clear();
+        instructions.addAll(reachable);
+    }
+
+    private void findLabels(){
+        labels.clear();
+        for(int i=0;i<instructions.size();i++){
+            if(instructions.get(i).isLabel())
+                labels.put(instructions.get(i).getLabel(), i);
+        }
+    }
+
+    private Frame getInitialFrame(){
+        List<String> locals = new ArrayList<>(Collections.nCopies(method.getMaxLocals(), TOP));
+        int register = 0;
+        if(!method.isStatic())
+            locals.set(register++, "L" + className + ";");
+        for(String argument:Descriptors.argumentTypes(method.getDescriptor()))
+            locals.set(register++, getValueType(argument));
+        return new Frame(locals, List.of());
+    }
+
+    private void reach(Frame[] frames, Deque<Integer> worklist, int index, Frame frame){
+        Frame previous = frames[index];
+        if(previous==null){
+            frames[index] = frame;
+            worklist.push(index);
+            return;
+        }
+        if(previous.stack().size()!=frame.stack().size())
+            throw new RuntimeException("Inconsistent stack height at instruction " + index + " in method " + method.getName());
+        List<String> locals = new ArrayList<>();
+        for(int i=0;i<previous.locals().size();i++)
+            locals.add(merge(previous.locals().get(i), frame.locals().get(i), registerTypes.get(i)));
+        List<String> stack = new ArrayList<>();
+        for(int i=0;i<previous.stack().size();i++){
+            String type = merge(previous.stack().get(i), frame.stack().get(i), null);
+            if(type.equals(TOP))
+                throw new RuntimeException("Inconsistent stack types at instruction " + index + " in method " + method.getName());
+            stack.add(type);
+        }
+        Frame merged = new Frame(locals, stack);
+        if(!merged.equals(previous)){
+            frames[index] = merged;
+            worklist.push(index);
+        }
+    }
+
+    private static String merge(String first, String second, String declared){
+        if(first.equals(second))
+            return first;
+        if(isReference(first) && isReference(second) && declared!=null && isReference(declared))
+            return declared;
+        return TOP;
+    }
+
+    private static boolean isReference(String type){
+        return type.startsWith("L") || type.startsWith("[");
+    }
+
+    /**
+     * Type of a value of the descriptor once it is on the stack or in a local.
+     */
+    private static String getValueType(String descriptor){
+        return switch (descriptor.charAt(0)) {
+            case 'Z', 'B', 'C', 'S', 'I' -> INTEGER;
+            default -> descriptor;
+        };
+    }
+
+    private void execute(JvmInstruction instruction, int index, List<String> locals, List<String> stack){
+        Opcode opcode = instruction.getOpcode();
+        switch (opcode) {
+            case LABEL, IINC, GOTO, RETURN -> {
+            }
+            case ICONST -> stack.add(INTEGER);
+            case ILOAD, ALOAD -> {
+                String type = locals.get(instruction.getOperand());
+                if(type.equals(TOP) || (opcode==Opcode.ILOAD)!=type.equals(INTEGER))
+                    throw new RuntimeException("Wrong type in local " + instruction.getOperand() + " at '" + instruction + "' in method " + method.getName());
+                stack.add(type);
+            }
+            case ISTORE, ASTORE -> locals.set(instruction.getOperand(), pop(stack, instruction));
+            case AALOAD -> {
+                pop(stack, instruction);
+                String array = pop(stack, instruction);
+                if(!array.startsWith("["))
+                    throw new RuntimeException("Not an array at '" + instruction + "' in method " + method.getName());
+                stack.add(getValueType(array.substring(1)));
+            }
+            case DUP -> stack.add(peek(stack, instruction));
+            case SWAP -> {
+                String top = pop(stack, instruction);
+                String second = pop(stack, instruction);
+                stack.add(top);
+                stack.add(second);
+            }
+            case NEW -> stack.add(UNINITIALIZED + index + " " + instruction.getOwner());
+            case NEWARRAY -> {
+                pop(stack, instruction);
+                stack.add("[I");
+            }
+            case GETSTATIC, GETFIELD -> {
+                if(opcode==Opcode.GETFIELD)
+                    pop(stack, instruction);
+                stack.add(getValueType(instruction.getDescriptor()));
+            }
+            case INVOKEVIRTUAL, INVOKESPECIAL, INVOKESTATIC -> {
+                for(int i=Descriptors.argumentTypes(instruction.getDescriptor()).size();i>0;i--)
+                    pop(stack, instruction);
+                if(opcode!=Opcode.INVOKESTATIC){
+                    String receiver = pop(stack, instruction);
+                    if(instruction.getName().equals("<init>") && receiver.startsWith(UNINITIALIZED)){
+                        String initialized = "L" + instruction.getOwner() + ";";
+                        Collections.replaceAll(stack, receiver, initialized);
+                        Collections.replaceAll(locals, receiver, initialized);
+                    }
+                }
+                String returnType = Descriptors.returnType(instruction.getDescriptor());
+                if(!returnType.equals("V"))
+                    stack.add(getValueType(returnType));
+            }
+            case IALOAD, IADD, ISUB, IMUL, IDIV, IREM, ISHL, ISHR, IUSHR, IAND, IOR, IXOR -> {
+                pop(stack, instruction);
+                pop(stack, instruction);
+                stack.add(INTEGER);
+            }
+            case INEG, ARRAYLENGTH -> {
+                pop(stack, instruction);
+                stack.add(INTEGER);
+            }
+            default -> {
+                //conditional jumps, returns, stores to arrays and fields and pops only take values
+                int taken = opcode==Opcode.PUTFIELD ? 2 : opcode==Opcode.PUTSTATIC ? 1 : -opcode.getStackDelta();
+                for(int i=0;i<taken;i++)
+                    pop(stack, instruction);
+            }
+        }
+    }
+
+    private String pop(List<String> stack, JvmInstruction instruction){
+        if(stack.isEmpty())
+            throw new RuntimeException("Stack underflow at '" + instruction + "' in method " + method.getName());
+        return stack.remove(stack.size() - 1);
+    }
+
+    private String peek(List<String> stack, JvmInstruction instruction){
+        if(stack.isEmpty())
+            throw new RuntimeException("Stack underflow at '" + instruction + "' in method " + method.getName());
+        return stack.get(stack.size() - 1);
+    }
+
+    private void checkInitialized(Frame frame, String label){
+        for(String type:frame.stack()){
+            if(type.startsWith(UNINITIALIZED))
+                throw new RuntimeException("Object not yet initialized at label " + label + " in method " + method.getName());
+        }
+        for(String type:frame.locals()){
+            if(type.startsWith(UNINITIALIZED))
+                throw new RuntimeException("Object not yet initialized at label " + label + " in method " + method.getName());
+        }
+    }
+}
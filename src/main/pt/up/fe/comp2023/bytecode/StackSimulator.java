@@ -0,0 +1,66 @@
+package pt.up.fe.comp2023.bytecode;
+
+import java.util.*;
+
+/**
+ * Follows every path of a method keeping the height of the operand stack, to find the maximum height.
+ * Fails when the stack underflows, when two paths reach an instruction with different heights, when a jump
+ * goes to a label that does not exist or when a path runs past the last instruction.
+ */
+public class StackSimulator {
+    private StackSimulator(){
+    }
+
+    public static int maxStack(JvmMethod method){
+        return maxStack(method.getName(), method.getInstructions());
+    }
+
+    public static int maxStack(String methodName, List<JvmInstruction> instructions){
+        Map<String, Integer> labels = new HashMap<>();
+        for(int i=0;i<instructions.size();i++){
+            if(instructions.get(i).isLabel())
+                labels.put(instructions.get(i).getLabel(), i);
+        }
+
+        int[] heights = new int[instructions.size()];
+        Arrays.fill(heights, -1);
+        Deque<Integer> worklist = new ArrayDeque<>();
+        int maxStack = 0;
+        if(!instructions.isEmpty()){
+            heights[0] = 0;
+            worklist.push(0);
+        }
+        while(!worklist.isEmpty()){
+            int index = worklist.pop();
+            int height = heights[index];
+            JvmInstruction instruction = instructions.get(index);
+            height += instruction.getStackDelta();
+            if(height<0)
+                throw new RuntimeException("Stack underflow at '" + instruction + "' in method " + methodName);
+            maxStack = Math.max(maxStack, height);
+
+            Opcode opcode = instruction.getOpcode();
+            if(opcode.getKind()==Opcode.Kind.JUMP){
+                Integer target = labels.get(instruction.getLabel());
+                if(target==null)
+                    throw new RuntimeException("Unknown label " + instruction.getLabel() + " in method " + methodName);
+                reach(heights, worklist, target, height, methodName);
+            }
+            if(!opcode.endsBlock()){
+                if(index + 1==instructions.size())
+                    throw new RuntimeException("Execution runs past the end of method " + methodName);
+                reach(heights, worklist, index + 1, height, methodName);
+            }
+        }
+        return maxStack;
+    }
+
+    private static void reach(int[] heights, Deque<Integer> worklist, int index, int height, String methodName){
+        if(heights[index]==-1){
+            heights[index] = height;
+            worklist.push(index);
+        } else if(heights[index]!=height){
+            throw new RuntimeException("Inconsistent stack height (" + heights[index] + " and " + height + ") at instruction " + index + " in method " + methodName);
+        }
+    }
+}
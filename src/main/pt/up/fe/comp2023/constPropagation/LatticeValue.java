@@ -0,0 +1,70 @@
+package pt.up.fe.comp2023.constPropagation;
+
+/**
+ * Value of an int or boolean variable in constant propagation: undefined while no definition of it was seen,
+ * a constant, or not a constant when it can have more than one value. Booleans are kept as 0 and 1.
+ */
+public final class LatticeValue {
+    public static final LatticeValue UNDEFINED = new LatticeValue(Kind.UNDEFINED, 0);
+    public static final LatticeValue NOT_A_CONSTANT = new LatticeValue(Kind.NOT_A_CONSTANT, 0);
+
+    private enum Kind { UNDEFINED, CONSTANT, NOT_A_CONSTANT }
+
+    private final Kind kind;
+    private final int value;
+
+    private LatticeValue(Kind kind, int value){
+        this.kind = kind;
+        this.value = value;
+    }
+
+    public static LatticeValue constant(int value){
+        return new LatticeValue(Kind.CONSTANT, value);
+    }
+
+    public boolean isUndefined(){
+        return kind==Kind.UNDEFINED;
+    }
+
+    public boolean isConstant(){
+        return kind==Kind.CONSTANT;
+    }
+
+    public boolean isNotAConstant(){
+        return kind==Kind.NOT_A_CONSTANT;
+    }
+
+    public int getValue(){
+        return value;
+    }
+
+    /**
+     * Value of a variable where two paths join.
+     */
+    public LatticeValue meet(LatticeValue other){
+        if(isUndefined())
+            return other;
+        if(other.isUndefined() || equals(other))
+            return this;
+        return NOT_A_CONSTANT;
+    }
+
+    @Override
+    public boolean equals(Object other){
+        return other instanceof LatticeValue value && value.kind==kind && value.value==this.value;
+    }
+
+    @Override
+    public int hashCode(){
+        return kind.hashCode() * 31 + value;
+    }
+
+    @Override
+    public String toString(){
+        return switch(kind){
+            case UNDEFINED -> "undefined";
+            case CONSTANT -> String.valueOf(value);
+            case NOT_A_CONSTANT -> "not a constant";
+        };
+    }
+}
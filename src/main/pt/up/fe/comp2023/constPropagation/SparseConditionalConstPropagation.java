@@ -0,0 +1,256 @@
+package pt.up.fe.comp2023.constPropagation;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp2023.controlFlow.ControlFlowGraph;
+import pt.up.fe.comp2023.controlFlow.OllirInstructions;
+
+import java.util.*;
+
+/**
+ * Conditional constant propagation over the basic blocks of an OLLIR method. Only the edges that can be taken
+ * are followed: a branch whose condition is a constant adds just the edge it takes, so the values defined on
+ * paths that never run do not reach the blocks where the paths join. The edges go through a worklist and a
+ * block is evaluated again only when the values coming into it change, so everything is found in a single
+ * run. The uses of constant variables are then replaced by literals, the operations on constants are folded,
+ * the constant branches become gotos or disappear and the blocks that can never run are removed.
+ */
+public class SparseConditionalConstPropagation {
+    private final Method method;
+    private final ControlFlowGraph cfg;
+    private final Map<String,Integer> variableIds;
+    private final List<Type> variableTypes;
+    private final LatticeValue[][] in;
+    private final LatticeValue[][] out;
+    private boolean changed;
+
+    public SparseConditionalConstPropagation(Method method){
+        this.method = method;
+        this.cfg = new ControlFlowGraph(method);
+        this.variableIds = new HashMap<>();
+        this.variableTypes = new ArrayList<>();
+        for(Map.Entry<String,Descriptor> variable:method.getVarTable().entrySet()){
+            ElementType type = variable.getValue().getVarType().getTypeOfElement();
+            if(type==ElementType.INT32 || type==ElementType.BOOLEAN){
+                variableIds.put(variable.getKey(), variableTypes.size());
+                variableTypes.add(new Type(type));
+            }
+        }
+        this.in = new LatticeValue[cfg.getNrBlocks()][];
+        this.out = new LatticeValue[cfg.getNrBlocks()][];
+    }
+
+    /**
+     * Returns true when the instructions of the method changed.
+     */
+    public boolean optimize(){
+        if(cfg.getNrBlocks()==0)
+            return false;
+        propagate();
+        return rewrite();
+    }
+
+    private void propagate(){
+        Deque<int[]> edges = new ArrayDeque<>();
+        //parameters and variables read before being assigned can have any value
+        in[0] = new LatticeValue[variableTypes.size()];
+        Arrays.fill(in[0], LatticeValue.NOT_A_CONSTANT);
+        visitBlock(0, edges);
+        while(!edges.isEmpty()){
+            int[] edge = edges.poll();
+            LatticeValue[] incoming = out[edge[0]];
+            int block = edge[1];
+            if(in[block]==null){
+                in[block] = incoming.clone();
+                visitBlock(block, edges);
+                continue;
+            }
+            boolean lowered = false;
+            for(int var=0;var<incoming.length;var++){
+                LatticeValue merged = in[block][var].meet(incoming[var]);
+                if(!merged.equals(in[block][var])){
+                    in[block][var] = merged;
+                    lowered = true;
+                }
+            }
+            if(lowered)
+                visitBlock(block, edges);
+        }
+    }
+
+    private void visitBlock(int block, Deque<int[]> edges){
+        LatticeValue[] values = in[block].clone();
+        for(Instruction instruction:cfg.getInstructions(block))
+            transfer(instruction, values);
+        out[block] = values;
+        for(int successor:getFeasibleSuccessors(block, values))
+            edges.add(new int[]{block, successor});
+    }
+
+    private int[] getFeasibleSuccessors(int block, LatticeValue[] values){
+        Instruction last = cfg.getLastInstruction(block);
+        if(last.getInstType()!=InstructionType.BRANCH)
+            return cfg.getSuccessors(block);
+        LatticeValue condition = evaluate(((CondBranchInstruction) last).getCondition(), values);
+        if(condition.isUndefined())
+            return new int[0];
+        if(condition.isNotAConstant())
+            return cfg.getSuccessors(block);
+        int taken = condition.getValue()!=0 ? cfg.getJumpTarget(block) : cfg.getFallThrough(block);
+        return taken>=0 ? new int[]{taken} : new int[0];
+    }
+
+    private void transfer(Instruction instruction, LatticeValue[] values){
+        String dest = OllirInstructions.getDefinedVariable(instruction);
+        if(dest==null)
+            return;
+        Integer id = variableIds.get(dest);
+        if(id!=null)
+            values[id] = evaluate(((AssignInstruction) instruction).getRhs(), values);
+    }
+
+    private LatticeValue evaluate(Instruction instruction, LatticeValue[] values){
+        switch(instruction.getInstType()){
+            case NOPER -> {
+                return getValue(((SingleOpInstruction) instruction).getSingleOperand(), values);
+            }
+            case UNARYOPER -> {
+                UnaryOpInstruction operation = (UnaryOpInstruction) instruction;
+                LatticeValue operand = getValue(operation.getOperand(), values);
+                if(!operand.isConstant())
+                    return operand;
+                return fold(operation.getOperation().getOpType(), operand.getValue());
+            }
+            case BINARYOPER -> {
+                BinaryOpInstruction operation = (BinaryOpInstruction) instruction;
+                LatticeValue left = getValue(operation.getLeftOperand(), values);
+                LatticeValue right = getValue(operation.getRightOperand(), values);
+                if(left.isNotAConstant() || right.isNotAConstant())
+                    return LatticeValue.NOT_A_CONSTANT;
+                if(left.isUndefined() || right.isUndefined())
+                    return LatticeValue.UNDEFINED;
+                return fold(operation.getOperation().getOpType(), left.getValue(), right.getValue());
+            }
+            default -> {
+                //calls, fields and array elements can have any value
+                return LatticeValue.NOT_A_CONSTANT;
+            }
+        }
+    }
+
+    private LatticeValue getValue(Element element, LatticeValue[] values){
+        if(element instanceof LiteralElement literal){
+            ElementType type = literal.getType().getTypeOfElement();
+            if(type==ElementType.INT32 || type==ElementType.BOOLEAN)
+                return LatticeValue.constant(Integer.parseInt(literal.getLiteral()));
+            return LatticeValue.NOT_A_CONSTANT;
+        }
+        if(element instanceof Operand operand && !(element instanceof ArrayOperand)){
+            Integer id = variableIds.get(operand.getName());
+            if(id!=null)
+                return values[id];
+        }
+        return LatticeValue.NOT_A_CONSTANT;
+    }
+
+    private static LatticeValue fold(OperationType type, int value){
+        return switch(type){
+            case NOT, NOTB -> LatticeValue.constant(value==0 ? 1 : 0);
+            case SUB -> LatticeValue.constant(-value);
+            default -> LatticeValue.NOT_A_CONSTANT;
+        };
+    }
+
+    private static LatticeValue fold(OperationType type, int left, int right){
+        return switch(type){
+            case ADD -> LatticeValue.constant(left + right);
+            case SUB -> LatticeValue.constant(left - right);
+            case MUL -> LatticeValue.constant(left * right);
+            //a division by zero has to throw when the program runs
+            case DIV -> right==0 ? LatticeValue.NOT_A_CONSTANT : LatticeValue.constant(left / right);
+            case SHL -> LatticeValue.constant(left << right);
+            case SHR -> LatticeValue.constant(left >> right);
+            case SHRR -> LatticeValue.constant(left >>> right);
+            case AND, ANDB -> LatticeValue.constant(left & right);
+            case OR, ORB -> LatticeValue.constant(left | right);
+            case XOR -> LatticeValue.constant(left ^ right);
+            case LTH -> LatticeValue.constant(left < right ? 1 : 0);
+            case LTE -> LatticeValue.constant(left <= right ? 1 : 0);
+            case GTH -> LatticeValue.constant(left > right ? 1 : 0);
+            case GTE -> LatticeValue.constant(left >= right ? 1 : 0);
+            case EQ -> LatticeValue.constant(left == right ? 1 : 0);
+            case NEQ -> LatticeValue.constant(left != right ? 1 : 0);
+            default -> LatticeValue.NOT_A_CONSTANT;
+        };
+    }
+
+    private boolean rewrite(){
+        List<Instruction> instructions = method.getInstructions();
+        Map<Instruction,List<String>> labels = OllirInstructions.getLabelsByInstruction(method);
+        List<Instruction> kept = new ArrayList<>();
+        List<String> pendingLabels = new ArrayList<>();
+        changed = false;
+        for(int block=0;block<cfg.getNrBlocks();block++){
+            if(in[block]==null){
+                changed = true;
+                continue;
+            }
+            LatticeValue[] values = in[block].clone();
+            for(Instruction instruction:cfg.getInstructions(block)){
+                Instruction replacement = replaceConstants(instruction, values);
+                transfer(instruction, values);
+                if(replacement!=instruction)
+                    changed = true;
+                if(replacement==null){
+                    //a branch that is never taken falls through to the next instruction
+                    pendingLabels.addAll(labels.getOrDefault(instruction, List.of()));
+                    continue;
+                }
+                OllirInstructions.moveLabels(method, labels.get(instruction), replacement);
+                OllirInstructions.moveLabels(method, pendingLabels, replacement);
+                pendingLabels.clear();
+                kept.add(replacement);
+            }
+        }
+        instructions.clear();
+        instructions.addAll(kept);
+        if(OllirInstructions.removeJumpsToNextInstruction(method))
+            changed = true;
+        OllirInstructions.removeUnusedLabels(method);
+        return changed;
+    }
+
+    /**
+     * Replaces the constant variables read by the instruction with literals. Returns the instruction that takes
+     * its place: an assignment of the folded value, a goto for a branch that is always taken, or null for a
+     * branch that is never taken.
+     */
+    private Instruction replaceConstants(Instruction instruction, LatticeValue[] values){
+        OllirInstructions.replaceUses(instruction, element -> {
+            if(!(element instanceof Operand operand))
+                return element;
+            Integer id = variableIds.get(operand.getName());
+            if(id==null || !values[id].isConstant())
+                return element;
+            changed = true;
+            return new LiteralElement(String.valueOf(values[id].getValue()), variableTypes.get(id));
+        });
+        if(instruction instanceof AssignInstruction assign){
+            String dest = OllirInstructions.getDefinedVariable(assign);
+            Integer id = dest!=null ? variableIds.get(dest) : null;
+            InstructionType rhsType = assign.getRhs().getInstType();
+            if(id!=null && (rhsType==InstructionType.UNARYOPER || rhsType==InstructionType.BINARYOPER)){
+                LatticeValue value = evaluate(assign.getRhs(), values);
+                if(value.isConstant()){
+                    LiteralElement literal = new LiteralElement(String.valueOf(value.getValue()), variableTypes.get(id));
+                    return new AssignInstruction(assign.getDest(), assign.getTypeOfAssign(), new SingleOpInstruction(literal));
+                }
+            }
+        }
+        if(instruction instanceof CondBranchInstruction branch){
+            LatticeValue condition = evaluate(branch.getCondition(), values);
+            if(condition.isConstant())
+                return condition.getValue()!=0 ? new GotoInstruction(branch.getLabel()) : null;
+        }
+        return instruction;
+    }
+}
@@ -0,0 +1,191 @@
+package pt.up.fe.comp2023.controlFlow;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Basic blocks of a method and the edges between them. A block starts at the first instruction, at every
+ * instruction with a label and after every jump or return, and ends before the next start. The edges come
+ * from the order of the instructions and the labels of the method, so the graph can be built again after the
+ * instructions are rewritten. Block 0 is the entry of the method.
+ */
+public class ControlFlowGraph {
+    private final Method method;
+    private final List<Instruction> instructions;
+    private final int[] blockOf;
+    private final int[] first;
+    private final int[] last;
+    private final int[] fallThrough;
+    private final int[] jumpTarget;
+    private final int[][] successors;
+    private final int[][] predecessors;
+    private final int[] reversePostorder;
+
+    public ControlFlowGraph(Method method){
+        this.method = method;
+        this.instructions = method.getInstructions();
+        int nrInstructions = instructions.size();
+        Map<Instruction,Integer> instructionIds = new HashMap<>();
+        for(int i=0;i<nrInstructions;i++)
+            instructionIds.put(instructions.get(i), i);
+
+        boolean[] leader = new boolean[nrInstructions + 1];
+        leader[0] = true;
+        for(Instruction target:method.getLabels().values()){
+            Integer id = instructionIds.get(target);
+            if(id!=null)
+                leader[id] = true;
+        }
+        for(int i=0;i<nrInstructions;i++){
+            if(endsBlock(instructions.get(i)))
+                leader[i + 1] = true;
+        }
+
+        this.blockOf = new int[nrInstructions];
+        int nrBlocks = 0;
+        for(int i=0;i<nrInstructions;i++){
+            if(leader[i])
+                nrBlocks++;
+            blockOf[i] = nrBlocks - 1;
+        }
+        this.first = new int[nrBlocks];
+        this.last = new int[nrBlocks];
+        for(int i=nrInstructions-1;i>=0;i--)
+            first[blockOf[i]] = i;
+        for(int i=0;i<nrInstructions;i++)
+            last[blockOf[i]] = i;
+
+        this.fallThrough = new int[nrBlocks];
+        this.jumpTarget = new int[nrBlocks];
+        this.successors = new int[nrBlocks][];
+        int[] nrPredecessors = new int[nrBlocks];
+        for(int block=0;block<nrBlocks;block++){
+            Instruction instruction = instructions.get(last[block]);
+            InstructionType type = instruction.getInstType();
+            boolean continues = type!=InstructionType.GOTO && type!=InstructionType.RETURN;
+            fallThrough[block] = continues && block+1<nrBlocks ? block + 1 : -1;
+            jumpTarget[block] = -1;
+            String label = OllirInstructions.getJumpLabel(instruction);
+            if(label!=null){
+                Integer target = instructionIds.get(method.getLabels().get(label));
+                if(target!=null)
+                    jumpTarget[block] = blockOf[target];
+            }
+            int[] ids = new int[2];
+            int nrIds = 0;
+            if(fallThrough[block]>=0)
+                ids[nrIds++] = fallThrough[block];
+            if(jumpTarget[block]>=0 && jumpTarget[block]!=fallThrough[block])
+                ids[nrIds++] = jumpTarget[block];
+            successors[block] = Arrays.copyOf(ids, nrIds);
+            for(int successor:successors[block])
+                nrPredecessors[successor]++;
+        }
+        this.predecessors = new int[nrBlocks][];
+        for(int block=0;block<nrBlocks;block++)
+            predecessors[block] = new int[nrPredecessors[block]];
+        Arrays.fill(nrPredecessors, 0);
+        for(int block=0;block<nrBlocks;block++){
+            for(int successor:successors[block])
+                predecessors[successor][nrPredecessors[successor]++] = block;
+        }
+        this.reversePostorder = computeReversePostorder();
+    }
+
+    private static boolean endsBlock(Instruction instruction){
+        InstructionType type = instruction.getInstType();
+        return type==InstructionType.GOTO || type==InstructionType.BRANCH || type==InstructionType.RETURN;
+    }
+
+    private int[] computeReversePostorder(){
+        int nrBlocks = getNrBlocks();
+        int[] order = new int[nrBlocks];
+        int position = nrBlocks;
+        if(nrBlocks==0)
+            return order;
+        boolean[] visited = new boolean[nrBlocks];
+        int[] stack = new int[nrBlocks];
+        int[] nextSuccessor = new int[nrBlocks];
+        int top = 0;
+        stack[top++] = 0;
+        visited[0] = true;
+        while(top>0){
+            int current = stack[top - 1];
+            if(nextSuccessor[current]<successors[current].length){
+                int successor = successors[current][nextSuccessor[current]++];
+                if(!visited[successor]){
+                    visited[successor] = true;
+                    stack[top++] = successor;
+                }
+            } else {
+                order[--position] = current;
+                top--;
+            }
+        }
+        return Arrays.copyOfRange(order, position, nrBlocks);
+    }
+
+    public Method getMethod(){
+        return method;
+    }
+
+    public int getNrBlocks(){
+        return first.length;
+    }
+
+    /**
+     * Index in the instructions of the method of the first instruction of the block.
+     */
+    public int getFirst(int block){
+        return first[block];
+    }
+
+    /**
+     * Index in the instructions of the method of the last instruction of the block.
+     */
+    public int getLast(int block){
+        return last[block];
+    }
+
+    public List<Instruction> getInstructions(int block){
+        return instructions.subList(first[block], last[block] + 1);
+    }
+
+    public Instruction getLastInstruction(int block){
+        return instructions.get(last[block]);
+    }
+
+    public int getBlockOf(int instruction){
+        return blockOf[instruction];
+    }
+
+    /**
+     * Block that runs next when the last instruction of the block does not jump, or -1.
+     */
+    public int getFallThrough(int block){
+        return fallThrough[block];
+    }
+
+    /**
+     * Block that the last instruction of the block jumps to, or -1.
+     */
+    public int getJumpTarget(int block){
+        return jumpTarget[block];
+    }
+
+    public int[] getSuccessors(int block){
+        return successors[block];
+    }
+
+    public int[] getPredecessors(int block){
+        return predecessors[block];
+    }
+
+    /**
+     * Blocks reachable from the entry, each one before its successors (ignoring back edges).
+     */
+    public int[] getReversePostorder(){
+        return reversePostorder;
+    }
+}
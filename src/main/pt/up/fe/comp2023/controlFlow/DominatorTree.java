@@ -0,0 +1,173 @@
+package pt.up.fe.comp2023.controlFlow;
+
+import java.util.*;
+
+/**
+ * Dominators of the blocks reachable from the entry, computed with the iterative algorithm of Cooper, Harvey
+ * and Kennedy over the reverse postorder. Each block also gets its interval in a preorder walk of the tree,
+ * so asking whether a block dominates another takes constant time.
+ */
+public class DominatorTree {
+    private final ControlFlowGraph cfg;
+    private final int[] idom;
+    private final int[][] children;
+    private final int[] enter;
+    private final int[] exit;
+    private final int[] preorder;
+    private int[][] frontiers;
+
+    public DominatorTree(ControlFlowGraph cfg){
+        this.cfg = cfg;
+        int nrBlocks = cfg.getNrBlocks();
+        int[] reversePostorder = cfg.getReversePostorder();
+        int[] position = new int[nrBlocks];
+        Arrays.fill(position, -1);
+        for(int i=0;i<reversePostorder.length;i++)
+            position[reversePostorder[i]] = i;
+
+        this.idom = new int[nrBlocks];
+        Arrays.fill(idom, -1);
+        if(nrBlocks>0)
+            idom[0] = 0;
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for(int i=1;i<reversePostorder.length;i++){
+                int block = reversePostorder[i];
+                int newIdom = -1;
+                for(int predecessor:cfg.getPredecessors(block)){
+                    if(idom[predecessor]<0)
+                        continue;
+                    newIdom = newIdom<0 ? predecessor : intersect(predecessor, newIdom, position);
+                }
+                if(newIdom!=idom[block]){
+                    idom[block] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+
+        int[] nrChildren = new int[nrBlocks];
+        for(int block:reversePostorder){
+            if(block!=0)
+                nrChildren[idom[block]]++;
+        }
+        this.children = new int[nrBlocks][];
+        for(int block=0;block<nrBlocks;block++)
+            children[block] = new int[nrChildren[block]];
+        Arrays.fill(nrChildren, 0);
+        for(int block:reversePostorder){
+            if(block!=0)
+                children[idom[block]][nrChildren[idom[block]]++] = block;
+        }
+
+        this.enter = new int[nrBlocks];
+        this.exit = new int[nrBlocks];
+        Arrays.fill(enter, -1);
+        this.preorder = new int[reversePostorder.length];
+        numberTree();
+    }
+
+    private int intersect(int a, int b, int[] position){
+        while(a!=b){
+            while(position[a]>position[b])
+                a = idom[a];
+            while(position[b]>position[a])
+                b = idom[b];
+        }
+        return a;
+    }
+
+    private void numberTree(){
+        if(preorder.length==0)
+            return;
+        int counter = 0;
+        int[] stack = new int[preorder.length];
+        int[] nextChild = new int[cfg.getNrBlocks()];
+        int top = 0;
+        stack[top++] = 0;
+        preorder[counter] = 0;
+        enter[0] = counter++;
+        while(top>0){
+            int block = stack[top - 1];
+            if(nextChild[block]<children[block].length){
+                int child = children[block][nextChild[block]++];
+                preorder[counter] = child;
+                enter[child] = counter++;
+                stack[top++] = child;
+            } else {
+                exit[block] = counter;
+                top--;
+            }
+        }
+    }
+
+    public ControlFlowGraph getControlFlowGraph(){
+        return cfg;
+    }
+
+    public boolean isReachable(int block){
+        return idom[block]>=0;
+    }
+
+    /**
+     * Immediate dominator of the block, the entry is its own immediate dominator and unreachable blocks have -1.
+     */
+    public int getImmediateDominator(int block){
+        return idom[block];
+    }
+
+    public int[] getChildren(int block){
+        return children[block];
+    }
+
+    /**
+     * Reachable blocks in a preorder walk of the tree, each block comes after the blocks that dominate it.
+     */
+    public int[] getPreorder(){
+        return preorder;
+    }
+
+    public boolean dominates(int a, int b){
+        if(!isReachable(a) || !isReachable(b))
+            return false;
+        return enter[a]<=enter[b] && enter[b]<exit[a];
+    }
+
+    /**
+     * Blocks where the dominance of the block ends: they have a predecessor dominated by it, but are not
+     * strictly dominated by it.
+     */
+    public int[] getDominanceFrontier(int block){
+        if(frontiers==null)
+            frontiers = computeFrontiers();
+        return frontiers[block];
+    }
+
+    private int[][] computeFrontiers(){
+        int nrBlocks = cfg.getNrBlocks();
+        List<Set<Integer>> sets = new ArrayList<>();
+        for(int block=0;block<nrBlocks;block++)
+            sets.add(new LinkedHashSet<>());
+        for(int block:preorder){
+            int[] predecessors = cfg.getPredecessors(block);
+            //the entry is also reached from the start of the method
+            if(predecessors.length + (block==0 ? 1 : 0)<2)
+                continue;
+            int stop = block==0 ? -1 : idom[block];
+            for(int predecessor:predecessors){
+                int runner = predecessor;
+                while(isReachable(runner) && runner!=stop){
+                    sets.get(runner).add(block);
+                    if(runner==0)
+                        break;
+                    runner = idom[runner];
+                }
+            }
+        }
+        int[][] result = new int[nrBlocks][];
+        for(int block=0;block<nrBlocks;block++)
+            result[block] = sets.get(block).stream().mapToInt(Integer::intValue).toArray();
+        return result;
+    }
+}
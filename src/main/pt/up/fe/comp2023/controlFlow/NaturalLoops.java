@@ -0,0 +1,59 @@
+package pt.up.fe.comp2023.controlFlow;
+
+import java.util.*;
+
+/**
+ * Natural loops of the reachable blocks. An edge to a block that dominates its source is a back edge, and
+ * its loop is made of the header and every block that reaches the source without going through the header.
+ * The back edges to the same header give a single loop. The loops that contain others come first.
+ */
+public class NaturalLoops {
+    private final List<Integer> headers;
+    private final List<BitSet> bodies;
+
+    public NaturalLoops(DominatorTree dominators){
+        ControlFlowGraph cfg = dominators.getControlFlowGraph();
+        Map<Integer,BitSet> loops = new LinkedHashMap<>();
+        for(int header:dominators.getPreorder()){
+            for(int source:cfg.getPredecessors(header)){
+                if(!dominators.dominates(header, source))
+                    continue;
+                BitSet body = loops.computeIfAbsent(header, block -> {
+                    BitSet blocks = new BitSet();
+                    blocks.set(block);
+                    return blocks;
+                });
+                Deque<Integer> pending = new ArrayDeque<>();
+                if(!body.get(source)){
+                    body.set(source);
+                    pending.push(source);
+                }
+                while(!pending.isEmpty()){
+                    for(int predecessor:cfg.getPredecessors(pending.pop())){
+                        if(dominators.isReachable(predecessor) && !body.get(predecessor)){
+                            body.set(predecessor);
+                            pending.push(predecessor);
+                        }
+                    }
+                }
+            }
+        }
+        this.headers = new ArrayList<>(loops.keySet());
+        headers.sort(Comparator.comparingInt(header -> -loops.get(header).cardinality()));
+        this.bodies = new ArrayList<>();
+        for(int header:headers)
+            bodies.add(loops.get(header));
+    }
+
+    public int getNrLoops(){
+        return headers.size();
+    }
+
+    public int getHeader(int loop){
+        return headers.get(loop);
+    }
+
+    public BitSet getBody(int loop){
+        return bodies.get(loop);
+    }
+}
@@ -0,0 +1,358 @@
+package pt.up.fe.comp2023.controlFlow;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Helpers shared by the passes that rewrite the instructions of a method.
+ */
+public class OllirInstructions {
+    /**
+     * Label that a goto or a conditional branch jumps to, or null for the other instructions.
+     */
+    public static String getJumpLabel(Instruction instruction){
+        if(instruction.getInstType()==InstructionType.GOTO)
+            return ((GotoInstruction) instruction).getLabel();
+        if(instruction.getInstType()==InstructionType.BRANCH)
+            return ((CondBranchInstruction) instruction).getLabel();
+        return null;
+    }
+
+    /**
+     * Variable written by the instruction, or null when it is not an assignment to a variable
+     * (assignments to array elements only read the array).
+     */
+    public static String getDefinedVariable(Instruction instruction){
+        if(instruction.getInstType()!=InstructionType.ASSIGN)
+            return null;
+        Element dest = ((AssignInstruction) instruction).getDest();
+        if(dest instanceof ArrayOperand || !(dest instanceof Operand operand))
+            return null;
+        return operand.getName();
+    }
+
+    public static void forEachOperand(Instruction instruction, Consumer<Operand> action){
+        switch(instruction.getInstType()){
+            case ASSIGN -> {
+                AssignInstruction assign = (AssignInstruction) instruction;
+                forEachOperand(assign.getDest(), action);
+                forEachOperand(assign.getRhs(), action);
+            }
+            case CALL -> {
+                CallInstruction call = (CallInstruction) instruction;
+                forEachOperand(call.getFirstArg(), action);
+                if(call.getSecondArg()!=null)
+                    forEachOperand(call.getSecondArg(), action);
+                if(call.getListOfOperands()!=null){
+                    for(Element element:call.getListOfOperands())
+                        forEachOperand(element, action);
+                }
+            }
+            case BRANCH -> forEachOperand(((CondBranchInstruction) instruction).getCondition(), action);
+            case RETURN -> {
+                ReturnInstruction ret = (ReturnInstruction) instruction;
+                if(ret.getOperand()!=null)
+                    forEachOperand(ret.getOperand(), action);
+            }
+            case GETFIELD -> {
+                GetFieldInstruction getField = (GetFieldInstruction) instruction;
+                forEachOperand(getField.getFirstOperand(), action);
+                forEachOperand(getField.getSecondOperand(), action);
+            }
+            case PUTFIELD -> {
+                PutFieldInstruction putField = (PutFieldInstruction) instruction;
+                forEachOperand(putField.getFirstOperand(), action);
+                forEachOperand(putField.getSecondOperand(), action);
+                forEachOperand(putField.getThirdOperand(), action);
+            }
+            case UNARYOPER -> forEachOperand(((UnaryOpInstruction) instruction).getOperand(), action);
+            case BINARYOPER -> {
+                BinaryOpInstruction operation = (BinaryOpInstruction) instruction;
+                forEachOperand(operation.getLeftOperand(), action);
+                forEachOperand(operation.getRightOperand(), action);
+            }
+            case NOPER -> forEachOperand(((SingleOpInstruction) instruction).getSingleOperand(), action);
+            case GOTO -> {
+                //no operands
+            }
+        }
+    }
+
+    public static void forEachOperand(Element element, Consumer<Operand> action){
+        if(!(element instanceof Operand operand))
+            return;
+        action.accept(operand);
+        if(operand instanceof ArrayOperand arrayOperand){
+            for(Element index:arrayOperand.getIndexOperands())
+                forEachOperand(index, action);
+        }
+    }
+
+    /**
+     * Visits the operands whose value the instruction reads: everything except the variable it assigns, the
+     * fields it names and the classes of static calls and of new.
+     */
+    public static void forEachUse(Instruction instruction, Consumer<Operand> action){
+        switch(instruction.getInstType()){
+            case ASSIGN -> {
+                AssignInstruction assign = (AssignInstruction) instruction;
+                if(assign.getDest() instanceof ArrayOperand)
+                    forEachOperand(assign.getDest(), action);
+                forEachUse(assign.getRhs(), action);
+            }
+            case CALL -> {
+                CallInstruction call = (CallInstruction) instruction;
+                CallType type = call.getInvocationType();
+                if(type!=CallType.invokestatic && type!=CallType.NEW)
+                    forEachOperand(call.getFirstArg(), action);
+                if(call.getListOfOperands()!=null){
+                    for(Element element:call.getListOfOperands())
+                        forEachOperand(element, action);
+                }
+            }
+            case BRANCH -> forEachUse(((CondBranchInstruction) instruction).getCondition(), action);
+            case GETFIELD -> forEachOperand(((GetFieldInstruction) instruction).getFirstOperand(), action);
+            case PUTFIELD -> {
+                PutFieldInstruction putField = (PutFieldInstruction) instruction;
+                forEachOperand(putField.getFirstOperand(), action);
+                forEachOperand(putField.getThirdOperand(), action);
+            }
+            default -> forEachOperand(instruction, action);
+        }
+    }
+
+    /**
+     * Replaces the values read by the instruction: its operands and the indexes of the array elements it reads
+     * or writes. The objects, arrays and fields that are accessed stay the same.
+     */
+    public static void replaceUses(Instruction instruction, UnaryOperator<Element> replacement){
+        switch(instruction.getInstType()){
+            case ASSIGN -> {
+                AssignInstruction assign = (AssignInstruction) instruction;
+                if(assign.getDest() instanceof ArrayOperand arrayOperand)
+                    replaceIndexes(arrayOperand, replacement);
+                replaceUses(assign.getRhs(), replacement);
+            }
+            case CALL -> {
+                CallInstruction call = (CallInstruction) instruction;
+                if(call.getFirstArg() instanceof ArrayOperand arrayOperand)
+                    replaceIndexes(arrayOperand, replacement);
+                List<Element> operands = call.getListOfOperands();
+                if(operands!=null){
+                    for(int i=0;i<operands.size();i++)
+                        operands.set(i, replace(operands.get(i), replacement));
+                }
+            }
+            case BRANCH -> replaceUses(((CondBranchInstruction) instruction).getCondition(), replacement);
+            case RETURN -> {
+                ReturnInstruction ret = (ReturnInstruction) instruction;
+                if(ret.getOperand()!=null)
+                    ret.setOperand(replace(ret.getOperand(), replacement));
+            }
+            case PUTFIELD -> {
+                PutFieldInstruction putField = (PutFieldInstruction) instruction;
+                putField.setThirdOperand(replace(putField.getThirdOperand(), replacement));
+            }
+            case UNARYOPER -> {
+                UnaryOpInstruction operation = (UnaryOpInstruction) instruction;
+                operation.setOperand(replace(operation.getOperand(), replacement));
+            }
+            case BINARYOPER -> {
+                BinaryOpInstruction operation = (BinaryOpInstruction) instruction;
+                operation.setLeftOperand(replace(operation.getLeftOperand(), replacement));
+                operation.setRightOperand(replace(operation.getRightOperand(), replacement));
+            }
+            case NOPER -> {
+                SingleOpInstruction operation = (SingleOpInstruction) instruction;
+                operation.setSingleOperand(replace(operation.getSingleOperand(), replacement));
+            }
+            case GETFIELD, GOTO -> {
+                //only reads objects
+            }
+        }
+    }
+
+    private static Element replace(Element element, UnaryOperator<Element> replacement){
+        if(element instanceof ArrayOperand arrayOperand){
+            replaceIndexes(arrayOperand, replacement);
+            return arrayOperand;
+        }
+        return replacement.apply(element);
+    }
+
+    private static void replaceIndexes(ArrayOperand arrayOperand, UnaryOperator<Element> replacement){
+        List<Element> indexes = arrayOperand.getIndexOperands();
+        for(int i=0;i<indexes.size();i++)
+            indexes.set(i, replace(indexes.get(i), replacement));
+    }
+
+    /**
+     * Adds a local variable to the method, named by the prefix and the first number that is free.
+     */
+    public static String newVariable(Method method, String prefix, Type type){
+        HashMap<String,Descriptor> varTable = method.getVarTable();
+        int suffix = 0;
+        while(varTable.containsKey(prefix + suffix))
+            suffix++;
+        String name = prefix + suffix;
+        varTable.put(name, new Descriptor(VarScope.LOCAL, -1, type));
+        return name;
+    }
+
+    /**
+     * Creates a label that the method does not use yet.
+     */
+    public static String newLabel(Method method, String prefix){
+        int suffix = 0;
+        while(method.getLabels().containsKey(prefix + suffix))
+            suffix++;
+        return prefix + suffix;
+    }
+
+    /**
+     * Reserves a label that neither the method nor the labels reserved before use, it points to no
+     * instruction until the instruction is added.
+     */
+    public static String reserveLabel(Method method, String prefix){
+        String label = newLabel(method, prefix);
+        method.getLabels().put(label, null);
+        return label;
+    }
+
+    /**
+     * Labels of each instruction of the method, found with a single pass over its labels. Instructions are
+     * compared by identity.
+     */
+    public static Map<Instruction,List<String>> getLabelsByInstruction(Method method){
+        Map<Instruction,List<String>> labels = new IdentityHashMap<>();
+        for(Map.Entry<String,Instruction> label:method.getLabels().entrySet())
+            labels.computeIfAbsent(label.getValue(), instruction -> new ArrayList<>()).add(label.getKey());
+        return labels;
+    }
+
+    public static void moveLabels(Method method, List<String> labels, Instruction target){
+        if(labels==null)
+            return;
+        for(String label:labels)
+            method.getLabels().put(label, target);
+    }
+
+    /**
+     * Removes the gotos to the instruction that comes right after them, their labels go to that instruction.
+     */
+    public static boolean removeJumpsToNextInstruction(Method method){
+        List<Instruction> instructions = method.getInstructions();
+        Map<Instruction,List<String>> labels = getLabelsByInstruction(method);
+        List<Instruction> kept = new ArrayList<>();
+        for(int i=0;i<instructions.size();i++){
+            Instruction instruction = instructions.get(i);
+            if(instruction.getInstType()==InstructionType.GOTO && i+1<instructions.size()
+                    && method.getLabels().get(((GotoInstruction) instruction).getLabel())==instructions.get(i + 1)){
+                List<String> moved = labels.remove(instruction);
+                moveLabels(method, moved, instructions.get(i + 1));
+                if(moved!=null)
+                    labels.computeIfAbsent(instructions.get(i + 1), next -> new ArrayList<>()).addAll(moved);
+                continue;
+            }
+            kept.add(instruction);
+        }
+        if(kept.size()==instructions.size())
+            return false;
+        instructions.clear();
+        instructions.addAll(kept);
+        return true;
+    }
+
+    /**
+     * Drops the labels that no instruction jumps to, or that point to an instruction the method no longer has.
+     */
+    public static void removeUnusedLabels(Method method){
+        Set<String> used = new HashSet<>();
+        Set<Instruction> present = new HashSet<>(method.getInstructions());
+        for(Instruction instruction:method.getInstructions()){
+            String label = getJumpLabel(instruction);
+            if(label!=null)
+                used.add(label);
+        }
+        method.getLabels().entrySet().removeIf(label -> !used.contains(label.getKey()) || !present.contains(label.getValue()));
+    }
+
+    /**
+     * Copy of the instruction with the variables and the labels it jumps to renamed by the maps, the names
+     * that are not in the variables map stay the same.
+     */
+    public static Instruction copyInstruction(Instruction instruction, Map<String,String> variables, Map<String,String> jumps){
+        switch(instruction.getInstType()){
+            case ASSIGN -> {
+                AssignInstruction assign = (AssignInstruction) instruction;
+                return new AssignInstruction(copyElement(assign.getDest(), variables), assign.getTypeOfAssign(),
+                        copyInstruction(assign.getRhs(), variables, jumps));
+            }
+            case CALL -> {
+                CallInstruction call = (CallInstruction) instruction;
+                Element first = copyElement(call.getFirstArg(), variables);
+                if(call.getListOfOperands()==null)
+                    return new CallInstruction(call.getInvocationType(), first, call.getReturnType());
+                ArrayList<Element> operands = new ArrayList<>();
+                for(Element operand:call.getListOfOperands())
+                    operands.add(copyElement(operand, variables));
+                if(call.getSecondArg()==null)
+                    return new CallInstruction(call.getInvocationType(), first, operands, call.getReturnType());
+                return new CallInstruction(call.getInvocationType(), first, copyElement(call.getSecondArg(), variables), operands, call.getReturnType());
+            }
+            case GOTO -> {
+                return new GotoInstruction(jumps.get(((GotoInstruction) instruction).getLabel()));
+            }
+            case BRANCH -> {
+                CondBranchInstruction branch = (CondBranchInstruction) instruction;
+                Instruction condition = copyInstruction(branch.getCondition(), variables, jumps);
+                CondBranchInstruction copy = condition instanceof SingleOpInstruction single
+                        ? new SingleOpCondInstruction(single)
+                        : new OpCondInstruction((OpInstruction) condition);
+                copy.setLabel(jumps.get(branch.getLabel()));
+                return copy;
+            }
+            case GETFIELD -> {
+                GetFieldInstruction getField = (GetFieldInstruction) instruction;
+                return new GetFieldInstruction(copyElement(getField.getFirstOperand(), variables),
+                        copyElement(getField.getSecondOperand(), variables), getField.getFieldType());
+            }
+            case PUTFIELD -> {
+                PutFieldInstruction putField = (PutFieldInstruction) instruction;
+                return new PutFieldInstruction(copyElement(putField.getFirstOperand(), variables),
+                        copyElement(putField.getSecondOperand(), variables),
+                        copyElement(putField.getThirdOperand(), variables), putField.getFieldType());
+            }
+            case UNARYOPER -> {
+                UnaryOpInstruction operation = (UnaryOpInstruction) instruction;
+                return new UnaryOpInstruction(operation.getOperation(), copyElement(operation.getOperand(), variables));
+            }
+            case BINARYOPER -> {
+                BinaryOpInstruction operation = (BinaryOpInstruction) instruction;
+                return new BinaryOpInstruction(copyElement(operation.getLeftOperand(), variables), operation.getOperation(),
+                        copyElement(operation.getRightOperand(), variables));
+            }
+            case NOPER -> {
+                return new SingleOpInstruction(copyElement(((SingleOpInstruction) instruction).getSingleOperand(), variables));
+            }
+            default -> throw new RuntimeException("Cannot copy instruction " + instruction.getInstType());
+        }
+    }
+
+    public static Element copyElement(Element element, Map<String,String> variables){
+        if(element instanceof ArrayOperand arrayOperand){
+            ArrayList<Element> indexes = new ArrayList<>();
+            for(Element index:arrayOperand.getIndexOperands())
+                indexes.add(copyElement(index, variables));
+            return new ArrayOperand(variables.getOrDefault(arrayOperand.getName(), arrayOperand.getName()), arrayOperand.getType(), indexes);
+        }
+        if(element instanceof Operand operand)
+            return new Operand(variables.getOrDefault(operand.getName(), operand.getName()), operand.getType());
+        if(element instanceof LiteralElement literal)
+            return new LiteralElement(literal.getLiteral(), literal.getType());
+        return element;
+    }
+}
@@ -0,0 +1,115 @@
+package pt.up.fe.comp2023.deadCode;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp2023.controlFlow.OllirInstructions;
+import pt.up.fe.comp2023.registerAllocation.Liveness;
+
+import java.util.*;
+
+/**
+ * Removes the instructions that can never run and the assignments to variables that are not live after them,
+ * when computing the value has no effect besides the assignment. Removing an assignment can make the
+ * variables it read dead as well, so the liveness is computed again until nothing else is removed. The
+ * liveness of the last run matches the final instructions and is kept for the register allocation.
+ */
+public class DeadCodeElimination {
+    private final Method method;
+    private Liveness liveness;
+
+    public DeadCodeElimination(Method method){
+        this.method = method;
+    }
+
+    /**
+     * Returns true when the instructions of the method changed.
+     */
+    public boolean optimize(){
+        boolean changed = false;
+        while(true){
+            liveness = new Liveness(method);
+            liveness.compute();
+            if(!removeDeadInstructions())
+                return changed;
+            changed = true;
+        }
+    }
+
+    /**
+     * Liveness of the instructions left by {@link #optimize()}.
+     */
+    public Liveness getLiveness(){
+        return liveness;
+    }
+
+    private boolean removeDeadInstructions(){
+        List<Instruction> instructions = method.getInstructions();
+        if(instructions.isEmpty())
+            return false;
+        BitSet reachable = new BitSet(instructions.size());
+        for(int id:liveness.getPostorder())
+            reachable.set(id);
+
+        Map<Instruction,List<String>> labels = OllirInstructions.getLabelsByInstruction(method);
+        List<Instruction> kept = new ArrayList<>();
+        List<String> pendingLabels = new ArrayList<>();
+        for(int id=0;id<instructions.size();id++){
+            Instruction instruction = instructions.get(id);
+            if(!reachable.get(id))
+                continue;
+            if(isDeadAssignment(id, instruction)){
+                //the assignment falls through, its labels go to the next instruction that is kept
+                pendingLabels.addAll(labels.getOrDefault(instruction, List.of()));
+                continue;
+            }
+            OllirInstructions.moveLabels(method, pendingLabels, instruction);
+            pendingLabels.clear();
+            kept.add(instruction);
+        }
+        boolean changed = kept.size()!=instructions.size();
+        if(changed){
+            instructions.clear();
+            instructions.addAll(kept);
+        }
+        if(OllirInstructions.removeJumpsToNextInstruction(method))
+            changed = true;
+        OllirInstructions.removeUnusedLabels(method);
+        return changed;
+    }
+
+    private boolean isDeadAssignment(int id, Instruction instruction){
+        BitSet def = liveness.getDef(id);
+        if(instruction.getInstType()!=InstructionType.ASSIGN || def.isEmpty() || def.intersects(liveness.getOut(id)))
+            return false;
+        return hasNoSideEffects(((AssignInstruction) instruction).getRhs());
+    }
+
+    /**
+     * Calls, divisions by a value that can be zero and accesses to array elements (that can be out of
+     * bounds) are always kept.
+     */
+    private static boolean hasNoSideEffects(Instruction rhs){
+        switch(rhs.getInstType()){
+            case NOPER -> {
+                return !(((SingleOpInstruction) rhs).getSingleOperand() instanceof ArrayOperand);
+            }
+            case UNARYOPER -> {
+                return !(((UnaryOpInstruction) rhs).getOperand() instanceof ArrayOperand);
+            }
+            case BINARYOPER -> {
+                BinaryOpInstruction operation = (BinaryOpInstruction) rhs;
+                if(operation.getLeftOperand() instanceof ArrayOperand || operation.getRightOperand() instanceof ArrayOperand)
+                    return false;
+                if(operation.getOperation().getOpType()!=OperationType.DIV)
+                    return true;
+                return operation.getRightOperand() instanceof LiteralElement literal && !literal.getLiteral().equals("0");
+            }
+            case GETFIELD -> {
+                //only the fields of this are accessed, so it cannot be null
+                return ((GetFieldInstruction) rhs).getFirstOperand() instanceof Operand object && object.getName().equals("this");
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+}
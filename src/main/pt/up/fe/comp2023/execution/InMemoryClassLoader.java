@@ -0,0 +1,25 @@
+package pt.up.fe.comp2023.execution;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Defines classes from their class file bytes. Only the platform classes are visible through the parent,
+ * so the program never sees the classes of the compiler.
+ */
+public class InMemoryClassLoader extends ClassLoader {
+    private final Map<String, byte[]> classFiles;
+
+    public InMemoryClassLoader(Map<String, byte[]> classFiles){
+        super(ClassLoader.getPlatformClassLoader());
+        this.classFiles = new HashMap<>(classFiles);
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        byte[] classFile = classFiles.get(name);
+        if(classFile==null)
+            throw new ClassNotFoundException(name);
+        return defineClass(name, classFile, 0, classFile.length);
+    }
+}
@@ -0,0 +1,102 @@
+package pt.up.fe.comp2023.execution;
+
+import pt.up.fe.specs.util.system.ProcessOutputAsString;
+
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Runs a compiled class inside the current JVM. The class and the helper classes of libs-jmm (io, ioPlus...)
+ * are defined from memory by a new class loader for every run, and the main method is invoked reflectively
+ * with the standard input, output and error replaced. Only one program runs at a time, since the standard
+ * streams are shared by the whole JVM.
+ */
+public class InMemoryRunner {
+    public static final String LIBS_CLASSPATH = "libs-jmm/compiled";
+
+    private static final Object streamsLock = new Object();
+
+    private final Map<String, byte[]> libraryClasses;
+
+    public InMemoryRunner(){
+        this(new File(LIBS_CLASSPATH));
+    }
+
+    public InMemoryRunner(File libsDir){
+        this.libraryClasses = readClassFiles(libsDir);
+    }
+
+    private static Map<String, byte[]> readClassFiles(File dir){
+        Map<String, byte[]> classFiles = new HashMap<>();
+        if(!dir.isDirectory())
+            return classFiles;
+        Path root = dir.toPath();
+        try(Stream<Path> paths = Files.walk(root)) {
+            for(Path path:paths.filter(path -> path.toString().endsWith(".class")).toList()){
+                String relative = root.relativize(path).toString();
+                String className = relative.substring(0, relative.length() - ".class".length()).replace(File.separatorChar, '.');
+                classFiles.put(className, Files.readAllBytes(path));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read the classes in " + dir, e);
+        }
+        return classFiles;
+    }
+
+    public ProcessOutputAsString run(String className, byte[] classFile, List<String> args){
+        return run(className, classFile, args, "");
+    }
+
+    /**
+     * Runs the main method of the class. A program that throws gets a return value of 1 and the exception
+     * in its error output, like the java launcher would do.
+     */
+    public ProcessOutputAsString run(String className, byte[] classFile, List<String> args, String input){
+        Map<String, byte[]> classFiles = new HashMap<>(libraryClasses);
+        classFiles.put(className.replace('/', '.'), classFile);
+        InMemoryClassLoader classLoader = new InMemoryClassLoader(classFiles);
+
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        int returnValue = 0;
+        synchronized (streamsLock) {
+            PrintStream oldOut = System.out;
+            PrintStream oldErr = System.err;
+            InputStream oldIn = System.in;
+            PrintStream out = new PrintStream(stdout, true, StandardCharsets.UTF_8);
+            PrintStream err = new PrintStream(stderr, true, StandardCharsets.UTF_8);
+            System.setOut(out);
+            System.setErr(err);
+            System.setIn(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+            try {
+                Method main = classLoader.loadClass(className.replace('/', '.')).getMethod("main", String[].class);
+                if(!Modifier.isStatic(main.getModifiers()))
+                    throw new NoSuchMethodException("main is not static");
+                main.invoke(null, (Object) args.toArray(new String[0]));
+            } catch (InvocationTargetException e) {
+                returnValue = 1;
+                err.print("Exception in thread \"main\" ");
+                e.getCause().printStackTrace(err);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                returnValue = 1;
+                err.println("Error: Could not run class " + className + ": " + e);
+            } finally {
+                out.flush();
+                err.flush();
+                System.setOut(oldOut);
+                System.setErr(oldErr);
+                System.setIn(oldIn);
+            }
+        }
+        return new ProcessOutputAsString(returnValue, stdout.toString(StandardCharsets.UTF_8), stderr.toString(StandardCharsets.UTF_8));
+    }
+}
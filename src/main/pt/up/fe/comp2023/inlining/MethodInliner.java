@@ -0,0 +1,203 @@
+package pt.up.fe.comp2023.inlining;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp2023.controlFlow.OllirInstructions;
+
+import java.util.*;
+
+/**
+ * Replaces the calls to small methods of the class by a copy of their instructions. Only the calls on this
+ * and the static calls to the class itself are inlined, so the receiver is never null; the class is compiled
+ * on its own, so the method called is the one found in it.
+ *
+ * The parameters and the local variables of the copy get new variables of the caller, assigned from the
+ * arguments before the copy, and the returns become an assignment to the variable of the call followed by a
+ * jump to the instruction after it. The copy is made from the instructions the methods had before anything
+ * was inlined, and its calls can be inlined as well, up to {@link #MAX_DEPTH} methods deep and never into a
+ * copy of the same method, so recursive methods stop being inlined.
+ */
+public class MethodInliner {
+    public static final int DEFAULT_SIZE = 20;
+    public static final int MAX_DEPTH = 3;
+    public static final int MAX_METHOD_SIZE = 1000;
+
+    private final ClassUnit ollirClass;
+    private final int maxSize;
+    private final Map<String,Method> methods;
+    private final Map<String,List<Instruction>> bodies;
+    private final Map<String,Map<Instruction,List<String>>> labels;
+
+    public MethodInliner(ClassUnit ollirClass, int maxSize){
+        this.ollirClass = ollirClass;
+        this.maxSize = maxSize;
+        this.methods = new HashMap<>();
+        this.bodies = new HashMap<>();
+        this.labels = new HashMap<>();
+        for(Method method:ollirClass.getMethods()){
+            if(method.isConstructMethod())
+                continue;
+            methods.put(method.getMethodName(), method);
+            bodies.put(method.getMethodName(), new ArrayList<>(method.getInstructions()));
+            labels.put(method.getMethodName(), OllirInstructions.getLabelsByInstruction(method));
+        }
+    }
+
+    /**
+     * Returns true when a call was inlined.
+     */
+    public boolean optimize(){
+        boolean changed = false;
+        for(Method method:ollirClass.getMethods()){
+            if(!method.isConstructMethod() && inlineCalls(method))
+                changed = true;
+        }
+        return changed;
+    }
+
+    private boolean inlineCalls(Method caller){
+        List<Instruction> instructions = caller.getInstructions();
+        //methods each instruction was copied from, the ones it cannot inline again
+        Map<Instruction,Set<String>> copiedFrom = new HashMap<>();
+        boolean changed = false;
+        for(int i=0;i<instructions.size();i++){
+            Instruction instruction = instructions.get(i);
+            Set<String> chain = copiedFrom.getOrDefault(instruction, Set.of());
+            Method callee = getInlinedMethod(caller, instruction, chain);
+            //the returns of the copy jump to the instruction after the call
+            if(callee==null || i==instructions.size() - 1)
+                continue;
+            List<Instruction> copy = inline(caller, callee, i);
+            Set<String> copyChain = new HashSet<>(chain);
+            copyChain.add(callee.getMethodName());
+            for(Instruction copied:copy)
+                copiedFrom.put(copied, copyChain);
+            //the copy is visited next, so its calls are inlined as well
+            i--;
+            changed = true;
+        }
+        return changed;
+    }
+
+    private Method getInlinedMethod(Method caller, Instruction instruction, Set<String> chain){
+        CallInstruction call = getCall(instruction);
+        if(call==null || !(call.getSecondArg() instanceof LiteralElement name))
+            return null;
+        Method callee = methods.get(name.getLiteral().replace("\"", ""));
+        if(callee==null || callee==caller || chain.contains(callee.getMethodName()) || chain.size()>=MAX_DEPTH)
+            return null;
+        if(!(call.getFirstArg() instanceof Operand receiver))
+            return null;
+        boolean onThis = call.getInvocationType()==CallType.invokevirtual && receiver.getName().equals("this")
+                && !callee.isStaticMethod();
+        boolean onClass = call.getInvocationType()==CallType.invokestatic && receiver.getName().equals(ollirClass.getClassName())
+                && callee.isStaticMethod();
+        if(!onThis && !onClass)
+            return null;
+        int size = bodies.get(callee.getMethodName()).size();
+        if(size>maxSize || caller.getInstructions().size() + size>MAX_METHOD_SIZE)
+            return null;
+        return callee;
+    }
+
+    private static CallInstruction getCall(Instruction instruction){
+        if(instruction instanceof CallInstruction call)
+            return call;
+        if(instruction instanceof AssignInstruction assign && assign.getRhs() instanceof CallInstruction call)
+            return call;
+        return null;
+    }
+
+    /**
+     * Replaces the call at the given position by a copy of the callee and returns the instructions added.
+     */
+    private List<Instruction> inline(Method caller, Method callee, int position){
+        List<Instruction> instructions = caller.getInstructions();
+        Instruction site = instructions.get(position);
+        CallInstruction call = getCall(site);
+        String calleeName = callee.getMethodName();
+
+        List<Instruction> body = bodies.get(calleeName);
+        Set<String> used = new TreeSet<>();
+        for(Element parameter:callee.getParams())
+            used.add(((Operand) parameter).getName());
+        for(Instruction instruction:body)
+            OllirInstructions.forEachOperand(instruction, operand -> used.add(operand.getName()));
+        Map<String,String> variables = new HashMap<>();
+        for(String variable:used){
+            Descriptor descriptor = callee.getVarTable().get(variable);
+            if(variable.equals("this") || descriptor==null
+                    || (descriptor.getScope()!=VarScope.LOCAL && descriptor.getScope()!=VarScope.PARAMETER))
+                continue;
+            variables.put(variable, OllirInstructions.newVariable(caller, calleeName + "_" + variable + "_", descriptor.getVarType()));
+        }
+        Map<String,String> jumps = new HashMap<>();
+        Map<Instruction,List<String>> calleeLabels = labels.get(calleeName);
+        for(List<String> names:calleeLabels.values()){
+            for(String label:names)
+                jumps.put(label, OllirInstructions.reserveLabel(caller, calleeName + "_" + label + "_"));
+        }
+        String end = OllirInstructions.reserveLabel(caller, calleeName + "_end");
+
+        //the result goes to the variable of the call, or through a new one when it is stored in an array or
+        //not used (reading the value returned can still throw)
+        Element result = null;
+        Instruction store = null;
+        if(site instanceof AssignInstruction assign && !(assign.getDest() instanceof ArrayOperand))
+            result = assign.getDest();
+        else if(call.getReturnType().getTypeOfElement()!=ElementType.VOID){
+            String name = OllirInstructions.newVariable(caller, calleeName + "_result_", call.getReturnType());
+            result = new Operand(name, call.getReturnType());
+            if(site instanceof AssignInstruction assign)
+                store = new AssignInstruction(assign.getDest(), assign.getTypeOfAssign(), new SingleOpInstruction(OllirInstructions.copyElement(result, Map.of())));
+        }
+
+        List<Instruction> copy = new ArrayList<>();
+        List<Element> parameters = callee.getParams();
+        List<Element> arguments = call.getListOfOperands();
+        for(int i=0;i<parameters.size();i++){
+            Operand parameter = (Operand) parameters.get(i);
+            Element dest = new Operand(variables.get(parameter.getName()), parameter.getType());
+            copy.add(new AssignInstruction(dest, parameter.getType(), new SingleOpInstruction(OllirInstructions.copyElement(arguments.get(i), Map.of()))));
+        }
+        Map<Instruction,Instruction> copies = new HashMap<>();
+        for(int i=0;i<body.size();i++){
+            Instruction instruction = body.get(i);
+            Instruction copied;
+            if(instruction instanceof ReturnInstruction ret){
+                if(ret.hasReturnValue()){
+                    copied = new AssignInstruction(OllirInstructions.copyElement(result, Map.of()), call.getReturnType(), new SingleOpInstruction(OllirInstructions.copyElement(ret.getOperand(), variables)));
+                    copy.add(copied);
+                    copy.add(new GotoInstruction(end));
+                }
+                else {
+                    copied = new GotoInstruction(end);
+                    copy.add(copied);
+                }
+            }
+            else {
+                copied = OllirInstructions.copyInstruction(instruction, variables, jumps);
+                copy.add(copied);
+            }
+            copies.put(instruction, copied);
+        }
+
+        HashMap<String,Instruction> callerLabels = caller.getLabels();
+        for(Map.Entry<Instruction,List<String>> label:calleeLabels.entrySet()){
+            for(String name:label.getValue())
+                callerLabels.put(jumps.get(name), copies.get(label.getKey()));
+        }
+        //the gotos to the instruction right after them are removed with the dead code
+        Instruction next = instructions.get(position + 1);
+        if(store!=null){
+            callerLabels.put(end, store);
+            copy.add(store);
+        }
+        else
+            callerLabels.put(end, next);
+
+        OllirInstructions.moveLabels(caller, OllirInstructions.getLabelsByInstruction(caller).get(site), copy.get(0));
+        instructions.remove(position);
+        instructions.addAll(position, copy);
+        return copy;
+    }
+}
@@ -0,0 +1,38 @@
+package pt.up.fe.comp2023.jasmin;
+
+import org.specs.comp.ollir.ClassUnit;
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2023.bytecode.ClassFileWriter;
+import pt.up.fe.comp2023.bytecode.JasminPrinter;
+import pt.up.fe.comp2023.bytecode.JvmClass;
+import pt.up.fe.comp2023.bytecode.OllirToBytecode;
+import pt.up.fe.comp2023.metrics.CompilationMetrics;
+import pt.up.fe.comp2023.output.OutputSink;
+
+import java.util.Objects;
+
+/**
+ * Backend that writes the class file directly, without going through the Jasmin text and assembler.
+ */
+public class ClassFileBackend implements pt.up.fe.comp.jmm.jasmin.JasminBackend {
+    private final CompilationMetrics metrics;
+
+    public ClassFileBackend(){
+        this(CompilationMetrics.DISABLED);
+    }
+
+    public ClassFileBackend(CompilationMetrics metrics){
+        this.metrics = metrics;
+    }
+
+    @Override
+    public JasminResult toJasmin(OllirResult ollirResult) {
+        ClassUnit classUnit = ollirResult.getOllirClass();
+        boolean peephole = Objects.equals(ollirResult.getConfig().get("optimize"), "true");
+        JvmClass jvmClass = metrics.measure(CompilationMetrics.BYTECODE, () -> new OllirToBytecode(peephole).visit(classUnit));
+        byte[] classFile = metrics.measure(CompilationMetrics.CLASS_FILE, () -> ClassFileWriter.write(jvmClass));
+        OutputSink.debug(ollirResult.getConfig(), () -> JasminPrinter.print(jvmClass));
+        return new ClassFileResult(ollirResult, jvmClass, classFile, ollirResult.getReports());
+    }
+}
@@ -0,0 +1,57 @@
+package pt.up.fe.comp2023.jasmin;
+
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp2023.bytecode.JasminPrinter;
+import pt.up.fe.comp2023.bytecode.JvmClass;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Result of the class file backend. The class file is already built, so compiling only writes it,
+ * the Jasmin listing is printed from the same instructions when someone asks for it.
+ */
+public class ClassFileResult extends JasminResult {
+    private final JvmClass jvmClass;
+    private final byte[] classFile;
+    private String jasminCode;
+
+    public ClassFileResult(OllirResult ollirResult, JvmClass jvmClass, byte[] classFile, List<Report> reports){
+        super(ollirResult, null, reports);
+        this.jvmClass = jvmClass;
+        this.classFile = classFile;
+    }
+
+    public JvmClass getJvmClass() {
+        return jvmClass;
+    }
+
+    public byte[] getClassFile() {
+        return classFile;
+    }
+
+    @Override
+    public synchronized String getJasminCode() {
+        if(jasminCode==null)
+            jasminCode = JasminPrinter.print(jvmClass);
+        return jasminCode;
+    }
+
+    @Override
+    public File compile(File outputDir) {
+        if(!outputDir.exists())
+            outputDir.mkdirs();
+        File file = new File(outputDir, getClassName() + ".class");
+        try {
+            Files.write(file.toPath(), classFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write " + file, e);
+        }
+        return file;
+    }
+}
@@ -3,15 +3,34 @@ package pt.up.fe.comp2023.jasmin;
 import org.specs.comp.ollir.ClassUnit;
 import pt.up.fe.comp.jmm.jasmin.JasminResult;
 import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp2023.metrics.CompilationMetrics;
+import pt.up.fe.comp2023.output.OutputSink;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 
 public class JasminBackend implements pt.up.fe.comp.jmm.jasmin.JasminBackend {
+    private final CompilationMetrics metrics;
+
+    public JasminBackend(){
+        this(CompilationMetrics.DISABLED);
+    }
+
+    public JasminBackend(CompilationMetrics metrics){
+        this.metrics = metrics;
+    }
+
     @Override
     public JasminResult toJasmin(OllirResult ollirResult) {
         ClassUnit classUnit = ollirResult.getOllirClass();
-        OllirVisitorForJasmin gen = new OllirVisitorForJasmin();
-        String jasmin = gen.visit(classUnit);
-        System.out.println(jasmin);
-        JasminResult result = new JasminResult(ollirResult, jasmin, ollirResult.getReports());
+        OllirVisitorForJasmin gen = new OllirVisitorForJasmin(Objects.equals(ollirResult.getConfig().get("optimize"), "true"));
+        String jasmin = metrics.measure(CompilationMetrics.JASMIN, () -> gen.visit(classUnit));
+        OutputSink.debug(ollirResult.getConfig(), () -> jasmin);
+        List<Report> reports = new ArrayList<>(ollirResult.getReports());
+        reports.addAll(gen.getReports());
+        JasminResult result = new JasminResult(ollirResult, jasmin, reports);
         return result;
     }
 }
@@ -3,6 +3,15 @@ package pt.up.fe.comp2023.jasmin;
 import jas.LocalVarTableAttr;
 import org.antlr.runtime.tree.RewriteEmptyStreamException;
 import org.specs.comp.ollir.*;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2023.bytecode.JasminParser;
+import pt.up.fe.comp2023.bytecode.JasminPrinter;
+import pt.up.fe.comp2023.bytecode.JvmInstruction;
+import pt.up.fe.comp2023.bytecode.PeepholeOptimizer;
+import pt.up.fe.comp2023.bytecode.StackSimulator;
+import pt.up.fe.comp2023.controlFlow.OllirInstructions;
 
 import javax.lang.model.element.TypeElement;
 import javax.print.DocFlavor;
@@ -21,14 +30,34 @@ public class OllirVisitorForJasmin {
 
     private String className;
 
-    public int conditionNumber = 0;
+    private int conditionNumber = 0;
 
-    public int stackNumber = 0;
+    private int stackNumber = 0;
 
-    public int currentStackNumber = 0;
+    private int currentStackNumber = 0;
+
+    private final boolean peephole;
+
+    private final List<Report> reports = new ArrayList<>();
+
+    public OllirVisitorForJasmin() {
+        this(false);
+    }
+
+    public OllirVisitorForJasmin(boolean peephole) {
+        this.peephole = peephole;
+    }
+
+    /**
+     * Errors found in the code of the methods while it was written.
+     */
+    public List<Report> getReports() {
+        return reports;
+    }
 
     public String visit(ClassUnit classUnit) {
         StringBuilder result = new StringBuilder();
+        conditionNumber = 0;
 
         result.append(visitClassHeader(classUnit));
         result.append(visitClassFields(classUnit));
@@ -105,6 +134,39 @@ public class OllirVisitorForJasmin {
         return lastRegister + 1;
     }
 
+    /**
+     * Writes the limits and the code of a method. The code is read back into instructions, so that the peephole
+     * optimizer can run over them and the limit of the stack comes from following every path of the code; code
+     * that cannot be read back keeps the limit counted while it was written. A stack that underflows or has
+     * different heights where paths meet is reported as an error.
+     */
+    private void appendCode(StringBuilder result, Method method, StringBuilder code, int nrRegisters) {
+        int limitOfStack = stackNumber;
+        String body = code.toString();
+        List<JvmInstruction> instructions = null;
+        try {
+            instructions = JasminParser.parseInstructions(body);
+        } catch (RuntimeException exception) {
+            //the code is kept as it was generated, with the stack limit counted while generating it
+            if (peephole)
+                reports.add(new Report(ReportType.WARNING, Stage.GENERATION, -1, -1,
+                        "Method " + method.getMethodName() + " was not optimized: " + exception.getMessage()));
+        }
+        if (instructions != null) {
+            if (peephole) {
+                PeepholeOptimizer.optimize(instructions);
+                body = JasminPrinter.printInstructions(instructions);
+            }
+            try {
+                limitOfStack = StackSimulator.maxStack(method.getMethodName(), instructions);
+            } catch (RuntimeException exception) {
+                reports.add(new Report(ReportType.ERROR, Stage.GENERATION, -1, -1, exception.getMessage()));
+            }
+        }
+        result.append("\t.limit stack ").append(limitOfStack).append("\n").append("\t.limit locals ").append(nrRegisters).append("\n");
+        result.append(body);
+    }
+
     public StringBuilder visitMethod(Method method) {
         StringBuilder result = new StringBuilder();
         if (method.isConstructMethod()) {
@@ -164,25 +226,23 @@ public class OllirVisitorForJasmin {
             currentStackNumber = 0;
             int nrRegisters = calculateLimitLocals(method);
             StringBuilder aux = new StringBuilder();
+            Map<Instruction, List<String>> labels = OllirInstructions.getLabelsByInstruction(method);
             for (Instruction instruction : method.getInstructions()) {
-                for (Map.Entry<String, Instruction> label : method.getLabels().entrySet()) {
-                    if (label.getValue().equals(instruction)) {
-                        aux.append(label.getKey()).append(":\n");
-                    }
+                for (String label : labels.getOrDefault(instruction, List.of())) {
+                    aux.append(label).append(":\n");
                 }
                 aux.append(getInstruction(instruction, varTable));
             }
 
-            result.append("\t.limit stack ").append(stackNumber).append("\n").append("\t.limit locals ").append(nrRegisters).append("\n");
-            result.append(aux);
-
             if (method.getReturnType().getTypeOfElement().equals(VOID)) {
-                result.append("\treturn\n");
+                aux.append("\treturn\n");
             } else if (method.getReturnType().getTypeOfElement().equals(OBJECTREF) || method.getReturnType().getTypeOfElement().equals(ARRAYREF)) {
-                result.append("\tareturn\n");
+                aux.append("\tareturn\n");
             } else {
-                result.append("\tireturn\n");
+                aux.append("\tireturn\n");
             }
+
+            appendCode(result, method, aux, nrRegisters);
             result.append(".end method");
         }
 
@@ -222,11 +282,31 @@ public class OllirVisitorForJasmin {
     public StringBuilder visitAssignmentStatement(AssignInstruction assign, HashMap<String, Descriptor> localVariable) {
         StringBuilder result = new StringBuilder();
         Instruction rhs = assign.getRhs();
+        if (assign.getDest() instanceof ArrayOperand arrayOperand && !(rhs instanceof SingleOpInstruction)) {
+            //the array and the index go below the value that is computed
+            getLoadInstruction(result, arrayOperand, localVariable);
+            for (Element element : arrayOperand.getIndexOperands())
+                getLoadInstruction(result, element, localVariable);
+            if (rhs instanceof BinaryOpInstruction) {
+                result.append(visitBinaryOpInstruction((BinaryOpInstruction) rhs, localVariable));
+            } else if (rhs instanceof CallInstruction) {
+                result.append(visitCallInstruction((CallInstruction) rhs, localVariable));
+            } else if (rhs instanceof GetFieldInstruction) {
+                result.append(visitGetFieldInstruction((GetFieldInstruction) rhs, localVariable));
+            } else if (rhs instanceof UnaryOpInstruction) {
+                result.append(visitUnaryOpInstruction((UnaryOpInstruction) rhs, localVariable));
+            }
+            result.append("\tiastore\n");
+            updateLimitOfStack(-3);
+            return result;
+        }
         if (rhs instanceof SingleOpInstruction && ((SingleOpInstruction) rhs).getSingleOperand().isLiteral()) {
             if (!(assign.getDest() instanceof  ArrayOperand)) {
                 Integer value = Integer.parseInt(((LiteralElement) ((SingleOpInstruction) rhs).getSingleOperand()).getLiteral());
                 jasmincodeForIntegerVariable(result, value);
             }
+        } else if (rhs instanceof SingleOpInstruction && assign.getDest() instanceof ArrayOperand && !(((SingleOpInstruction) rhs).getSingleOperand() instanceof ArrayOperand)) {
+            //the value is loaded after the array and the index
         } else if (rhs instanceof SingleOpInstruction) {
             ElementType type = ((SingleOpInstruction) rhs).getSingleOperand().getType().getTypeOfElement();
             String variableName = ((Operand) ((SingleOpInstruction) rhs).getSingleOperand()).getName();
@@ -251,7 +331,7 @@ public class OllirVisitorForJasmin {
             }
         } else if (rhs instanceof BinaryOpInstruction) {
             Operand destOperand = (Operand) assign.getDest();
-            if(((BinaryOpInstruction) rhs).getLeftOperand() instanceof Operand && destOperand.getName().equals(((Operand) ((BinaryOpInstruction) rhs).getLeftOperand()).getName()) && ((BinaryOpInstruction) rhs).getRightOperand().isLiteral()) {
+            if(isSameVariable(((BinaryOpInstruction) rhs).getLeftOperand(), destOperand, localVariable) && ((BinaryOpInstruction) rhs).getRightOperand().isLiteral()) {
                 if (((BinaryOpInstruction) rhs).getOperation().getOpType() == ADD) {
                     if (Integer.parseInt(((LiteralElement) ((BinaryOpInstruction) rhs).getRightOperand()).getLiteral())<= 127) {
                         result.append("\tiinc " + localVariable.get(destOperand.getName()).getVirtualReg() + " " + ((LiteralElement) ((BinaryOpInstruction) rhs).getRightOperand()).getLiteral() + "\n");
@@ -270,7 +350,7 @@ public class OllirVisitorForJasmin {
                     result.append(visitBinaryOpInstruction((BinaryOpInstruction) rhs, localVariable));
                 }
             }
-            else if(((BinaryOpInstruction) rhs).getRightOperand() instanceof Operand && destOperand.getName().equals(((Operand) ((BinaryOpInstruction) rhs).getRightOperand()).getName()) && ((BinaryOpInstruction) rhs).getLeftOperand().isLiteral()) {
+            else if(isSameVariable(((BinaryOpInstruction) rhs).getRightOperand(), destOperand, localVariable) && ((BinaryOpInstruction) rhs).getLeftOperand().isLiteral()) {
                 if (((BinaryOpInstruction) rhs).getOperation().getOpType() == ADD) {
                     if (Integer.parseInt(((LiteralElement) ((BinaryOpInstruction) rhs).getLeftOperand()).getLiteral())<= 127) {
                         result.append("\tiinc " + localVariable.get(destOperand.getName()).getVirtualReg() + " " + ((LiteralElement) ((BinaryOpInstruction) rhs).getLeftOperand()).getLiteral() + "\n");
@@ -382,6 +462,8 @@ public class OllirVisitorForJasmin {
             result.append("\timul");
         } else if (opType.equals(DIV)) {
             result.append("\tidiv");
+        } else if (opType.equals(SHL)) {
+            result.append("\tishl");
         } else if (opType.equals(ANDB)) {
             result.append("\tiand");
         } else if (opType.equals(LTH)) {
@@ -554,18 +636,29 @@ public class OllirVisitorForJasmin {
     public StringBuilder visitOperand(Operand operand, HashMap <String, Descriptor> localVariable){
         StringBuilder result = new StringBuilder();
         updateLimitOfStack(1);
-        if (operand.isParameter()){
+        Descriptor descriptor = localVariable.get(operand.getName());
+        if (descriptor == null && operand.isParameter()){
             result.append(legalizeInstruction("\tiload",operand.getParamId())).append("\n");
         }else {
-            String localVariableName = operand.getName();
-            int localVariableIdx;
-            localVariableIdx = localVariable.get(localVariableName).getVirtualReg();
-            result.append(legalizeInstruction("\tiload",localVariableIdx)).append("\n");
+            result.append(legalizeInstruction("\tiload",descriptor.getVirtualReg())).append("\n");
         }
 
         return result;
     }
 
+    /**
+     * Variables renamed apart can share a register, so an increment is found by comparing the registers.
+     */
+    private boolean isSameVariable(Element element, Operand dest, HashMap <String, Descriptor> localVariable){
+        if (!(element instanceof Operand operand) || operand instanceof ArrayOperand || dest instanceof ArrayOperand)
+            return false;
+        Descriptor elementDescriptor = localVariable.get(operand.getName());
+        Descriptor destDescriptor = localVariable.get(dest.getName());
+        if (elementDescriptor == null || destDescriptor == null)
+            return operand.getName().equals(dest.getName());
+        return elementDescriptor.getVirtualReg() == destDescriptor.getVirtualReg();
+    }
+
     public StringBuilder visitInvokeSpecial(CallInstruction callInstruction,HashMap <String, Descriptor> localVariable){
         StringBuilder result = new StringBuilder();
         String name = ((Operand)callInstruction.getFirstArg()).getName();
@@ -593,7 +686,7 @@ public class OllirVisitorForJasmin {
                 Operand op = (Operand) operand;
                 if (op.getType().getTypeOfElement().equals(OBJECTREF) || op.getType().getTypeOfElement().equals(STRING) || op.getType().getTypeOfElement().equals(ARRAYREF)) {
                     result.append(legalizeInstruction("\taload", localVariable.get(op.getName()).getVirtualReg())).append("\n");
-                } else if (firstOperand.getType().getTypeOfElement().equals(THIS)) {
+                } else if (op.getType().getTypeOfElement().equals(THIS)) {
                     result.append("\taload_0\n");
                 } else {
                     result.append(legalizeInstruction("\tiload", localVariable.get(op.getName()).getVirtualReg())).append("\n");
@@ -604,7 +697,6 @@ public class OllirVisitorForJasmin {
     }
     public StringBuilder visitInvokeStatic(CallInstruction callInstruction,HashMap <String, Descriptor> localVariable){
         StringBuilder result = new StringBuilder();
-        Element firstOperand = callInstruction.getFirstArg();
         for (Element operand: callInstruction.getListOfOperands()){
             if (operand.isLiteral()){
                 jasmincodeForIntegerVariable(result,Integer.parseInt(((LiteralElement) operand).getLiteral()));
@@ -613,7 +705,7 @@ public class OllirVisitorForJasmin {
                 if (op.getType().getTypeOfElement().equals(OBJECTREF) || op.getType().getTypeOfElement().equals(STRING) || op.getType().getTypeOfElement().equals(ARRAYREF)) {
                     result.append(legalizeInstruction("\taload", localVariable.get(op.getName()).getVirtualReg())).append("\n");
                     updateLimitOfStack(1);
-                } else if (firstOperand.getType().getTypeOfElement().equals(THIS)) {
+                } else if (op.getType().getTypeOfElement().equals(THIS)) {
                     result.append("\taload_0\n");
                 } else {
                     result.append(legalizeInstruction("\tiload", localVariable.get(op.getName()).getVirtualReg())).append("\n");
@@ -729,12 +821,10 @@ public class OllirVisitorForJasmin {
                     rightIsLiteral = true;
                 }
                 if (leftIsLiteral && ((LiteralElement) lhs).getLiteral().equals("0")) {
-                    jasmincodeForIntegerVariable(result,Integer.parseInt(((LiteralElement) lhs).getLiteral()));
                     getLoadInstruction(result,rhs, localVariable);
                     updateLimitOfStack(-1);
                     result.append("\tifgt ").append(condBranchInstruction.getLabel()).append("\n");
                 } else if (rightIsLiteral && ((LiteralElement) rhs).getLiteral().equals("0")){
-                    jasmincodeForIntegerVariable(result,Integer.parseInt(((LiteralElement) rhs).getLiteral()));
                     getLoadInstruction(result,lhs,localVariable);
                     updateLimitOfStack(-1);
                     result.append("\tiflt ").append(condBranchInstruction.getLabel()).append("\n");
@@ -818,7 +908,6 @@ public class OllirVisitorForJasmin {
         } else {
             for (Element element : callInstruction.getListOfOperands()) {
                 getLoadInstruction(result, element, localVariables);
-                updateLimitOfStack(1);
             }
 
             result.append("\tnewarray int\n");
@@ -0,0 +1,284 @@
+package pt.up.fe.comp2023.loopUnrolling;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp2023.controlFlow.ControlFlowGraph;
+import pt.up.fe.comp2023.controlFlow.DominatorTree;
+import pt.up.fe.comp2023.controlFlow.NaturalLoops;
+import pt.up.fe.comp2023.controlFlow.OllirInstructions;
+
+import java.util.*;
+
+/**
+ * Unrolls the innermost counted loops: loops whose header tests a counter against a bound (i < n) and whose
+ * body ends by incrementing the counter by a positive literal, where the bound and the rest of the header
+ * are the same in every iteration. A copy of the loop that runs the body several times per test is placed
+ * before it, and the original loop runs the iterations that are left.
+ *
+ * The copy tests i < n - (factor - 1) * step, so every body it runs would have passed the original test and
+ * the counter cannot overflow in between. When the bound is a variable close to the smallest int, that
+ * subtraction would wrap around, so the copy is skipped. The body must be laid out as the OLLIR generator
+ * emits it, from the target of the test to the goto back to the header, with no other way in or out.
+ */
+public class LoopUnrolling {
+    public static final int DEFAULT_FACTOR = 4;
+    public static final int MAX_UNROLLED_SIZE = 200;
+
+    private final Method method;
+    private final int factor;
+
+    public LoopUnrolling(Method method, int factor){
+        this.method = method;
+        this.factor = factor;
+    }
+
+    private record CountedLoop(Instruction header, List<Instruction> prefix, Operand counter, Element bound,
+                               int step, List<Instruction> body, String exit){}
+
+    /**
+     * Returns true when a loop was unrolled.
+     */
+    public boolean optimize(){
+        if(factor<2 || method.getInstructions().isEmpty())
+            return false;
+        ControlFlowGraph cfg = new ControlFlowGraph(method);
+        NaturalLoops loops = new NaturalLoops(new DominatorTree(cfg));
+        BitSet headers = new BitSet();
+        for(int loop=0;loop<loops.getNrLoops();loop++)
+            headers.set(loops.getHeader(loop));
+
+        //the innermost loops do not share instructions, so each one is unrolled on its own
+        List<CountedLoop> countedLoops = new ArrayList<>();
+        for(int loop=0;loop<loops.getNrLoops();loop++){
+            BitSet inner = (BitSet) loops.getBody(loop).clone();
+            inner.and(headers);
+            if(inner.cardinality()!=1)
+                continue;
+            CountedLoop countedLoop = findCountedLoop(cfg, loops.getHeader(loop), loops.getBody(loop));
+            if(countedLoop!=null)
+                countedLoops.add(countedLoop);
+        }
+        for(CountedLoop countedLoop:countedLoops)
+            unroll(countedLoop);
+        return !countedLoops.isEmpty();
+    }
+
+    private CountedLoop findCountedLoop(ControlFlowGraph cfg, int header, BitSet loop){
+        List<Instruction> instructions = method.getInstructions();
+        if(!(cfg.getLastInstruction(header) instanceof CondBranchInstruction test)
+                || !(test.getCondition() instanceof BinaryOpInstruction condition))
+            return null;
+        Element counter;
+        Element bound;
+        switch(condition.getOperation().getOpType()){
+            case LTH -> {
+                counter = condition.getLeftOperand();
+                bound = condition.getRightOperand();
+            }
+            case GTH -> {
+                counter = condition.getRightOperand();
+                bound = condition.getLeftOperand();
+            }
+            default -> {
+                return null;
+            }
+        }
+        if(!isIntVariable(counter) || !(isIntVariable(bound) || bound instanceof LiteralElement)
+                || bound.getType().getTypeOfElement()!=ElementType.INT32)
+            return null;
+        String counterName = ((Operand) counter).getName();
+
+        int target = cfg.getJumpTarget(header);
+        int exit = cfg.getFallThrough(header);
+        if(target<0 || target==header || !loop.get(target) || exit<0 || loop.get(exit))
+            return null;
+        int latch = -1;
+        for(int predecessor:cfg.getPredecessors(header)){
+            if(!loop.get(predecessor))
+                continue;
+            if(latch>=0)
+                return null;
+            latch = predecessor;
+        }
+        if(latch<0 || latch==header)
+            return null;
+        int first = cfg.getFirst(target);
+        int last = cfg.getLast(latch);
+        int size = 0;
+        for(int block=loop.nextSetBit(0);block>=0;block=loop.nextSetBit(block + 1)){
+            if(block==header)
+                continue;
+            if(cfg.getFirst(block)<first || cfg.getLast(block)>last)
+                return null;
+            size += cfg.getLast(block) - cfg.getFirst(block) + 1;
+        }
+        if(size!=last - first + 1 || last - first<1 || (long) (last - first)*factor>MAX_UNROLLED_SIZE)
+            return null;
+
+        Instruction headerFirst = instructions.get(cfg.getFirst(header));
+        if(!(instructions.get(last) instanceof GotoInstruction back) || method.getLabels().get(back.getLabel())!=headerFirst)
+            return null;
+        //the copy is entered where the original loop was, so the loop can only be entered by falling into it
+        for(Instruction instruction:instructions){
+            String label = OllirInstructions.getJumpLabel(instruction);
+            if(label!=null && instruction!=back && method.getLabels().get(label)==headerFirst)
+                return null;
+        }
+        if(!(instructions.get(last - 1) instanceof AssignInstruction increment) || !isVariable(increment.getDest(), counterName))
+            return null;
+        Integer step = getStep(increment.getRhs(), counterName);
+        if(step==null || step<=0 || (long) (factor - 1)*step>Integer.MAX_VALUE)
+            return null;
+        if(bound instanceof LiteralElement literal && (long) Integer.parseInt(literal.getLiteral()) - (long) (factor - 1)*step<Integer.MIN_VALUE)
+            return null;
+
+        List<Instruction> body = new ArrayList<>(instructions.subList(first, last));
+        Set<Instruction> bodyInstructions = new HashSet<>(body);
+        Set<Instruction> labeled = OllirInstructions.getLabelsByInstruction(method).keySet();
+        if(labeled.contains(back))
+            return null;
+        Set<String> defined = new HashSet<>();
+        for(Instruction instruction:body){
+            switch(instruction.getInstType()){
+                case ASSIGN, CALL, PUTFIELD -> {
+                    //these run in every copy of the body
+                }
+                case GOTO, BRANCH -> {
+                    if(!bodyInstructions.contains(method.getLabels().get(OllirInstructions.getJumpLabel(instruction))))
+                        return null;
+                }
+                default -> {
+                    return null;
+                }
+            }
+            String dest = OllirInstructions.getDefinedVariable(instruction);
+            if(dest==null)
+                continue;
+            if(dest.equals(counterName) && instruction!=increment)
+                return null;
+            defined.add(dest);
+        }
+        if(bound instanceof Operand operand && (defined.contains(operand.getName()) || operand.getName().equals(counterName)))
+            return null;
+
+        List<Instruction> prefix = new ArrayList<>(instructions.subList(cfg.getFirst(header), cfg.getLast(header)));
+        Set<String> prefixDefined = new HashSet<>();
+        for(Instruction instruction:prefix)
+            prefixDefined.add(OllirInstructions.getDefinedVariable(instruction));
+        for(Instruction instruction:prefix){
+            if(!isInvariantAssignment(instruction, defined, prefixDefined) || counterName.equals(OllirInstructions.getDefinedVariable(instruction)))
+                return null;
+            prefixDefined.remove(OllirInstructions.getDefinedVariable(instruction));
+        }
+        return new CountedLoop(headerFirst, prefix, (Operand) counter, bound, step, body, back.getLabel());
+    }
+
+    /**
+     * Assignment of the header that gives the same value in every iteration: it cannot write to memory or
+     * throw other than on the first iteration, and it only reads variables that the body does not assign and
+     * that the header does not assign after it.
+     */
+    private static boolean isInvariantAssignment(Instruction instruction, Set<String> defined, Set<String> assignedAfter){
+        String dest = OllirInstructions.getDefinedVariable(instruction);
+        if(dest==null || defined.contains(dest))
+            return false;
+        boolean[] variant = {false};
+        OllirInstructions.forEachOperand(((AssignInstruction) instruction).getRhs(), operand -> {
+            if(operand instanceof ArrayOperand || defined.contains(operand.getName()) || assignedAfter.contains(operand.getName()))
+                variant[0] = true;
+        });
+        if(variant[0])
+            return false;
+        Instruction rhs = ((AssignInstruction) instruction).getRhs();
+        return switch(rhs.getInstType()){
+            case NOPER, UNARYOPER -> true;
+            case BINARYOPER -> ((BinaryOpInstruction) rhs).getOperation().getOpType()!=OperationType.DIV;
+            case CALL -> ((CallInstruction) rhs).getInvocationType()==CallType.arraylength;
+            default -> false;
+        };
+    }
+
+    /**
+     * Places the unrolled copy of the loop right before its header: the header's assignments, the limit of
+     * the counter, the test and the copies of the body, the last one jumping back to the test.
+     */
+    private void unroll(CountedLoop loop){
+        List<Instruction> instructions = method.getInstructions();
+        Map<Instruction,List<String>> labels = OllirInstructions.getLabelsByInstruction(method);
+        Type type = new Type(ElementType.INT32);
+        Type bool = new Type(ElementType.BOOLEAN);
+        int offset = (factor - 1)*loop.step();
+        List<Instruction> code = new ArrayList<>();
+        for(Instruction instruction:loop.prefix())
+            code.add(OllirInstructions.copyInstruction(instruction, Map.of(), Map.of()));
+
+        Element limit;
+        if(loop.bound() instanceof LiteralElement literal)
+            limit = literal(Integer.parseInt(literal.getLiteral()) - offset);
+        else {
+            //laid out like the test of a loop, so the jump does not go to the header, which joins other edges
+            CondBranchInstruction guard = new OpCondInstruction(new BinaryOpInstruction(
+                    literal(Integer.MIN_VALUE + offset - 1), new Operation(OperationType.LTH, bool), OllirInstructions.copyElement(loop.bound(), Map.of())));
+            code.add(guard);
+            code.add(new GotoInstruction(loop.exit()));
+            limit = new Operand(OllirInstructions.newVariable(method, "limit", type), type);
+            Instruction assignLimit = new AssignInstruction(OllirInstructions.copyElement(limit, Map.of()), type, new BinaryOpInstruction(
+                    OllirInstructions.copyElement(loop.bound(), Map.of()), new Operation(OperationType.SUB, type), literal(offset)));
+            String limitLabel = OllirInstructions.reserveLabel(method, "unroll");
+            method.getLabels().put(limitLabel, assignLimit);
+            guard.setLabel(limitLabel);
+            code.add(assignLimit);
+        }
+        CondBranchInstruction test = new OpCondInstruction(new BinaryOpInstruction(
+                OllirInstructions.copyElement(loop.counter(), Map.of()), new Operation(OperationType.LTH, bool), OllirInstructions.copyElement(limit, Map.of())));
+        String header = OllirInstructions.reserveLabel(method, "unroll");
+        method.getLabels().put(header, test);
+        code.add(test);
+        code.add(new GotoInstruction(loop.exit()));
+
+        for(int copy=0;copy<factor;copy++){
+            Map<String,String> jumps = new HashMap<>();
+            for(Instruction instruction:loop.body()){
+                for(String label:labels.getOrDefault(instruction, List.of()))
+                    jumps.put(label, OllirInstructions.reserveLabel(method, "unroll"));
+            }
+            for(Instruction instruction:loop.body()){
+                Instruction copied = OllirInstructions.copyInstruction(instruction, Map.of(), jumps);
+                for(String label:labels.getOrDefault(instruction, List.of()))
+                    method.getLabels().put(jumps.get(label), copied);
+                if(instruction==loop.body().get(0) && copy==0){
+                    String start = OllirInstructions.reserveLabel(method, "unroll");
+                    method.getLabels().put(start, copied);
+                    test.setLabel(start);
+                }
+                code.add(copied);
+            }
+        }
+        code.add(new GotoInstruction(header));
+        instructions.addAll(instructions.indexOf(loop.header()), code);
+    }
+
+    /**
+     * Step of an increment of the variable by a literal, or null when it is not one.
+     */
+    private static Integer getStep(Instruction rhs, String variable){
+        if(!(rhs instanceof BinaryOpInstruction operation) || operation.getOperation().getOpType()!=OperationType.ADD)
+            return null;
+        if(isVariable(operation.getLeftOperand(), variable) && operation.getRightOperand() instanceof LiteralElement literal)
+            return Integer.parseInt(literal.getLiteral());
+        if(isVariable(operation.getRightOperand(), variable) && operation.getLeftOperand() instanceof LiteralElement literal)
+            return Integer.parseInt(literal.getLiteral());
+        return null;
+    }
+
+    private static boolean isIntVariable(Element element){
+        return element instanceof Operand && !(element instanceof ArrayOperand) && element.getType().getTypeOfElement()==ElementType.INT32;
+    }
+
+    private static boolean isVariable(Element element, String variable){
+        return element instanceof Operand operand && !(element instanceof ArrayOperand) && operand.getName().equals(variable);
+    }
+
+    private static LiteralElement literal(int value){
+        return new LiteralElement(String.valueOf(value), new Type(ElementType.INT32));
+    }
+}
@@ -0,0 +1,173 @@
+package pt.up.fe.comp2023.metrics;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Records the wall time, the cpu time and the bytes allocated by each compilation stage.
+ * Runs of the same stage are added together, so a single instance can be shared by every
+ * compilation of a batch. The cpu time and the allocations are measured on the current thread.
+ */
+public class CompilationMetrics {
+    public static final String PARSE = "parse";
+    public static final String SYMBOL_TABLE = "symbolTable";
+    public static final String ANALYSIS = "analysis";
+    public static final String CONST_FOLDING = "constFolding";
+    public static final String TAIL_RECURSION = "tailRecursion";
+    public static final String INLINING = "inlining";
+    public static final String ALGEBRAIC_SIMPLIFICATION = "algebraicSimplification";
+    public static final String CONST_PROPAGATION = "constPropagation";
+    public static final String UNROLLING = "unrolling";
+    public static final String SSA = "ssa";
+    public static final String COPY_PROPAGATION = "copyPropagation";
+    public static final String VALUE_NUMBERING = "valueNumbering";
+    public static final String CODE_MOTION = "codeMotion";
+    public static final String STRENGTH_REDUCTION = "strengthReduction";
+    public static final String DEAD_CODE = "deadCode";
+    public static final String OLLIR_GENERATION = "ollirGeneration";
+    public static final String CFG = "cfg";
+    public static final String LIVENESS = "liveness";
+    public static final String COLORING = "coloring";
+    public static final String JASMIN = "jasmin";
+    public static final String BYTECODE = "bytecode";
+    public static final String CLASS_FILE = "classFile";
+
+    /**
+     * Used by the stages when nobody asked for metrics, runs the stages without measuring anything.
+     */
+    public static final CompilationMetrics DISABLED = new CompilationMetrics(false);
+
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    private final boolean enabled;
+    private final Map<String, StageMetrics> stages;
+
+    public CompilationMetrics(){
+        this(true);
+    }
+
+    private CompilationMetrics(boolean enabled){
+        this.enabled = enabled;
+        this.stages = new LinkedHashMap<>();
+    }
+
+    public <T> T measure(String stage, Supplier<T> action){
+        Timer timer = start(stage);
+        try {
+            return action.get();
+        }
+        finally {
+            timer.stop();
+        }
+    }
+
+    public void measure(String stage, Runnable action){
+        Timer timer = start(stage);
+        try {
+            action.run();
+        }
+        finally {
+            timer.stop();
+        }
+    }
+
+    public Timer start(String stage){
+        return new Timer(stage);
+    }
+
+    public synchronized Map<String, StageMetrics> getStages(){
+        return new LinkedHashMap<>(stages);
+    }
+
+    private synchronized StageMetrics getStage(String stage){
+        return stages.computeIfAbsent(stage, name -> new StageMetrics());
+    }
+
+    public String toJson(){
+        JsonObject json = new JsonObject();
+        for(Map.Entry<String, StageMetrics> entry:getStages().entrySet()){
+            StageMetrics metrics = entry.getValue();
+            JsonObject stageJson = new JsonObject();
+            stageJson.addProperty("invocations", metrics.getInvocations());
+            stageJson.addProperty("wallNanos", metrics.getWallNanos());
+            stageJson.addProperty("cpuNanos", metrics.getCpuNanos());
+            stageJson.addProperty("allocatedBytes", metrics.getAllocatedBytes());
+            json.add(entry.getKey(), stageJson);
+        }
+        return new GsonBuilder().setPrettyPrinting().create().toJson(json);
+    }
+
+    /**
+     * Dumps the metrics in the Prometheus text exposition format.
+     */
+    public String toPrometheus(){
+        Map<String, StageMetrics> stages = getStages();
+        StringBuilder text = new StringBuilder();
+        appendPrometheusMetric(text, stages, "jmm_stage_invocations_total", "Number of runs of the stage.", metrics -> String.valueOf(metrics.getInvocations()));
+        appendPrometheusMetric(text, stages, "jmm_stage_wall_seconds_total", "Wall time spent in the stage.", metrics -> String.valueOf(metrics.getWallNanos() / 1e9));
+        appendPrometheusMetric(text, stages, "jmm_stage_cpu_seconds_total", "Cpu time spent in the stage.", metrics -> String.valueOf(metrics.getCpuNanos() / 1e9));
+        appendPrometheusMetric(text, stages, "jmm_stage_allocated_bytes_total", "Bytes allocated during the stage.", metrics -> String.valueOf(metrics.getAllocatedBytes()));
+        return text.toString();
+    }
+
+    private void appendPrometheusMetric(StringBuilder text, Map<String, StageMetrics> stages, String name, String help, Function<StageMetrics, String> value){
+        text.append("# HELP ").append(name).append(" ").append(help).append("\n");
+        text.append("# TYPE ").append(name).append(" counter\n");
+        for(Map.Entry<String, StageMetrics> entry:stages.entrySet())
+            text.append(name).append("{stage=\"").append(entry.getKey()).append("\"} ").append(value.apply(entry.getValue())).append("\n");
+    }
+
+    /**
+     * Formats the metrics as asked by the "metrics" config option ("json" or "prometheus").
+     */
+    public String format(String format){
+        return switch (format) {
+            case "json" -> toJson();
+            case "prometheus" -> toPrometheus();
+            default -> throw new RuntimeException("Unknown metrics format '" + format + "', expected json or prometheus.");
+        };
+    }
+
+    private static long currentThreadCpuTime(){
+        return threadBean.isCurrentThreadCpuTimeSupported() ? threadBean.getCurrentThreadCpuTime() : 0;
+    }
+
+    private static long currentThreadAllocatedBytes(){
+        if(threadBean instanceof com.sun.management.ThreadMXBean sunThreadBean && sunThreadBean.isThreadAllocatedMemorySupported())
+            return sunThreadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+        return 0;
+    }
+
+    /**
+     * A single run of a stage, started by {@link #start(String)}.
+     */
+    public class Timer {
+        private final String stage;
+        private final long startWall;
+        private final long startCpu;
+        private final long startAllocated;
+
+        private Timer(String stage){
+            this.stage = stage;
+            this.startWall = enabled ? System.nanoTime() : 0;
+            this.startCpu = enabled ? currentThreadCpuTime() : 0;
+            this.startAllocated = enabled ? currentThreadAllocatedBytes() : 0;
+        }
+
+        public void stop(){
+            if(!enabled)
+                return;
+            long wall = System.nanoTime() - startWall;
+            long cpu = currentThreadCpuTime() - startCpu;
+            long allocated = currentThreadAllocatedBytes() - startAllocated;
+            getStage(stage).add(wall, cpu, allocated);
+        }
+    }
+}
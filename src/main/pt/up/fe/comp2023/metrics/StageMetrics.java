@@ -0,0 +1,34 @@
+package pt.up.fe.comp2023.metrics;
+
+/**
+ * Totals of every run of one compilation stage.
+ */
+public class StageMetrics {
+    private long invocations;
+    private long wallNanos;
+    private long cpuNanos;
+    private long allocatedBytes;
+
+    synchronized void add(long wallNanos, long cpuNanos, long allocatedBytes){
+        this.invocations++;
+        this.wallNanos += wallNanos;
+        this.cpuNanos += cpuNanos;
+        this.allocatedBytes += allocatedBytes;
+    }
+
+    public synchronized long getInvocations() {
+        return invocations;
+    }
+
+    public synchronized long getWallNanos() {
+        return wallNanos;
+    }
+
+    public synchronized long getCpuNanos() {
+        return cpuNanos;
+    }
+
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+}
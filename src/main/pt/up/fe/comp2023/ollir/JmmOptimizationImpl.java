@@ -9,16 +9,40 @@ import pt.up.fe.comp.jmm.ollir.OllirResult;
 import pt.up.fe.comp.jmm.report.Report;
 import pt.up.fe.comp.jmm.report.ReportType;
 import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2023.algebraicSimplification.AlgebraicSimplification;
 import pt.up.fe.comp2023.constFolding.JmmVisitorForConstFolding;
-import pt.up.fe.comp2023.constPropagation.JmmVisitorForConstPropagation;
+import pt.up.fe.comp2023.constPropagation.SparseConditionalConstPropagation;
+import pt.up.fe.comp2023.deadCode.DeadCodeElimination;
+import pt.up.fe.comp2023.inlining.MethodInliner;
+import pt.up.fe.comp2023.loopUnrolling.LoopUnrolling;
+import pt.up.fe.comp2023.metrics.CompilationMetrics;
+import pt.up.fe.comp2023.output.OutputSink;
+import pt.up.fe.comp2023.registerAllocation.Liveness;
 import pt.up.fe.comp2023.registerAllocation.MethodVisitor;
+import pt.up.fe.comp2023.ssa.CopyPropagation;
+import pt.up.fe.comp2023.ssa.InductionVariableReduction;
+import pt.up.fe.comp2023.ssa.LoopInvariantCodeMotion;
+import pt.up.fe.comp2023.ssa.SsaForm;
+import pt.up.fe.comp2023.ssa.ValueNumbering;
 import pt.up.fe.comp2023.symbolTable.JmmSymbolTable;
+import pt.up.fe.comp2023.tailRecursion.TailRecursionElimination;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Collectors;
 
 
 public class JmmOptimizationImpl implements JmmOptimization {
+    private final CompilationMetrics metrics;
+
+    public JmmOptimizationImpl(){
+        this(CompilationMetrics.DISABLED);
+    }
+
+    public JmmOptimizationImpl(CompilationMetrics metrics){
+        this.metrics = metrics;
+    }
 
     private String fieldsToOllir(List<Symbol> fields){
         StringBuilder fieldsCodeBuilder = new StringBuilder();
@@ -79,10 +103,11 @@ public class JmmOptimizationImpl implements JmmOptimization {
     public OllirResult toOllir(JmmSemanticsResult jmmSemanticsResult) {
         if(jmmSemanticsResult.getReports().size()>0) {
             for (Report report:jmmSemanticsResult.getReports())
-                System.out.println(report.toString());
+                OutputSink.debug(jmmSemanticsResult.getConfig(), report::toString);
             return new OllirResult(jmmSemanticsResult, "", jmmSemanticsResult.getReports());
 
         }
+        CompilationMetrics.Timer timer = metrics.start(CompilationMetrics.OLLIR_GENERATION);
         JmmSymbolTable symbolTable = (JmmSymbolTable) jmmSemanticsResult.getSymbolTable();
         JmmVisitorForOllir gen = new JmmVisitorForOllir(symbolTable);
         gen.visit(jmmSemanticsResult.getRootNode());
@@ -104,42 +129,145 @@ public class JmmOptimizationImpl implements JmmOptimization {
                 }
                 """,imports,symbolTable.getClassName(),superName, fields,symbolTable.getClassName(),methods);
 
-        System.out.println(ollirCode);
-        return new OllirResult(ollirCode,jmmSemanticsResult.getConfig());
+        OutputSink.debug(jmmSemanticsResult.getConfig(), () -> ollirCode);
+        OllirResult ollirResult = new OllirResult(ollirCode,jmmSemanticsResult.getConfig());
+        timer.stop();
+        return ollirResult;
+    }
+
+    private static boolean isOptimizing(Map<String,String> config){
+        return config.containsKey("optimize") && Objects.equals(config.get("optimize"), "true");
     }
 
     @Override
     public JmmSemanticsResult optimize(JmmSemanticsResult semanticsResult){
-        boolean continueOptimizing = semanticsResult.getConfig().containsKey("optimize") && Objects.equals(semanticsResult.getConfig().get("optimize"), "true");
-        while(continueOptimizing) {
+        if(isOptimizing(semanticsResult.getConfig())) {
+            //the folding visits the children first, so nested constant expressions are folded in a single visit
             JmmVisitorForConstFolding jmmVisitorForConstFolding = new JmmVisitorForConstFolding();
-            jmmVisitorForConstFolding.visit(semanticsResult.getRootNode());
-            continueOptimizing = jmmVisitorForConstFolding.hasOptimized();
-            JmmVisitorForConstPropagation jmmVisitorForConstPropagation = new JmmVisitorForConstPropagation(semanticsResult.getSymbolTable());
-            jmmVisitorForConstPropagation.visit(semanticsResult.getRootNode());
-            continueOptimizing = continueOptimizing || jmmVisitorForConstPropagation.hasOptimized();
+            metrics.measure(CompilationMetrics.CONST_FOLDING, () -> jmmVisitorForConstFolding.visit(semanticsResult.getRootNode()));
         }
         return semanticsResult;
     }
+
+    /**
+     * The passes of -o, from all of them to none. Moved code, propagated copies and the variables of inlined and
+     * tail calls stay live for longer, so a class that does not fit in the registers of -r=N is optimized again
+     * with the next level.
+     */
+    private enum Passes {
+        ALL,
+        //no loop unrolling, loop invariant code motion or induction variable reduction
+        NO_CODE_MOTION,
+        //only the algebraic simplification, the constant propagation and the dead code elimination
+        LOCAL,
+        NONE
+    }
+
     @Override
     public OllirResult optimize(OllirResult ollirResult){
-        if(ollirResult.getConfig().containsKey("registerAllocation")){
-            int nrRegisters = Integer.parseInt(ollirResult.getConfig().get("registerAllocation"));
+        Passes passes = isOptimizing(ollirResult.getConfig()) ? Passes.ALL : Passes.NONE;
+        OllirResult optimized = ollirResult;
+        Method unallocated = optimize(optimized, passes);
+        while (unallocated != null && passes != Passes.NONE) {
+            //the passes change the methods, so the class is parsed again from its OLLIR code
+            passes = Passes.values()[passes.ordinal() + 1];
+            optimized = new OllirResult(ollirResult.getOllirCode(), ollirResult.getConfig());
+            unallocated = optimize(optimized, passes);
+        }
+        if (unallocated != null) {
+            int minimum = getMinimumRegisters(ollirResult, Integer.parseInt(ollirResult.getConfig().getOrDefault("registerAllocation", "0")));
+            optimized.getReports().add(new Report(ReportType.ERROR, Stage.OPTIMIZATION, -1, -1,
+                    "Not enough registers for method " + unallocated.getMethodName() + ", at least " + minimum + " are needed"));
+        }
+        return optimized;
+    }
+
+    /**
+     * Runs the given passes and allocates the registers. Returns the first method that does not fit in the
+     * registers, or null when all of them do.
+     */
+    private Method optimize(OllirResult ollirResult, Passes passes){
+        boolean optimizing = isOptimizing(ollirResult.getConfig());
+        boolean codeMotion = passes == Passes.ALL;
+        boolean ssa = passes == Passes.ALL || passes == Passes.NO_CODE_MOTION;
+        Map<Method, Liveness> livenesses = new HashMap<>();
+        String valueNumbering = ollirResult.getConfig().getOrDefault("valueNumbering", ValueNumbering.GLOBAL);
+        if(passes != Passes.NONE) {
+            if (ssa) {
+                for (Method method : ollirResult.getOllirClass().getMethods())
+                    metrics.measure(CompilationMetrics.TAIL_RECURSION, () -> new TailRecursionElimination(method).optimize());
+                int inlining = Integer.parseInt(ollirResult.getConfig().getOrDefault("inlining", String.valueOf(MethodInliner.DEFAULT_SIZE)));
+                if (inlining > 0)
+                    metrics.measure(CompilationMetrics.INLINING, () -> new MethodInliner(ollirResult.getOllirClass(), inlining).optimize());
+            }
+            int unrolling = Integer.parseInt(ollirResult.getConfig().getOrDefault("unroll", String.valueOf(LoopUnrolling.DEFAULT_FACTOR)));
+            for (Method method : ollirResult.getOllirClass().getMethods()) {
+                metrics.measure(CompilationMetrics.ALGEBRAIC_SIMPLIFICATION, () -> new AlgebraicSimplification(method).optimize());
+                metrics.measure(CompilationMetrics.CONST_PROPAGATION, () -> new SparseConditionalConstPropagation(method).optimize());
+                if (codeMotion && unrolling > 1)
+                    metrics.measure(CompilationMetrics.UNROLLING, () -> new LoopUnrolling(method, unrolling).optimize());
+                if (ssa)
+                    optimizeSsa(method, valueNumbering, codeMotion);
+                DeadCodeElimination deadCode = new DeadCodeElimination(method);
+                metrics.measure(CompilationMetrics.DEAD_CODE, deadCode::optimize);
+                livenesses.put(method, deadCode.getLiveness());
+            }
+        }
+        //the variables created by the SSA form have no register until they are allocated
+        if(ollirResult.getConfig().containsKey("registerAllocation") || optimizing){
+            int nrRegisters = Integer.parseInt(ollirResult.getConfig().getOrDefault("registerAllocation", "0"));
+            if(optimizing && nrRegisters<0)
+                nrRegisters = 0;
             if(nrRegisters>=0) {
+                String allocator = ollirResult.getConfig().getOrDefault("allocator", MethodVisitor.GRAPH_COLORING);
                 ClassUnit ollirClass = ollirResult.getOllirClass();
-                ollirClass.buildCFGs();
+                metrics.measure(CompilationMetrics.CFG, ollirClass::buildCFGs);
 
                 for (Method method : ollirClass.getMethods()) {
-                    MethodVisitor visitor = new MethodVisitor(method,nrRegisters);
-                    visitor.visit();
-                    if (visitor.insufficientRegisters()) {
-                        ollirResult.getReports().add(new Report(ReportType.ERROR, Stage.OPTIMIZATION, -1, -1, "Not enough registers"));
-                        break;
-                    }
+                    MethodVisitor visitor = new MethodVisitor(method,nrRegisters,allocator,metrics);
+                    if (livenesses.containsKey(method))
+                        visitor.visit(livenesses.get(method));
+                    else
+                        visitor.visit();
+                    if (visitor.insufficientRegisters())
+                        return method;
                 }
             }
         }
+        return null;
+    }
 
-       return ollirResult;
+    private void optimizeSsa(Method method, String valueNumbering, boolean codeMotion){
+        SsaForm ssa = metrics.measure(CompilationMetrics.SSA, () -> SsaForm.construct(method));
+        metrics.measure(CompilationMetrics.COPY_PROPAGATION, () -> new CopyPropagation(ssa).optimize());
+        boolean copies = metrics.measure(CompilationMetrics.ALGEBRAIC_SIMPLIFICATION, () -> new AlgebraicSimplification(ssa).optimize());
+        if (!valueNumbering.equals(ValueNumbering.NONE)
+                && metrics.measure(CompilationMetrics.VALUE_NUMBERING, () -> new ValueNumbering(ssa, valueNumbering).optimize()))
+            copies = true;
+        if (copies)
+            metrics.measure(CompilationMetrics.COPY_PROPAGATION, () -> new CopyPropagation(ssa).optimize());
+        if (codeMotion) {
+            metrics.measure(CompilationMetrics.CODE_MOTION, () -> new LoopInvariantCodeMotion(ssa).optimize());
+            if (metrics.measure(CompilationMetrics.STRENGTH_REDUCTION, () -> new InductionVariableReduction(ssa).optimize()))
+                metrics.measure(CompilationMetrics.COPY_PROPAGATION, () -> new CopyPropagation(ssa).optimize());
+        }
+        metrics.measure(CompilationMetrics.SSA, ssa::destruct);
+    }
+
+    /**
+     * Smallest number of registers above the given one that the class compiles with. The allocators change the
+     * methods as they spill, so the class is parsed again from its OLLIR code for each number tried. With as many
+     * registers as variables nothing is spilled, so it always ends.
+     */
+    private static int getMinimumRegisters(OllirResult ollirResult, int nrRegisters){
+        Map<String,String> config = new HashMap<>(ollirResult.getConfig());
+        config.remove("debug");
+        while(true){
+            nrRegisters++;
+            config.put("registerAllocation", String.valueOf(nrRegisters));
+            OllirResult retry = new JmmOptimizationImpl().optimize(new OllirResult(ollirResult.getOllirCode(), config));
+            if(retry.getReports().stream().noneMatch(report -> report.getType()==ReportType.ERROR))
+                return nrRegisters;
+        }
     }
 }
@@ -0,0 +1,91 @@
+package pt.up.fe.comp2023.output;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Destination of everything the compiler outputs. The artifacts are encoded in small chunks and
+ * written straight to a file channel, without building a byte copy of the whole code. The debug
+ * dumps (tree, OLLIR and Jasmin) are only built and printed when the "debug" config flag is set.
+ */
+public class OutputSink {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File outputDir;
+
+    public OutputSink(File outputDir){
+        this.outputDir = outputDir;
+    }
+
+    public File getOutputDir() {
+        return outputDir;
+    }
+
+    public File writeArtifact(String fileName, CharSequence contents){
+        if(!outputDir.exists())
+            outputDir.mkdirs();
+        File file = new File(outputDir, fileName);
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+            CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+            CharBuffer chars = CharBuffer.wrap(contents);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            CoderResult result;
+            do {
+                result = encoder.encode(chars, buffer, true);
+                if(result.isError())
+                    result.throwException();
+                drain(buffer, channel);
+            } while(result.isOverflow());
+            while(encoder.flush(buffer).isOverflow())
+                drain(buffer, channel);
+            drain(buffer, channel);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write " + file, e);
+        }
+        return file;
+    }
+
+    public File writeArtifact(String fileName, byte[] contents){
+        if(!outputDir.exists())
+            outputDir.mkdirs();
+        File file = new File(outputDir, fileName);
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+            ByteBuffer buffer = ByteBuffer.wrap(contents);
+            while(buffer.hasRemaining())
+                channel.write(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write " + file, e);
+        }
+        return file;
+    }
+
+    private void drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    public static boolean isDebug(Map<String, String> config){
+        return config!=null && Objects.equals(config.get("debug"), "true");
+    }
+
+    /**
+     * Prints the dump only in debug mode. The dump is given lazily so that it is not built otherwise.
+     */
+    public static void debug(Map<String, String> config, Supplier<String> dump){
+        if(isDebug(config))
+            System.out.println(dump.get());
+    }
+}
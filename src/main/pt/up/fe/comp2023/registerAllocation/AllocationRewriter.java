@@ -0,0 +1,185 @@
+package pt.up.fe.comp2023.registerAllocation;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp2023.controlFlow.OllirInstructions;
+
+import java.util.*;
+
+/**
+ * Changes that the register allocators make to the instructions of a method. Spilled variables are kept in an
+ * int array created at the start of the method, and every instruction that uses or defines one of them goes
+ * through a new short lived variable that is loaded before it and stored after it.
+ */
+public class AllocationRewriter {
+    private final Method method;
+    private final Set<String> unspillable;
+    private final Type intType;
+    private final ArrayType spillArrayType;
+    private String spillArray;
+    private LiteralElement spillArraySize;
+    private int nrSpillSlots;
+    private List<Instruction> originalInstructions;
+    private Map<String,Instruction> originalLabels;
+    private Map<String,Descriptor> originalVarTable;
+    private final List<Map.Entry<Operand,String>> renamedOperands = new ArrayList<>();
+
+    public AllocationRewriter(Method method){
+        this.method = method;
+        this.unspillable = new HashSet<>();
+        this.intType = new Type(ElementType.INT32);
+        this.spillArrayType = new ArrayType();
+        spillArrayType.setNumDimensions(1);
+        spillArrayType.setTypeOfElements(ElementType.INT32);
+    }
+
+    /**
+     * Only int and boolean variables go to the spill array, the variables created by spilling are never spilled.
+     */
+    public boolean isSpillable(String variable){
+        if(unspillable.contains(variable))
+            return false;
+        Descriptor descriptor = method.getVarTable().get(variable);
+        ElementType type = descriptor.getVarType().getTypeOfElement();
+        return type==ElementType.INT32 || type==ElementType.BOOLEAN;
+    }
+
+    public void spill(Liveness liveness, Set<String> variables){
+        HashMap<String,Descriptor> varTable = method.getVarTable();
+        HashMap<String,Integer> slots = new HashMap<>();
+        for(String variable:variables)
+            slots.put(variable, nrSpillSlots++);
+        boolean firstSpill = spillArray==null;
+        if(firstSpill){
+            originalInstructions = new ArrayList<>(method.getInstructions());
+            originalLabels = new HashMap<>(method.getLabels());
+            originalVarTable = new HashMap<>(varTable);
+            spillArray = OllirInstructions.newVariable(method, "spill", spillArrayType);
+            unspillable.add(spillArray);
+            spillArraySize = new LiteralElement("0", intType);
+        }
+
+        List<Instruction> instructions = method.getInstructions();
+        Map<Instruction,List<String>> labels = OllirInstructions.getLabelsByInstruction(method);
+        List<Instruction> rewritten = new ArrayList<>();
+        for(int id=0;id<instructions.size();id++){
+            Instruction instruction = instructions.get(id);
+            List<Instruction> loads = new ArrayList<>();
+            List<Instruction> stores = new ArrayList<>();
+            Map<String,String> renamed = new HashMap<>();
+            for(int var:getSpilledVariables(liveness, id, variables)){
+                String variable = liveness.getVariable(var);
+                Type type = varTable.get(variable).getVarType();
+                String temporary = OllirInstructions.newVariable(method, "spill", type);
+                unspillable.add(temporary);
+                renamed.put(variable, temporary);
+                int slot = slots.get(variable);
+                if(liveness.getUse(id).get(var))
+                    loads.add(new AssignInstruction(new Operand(temporary, type), type, new SingleOpInstruction(getSpillSlot(slot))));
+                if(liveness.getDef(id).get(var))
+                    stores.add(new AssignInstruction(getSpillSlot(slot), intType, new SingleOpInstruction(new Operand(temporary, type))));
+            }
+            OllirInstructions.forEachOperand(instruction, operand -> {
+                String temporary = renamed.get(operand.getName());
+                if(temporary!=null) {
+                    renamedOperands.add(Map.entry(operand, operand.getName()));
+                    operand.setName(temporary);
+                }
+            });
+            if(!loads.isEmpty())
+                OllirInstructions.moveLabels(method, labels.get(instruction), loads.get(0));
+            rewritten.addAll(loads);
+            rewritten.add(instruction);
+            rewritten.addAll(stores);
+        }
+        instructions.clear();
+        instructions.addAll(rewritten);
+        for(String variable:variables)
+            varTable.remove(variable);
+
+        if(firstSpill)
+            createSpillArray();
+        spillArraySize.setLiteral(String.valueOf(nrSpillSlots));
+    }
+
+    /**
+     * Puts the method back as it was before the first spill, so that another allocator can start over.
+     */
+    public void undoSpills(){
+        if(spillArray==null)
+            return;
+        for(int i=renamedOperands.size() - 1;i>=0;i--)
+            renamedOperands.get(i).getKey().setName(renamedOperands.get(i).getValue());
+        renamedOperands.clear();
+        method.getInstructions().clear();
+        method.getInstructions().addAll(originalInstructions);
+        method.getLabels().clear();
+        method.getLabels().putAll(originalLabels);
+        method.getVarTable().clear();
+        method.getVarTable().putAll(originalVarTable);
+        unspillable.clear();
+        spillArray = null;
+        nrSpillSlots = 0;
+    }
+
+    private ArrayOperand getSpillSlot(int slot){
+        ArrayList<Element> index = new ArrayList<>(List.of(new LiteralElement(String.valueOf(slot), intType)));
+        return new ArrayOperand(spillArray, intType, index);
+    }
+
+    private List<Integer> getSpilledVariables(Liveness liveness, int instruction, Set<String> variables){
+        List<Integer> spilled = new ArrayList<>();
+        BitSet occurrences = (BitSet) liveness.getUse(instruction).clone();
+        occurrences.or(liveness.getDef(instruction));
+        for(int var=occurrences.nextSetBit(0);var>=0;var=occurrences.nextSetBit(var+1)){
+            if(variables.contains(liveness.getVariable(var)))
+                spilled.add(var);
+        }
+        return spilled;
+    }
+
+    /**
+     * The spill array is created before the first instruction, so it runs once even when a loop starts there.
+     */
+    private void createSpillArray(){
+        ArrayList<Element> size = new ArrayList<>(List.of(spillArraySize));
+        CallInstruction newArray = new CallInstruction(CallType.NEW, new Operand("array", spillArrayType), size, spillArrayType);
+        method.getInstructions().add(0, new AssignInstruction(new Operand(spillArray, spillArrayType), spillArrayType, newArray));
+    }
+
+    /**
+     * A move whose variables ended up in the same register does nothing, its labels go to the next instruction.
+     */
+    public void removeCoalescedMoves(Liveness liveness, HashMap<String,Integer> varToRegister){
+        List<Instruction> instructions = method.getInstructions();
+        Map<Instruction,List<String>> labels = OllirInstructions.getLabelsByInstruction(method);
+        List<Instruction> kept = new ArrayList<>();
+        List<String> pendingLabels = new ArrayList<>();
+        for(int id=0;id<instructions.size();id++){
+            Instruction instruction = instructions.get(id);
+            int source = liveness.getMoveSource(id);
+            if(source>=0 && id+1<instructions.size()){
+                String dest = liveness.getVariable(liveness.getDef(id).nextSetBit(0));
+                if(varToRegister.get(dest).equals(varToRegister.get(liveness.getVariable(source)))){
+                    pendingLabels.addAll(labels.getOrDefault(instruction, List.of()));
+                    continue;
+                }
+            }
+            OllirInstructions.moveLabels(method, pendingLabels, instruction);
+            pendingLabels.clear();
+            kept.add(instruction);
+        }
+        instructions.clear();
+        instructions.addAll(kept);
+    }
+
+    /**
+     * Local variables that no instruction mentions anymore do not need a register.
+     */
+    public void removeUnusedVariables(){
+        Set<String> used = new HashSet<>();
+        for(Instruction instruction:method.getInstructions())
+            OllirInstructions.forEachOperand(instruction, operand -> used.add(operand.getName()));
+        method.getVarTable().entrySet().removeIf(entry -> entry.getValue().getScope()==VarScope.LOCAL
+                && !entry.getKey().equals("this") && !used.contains(entry.getKey()));
+    }
+}
@@ -0,0 +1,322 @@
+package pt.up.fe.comp2023.registerAllocation;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Chaitin-Briggs allocation of a fixed number of registers. Moves between variables are coalesced when the
+ * Briggs or the George test shows that it cannot make the graph harder to color, a vertex that cannot be
+ * simplified is still pushed optimistically, and the variables that get no register in the select phase are
+ * spilled with the {@link AllocationRewriter}. The allocation is then repeated on the rewritten method until
+ * every variable has a register.
+ */
+public class ChaitinBriggsAllocator {
+    private static final int LOOP_WEIGHT = 10;
+
+    private final Method method;
+    private final int maxNrRegisters;
+    private final boolean canSpill;
+    private final AllocationRewriter rewriter;
+
+    private Liveness liveness;
+    private InterferanceGraph graph;
+    private int nrColors;
+    private int[] alias;
+    private int[] currentDegree;
+
+    public ChaitinBriggsAllocator(Method method, int maxNrRegisters){
+        this(method, maxNrRegisters, true);
+    }
+
+    /**
+     * When the variables cannot be spilled the allocation fails instead, and the method is left unchanged.
+     */
+    public ChaitinBriggsAllocator(Method method, int maxNrRegisters, boolean canSpill){
+        this.method = method;
+        this.maxNrRegisters = maxNrRegisters;
+        this.canSpill = canSpill;
+        this.rewriter = new AllocationRewriter(method);
+    }
+
+    /**
+     * Returns the register of each variable, or null when the variables that cannot be spilled do not fit.
+     * The liveness given must be computed over the current instructions of the method.
+     */
+    public HashMap<String,Integer> allocate(Liveness methodLiveness){
+        if(maxNrRegisters<InterferanceGraph.getReservedRegisters(method))
+            return null;
+        List<Integer> availableRegisters = InterferanceGraph.getAvailableRegisters(method, maxNrRegisters);
+        nrColors = availableRegisters.size();
+        liveness = methodLiveness;
+        while(true){
+            graph = new InterferanceGraph(liveness);
+            int nrVertices = graph.getNrVertices();
+            alias = new int[nrVertices];
+            currentDegree = new int[nrVertices];
+            for(int var=0;var<nrVertices;var++){
+                alias[var] = var;
+                currentDegree[var] = graph.getDegree(var);
+            }
+
+            coalesce();
+            double[] cost = getSpillCosts();
+            int[] color = select(simplify(cost));
+
+            Set<String> spilled = new HashSet<>();
+            boolean uncolored = false;
+            for(int var=0;var<nrVertices;var++){
+                if(!isAlive(var) || color[var]>=0)
+                    continue;
+                uncolored = true;
+                if(cost[var]==Double.POSITIVE_INFINITY){
+                    //make room for a vertex that cannot be spilled by spilling its cheapest neighbor
+                    int neighbor = getCheapestNeighbor(var, cost);
+                    if(neighbor>=0)
+                        addSpillable(neighbor, spilled);
+                }
+                addSpillable(var, spilled);
+            }
+            if(!uncolored){
+                HashMap<String,Integer> varToRegister = new HashMap<>();
+                for(int var=0;var<nrVertices;var++)
+                    varToRegister.put(liveness.getVariable(var), availableRegisters.get(color[find(var)]));
+                rewriter.removeCoalescedMoves(liveness, varToRegister);
+                rewriter.removeUnusedVariables();
+                varToRegister.keySet().retainAll(method.getVarTable().keySet());
+                return varToRegister;
+            }
+            if(!canSpill || spilled.isEmpty())
+                return null;
+            rewriter.spill(liveness, spilled);
+            liveness = new Liveness(method);
+            liveness.compute();
+        }
+    }
+
+    private void addSpillable(int vertex, Set<String> spilled){
+        for(int var=0;var<graph.getNrVertices();var++){
+            if(find(var)==vertex && rewriter.isSpillable(liveness.getVariable(var)))
+                spilled.add(liveness.getVariable(var));
+        }
+    }
+
+    private int getCheapestNeighbor(int var, double[] cost){
+        int cheapest = -1;
+        int[] neighbors = graph.getNeighbors(var);
+        for(int i=0;i<graph.getDegree(var);i++){
+            int neighbor = neighbors[i];
+            if(isAlive(neighbor) && cost[neighbor]<Double.POSITIVE_INFINITY && (cheapest<0 || cost[neighbor]<cost[cheapest]))
+                cheapest = neighbor;
+        }
+        return cheapest;
+    }
+
+    private int find(int var){
+        while(alias[var]!=var){
+            alias[var] = alias[alias[var]];
+            var = alias[var];
+        }
+        return var;
+    }
+
+    private boolean isAlive(int var){
+        return alias[var]==var;
+    }
+
+    private void coalesce(){
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for(int instruction=0;instruction<liveness.getNrInstructions();instruction++){
+                int source = liveness.getMoveSource(instruction);
+                if(source<0)
+                    continue;
+                int a = find(liveness.getDef(instruction).nextSetBit(0));
+                int b = find(source);
+                if(a==b || graph.interferes(a, b))
+                    continue;
+                if(briggs(a, b) || george(a, b)){
+                    combine(a, b);
+                    changed = true;
+                }
+                else if(george(b, a)){
+                    combine(b, a);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * The merged vertex can always be simplified when it has fewer than k neighbors of significant degree.
+     */
+    private boolean briggs(int a, int b){
+        int significant = 0;
+        for(int var:new int[]{a, b}){
+            int[] neighbors = graph.getNeighbors(var);
+            for(int i=0;i<graph.getDegree(var);i++){
+                int neighbor = neighbors[i];
+                if(!isAlive(neighbor) || (var==b && graph.interferes(neighbor, a)))
+                    continue;
+                boolean both = graph.interferes(neighbor, a) && graph.interferes(neighbor, b);
+                if(currentDegree[neighbor] - (both ? 1 : 0)>=nrColors)
+                    significant++;
+            }
+        }
+        return significant<nrColors;
+    }
+
+    /**
+     * b can join a when each neighbor of b already interferes with a or has insignificant degree.
+     */
+    private boolean george(int a, int b){
+        int[] neighbors = graph.getNeighbors(b);
+        for(int i=0;i<graph.getDegree(b);i++){
+            int neighbor = neighbors[i];
+            if(isAlive(neighbor) && !graph.interferes(neighbor, a) && currentDegree[neighbor]>=nrColors)
+                return false;
+        }
+        return true;
+    }
+
+    private void combine(int a, int b){
+        alias[b] = a;
+        int[] neighbors = graph.getNeighbors(b);
+        for(int i=0;i<graph.getDegree(b);i++){
+            int neighbor = neighbors[i];
+            if(!isAlive(neighbor))
+                continue;
+            if(graph.interferes(neighbor, a))
+                currentDegree[neighbor]--;
+            else {
+                graph.addEdge(a, neighbor);
+                currentDegree[a]++;
+            }
+        }
+    }
+
+    /**
+     * Cost of spilling each vertex: its definitions and uses, weighted by the depth of the loops they are in.
+     * Vertices without any variable that can be spilled cost infinitely much.
+     */
+    private double[] getSpillCosts(){
+        int nrInstructions = liveness.getNrInstructions();
+        int[] depthChange = new int[nrInstructions + 1];
+        for(int instruction=0;instruction<nrInstructions;instruction++){
+            for(int successor:liveness.getSuccessors(instruction)){
+                if(successor<=instruction){
+                    depthChange[successor]++;
+                    depthChange[instruction + 1]--;
+                }
+            }
+        }
+        double[] cost = new double[graph.getNrVertices()];
+        int depth = 0;
+        for(int instruction=0;instruction<nrInstructions;instruction++){
+            depth += depthChange[instruction];
+            double weight = Math.pow(LOOP_WEIGHT, Math.min(depth, 8));
+            BitSet def = liveness.getDef(instruction);
+            BitSet use = liveness.getUse(instruction);
+            for(int var=def.nextSetBit(0);var>=0;var=def.nextSetBit(var+1))
+                cost[find(var)] += weight;
+            for(int var=use.nextSetBit(0);var>=0;var=use.nextSetBit(var+1))
+                cost[find(var)] += weight;
+        }
+        boolean[] spillable = new boolean[graph.getNrVertices()];
+        for(int var=0;var<graph.getNrVertices();var++){
+            if(rewriter.isSpillable(liveness.getVariable(var)))
+                spillable[find(var)] = true;
+        }
+        for(int var=0;var<graph.getNrVertices();var++){
+            if(!spillable[var])
+                cost[var] = Double.POSITIVE_INFINITY;
+        }
+        return cost;
+    }
+
+    /**
+     * Removes the vertices of degree lower than k first, and when there are none the one that is cheapest
+     * to spill for its degree, which may still get a register in the select phase.
+     */
+    private int[] simplify(double[] cost){
+        int nrVertices = graph.getNrVertices();
+        int[] degree = Arrays.copyOf(currentDegree, nrVertices);
+        boolean[] removed = new boolean[nrVertices];
+        boolean[] queued = new boolean[nrVertices];
+        int[] lowDegree = new int[nrVertices];
+        int nrLowDegree = 0;
+        int nrAlive = 0;
+        for(int var=0;var<nrVertices;var++){
+            if(!isAlive(var))
+                continue;
+            nrAlive++;
+            if(degree[var]<nrColors){
+                queued[var] = true;
+                lowDegree[nrLowDegree++] = var;
+            }
+        }
+
+        int[] order = new int[nrAlive];
+        for(int position=0;position<nrAlive;position++){
+            int var;
+            if(nrLowDegree>0)
+                var = lowDegree[--nrLowDegree];
+            else
+                var = getSpillCandidate(cost, degree, removed);
+            removed[var] = true;
+            order[position] = var;
+            int[] neighbors = graph.getNeighbors(var);
+            for(int i=0;i<graph.getDegree(var);i++){
+                int neighbor = neighbors[i];
+                if(!isAlive(neighbor) || removed[neighbor])
+                    continue;
+                degree[neighbor]--;
+                if(degree[neighbor]<nrColors && !queued[neighbor]){
+                    queued[neighbor] = true;
+                    lowDegree[nrLowDegree++] = neighbor;
+                }
+            }
+        }
+        return order;
+    }
+
+    private int getSpillCandidate(double[] cost, int[] degree, boolean[] removed){
+        int candidate = -1;
+        double best = Double.POSITIVE_INFINITY;
+        for(int var=0;var<graph.getNrVertices();var++){
+            if(!isAlive(var) || removed[var])
+                continue;
+            double ratio = cost[var] / Math.max(degree[var], 1);
+            if(candidate<0 || ratio<best){
+                candidate = var;
+                best = ratio;
+            }
+        }
+        return candidate;
+    }
+
+    /**
+     * Colors the vertices in the reverse of the simplify order, a vertex is left with -1 when its neighbors
+     * took every register.
+     */
+    private int[] select(int[] order){
+        int[] color = new int[graph.getNrVertices()];
+        Arrays.fill(color, -1);
+        BitSet taken = new BitSet();
+        for(int position=order.length-1;position>=0;position--){
+            int var = order[position];
+            taken.clear();
+            int[] neighbors = graph.getNeighbors(var);
+            for(int i=0;i<graph.getDegree(var);i++){
+                int neighbor = neighbors[i];
+                if(isAlive(neighbor) && color[neighbor]>=0)
+                    taken.set(color[neighbor]);
+            }
+            int chosen = taken.nextClearBit(0);
+            if(chosen<nrColors)
+                color[var] = chosen;
+        }
+        return color;
+    }
+}
@@ -1,125 +1,307 @@
 package pt.up.fe.comp2023.registerAllocation;
 
 import org.specs.comp.ollir.*;
+import pt.up.fe.comp2023.controlFlow.OllirInstructions;
 
 import java.util.*;
 
+/**
+ * Interference graph over the variables numbered by the liveness analysis. Edges are kept twice: in a
+ * triangular bit matrix, to test an edge in constant time, and in an int adjacency list per variable, to
+ * walk the neighbors. Simplification keeps the vertices in buckets by their current degree, so taking a
+ * vertex of lowest degree and removing it costs constant time per edge.
+ */
 public class InterferanceGraph {
-    private final HashMap<String,Vertex> contentToNode;
-
-    private void addEdge(String src,String dest){
-        Vertex srcNode = contentToNode.get(src);
-        Vertex destNode = contentToNode.get(dest);
-        assert srcNode!=null && destNode!=null;
-        srcNode.addEdge(destNode);
-        destNode.addEdge(srcNode);
-    }
-    public InterferanceGraph(HashMap<Node, HashSet<String>> def, HashMap<Node, HashSet<String>> use, HashMap<Node, HashSet<String>> in,HashMap<Node, HashSet<String>> out){
-        contentToNode = new HashMap<>();
-        for(Node node:def.keySet()){
-            Instruction instruction = (Instruction) node;
-            for(String content:def.get(node)){
-                if(!contentToNode.containsKey(content))
-                    contentToNode.put(content,new Vertex(content));
-            }
+    private final Liveness liveness;
+    private final int nrVertices;
+    private final long[] matrix;
+    private final int[][] adjacency;
+    private final int[] degree;
+
+    /**
+     * A variable interferes with every variable that is live after one of its definitions, except with the
+     * variable it copies when the definition is a move, so both can share a register.
+     * The variables live at the start of the method also interfere with each other.
+     */
+    public InterferanceGraph(Liveness liveness){
+        this.liveness = liveness;
+        this.nrVertices = liveness.getNrVariables();
+        long nrPairs = (long) nrVertices * (nrVertices - 1) / 2;
+        this.matrix = new long[(int) ((nrPairs + 63) / 64)];
+        this.adjacency = new int[nrVertices][];
+        this.degree = new int[nrVertices];
+        for(int var=0;var<nrVertices;var++)
+            adjacency[var] = new int[4];
 
-            HashSet<String> currentIn = in.get(node);
-            HashSet<String> currentUseUnionOut = new HashSet<>(use.get(node));
-            currentUseUnionOut.addAll(out.get(node));
-            for(String varOut:currentUseUnionOut){
-                for(String varIn:currentIn) {
-                    if (!Objects.equals(varOut, varIn))
-                        addEdge(varIn, varOut);
+        for(int instruction=0;instruction<liveness.getNrInstructions();instruction++){
+            BitSet currentOut = liveness.getOut(instruction);
+            BitSet currentDef = liveness.getDef(instruction);
+            int moveSource = liveness.getMoveSource(instruction);
+            for(int varDef=currentDef.nextSetBit(0);varDef>=0;varDef=currentDef.nextSetBit(varDef+1)){
+                for(int varOut=currentOut.nextSetBit(0);varOut>=0;varOut=currentOut.nextSetBit(varOut+1)){
+                    if(varOut!=moveSource)
+                        addEdge(varDef, varOut);
                 }
             }
         }
+        if(liveness.getNrInstructions()>0){
+            BitSet entryIn = liveness.getIn(0);
+            for(int var=entryIn.nextSetBit(0);var>=0;var=entryIn.nextSetBit(var+1)){
+                for(int other=entryIn.nextSetBit(var+1);other>=0;other=entryIn.nextSetBit(other+1))
+                    addEdge(var, other);
+            }
+        }
+    }
 
+    private static long pairIndex(int a, int b){
+        int high = Math.max(a, b);
+        int low = Math.min(a, b);
+        return (long) high * (high - 1) / 2 + low;
+    }
 
+    public boolean interferes(int a, int b){
+        if(a==b)
+            return false;
+        long index = pairIndex(a, b);
+        return (matrix[(int) (index >>> 6)] & (1L << index)) != 0;
+    }
+
+    public void addEdge(int a, int b){
+        if(a==b || interferes(a, b))
+            return;
+        long index = pairIndex(a, b);
+        matrix[(int) (index >>> 6)] |= 1L << index;
+        addNeighbor(a, b);
+        addNeighbor(b, a);
+    }
+
+    private void addNeighbor(int var, int neighbor){
+        if(degree[var]==adjacency[var].length)
+            adjacency[var] = Arrays.copyOf(adjacency[var], adjacency[var].length * 2);
+        adjacency[var][degree[var]++] = neighbor;
+    }
 
+    public int getNrVertices(){
+        return nrVertices;
     }
 
-    public HashMap<String,Integer> colorGraph(Method method, int k){
-        TreeSet<Integer> availableRegisters = new TreeSet<>();
-        int nrRegistersAlreadyTaken = method.isStaticMethod()?0:1;
-        for(int i=nrRegistersAlreadyTaken;i<k;i++){
-            availableRegisters.add(i);
+    public int getDegree(int var){
+        return degree[var];
+    }
+
+    /**
+     * Neighbors of the variable, only the first {@link #getDegree(int)} entries are valid.
+     */
+    public int[] getNeighbors(int var){
+        return adjacency[var];
+    }
+
+    public Liveness getLiveness(){
+        return liveness;
+    }
+
+    /**
+     * Registers that the variables of the method can use when it has k registers, the ones taken by this and
+     * the parameters that are read are left out.
+     */
+    public static List<Integer> getAvailableRegisters(Method method, int k){
+        Set<Integer> taken = getTakenRegisters(method);
+        List<Integer> availableRegisters = new ArrayList<>();
+        for(int i=0;i<k;i++){
+            if(!taken.contains(i))
+                availableRegisters.add(i);
         }
-        k-=nrRegistersAlreadyTaken;
+        return availableRegisters;
+    }
 
+    /**
+     * Number of registers taken by this and the parameters that are read.
+     */
+    public static int getReservedRegisters(Method method){
+        return getTakenRegisters(method).size();
+    }
+
+    /**
+     * Registers of this and of the parameters that some instruction mentions. A parameter that is never
+     * mentioned, like the arguments of most main methods, leaves its register to the other variables.
+     */
+    public static Set<Integer> getTakenRegisters(Method method){
+        Set<String> mentioned = new HashSet<>();
+        for(Instruction instruction:method.getInstructions())
+            OllirInstructions.forEachOperand(instruction, operand -> mentioned.add(operand.getName()));
+        Set<Integer> taken = new TreeSet<>();
+        if(!method.isStaticMethod())
+            taken.add(0);
         for(Element var :method.getParams()){
-            if(var instanceof Operand operand) {
-                availableRegisters.remove(method.getVarTable().get(operand.getName()).getVirtualReg());
-                k--;
-            }
+            if(var instanceof Operand operand && mentioned.contains(operand.getName()))
+                taken.add(method.getVarTable().get(operand.getName()).getVirtualReg());
         }
+        return taken;
+    }
 
-        if(k<0)
-            return null;
-
-        boolean allNodesGTEKEdges = false;
-        Stack<String> stack = new Stack<>();
-        int visitedNodes = 0;
-        while(!allNodesGTEKEdges && visitedNodes<contentToNode.size()){
-            allNodesGTEKEdges = true;
-            for(String currentVar:contentToNode.keySet()){
-                Vertex currentVertex = contentToNode.get(currentVar);
-                if(currentVertex.unvisitedNeighbors() < k && !currentVertex.visited){
-                    allNodesGTEKEdges = false;
-                    stack.push(currentVar);
-                    contentToNode.get(currentVar).visited=true;
-                    visitedNodes++;
-                }
-            }
-        }
-        if(allNodesGTEKEdges)
-            return null;
-        else{
-            HashMap<String,Integer> varToRegister = new HashMap<>();
-            while(!stack.isEmpty()){
-                String currentVar = stack.pop();
-                Vertex currentVertex = contentToNode.get(currentVar);
-                TreeSet<Integer> availableRegistersLocal = new TreeSet<>(availableRegisters);
-                for(Vertex neighborVertex:currentVertex.edges){
-                    String neighborVar = neighborVertex.getContent();
-                    Integer neighborRegister = varToRegister.get(neighborVar);
-                    if(neighborRegister!=null)
-                        availableRegistersLocal.remove(neighborRegister);
-                }
-                varToRegister.put(currentVar,availableRegistersLocal.first());
+    /**
+     * Order in which the vertices are removed when the vertex of lowest degree is always removed first,
+     * and the largest degree that a vertex had when it was removed.
+     */
+    public SimplifyOrder simplify(){
+        int[] currentDegree = Arrays.copyOf(degree, nrVertices);
+        int[] head = new int[nrVertices + 1];
+        int[] next = new int[nrVertices];
+        int[] previous = new int[nrVertices];
+        Arrays.fill(head, -1);
+        for(int var=0;var<nrVertices;var++)
+            pushBucket(head, next, previous, currentDegree[var], var);
+
+        boolean[] removed = new boolean[nrVertices];
+        int[] order = new int[nrVertices];
+        int maxDegree = 0;
+        int lowestBucket = 0;
+        for(int position=0;position<nrVertices;position++){
+            while(head[lowestBucket]==-1)
+                lowestBucket++;
+            int var = head[lowestBucket];
+            removeBucket(head, next, previous, currentDegree[var], var);
+            removed[var] = true;
+            order[position] = var;
+            maxDegree = Math.max(maxDegree, currentDegree[var]);
+            for(int i=0;i<degree[var];i++){
+                int neighbor = adjacency[var][i];
+                if(removed[neighbor])
+                    continue;
+                removeBucket(head, next, previous, currentDegree[neighbor], neighbor);
+                currentDegree[neighbor]--;
+                pushBucket(head, next, previous, currentDegree[neighbor], neighbor);
             }
-            return varToRegister;
+            if(lowestBucket>0)
+                lowestBucket--;
         }
+        return new SimplifyOrder(order, maxDegree);
     }
 
+    private static void pushBucket(int[] head, int[] next, int[] previous, int bucket, int var){
+        next[var] = head[bucket];
+        previous[var] = -1;
+        if(head[bucket]!=-1)
+            previous[head[bucket]] = var;
+        head[bucket] = var;
+    }
 
-    private class Vertex{
-        private final String content;
-        private final HashSet<Vertex> edges;
+    private static void removeBucket(int[] head, int[] next, int[] previous, int bucket, int var){
+        if(previous[var]!=-1)
+            next[previous[var]] = next[var];
+        else
+            head[bucket] = next[var];
+        if(next[var]!=-1)
+            previous[next[var]] = previous[var];
+    }
 
-        private boolean visited;
+    /**
+     * Colors the vertices in the reverse of the simplify order, giving each one the lowest register not used
+     * by its neighbors. Returns the register of each variable, or null when the registers are not enough.
+     */
+    public int[] select(int[] order, List<Integer> availableRegisters){
+        int[] color = new int[nrVertices];
+        Arrays.fill(color, -1);
+        boolean[] taken = new boolean[availableRegisters.size() + 1];
+        for(int position=order.length-1;position>=0;position--){
+            int var = order[position];
+            for(int i=0;i<degree[var];i++){
+                int neighborColor = color[adjacency[var][i]];
+                if(neighborColor>=0)
+                    taken[neighborColor] = true;
+            }
+            int chosen = 0;
+            while(chosen<availableRegisters.size() && taken[chosen])
+                chosen++;
+            for(int i=0;i<degree[var];i++){
+                int neighborColor = color[adjacency[var][i]];
+                if(neighborColor>=0)
+                    taken[neighborColor] = false;
+            }
+            if(chosen==availableRegisters.size())
+                return null;
+            color[var] = chosen;
+        }
+        for(int var=0;var<nrVertices;var++)
+            color[var] = availableRegisters.get(color[var]);
+        return color;
+    }
 
-        public Vertex(String s){
-            content = s;
-            edges = new HashSet<>();
-            this.visited = false;
+    /**
+     * Colors the graph with as few registers as it can. The coloring in the simplify order is tried first,
+     * and it is optimal when it uses as many registers as the largest set of variables live at the same time.
+     * Otherwise a DSatur coloring is also tried and the one with fewer registers is kept.
+     */
+    public HashMap<String,Integer> colorWithFewestRegisters(Method method){
+        int reserved = getReservedRegisters(method);
+        List<Integer> availableRegisters = getAvailableRegisters(method, reserved + nrVertices);
+        int[] registers = select(simplify().order(), availableRegisters);
+        int used = countRegisters(registers);
+        if(used>getMaxLive()){
+            int[] dsaturRegisters = dsatur(availableRegisters);
+            if(countRegisters(dsaturRegisters)<used)
+                registers = dsaturRegisters;
         }
+        HashMap<String,Integer> varToRegister = new HashMap<>();
+        for(int var=0;var<nrVertices;var++)
+            varToRegister.put(liveness.getVariable(var), registers[var]);
+        return varToRegister;
+    }
 
-        public String getContent(){
-            return content;
+    private int countRegisters(int[] registers){
+        return (int) Arrays.stream(registers).distinct().count();
+    }
+
+    /**
+     * Largest number of variables live at the same point, no coloring can use fewer registers.
+     */
+    public int getMaxLive(){
+        int maxLive = 0;
+        BitSet live = new BitSet();
+        for(int instruction=0;instruction<liveness.getNrInstructions();instruction++){
+            maxLive = Math.max(maxLive, liveness.getIn(instruction).cardinality());
+            live.clear();
+            live.or(liveness.getOut(instruction));
+            live.or(liveness.getDef(instruction));
+            maxLive = Math.max(maxLive, live.cardinality());
         }
+        return maxLive;
+    }
 
-        public int unvisitedNeighbors(){
-            int answer = 0;
-            for(Vertex v:edges){
-                if(!v.visited)
-                    answer++;
+    /**
+     * Colors first the vertex with the most differently colored neighbors, breaking ties by degree.
+     */
+    private int[] dsatur(List<Integer> availableRegisters){
+        int[] color = new int[nrVertices];
+        Arrays.fill(color, -1);
+        BitSet[] neighborColors = new BitSet[nrVertices];
+        int[] saturation = new int[nrVertices];
+        PriorityQueue<int[]> queue = new PriorityQueue<>((a, b) -> a[1]!=b[1] ? b[1] - a[1] : a[2]!=b[2] ? b[2] - a[2] : a[0] - b[0]);
+        for(int var=0;var<nrVertices;var++){
+            neighborColors[var] = new BitSet();
+            queue.add(new int[]{var, 0, degree[var]});
+        }
+        while(!queue.isEmpty()){
+            int[] entry = queue.poll();
+            int var = entry[0];
+            if(color[var]>=0 || entry[1]!=saturation[var])
+                continue;
+            int chosen = neighborColors[var].nextClearBit(0);
+            color[var] = chosen;
+            for(int i=0;i<degree[var];i++){
+                int neighbor = adjacency[var][i];
+                if(color[neighbor]<0 && !neighborColors[neighbor].get(chosen)){
+                    neighborColors[neighbor].set(chosen);
+                    saturation[neighbor]++;
+                    queue.add(new int[]{neighbor, saturation[neighbor], degree[neighbor]});
+                }
             }
-            return answer;
         }
+        for(int var=0;var<nrVertices;var++)
+            color[var] = availableRegisters.get(color[var]);
+        return color;
+    }
 
-        public void addEdge(Vertex v){
-            edges.add(v);
-        }
+    public record SimplifyOrder(int[] order, int maxDegree){
     }
 }
-
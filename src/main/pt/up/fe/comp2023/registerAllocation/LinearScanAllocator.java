@@ -0,0 +1,137 @@
+package pt.up.fe.comp2023.registerAllocation;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Linear scan allocation over live intervals. Every instruction has a point before it and a point after it,
+ * and each variable gets a single interval from the first to the last point where it is live, ignoring the
+ * holes in between. The intervals are visited by their start and take the lowest register freed by the
+ * intervals that already ended; when there is none, the interval that ends last is spilled. Each interval is
+ * looked at once, so it is much faster than coloring the interference graph on large methods, at the cost of
+ * some registers. When an interval that cannot be spilled finds no register, the spills are undone and the
+ * method is left to the {@link ChaitinBriggsAllocator}, so both allocators need the same number of registers.
+ */
+public class LinearScanAllocator {
+    private final Method method;
+    private final int maxNrRegisters;
+    private final AllocationRewriter rewriter;
+
+    public LinearScanAllocator(Method method, int maxNrRegisters){
+        this.method = method;
+        this.maxNrRegisters = maxNrRegisters;
+        this.rewriter = new AllocationRewriter(method);
+    }
+
+    /**
+     * Returns the register of each variable, or null when the variables that cannot be spilled do not fit.
+     * The liveness given must be computed over the current instructions of the method.
+     */
+    public HashMap<String,Integer> allocate(Liveness methodLiveness){
+        if(maxNrRegisters<InterferanceGraph.getReservedRegisters(method))
+            return null;
+        List<Integer> availableRegisters = InterferanceGraph.getAvailableRegisters(method, maxNrRegisters);
+        Liveness liveness = methodLiveness;
+        while(true){
+            int nrVariables = liveness.getNrVariables();
+            int[] start = new int[nrVariables];
+            int[] end = new int[nrVariables];
+            computeIntervals(liveness, start, end);
+
+            long[] order = new long[nrVariables];
+            for(int var=0;var<nrVariables;var++)
+                order[var] = (long) start[var] * nrVariables + var;
+            Arrays.sort(order);
+
+            int[] register = new int[nrVariables];
+            Arrays.fill(register, -1);
+            BitSet free = new BitSet();
+            free.set(0, availableRegisters.size());
+            TreeSet<Long> active = new TreeSet<>();
+            Set<String> spilled = new HashSet<>();
+            for(long key:order){
+                int var = (int) (key % nrVariables);
+                while(!active.isEmpty() && active.first() / nrVariables < start[var]){
+                    int expired = (int) (active.pollFirst() % nrVariables);
+                    free.set(register[expired]);
+                }
+                if(!free.isEmpty()){
+                    register[var] = free.nextSetBit(0);
+                    free.clear(register[var]);
+                    active.add((long) end[var] * nrVariables + var);
+                    continue;
+                }
+                int victim = getSpillCandidate(liveness, active, nrVariables);
+                boolean spillCurrent = rewriter.isSpillable(liveness.getVariable(var)) && (victim<0 || end[var]>=end[victim]);
+                if(spillCurrent){
+                    spilled.add(liveness.getVariable(var));
+                    continue;
+                }
+                if(victim<0) {
+                    //the intervals ignore the holes in the liveness, the interference graph may still be colored
+                    rewriter.undoSpills();
+                    return new ChaitinBriggsAllocator(method, maxNrRegisters).allocate(methodLiveness);
+                }
+                spilled.add(liveness.getVariable(victim));
+                active.remove((long) end[victim] * nrVariables + victim);
+                register[var] = register[victim];
+                register[victim] = -1;
+                active.add((long) end[var] * nrVariables + var);
+            }
+
+            if(spilled.isEmpty()){
+                HashMap<String,Integer> varToRegister = new HashMap<>();
+                for(int var=0;var<nrVariables;var++)
+                    varToRegister.put(liveness.getVariable(var), availableRegisters.get(register[var]));
+                rewriter.removeCoalescedMoves(liveness, varToRegister);
+                rewriter.removeUnusedVariables();
+                varToRegister.keySet().retainAll(method.getVarTable().keySet());
+                return varToRegister;
+            }
+            rewriter.spill(liveness, spilled);
+            liveness = new Liveness(method);
+            liveness.compute();
+        }
+    }
+
+    /**
+     * The point before instruction i is 2i and the point after it is 2i+1. A variable is live before an
+     * instruction when it is in its in set, and after it when it is in its out set or defined by it.
+     */
+    private static void computeIntervals(Liveness liveness, int[] start, int[] end){
+        Arrays.fill(start, Integer.MAX_VALUE);
+        Arrays.fill(end, -1);
+        BitSet after = new BitSet();
+        for(int instruction=0;instruction<liveness.getNrInstructions();instruction++){
+            BitSet before = liveness.getIn(instruction);
+            for(int var=before.nextSetBit(0);var>=0;var=before.nextSetBit(var+1))
+                extend(start, end, var, 2 * instruction);
+            BitSet use = liveness.getUse(instruction);
+            for(int var=use.nextSetBit(0);var>=0;var=use.nextSetBit(var+1))
+                extend(start, end, var, 2 * instruction);
+            after.clear();
+            after.or(liveness.getOut(instruction));
+            after.or(liveness.getDef(instruction));
+            for(int var=after.nextSetBit(0);var>=0;var=after.nextSetBit(var+1))
+                extend(start, end, var, 2 * instruction + 1);
+        }
+    }
+
+    private static void extend(int[] start, int[] end, int var, int point){
+        start[var] = Math.min(start[var], point);
+        end[var] = Math.max(end[var], point);
+    }
+
+    /**
+     * Active interval that ends last among the ones that can be spilled, or -1.
+     */
+    private int getSpillCandidate(Liveness liveness, TreeSet<Long> active, int nrVariables){
+        for(Iterator<Long> iterator=active.descendingIterator();iterator.hasNext();){
+            int var = (int) (iterator.next() % nrVariables);
+            if(rewriter.isSpillable(liveness.getVariable(var)))
+                return var;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,319 @@
+package pt.up.fe.comp2023.registerAllocation;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Liveness of the local variables of a method. The instructions and the variables that can be given a
+ * register are numbered densely, and the def, use, in and out sets of each instruction are bitsets
+ * indexed by the number of the variable. The right side of an assignment and the condition of a branch
+ * are part of their instruction. The edges are taken from the order of the instructions and the targets
+ * of their labels, so the liveness can be computed again after the instructions are rewritten.
+ */
+public class Liveness {
+    private final Method method;
+    private final List<Instruction> instructions;
+    private final Map<Instruction, Integer> instructionIds;
+    private final List<String> variables;
+    private final Map<String, Integer> variableIds;
+    private final BitSet[] def;
+    private final BitSet[] use;
+    private final BitSet[] in;
+    private final BitSet[] out;
+    private final int[][] successors;
+    private final int[][] predecessors;
+    private final int[] moveSource;
+    private int[] postorder;
+
+    public Liveness(Method method){
+        this.method = method;
+        this.instructions = method.getInstructions();
+        this.instructionIds = new HashMap<>();
+        for(int i=0;i<instructions.size();i++)
+            instructionIds.put(instructions.get(i), i);
+        this.variables = new ArrayList<>();
+        this.variableIds = new HashMap<>();
+        int nrInstructions = instructions.size();
+        this.def = new BitSet[nrInstructions];
+        this.use = new BitSet[nrInstructions];
+        this.in = new BitSet[nrInstructions];
+        this.out = new BitSet[nrInstructions];
+        this.successors = new int[nrInstructions][];
+        this.predecessors = new int[nrInstructions][];
+        this.moveSource = new int[nrInstructions];
+    }
+
+    public void compute(){
+        for(int i=0;i<instructions.size();i++){
+            def[i] = new BitSet();
+            use[i] = new BitSet();
+            in[i] = new BitSet();
+            out[i] = new BitSet();
+            moveSource[i] = -1;
+            dealWithInstruction(i, instructions.get(i));
+        }
+        buildEdges();
+        solve();
+    }
+
+    private void buildEdges(){
+        Map<String, Instruction> labels = method.getLabels();
+        int[] nrPredecessors = new int[instructions.size()];
+        for(int i=0;i<instructions.size();i++){
+            Instruction instruction = instructions.get(i);
+            int[] ids = new int[2];
+            int nrIds = 0;
+            InstructionType type = instruction.getInstType();
+            if(type!=InstructionType.GOTO && type!=InstructionType.RETURN && i+1<instructions.size())
+                ids[nrIds++] = i+1;
+            String label = null;
+            if(type==InstructionType.GOTO)
+                label = ((GotoInstruction) instruction).getLabel();
+            else if(type==InstructionType.BRANCH)
+                label = ((CondBranchInstruction) instruction).getLabel();
+            if(label!=null){
+                Integer target = instructionIds.get(labels.get(label));
+                if(target!=null && (nrIds==0 || ids[0]!=target))
+                    ids[nrIds++] = target;
+            }
+            for(int j=0;j<nrIds;j++)
+                nrPredecessors[ids[j]]++;
+            successors[i] = Arrays.copyOf(ids, nrIds);
+        }
+        for(int i=0;i<instructions.size();i++)
+            predecessors[i] = new int[nrPredecessors[i]];
+        Arrays.fill(nrPredecessors, 0);
+        for(int i=0;i<instructions.size();i++){
+            for(int successor:successors[i])
+                predecessors[successor][nrPredecessors[successor]++] = i;
+        }
+        postorder = computePostorder();
+    }
+
+    /**
+     * Postorder of the instructions reachable from the start of the method, every instruction is visited
+     * before the instructions that can reach it (ignoring back edges).
+     */
+    private int[] computePostorder(){
+        int[] order = new int[instructions.size()];
+        int nrOrdered = 0;
+        if(instructions.isEmpty())
+            return order;
+        boolean[] visited = new boolean[instructions.size()];
+        int[] stack = new int[instructions.size()];
+        int[] nextSuccessor = new int[instructions.size()];
+        int top = 0;
+        stack[top++] = 0;
+        visited[0] = true;
+        while(top>0){
+            int current = stack[top - 1];
+            if(nextSuccessor[current]<successors[current].length){
+                int successor = successors[current][nextSuccessor[current]++];
+                if(!visited[successor]){
+                    visited[successor] = true;
+                    stack[top++] = successor;
+                }
+            } else {
+                order[nrOrdered++] = current;
+                top--;
+            }
+        }
+        return Arrays.copyOf(order, nrOrdered);
+    }
+
+    /**
+     * Backward dataflow driven by a worklist that always takes the pending instruction that comes first
+     * in postorder, so most instructions are computed after their successors.
+     */
+    private void solve(){
+        int[] position = new int[instructions.size()];
+        Arrays.fill(position, -1);
+        for(int i=0;i<postorder.length;i++)
+            position[postorder[i]] = i;
+
+        BitSet pending = new BitSet(postorder.length);
+        pending.set(0, postorder.length);
+        BitSet newIn = new BitSet();
+        for(int next=pending.nextSetBit(0);next>=0;next=pending.nextSetBit(0)){
+            pending.clear(next);
+            int current = postorder[next];
+            BitSet currentOut = out[current];
+            currentOut.clear();
+            for(int successor:successors[current])
+                currentOut.or(in[successor]);
+
+            newIn.clear();
+            newIn.or(currentOut);
+            newIn.andNot(def[current]);
+            newIn.or(use[current]);
+            if(!newIn.equals(in[current])){
+                in[current].clear();
+                in[current].or(newIn);
+                for(int predecessor:predecessors[current]){
+                    if(position[predecessor]>=0)
+                        pending.set(position[predecessor]);
+                }
+            }
+        }
+    }
+
+    private void dealWithInstruction(int id, Instruction instruction){
+        switch(instruction.getInstType()){
+            case CALL -> dealWithCall(id, (CallInstruction) instruction);
+            case ASSIGN -> dealWithAssign(id, (AssignInstruction) instruction);
+            case BRANCH -> dealWithInstruction(id, ((CondBranchInstruction) instruction).getCondition());
+            case RETURN -> dealWithReturn(id, (ReturnInstruction) instruction);
+            case GETFIELD -> dealWithGetField(id, (GetFieldInstruction) instruction);
+            case PUTFIELD -> dealWithPutField(id, (PutFieldInstruction) instruction);
+            case UNARYOPER -> dealWithElement(id, ((UnaryOpInstruction) instruction).getOperand());
+            case BINARYOPER -> {
+                BinaryOpInstruction operation = (BinaryOpInstruction) instruction;
+                dealWithElement(id, operation.getLeftOperand());
+                dealWithElement(id, operation.getRightOperand());
+            }
+            case NOPER -> dealWithElement(id, ((SingleOpInstruction) instruction).getSingleOperand());
+            case GOTO -> {
+                //no variables
+            }
+        }
+    }
+
+    private void dealWithAssign(int id, AssignInstruction instruction){
+        dealWithInstruction(id, instruction.getRhs());
+        Operand dest = (Operand) instruction.getDest();
+        if(dest instanceof ArrayOperand){
+            //storing in an element reads the array reference and the index
+            dealWithElement(id, dest);
+        }
+        else if(isAllocatable(dest)){
+            def[id].set(getVariableId(dest.getName()));
+            if(instruction.getRhs() instanceof SingleOpInstruction copy && copy.getSingleOperand() instanceof Operand source
+                    && !(source instanceof ArrayOperand) && isAllocatable(source))
+                moveSource[id] = getVariableId(source.getName());
+        }
+    }
+
+    private void dealWithCall(int id, CallInstruction instruction){
+        dealWithElement(id, instruction.getFirstArg());
+        if(instruction.getSecondArg()!=null)
+            dealWithElement(id, instruction.getSecondArg());
+        if(instruction.getListOfOperands()!=null) {
+            for (Element element : instruction.getListOfOperands())
+                dealWithElement(id, element);
+        }
+    }
+
+    private void dealWithReturn(int id, ReturnInstruction instruction){
+        if(instruction.getOperand()!=null)
+            dealWithElement(id, instruction.getOperand());
+    }
+
+    private void dealWithGetField(int id, GetFieldInstruction instruction){
+        dealWithElement(id, instruction.getFirstOperand());
+    }
+
+    private void dealWithPutField(int id, PutFieldInstruction instruction){
+        dealWithElement(id, instruction.getFirstOperand());
+        dealWithElement(id, instruction.getThirdOperand());
+    }
+
+    private void dealWithElement(int id, Element element){
+        if(element instanceof ArrayOperand arrayOperand){
+            //the index is read even when the array is a parameter
+            for(Element indexElement:arrayOperand.getIndexOperands())
+                dealWithElement(id, indexElement);
+        }
+        if(isAllocatable(element))
+            use[id].set(getVariableId(((Operand) element).getName()));
+    }
+
+    /**
+     * Only local variables of the method get registers, not literals, parameters, this or class names.
+     */
+    private boolean isAllocatable(Element element){
+        if(element.isLiteral())
+            return false;
+        Operand operand = (Operand) element;
+        //a parameter keeps its name when it is renamed, so the scope tells them apart
+        Descriptor descriptor = method.getVarTable().get(operand.getName());
+        if(descriptor==null || descriptor.getScope()==VarScope.PARAMETER)
+            return false;
+        Type type = operand.getType();
+        if(type instanceof ClassType classType && classType.getTypeOfElement()==ElementType.OBJECTREF && Objects.equals(operand.getName(), classType.getName()))
+            return false;
+        return !Objects.equals(operand.getName(), "this") && !Objects.equals(operand.getName(), "array") && method.getVarTable().containsKey(operand.getName());
+    }
+
+    private int getVariableId(String name){
+        Integer id = variableIds.get(name);
+        if(id==null){
+            id = variables.size();
+            variables.add(name);
+            variableIds.put(name, id);
+        }
+        return id;
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public int getNrInstructions(){
+        return instructions.size();
+    }
+
+    public Instruction getInstruction(int id){
+        return instructions.get(id);
+    }
+
+    public int getNrVariables(){
+        return variables.size();
+    }
+
+    public String getVariable(int id){
+        return variables.get(id);
+    }
+
+    public Integer getVariableId(Operand operand){
+        return variableIds.get(operand.getName());
+    }
+
+    public BitSet getDef(int instruction){
+        return def[instruction];
+    }
+
+    public BitSet getUse(int instruction){
+        return use[instruction];
+    }
+
+    public BitSet getIn(int instruction){
+        return in[instruction];
+    }
+
+    public BitSet getOut(int instruction){
+        return out[instruction];
+    }
+
+    public int[] getSuccessors(int instruction){
+        return successors[instruction];
+    }
+
+    public int[] getPredecessors(int instruction){
+        return predecessors[instruction];
+    }
+
+    /**
+     * Variable copied by the instruction when it is a move between two variables, or -1.
+     */
+    public int getMoveSource(int instruction){
+        return moveSource[instruction];
+    }
+
+    /**
+     * Instructions reachable from the start of the method, in postorder.
+     */
+    public int[] getPostorder(){
+        return postorder;
+    }
+}
@@ -1,18 +1,15 @@
 package pt.up.fe.comp2023.registerAllocation;
 
 import org.specs.comp.ollir.*;
+import pt.up.fe.comp2023.metrics.CompilationMetrics;
 
 import java.util.*;
 
-import static org.specs.comp.ollir.NodeType.INSTRUCTION;
-
 public class MethodVisitor {
+    public static final String GRAPH_COLORING = "graph";
+    public static final String LINEAR_SCAN = "linear";
+
     private final Method method;
-    private final Queue<Node> queue;
-    private final HashMap<Node, HashSet<String>> def;
-    private final HashMap<Node, HashSet<String>> use;
-    private final HashMap<Node, HashSet<String>> in;
-    private final HashMap<Node, HashSet<String>> out;
 
     private HashMap<String,Integer> varToRegister;
 
@@ -20,83 +17,59 @@ public class MethodVisitor {
 
     private int maxNrRegisters;
 
+    private final String allocator;
+
+    private final CompilationMetrics metrics;
+
     public MethodVisitor(Method method,int maxNrRegisters){
+        this(method,maxNrRegisters,GRAPH_COLORING,CompilationMetrics.DISABLED);
+    }
+
+    public MethodVisitor(Method method,int maxNrRegisters,CompilationMetrics metrics){
+        this(method,maxNrRegisters,GRAPH_COLORING,metrics);
+    }
+
+    public MethodVisitor(Method method,int maxNrRegisters,String allocator,CompilationMetrics metrics){
         this.method = method;
-        this.def = new HashMap<>();
-        this.use = new HashMap<>();
-        this.in = new HashMap<>();
-        this.out = new HashMap<>();
-        this.queue = new LinkedList<>();
         this.maxNrRegisters = maxNrRegisters;
+        if(!allocator.equals(GRAPH_COLORING) && !allocator.equals(LINEAR_SCAN))
+            throw new RuntimeException("Unknown register allocator '" + allocator + "', expected graph or linear.");
+        this.allocator = allocator;
+        this.metrics = metrics;
     }
 
     public void visit(){
-        Node rootNode = method.getBeginNode();
-        HashSet<Node> visited = new HashSet<>();
-        queue.offer(rootNode);
-        while(!queue.isEmpty()){
-            Node currentNode = queue.poll();
-            visited.add(currentNode);
-            if(currentNode.getNodeType()==INSTRUCTION){
-                Instruction currentInstruction = (Instruction) currentNode;
-                def.put(currentInstruction,new HashSet<>());
-                use.put(currentInstruction,new HashSet<>());
-                in.put(currentInstruction,new HashSet<>());
-                out.put(currentInstruction,new HashSet<>());
-
-
-                switch(currentInstruction.getInstType()){
-                    case CALL -> {
-                        dealWithCall((CallInstruction) currentInstruction);
-                    }
-                    case ASSIGN -> {
-                        dealWithAssign((AssignInstruction) currentInstruction);
-                    }
-                    case BRANCH -> {
-                        //do nothing, no variables
-                    }
-                    case RETURN -> {
-                        dealWithReturn((ReturnInstruction)currentInstruction);
-                    }
-                    case GETFIELD -> {
-                        dealWithGetField((GetFieldInstruction) currentInstruction);
-                    }
-                    case PUTFIELD -> {
-                        dealWithPutField((PutFieldInstruction) currentInstruction);
-                    }
-                    case UNARYOPER -> {
-                        dealWithUnaryOp((UnaryOpInstruction) currentInstruction);
-                    }
-                    case BINARYOPER -> {
-                        dealWithBinaryOp((BinaryOpInstruction) currentInstruction);
-                    }
-                    case NOPER -> {
-                        dealWithSingleOp((SingleOpInstruction)currentInstruction);
-                    }
-                    case GOTO -> {
-                        //do nothing, no variables
-                    }
-                }
-            }
-            if(currentNode instanceof AssignInstruction instruction && !visited.contains(instruction.getRhs()))
-                queue.offer(instruction.getRhs());
-            else if(currentNode instanceof OpCondInstruction instruction && !visited.contains(instruction.getCondition()))
-                queue.offer(instruction.getCondition());
+        CompilationMetrics.Timer timer = metrics.start(CompilationMetrics.LIVENESS);
+        Liveness liveness = new Liveness(method);
+        liveness.compute();
+        timer.stop();
+        visit(liveness);
+    }
 
-            for(Node successor: currentNode.getSuccessors()) {
-                if(!visited.contains(successor))
-                    queue.offer(successor);
-            }
+    /**
+     * Allocates the registers with a liveness that was already computed for the current instructions.
+     */
+    public void visit(Liveness liveness){
+        CompilationMetrics.Timer timer = metrics.start(CompilationMetrics.COLORING);
+        if(allocator.equals(LINEAR_SCAN)) {
+            //without a limit every interval can get its own register, so nothing is spilled
+            int nrRegisters = maxNrRegisters>0 ? maxNrRegisters : InterferanceGraph.getReservedRegisters(method) + liveness.getNrVariables();
+            varToRegister = new LinearScanAllocator(method,nrRegisters).allocate(liveness);
         }
-        liveInLiveOut();
-        InterferanceGraph interferanceGraph = new InterferanceGraph(def, use, in, out);
-        if(maxNrRegisters>0) {
-            varToRegister = interferanceGraph.colorGraph(method,maxNrRegisters);
+        else if(maxNrRegisters>0) {
+            varToRegister = new ChaitinBriggsAllocator(method,maxNrRegisters).allocate(liveness);
         }
         else{
-            int currentMax = 0;
-            while(varToRegister == null)
-                varToRegister = interferanceGraph.colorGraph(method,currentMax++);
+            varToRegister = new InterferanceGraph(liveness).colorWithFewestRegisters(method);
+            int nrRegisters = 0;
+            for(int register:InterferanceGraph.getTakenRegisters(method))
+                nrRegisters = Math.max(nrRegisters, register + 1);
+            for(int register:varToRegister.values())
+                nrRegisters = Math.max(nrRegisters, register + 1);
+            //coalesce the moves with the same number of registers, if it can be done without spilling
+            HashMap<String,Integer> coalesced = new ChaitinBriggsAllocator(method,nrRegisters,false).allocate(liveness);
+            if(coalesced!=null)
+                varToRegister = coalesced;
         }
         if(varToRegister!=null) {
             replaceVarsByRegisters();
@@ -104,6 +77,7 @@ public class MethodVisitor {
         }
         else
             notEnoughRegisters = true;
+        timer.stop();
     }
 
 
@@ -117,146 +91,6 @@ public class MethodVisitor {
         }
     }
 
-    private void liveInLiveOut(){
-        Node rootNode = method.getBeginNode();
-        boolean changed = true;
-        while(changed){
-            changed = false;
-            HashSet<Node> visited = new HashSet<>();
-            queue.offer(rootNode);
-            while(!queue.isEmpty()){
-                Node currentNode = queue.poll();
-                visited.add(currentNode);
-                if(currentNode.getNodeType()==INSTRUCTION){
-                    Instruction currentInstruction = (Instruction) currentNode;
-                    HashSet<String> currentOut =  new HashSet<>(out.get(currentInstruction));
-                    currentOut.removeAll(def.get(currentInstruction));
-                    HashSet<String> newIn = new HashSet<>(use.get(currentInstruction));
-                    newIn.addAll(currentOut);
-                    if(in.get(currentInstruction).size()!=newIn.size())
-                        changed=true;
-                    in.put(currentInstruction,newIn);
-                    HashSet<String> newOut = new HashSet<>();
-                    for(Node successor: currentNode.getSuccessors()) {
-                        if(successor.getNodeType()==INSTRUCTION)
-                            newOut.addAll(in.get(successor));
-                    }
-
-                    if(out.get(currentNode).size()!=newOut.size()) {
-                        changed = true;
-                    }
-                    out.put(currentNode,newOut);
-
-                }
-                if(currentNode instanceof AssignInstruction instruction && !visited.contains(instruction.getRhs()))
-                    queue.offer(instruction.getRhs());
-                else if(currentNode instanceof OpCondInstruction instruction && !visited.contains(instruction.getCondition()))
-                    queue.offer(instruction.getCondition());
-
-                for(Node successor: currentNode.getSuccessors()) {
-                    if(!visited.contains(successor))
-                        queue.offer(successor);
-                }
-            }
-        }
-    }
-
-
-
-    private void dealWithAssign(AssignInstruction instruction){
-        Element element = instruction.getDest();
-        Operand operand = (Operand) element;
-        if(!operand.isParameter())
-            def.get(instruction).add(operand.getName());
-
-        if(element instanceof ArrayOperand arrayOperand){
-            for(Element indexElement:arrayOperand.getIndexOperands())
-                dealWithElement(instruction,indexElement);
-        }
-    }
-
-    private void dealWithUnaryOp(UnaryOpInstruction instruction){
-        Element element = instruction.getOperand();
-        dealWithElement(instruction,element);
-
-    }
-    private void dealWithBinaryOp(BinaryOpInstruction instruction){
-        Element leftElement = instruction.getLeftOperand();
-        Element rightElement = instruction.getRightOperand();
-        dealWithElement(instruction,leftElement);
-        dealWithElement(instruction,rightElement);
-    }
-
-    private boolean isNotArrayThisOrLiteral(Element element){
-        if(element.isLiteral()){
-            return false;
-        }
-        else{
-            Operand operand = (Operand) element;
-            Type type = operand.getType();
-            if(type instanceof ClassType classType){
-                if(classType.getTypeOfElement()==ElementType.OBJECTREF && Objects.equals(operand.getName(), classType.getName()))
-                    return false;
-
-            }
-            return !Objects.equals(operand.getName(), "this") && !Objects.equals(operand.getName(), "array");
-        }
-    }
-    private void dealWithCall(CallInstruction instruction){
-        Element firstArg = instruction.getFirstArg();
-        Element secondArg = instruction.getSecondArg();
-
-        dealWithElement(instruction,firstArg);
-
-        if(secondArg!=null)
-            dealWithElement(instruction,secondArg);
-
-
-        for(Element element: instruction.getListOfOperands())
-            dealWithElement(instruction,element);
-    }
-
-    private void dealWithElement(Instruction instruction,Element element){
-        if(isNotArrayThisOrLiteral(element)){
-            Operand operand = (Operand) element;
-            if(!operand.isParameter())
-                use.get(instruction).add(operand.getName());
-            if(element instanceof ArrayOperand arrayOperand){
-                for (Element indexElement : arrayOperand.getIndexOperands()) {
-                    if (isNotArrayThisOrLiteral(indexElement)) {
-                        Operand indexOperand = (Operand) indexElement;
-                        if(!indexOperand.isParameter())
-                            use.get(instruction).add(indexOperand.getName());
-                    }
-                }
-            }
-        }
-    }
-
-    private void dealWithSingleOp(SingleOpInstruction instruction){
-        Element element = instruction.getSingleOperand();
-        dealWithElement(instruction,element);
-    }
-
-    private void dealWithReturn(ReturnInstruction instruction){
-        Element element = instruction.getOperand();
-        if(element!=null)
-            dealWithElement(instruction,element);
-    }
-
-    private void dealWithGetField(GetFieldInstruction instruction){
-        Element firstElement = instruction.getFirstOperand();
-        dealWithElement(instruction,firstElement);
-    }
-
-    private void dealWithPutField(PutFieldInstruction instruction){
-        Element firstElement = instruction.getFirstOperand();
-        Element thirdElement = instruction.getThirdOperand();
-
-        dealWithElement(instruction,firstElement);
-        dealWithElement(instruction,thirdElement);
-    }
-
     public boolean insufficientRegisters(){
         return notEnoughRegisters;
     }
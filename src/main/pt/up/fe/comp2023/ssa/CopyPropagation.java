@@ -0,0 +1,128 @@
+package pt.up.fe.comp2023.ssa;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp2023.controlFlow.OllirInstructions;
+
+import java.util.*;
+
+/**
+ * Copy propagation on a method in SSA form. A copy between two variables, or a phi whose arguments are all the
+ * same variable, is removed and what read its value reads the copied variable instead. Each variable is
+ * assigned once, so the copied variable has the same value wherever the copy could be read.
+ */
+public class CopyPropagation {
+    private final SsaForm ssa;
+
+    public CopyPropagation(SsaForm ssa){
+        this.ssa = ssa;
+    }
+
+    /**
+     * Returns true when the method changed.
+     */
+    public boolean optimize(){
+        boolean changed = false;
+        while(true){
+            Map<String,String> replacements = resolve(findCopies());
+            if(replacements.isEmpty())
+                return changed;
+            changed = true;
+            replace(replacements);
+        }
+    }
+
+    private Map<String,String> findCopies(){
+        Map<String,String> copies = new HashMap<>();
+        for(int block=0;block<ssa.getNrBlocks();block++){
+            for(Phi phi:ssa.getPhis(block)){
+                String value = getUniqueArgument(phi);
+                if(value!=null)
+                    copies.put(phi.getDest(), value);
+            }
+            for(Instruction instruction:ssa.getInstructions(block)){
+                String[] copy = getCopy(instruction);
+                if(copy!=null)
+                    copies.put(copy[0], copy[1]);
+            }
+        }
+        return copies;
+    }
+
+    /**
+     * Argument of a phi that only merges one value, ignoring the arguments that are the phi itself (from loops
+     * that do not change the variable), or null.
+     */
+    private static String getUniqueArgument(Phi phi){
+        String value = null;
+        for(int i=0;i<phi.getNrArguments();i++){
+            String argument = phi.getArgument(i);
+            if(argument.equals(phi.getDest()))
+                continue;
+            if(value!=null && !value.equals(argument))
+                return null;
+            value = argument;
+        }
+        return value;
+    }
+
+    /**
+     * Variable assigned and variable read by an assignment of one variable to another, or null.
+     */
+    private String[] getCopy(Instruction instruction){
+        if(!(instruction instanceof AssignInstruction assign) || assign.getRhs().getInstType()!=InstructionType.NOPER)
+            return null;
+        Element dest = assign.getDest();
+        Element source = ((SingleOpInstruction) assign.getRhs()).getSingleOperand();
+        if(!(dest instanceof Operand destOperand) || dest instanceof ArrayOperand
+                || !(source instanceof Operand sourceOperand) || source instanceof ArrayOperand)
+            return null;
+        if(!ssa.isVariable(destOperand.getName()) || !ssa.isVariable(sourceOperand.getName()))
+            return null;
+        return new String[]{destOperand.getName(), sourceOperand.getName()};
+    }
+
+    /**
+     * Follows the chains of copies to the variable at their start. Copies that only go around in a cycle never
+     * get a value, they are kept as they are.
+     */
+    private static Map<String,String> resolve(Map<String,String> copies){
+        Map<String,String> resolved = new HashMap<>();
+        for(String dest:copies.keySet()){
+            String value = copies.get(dest);
+            int steps = 0;
+            while(copies.containsKey(value) && steps<=copies.size()){
+                value = copies.get(value);
+                steps++;
+            }
+            if(!copies.containsKey(value))
+                resolved.put(dest, value);
+        }
+        return resolved;
+    }
+
+    private void replace(Map<String,String> replacements){
+        for(int block=0;block<ssa.getNrBlocks();block++){
+            List<Instruction> instructions = ssa.getInstructions(block);
+            instructions.removeIf(instruction -> {
+                String[] copy = getCopy(instruction);
+                return copy!=null && replacements.containsKey(copy[0]);
+            });
+            for(Instruction instruction:instructions){
+                OllirInstructions.forEachUse(instruction, operand -> {
+                    String value = replacements.get(operand.getName());
+                    if(value!=null)
+                        operand.setName(value);
+                });
+            }
+            List<Phi> phis = ssa.getPhis(block);
+            phis.removeIf(phi -> replacements.containsKey(phi.getDest()));
+            for(Phi phi:phis){
+                for(int i=0;i<phi.getNrArguments();i++){
+                    String value = replacements.get(phi.getArgument(i));
+                    if(value!=null)
+                        phi.setArgument(i, value);
+                }
+            }
+        }
+    }
+}
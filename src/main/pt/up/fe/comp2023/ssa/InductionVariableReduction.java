@@ -0,0 +1,198 @@
+package pt.up.fe.comp2023.ssa;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp2023.controlFlow.NaturalLoops;
+import pt.up.fe.comp2023.controlFlow.OllirInstructions;
+
+import java.util.*;
+
+/**
+ * Strength reduction of the induction variables of the loops. A basic induction variable is a phi of the loop
+ * header that gets a value from before the loop and, on every edge back to the header, the same variable that
+ * the loop assigns with the phi plus (or minus) a literal step. A multiplication of it by a literal (or a left
+ * shift) in the loop becomes a copy of a new variable that keeps that product: it starts at the initial value
+ * times the literal, computed before the loop, and grows by the step times the literal right after the
+ * variable is incremented. The products wrap around like the multiplications they replace.
+ */
+public class InductionVariableReduction {
+    private final SsaForm ssa;
+
+    public InductionVariableReduction(SsaForm ssa){
+        this.ssa = ssa;
+    }
+
+    private record InductionVariable(String initial, String next, int step){}
+
+    /**
+     * Returns true when a multiplication was replaced.
+     */
+    public boolean optimize(){
+        if(ssa.getNrBlocks()==0)
+            return false;
+        NaturalLoops loops = new NaturalLoops(ssa.getDominatorTree());
+        boolean changed = false;
+        for(int loop=0;loop<loops.getNrLoops();loop++){
+            if(reduce(loops.getHeader(loop), loops.getBody(loop)))
+                changed = true;
+        }
+        return changed;
+    }
+
+    private boolean reduce(int header, BitSet body){
+        int entering = ssa.getEnteringEdge(header, body);
+        if(entering<0)
+            return false;
+        Map<String,Instruction> definitions = new HashMap<>();
+        for(int block=body.nextSetBit(0);block>=0;block=body.nextSetBit(block + 1)){
+            for(Instruction instruction:ssa.getInstructions(block)){
+                String dest = OllirInstructions.getDefinedVariable(instruction);
+                if(dest!=null)
+                    definitions.put(dest, instruction);
+            }
+        }
+
+        Map<String,InductionVariable> inductionVariables = new HashMap<>();
+        for(Phi phi:ssa.getPhis(header)){
+            String next = null;
+            boolean single = true;
+            for(int i=0;i<phi.getNrArguments();i++){
+                if(i==entering)
+                    continue;
+                if(next==null)
+                    next = phi.getArgument(i);
+                else if(!next.equals(phi.getArgument(i)))
+                    single = false;
+            }
+            if(!single || next==null || !(definitions.get(next) instanceof AssignInstruction increment))
+                continue;
+            Integer step = getStep(increment.getRhs(), phi.getDest());
+            if(step!=null && increment.getTypeOfAssign().getTypeOfElement()==ElementType.INT32)
+                inductionVariables.put(phi.getDest(), new InductionVariable(phi.getArgument(entering), next, step));
+        }
+        if(inductionVariables.isEmpty())
+            return false;
+
+        //the multiplications are found first, the blocks change when they are replaced
+        List<Instruction> products = new ArrayList<>();
+        List<Integer> productBlocks = new ArrayList<>();
+        for(int block=body.nextSetBit(0);block>=0;block=body.nextSetBit(block + 1)){
+            for(Instruction instruction:ssa.getInstructions(block)){
+                if(getProduct(instruction, inductionVariables)!=null){
+                    products.add(instruction);
+                    productBlocks.add(block);
+                }
+            }
+        }
+
+        Map<String,String> reduced = new HashMap<>();
+        for(int i=0;i<products.size();i++){
+            AssignInstruction product = (AssignInstruction) products.get(i);
+            Map.Entry<String,Integer> factor = getProduct(product, inductionVariables);
+            String key = factor.getKey() + "*" + factor.getValue();
+            String value = reduced.get(key);
+            if(value==null){
+                value = createReducedVariable(header, entering, inductionVariables.get(factor.getKey()), factor.getValue(), body);
+                reduced.put(key, value);
+            }
+            List<Instruction> instructions = ssa.getInstructions(productBlocks.get(i));
+            Type type = product.getTypeOfAssign();
+            instructions.set(instructions.indexOf(product),
+                    new AssignInstruction(product.getDest(), type, new SingleOpInstruction(new Operand(value, type))));
+        }
+        return !products.isEmpty();
+    }
+
+    /**
+     * Step of an increment of the variable by a literal, or null when it is not one.
+     */
+    private static Integer getStep(Instruction rhs, String variable){
+        if(!(rhs instanceof BinaryOpInstruction operation))
+            return null;
+        Element left = operation.getLeftOperand();
+        Element right = operation.getRightOperand();
+        switch(operation.getOperation().getOpType()){
+            case ADD -> {
+                if(isVariable(left, variable) && right instanceof LiteralElement literal)
+                    return Integer.parseInt(literal.getLiteral());
+                if(isVariable(right, variable) && left instanceof LiteralElement literal)
+                    return Integer.parseInt(literal.getLiteral());
+            }
+            case SUB -> {
+                if(isVariable(left, variable) && right instanceof LiteralElement literal)
+                    return -Integer.parseInt(literal.getLiteral());
+            }
+            default -> {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Induction variable and literal factor of a product assigned to a variable of the SSA form, or null.
+     */
+    private Map.Entry<String,Integer> getProduct(Instruction instruction, Map<String,InductionVariable> inductionVariables){
+        String dest = OllirInstructions.getDefinedVariable(instruction);
+        if(dest==null || !ssa.isVariable(dest) || !(((AssignInstruction) instruction).getRhs() instanceof BinaryOpInstruction operation))
+            return null;
+        Element left = operation.getLeftOperand();
+        Element right = operation.getRightOperand();
+        switch(operation.getOperation().getOpType()){
+            case MUL -> {
+                if(left instanceof Operand variable && !(left instanceof ArrayOperand) && inductionVariables.containsKey(variable.getName())
+                        && right instanceof LiteralElement literal)
+                    return Map.entry(variable.getName(), Integer.parseInt(literal.getLiteral()));
+                if(right instanceof Operand variable && !(right instanceof ArrayOperand) && inductionVariables.containsKey(variable.getName())
+                        && left instanceof LiteralElement literal)
+                    return Map.entry(variable.getName(), Integer.parseInt(literal.getLiteral()));
+            }
+            case SHL -> {
+                if(left instanceof Operand variable && !(left instanceof ArrayOperand) && inductionVariables.containsKey(variable.getName())
+                        && right instanceof LiteralElement literal)
+                    return Map.entry(variable.getName(), 1 << Integer.parseInt(literal.getLiteral()));
+            }
+            default -> {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isVariable(Element element, String variable){
+        return element instanceof Operand operand && !(element instanceof ArrayOperand) && operand.getName().equals(variable);
+    }
+
+    /**
+     * Creates the phi of the header that keeps the induction variable times the factor and the assignments
+     * that give its value before the loop and after each increment.
+     */
+    private String createReducedVariable(int header, int entering, InductionVariable inductionVariable, int factor, BitSet body){
+        Type type = new Type(ElementType.INT32);
+        String value = ssa.newVariable("iv", type);
+        String initial = ssa.newVariable("iv", type);
+        String next = ssa.newVariable("iv", type);
+
+        ssa.addOnEdge(header, entering, new AssignInstruction(new Operand(initial, type), type, new BinaryOpInstruction(
+                new Operand(inductionVariable.initial(), type), new Operation(OperationType.MUL, type), literal(factor))));
+        for(int block=body.nextSetBit(0);block>=0;block=body.nextSetBit(block + 1)){
+            List<Instruction> instructions = ssa.getInstructions(block);
+            for(int i=0;i<instructions.size();i++){
+                if(inductionVariable.next().equals(OllirInstructions.getDefinedVariable(instructions.get(i)))){
+                    instructions.add(i + 1, new AssignInstruction(new Operand(next, type), type, new BinaryOpInstruction(
+                            new Operand(value, type), new Operation(OperationType.ADD, type), literal(inductionVariable.step()*factor))));
+                    break;
+                }
+            }
+        }
+
+        Phi phi = new Phi(value, type, ssa.getNrArguments(header));
+        for(int i=0;i<phi.getNrArguments();i++)
+            phi.setArgument(i, i==entering ? initial : next);
+        ssa.getPhis(header).add(phi);
+        return value;
+    }
+
+    private static LiteralElement literal(int value){
+        return new LiteralElement(String.valueOf(value), new Type(ElementType.INT32));
+    }
+}
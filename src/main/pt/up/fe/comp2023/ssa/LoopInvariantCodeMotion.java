@@ -0,0 +1,168 @@
+package pt.up.fe.comp2023.ssa;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp2023.controlFlow.NaturalLoops;
+import pt.up.fe.comp2023.controlFlow.OllirInstructions;
+
+import java.util.*;
+
+/**
+ * Moves the assignments whose value is the same in every iteration of a loop to the edge that enters the
+ * loop, which becomes its preheader when the method leaves the SSA form. An assignment is invariant when the
+ * variables it reads are assigned outside the loop (or were already moved out), and the array elements and
+ * fields it reads are not written by the loop or by a call in it.
+ *
+ * The moved assignments also run when the loop does not, so only the ones that cannot throw can come from
+ * anywhere in the loop. Divisions, array elements and array lengths are only moved from the start of the
+ * header, before any instruction that stays there and can throw or write to memory, since the header always
+ * runs when the loop is entered. Loops entered by more than one edge are left as they are. The outer loops
+ * are visited first, so an assignment goes to the outermost loop it does not depend on.
+ */
+public class LoopInvariantCodeMotion {
+    private final SsaForm ssa;
+    private boolean writesArrays;
+    private boolean writesFields;
+    private boolean calls;
+
+    public LoopInvariantCodeMotion(SsaForm ssa){
+        this.ssa = ssa;
+    }
+
+    /**
+     * Returns true when an assignment was moved.
+     */
+    public boolean optimize(){
+        if(ssa.getNrBlocks()==0)
+            return false;
+        NaturalLoops loops = new NaturalLoops(ssa.getDominatorTree());
+        boolean changed = false;
+        for(int loop=0;loop<loops.getNrLoops();loop++){
+            if(hoist(loops.getHeader(loop), loops.getBody(loop)))
+                changed = true;
+        }
+        return changed;
+    }
+
+    private boolean hoist(int header, BitSet body){
+        int entering = ssa.getEnteringEdge(header, body);
+        if(entering<0)
+            return false;
+
+        Set<String> defined = new HashSet<>();
+        writesArrays = false;
+        writesFields = false;
+        calls = false;
+        for(int block=body.nextSetBit(0);block>=0;block=body.nextSetBit(block + 1)){
+            for(Phi phi:ssa.getPhis(block))
+                defined.add(phi.getDest());
+            for(Instruction instruction:ssa.getInstructions(block)){
+                String dest = OllirInstructions.getDefinedVariable(instruction);
+                if(dest!=null)
+                    defined.add(dest);
+                findWrites(instruction);
+            }
+        }
+
+        boolean changed = false;
+        boolean moved = true;
+        while(moved){
+            moved = false;
+            for(int block=body.nextSetBit(0);block>=0;block=body.nextSetBit(block + 1)){
+                boolean start = block==header;
+                List<Instruction> instructions = ssa.getInstructions(block);
+                for(Iterator<Instruction> iterator=instructions.iterator();iterator.hasNext();){
+                    Instruction instruction = iterator.next();
+                    if(isInvariant(instruction, defined) && (start || !canThrow(instruction))){
+                        iterator.remove();
+                        ssa.addOnEdge(header, entering, instruction);
+                        defined.remove(OllirInstructions.getDefinedVariable(instruction));
+                        moved = true;
+                        changed = true;
+                    }
+                    else if(canThrow(instruction) || hasSideEffects(instruction))
+                        start = false;
+                }
+            }
+        }
+        return changed;
+    }
+
+    private void findWrites(Instruction instruction){
+        switch(instruction.getInstType()){
+            case ASSIGN -> {
+                AssignInstruction assign = (AssignInstruction) instruction;
+                if(assign.getDest() instanceof ArrayOperand)
+                    writesArrays = true;
+                findWrites(assign.getRhs());
+            }
+            case PUTFIELD -> writesFields = true;
+            case CALL -> {
+                CallType type = ((CallInstruction) instruction).getInvocationType();
+                if(type!=CallType.arraylength && type!=CallType.NEW)
+                    calls = true;
+            }
+            default -> {
+                //reads only
+            }
+        }
+    }
+
+    private boolean isInvariant(Instruction instruction, Set<String> defined){
+        String dest = OllirInstructions.getDefinedVariable(instruction);
+        if(dest==null || !ssa.isVariable(dest))
+            return false;
+        boolean[] readsLoop = {false};
+        OllirInstructions.forEachUse(instruction, operand -> {
+            if(defined.contains(operand.getName()))
+                readsLoop[0] = true;
+        });
+        if(readsLoop[0] || (readsElement(instruction) && (writesArrays || calls)))
+            return false;
+        Instruction rhs = ((AssignInstruction) instruction).getRhs();
+        return switch(rhs.getInstType()){
+            case BINARYOPER, UNARYOPER -> true;
+            //a literal costs as much to assign as the copy that would replace it
+            case NOPER -> ((SingleOpInstruction) rhs).getSingleOperand() instanceof ArrayOperand;
+            case GETFIELD -> !writesFields && !calls;
+            case CALL -> ((CallInstruction) rhs).getInvocationType()==CallType.arraylength;
+            default -> false;
+        };
+    }
+
+    private static boolean canThrow(Instruction instruction){
+        if(!(instruction instanceof AssignInstruction assign))
+            return false;
+        if(assign.getDest() instanceof ArrayOperand || readsElement(assign))
+            return true;
+        Instruction rhs = assign.getRhs();
+        return switch(rhs.getInstType()){
+            case BINARYOPER -> {
+                BinaryOpInstruction operation = (BinaryOpInstruction) rhs;
+                yield operation.getOperation().getOpType()==OperationType.DIV
+                        && !(operation.getRightOperand() instanceof LiteralElement literal && !literal.getLiteral().equals("0"));
+            }
+            case CALL -> true;
+            default -> false;
+        };
+    }
+
+    private static boolean readsElement(Instruction instruction){
+        boolean[] element = {false};
+        OllirInstructions.forEachOperand(((AssignInstruction) instruction).getRhs(), operand -> {
+            if(operand instanceof ArrayOperand)
+                element[0] = true;
+        });
+        return element[0];
+    }
+
+    private static boolean hasSideEffects(Instruction instruction){
+        return switch(instruction.getInstType()){
+            case CALL, PUTFIELD -> true;
+            case ASSIGN -> {
+                AssignInstruction assign = (AssignInstruction) instruction;
+                yield assign.getDest() instanceof ArrayOperand || assign.getRhs().getInstType()==InstructionType.CALL;
+            }
+            default -> false;
+        };
+    }
+}
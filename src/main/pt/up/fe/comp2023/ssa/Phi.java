@@ -0,0 +1,59 @@
+package pt.up.fe.comp2023.ssa;
+
+import org.specs.comp.ollir.Type;
+
+import java.util.Arrays;
+
+/**
+ * Phi function at the start of a block. It has one argument for each predecessor of the block, in the order
+ * given by {@link SsaForm#getPredecessors(int)}, and the entry block has one more for the start of the method.
+ */
+public class Phi {
+    private final String variable;
+    private final Type type;
+    private final String[] arguments;
+    private String dest;
+
+    public Phi(String variable, Type type, int nrArguments){
+        this.variable = variable;
+        this.type = type;
+        this.arguments = new String[nrArguments];
+        this.dest = variable;
+    }
+
+    /**
+     * Variable of the method before the renaming.
+     */
+    public String getVariable(){
+        return variable;
+    }
+
+    public Type getType(){
+        return type;
+    }
+
+    public String getDest(){
+        return dest;
+    }
+
+    public void setDest(String dest){
+        this.dest = dest;
+    }
+
+    public int getNrArguments(){
+        return arguments.length;
+    }
+
+    public String getArgument(int index){
+        return arguments[index];
+    }
+
+    public void setArgument(int index, String argument){
+        arguments[index] = argument;
+    }
+
+    @Override
+    public String toString(){
+        return dest + " := phi" + Arrays.toString(arguments);
+    }
+}
@@ -0,0 +1,429 @@
+package pt.up.fe.comp2023.ssa;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp2023.controlFlow.ControlFlowGraph;
+import pt.up.fe.comp2023.controlFlow.DominatorTree;
+import pt.up.fe.comp2023.controlFlow.OllirInstructions;
+
+import java.util.*;
+
+/**
+ * Static single assignment form of a method. The phi functions are placed on the iterated dominance frontiers
+ * of the blocks that assign each variable, only for the variables read in a block before being assigned there,
+ * and the variables are then renamed in a walk of the dominator tree: every assignment and phi gets a new
+ * variable named after the original one (x#0, x#1, ...), while the value a variable has at the start of the
+ * method keeps the original name. The phis live outside the instructions of the method, which stay in one
+ * list per block while the method is in SSA form; the passes that run on it may change and remove instructions
+ * but not the edges between the blocks.
+ *
+ * {@link #destruct()} puts the method back into normal form: each phi becomes a copy at the end of each
+ * predecessor, an edge from a branch to a block with phis gets a block of its own, and the copies of an edge
+ * are ordered so that none of them overwrites a value that another one still reads.
+ */
+public class SsaForm {
+    private static final String SEPARATOR = "#";
+
+    private final Method method;
+    private final ControlFlowGraph cfg;
+    private final DominatorTree dominators;
+    private final List<List<Instruction>> blocks;
+    private final List<List<Phi>> phis;
+    private final List<List<String>> blockLabels;
+    private final List<Map<Integer,List<Instruction>>> edgeInstructions;
+    private final int[][] predecessors;
+    private final Map<String,String> variables;
+
+    private SsaForm(Method method){
+        this.method = method;
+        this.cfg = new ControlFlowGraph(method);
+        this.dominators = new DominatorTree(cfg);
+        this.blocks = new ArrayList<>();
+        this.phis = new ArrayList<>();
+        this.blockLabels = new ArrayList<>();
+        this.edgeInstructions = new ArrayList<>();
+        this.predecessors = new int[cfg.getNrBlocks()][];
+        Map<Instruction,List<String>> labels = OllirInstructions.getLabelsByInstruction(method);
+        for(int block=0;block<cfg.getNrBlocks();block++){
+            boolean reachable = dominators.isReachable(block);
+            blocks.add(reachable ? new ArrayList<>(cfg.getInstructions(block)) : new ArrayList<>());
+            phis.add(new ArrayList<>());
+            edgeInstructions.add(new HashMap<>());
+            List<String> blockLabel = reachable ? labels.get(cfg.getInstructions(block).get(0)) : null;
+            blockLabels.add(blockLabel!=null ? blockLabel : new ArrayList<>());
+            predecessors[block] = Arrays.stream(cfg.getPredecessors(block)).filter(dominators::isReachable).toArray();
+        }
+        this.variables = new HashMap<>();
+        for(Map.Entry<String,Descriptor> variable:method.getVarTable().entrySet()){
+            VarScope scope = variable.getValue().getScope();
+            if((scope==VarScope.LOCAL || scope==VarScope.PARAMETER) && !variable.getKey().equals("this"))
+                variables.put(variable.getKey(), variable.getKey());
+        }
+    }
+
+    public static SsaForm construct(Method method){
+        SsaForm ssa = new SsaForm(method);
+        ssa.placePhis();
+        ssa.rename();
+        ssa.removeDeadPhis();
+        return ssa;
+    }
+
+    public Method getMethod(){
+        return method;
+    }
+
+    public DominatorTree getDominatorTree(){
+        return dominators;
+    }
+
+    public int getNrBlocks(){
+        return blocks.size();
+    }
+
+    public boolean isReachable(int block){
+        return dominators.isReachable(block);
+    }
+
+    /**
+     * Instructions of the block, the last one is the jump, branch or return that ends it, when it has one.
+     */
+    public List<Instruction> getInstructions(int block){
+        return blocks.get(block);
+    }
+
+    public List<Phi> getPhis(int block){
+        return phis.get(block);
+    }
+
+    /**
+     * Reachable predecessors of the block, in the order of the arguments of its phis.
+     */
+    public int[] getPredecessors(int block){
+        return predecessors[block];
+    }
+
+    public int[] getSuccessors(int block){
+        return cfg.getSuccessors(block);
+    }
+
+    /**
+     * Adds an instruction that runs on the edge from one of the predecessors of the block, before the copies of
+     * its phis. For the entry block, the index after its last predecessor is the start of the method.
+     */
+    public void addOnEdge(int block, int predecessorIndex, Instruction instruction){
+        edgeInstructions.get(block).computeIfAbsent(predecessorIndex, index -> new ArrayList<>()).add(instruction);
+    }
+
+    /**
+     * Whether the variable is renamed by the SSA form, so it is assigned at most once.
+     */
+    public boolean isVariable(String name){
+        return variables.containsKey(name);
+    }
+
+    /**
+     * Variable of the method that was renamed to the given name.
+     */
+    public String getOriginalVariable(String name){
+        return variables.get(name);
+    }
+
+    public Type getType(String name){
+        return method.getVarTable().get(name).getVarType();
+    }
+
+    /**
+     * Adds a variable to the method that the passes on the SSA form can assign once, like the ones renamed.
+     */
+    public String newVariable(String prefix, Type type){
+        String name = OllirInstructions.newVariable(method, prefix, type);
+        variables.put(name, name);
+        return name;
+    }
+
+    /**
+     * Number of arguments of the phis of the block.
+     */
+    public int getNrArguments(int block){
+        return predecessors[block].length + (block==0 ? 1 : 0);
+    }
+
+    /**
+     * Index of the only edge that enters the loop with the given header and body from outside of it (for the
+     * entry block, the index after its last predecessor is the start of the method), or -1 when there are more.
+     */
+    public int getEnteringEdge(int header, BitSet body){
+        int entering = header==0 ? predecessors[header].length : -1;
+        int nrEntering = header==0 ? 1 : 0;
+        for(int i=0;i<predecessors[header].length;i++){
+            if(!body.get(predecessors[header][i])){
+                entering = i;
+                nrEntering++;
+            }
+        }
+        return nrEntering==1 ? entering : -1;
+    }
+
+    private void placePhis(){
+        Set<String> global = new LinkedHashSet<>();
+        Map<String,BitSet> definitions = new HashMap<>();
+        for(int block:dominators.getPreorder()){
+            Set<String> defined = new HashSet<>();
+            for(Instruction instruction:blocks.get(block)){
+                OllirInstructions.forEachUse(instruction, operand -> {
+                    if(isVariable(operand.getName()) && !defined.contains(operand.getName()))
+                        global.add(operand.getName());
+                });
+                String dest = OllirInstructions.getDefinedVariable(instruction);
+                if(dest!=null && isVariable(dest)){
+                    defined.add(dest);
+                    definitions.computeIfAbsent(dest, name -> new BitSet()).set(block);
+                }
+            }
+        }
+
+        for(String variable:global){
+            BitSet definedIn = definitions.get(variable);
+            if(definedIn==null)
+                continue;
+            BitSet hasPhi = new BitSet();
+            BitSet pending = (BitSet) definedIn.clone();
+            for(int block=pending.nextSetBit(0);block>=0;block=pending.nextSetBit(0)){
+                pending.clear(block);
+                for(int frontier:dominators.getDominanceFrontier(block)){
+                    if(hasPhi.get(frontier))
+                        continue;
+                    hasPhi.set(frontier);
+                    phis.get(frontier).add(new Phi(variable, getType(variable), getNrArguments(frontier)));
+                    if(!definedIn.get(frontier))
+                        pending.set(frontier);
+                }
+            }
+        }
+    }
+
+    private void rename(){
+        Map<String,Deque<String>> versions = new HashMap<>();
+        for(String variable:variables.keySet())
+            versions.put(variable, new ArrayDeque<>(List.of(variable)));
+        //the entry block can be the target of a loop, its last argument is the value at the start of the method
+        if(getNrBlocks()>0){
+            for(Phi phi:phis.get(0))
+                phi.setArgument(predecessors[0].length, phi.getVariable());
+        }
+
+        Deque<int[]> pending = new ArrayDeque<>();
+        List<List<String>> pushed = new ArrayList<>();
+        for(int block=0;block<getNrBlocks();block++)
+            pushed.add(new ArrayList<>());
+        if(getNrBlocks()>0)
+            pending.push(new int[]{0, 0});
+        while(!pending.isEmpty()){
+            int[] frame = pending.pop();
+            int block = frame[0];
+            if(frame[1]==1){
+                for(String variable:pushed.get(block))
+                    versions.get(variable).pop();
+                continue;
+            }
+            pending.push(new int[]{block, 1});
+            List<String> blockPushed = pushed.get(block);
+            for(Phi phi:phis.get(block)){
+                String version = newVersion(phi.getVariable());
+                phi.setDest(version);
+                versions.get(phi.getVariable()).push(version);
+                blockPushed.add(phi.getVariable());
+            }
+            for(Instruction instruction:blocks.get(block)){
+                OllirInstructions.forEachUse(instruction, operand -> {
+                    Deque<String> current = versions.get(operand.getName());
+                    if(current!=null)
+                        operand.setName(current.peek());
+                });
+                String dest = OllirInstructions.getDefinedVariable(instruction);
+                if(dest!=null && versions.containsKey(dest)){
+                    String version = newVersion(dest);
+                    ((Operand) ((AssignInstruction) instruction).getDest()).setName(version);
+                    versions.get(dest).push(version);
+                    blockPushed.add(dest);
+                }
+            }
+            for(int successor:cfg.getSuccessors(block)){
+                int index = indexOf(predecessors[successor], block);
+                for(Phi phi:phis.get(successor))
+                    phi.setArgument(index, versions.get(phi.getVariable()).peek());
+            }
+            int[] children = dominators.getChildren(block);
+            for(int i=children.length-1;i>=0;i--)
+                pending.push(new int[]{children[i], 0});
+        }
+    }
+
+    private static int indexOf(int[] array, int value){
+        for(int i=0;i<array.length;i++){
+            if(array[i]==value)
+                return i;
+        }
+        return -1;
+    }
+
+    private String newVersion(String variable){
+        String version = OllirInstructions.newVariable(method, variable + SEPARATOR, getType(variable));
+        variables.put(version, variable);
+        return version;
+    }
+
+    /**
+     * Removes the phis whose value no instruction reads, not even through other phis.
+     */
+    private void removeDeadPhis(){
+        Map<String,Phi> phiByDest = new HashMap<>();
+        for(List<Phi> blockPhis:phis){
+            for(Phi phi:blockPhis)
+                phiByDest.put(phi.getDest(), phi);
+        }
+        Set<String> live = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        for(List<Instruction> block:blocks){
+            for(Instruction instruction:block){
+                OllirInstructions.forEachUse(instruction, operand -> {
+                    if(live.add(operand.getName()))
+                        pending.push(operand.getName());
+                });
+            }
+        }
+        while(!pending.isEmpty()){
+            Phi phi = phiByDest.get(pending.pop());
+            if(phi==null)
+                continue;
+            for(int i=0;i<phi.getNrArguments();i++){
+                if(live.add(phi.getArgument(i)))
+                    pending.push(phi.getArgument(i));
+            }
+        }
+        for(List<Phi> blockPhis:phis)
+            blockPhis.removeIf(phi -> !live.contains(phi.getDest()));
+    }
+
+    /**
+     * Replaces the phis with copies and writes the instructions of the blocks back to the method.
+     */
+    public void destruct(){
+        List<Instruction> entryCopies = new ArrayList<>();
+        List<List<Instruction>> fallThroughCopies = new ArrayList<>();
+        for(int block=0;block<getNrBlocks();block++)
+            fallThroughCopies.add(new ArrayList<>());
+        List<Instruction> splitBlocks = new ArrayList<>();
+
+        for(int block=0;block<getNrBlocks();block++){
+            List<Phi> blockPhis = phis.get(block);
+            Map<Integer,List<Instruction>> blockEdges = edgeInstructions.get(block);
+            if((blockPhis.isEmpty() && blockEdges.isEmpty()) || !isReachable(block))
+                continue;
+            for(int index=0;index<getNrArguments(block);index++){
+                List<Instruction> inserted = blockEdges.getOrDefault(index, List.of());
+                List<Instruction> copies = new ArrayList<>(inserted);
+                copies.addAll(sequentialize(blockPhis, index));
+                if(copies.isEmpty())
+                    continue;
+                if(index==predecessors[block].length){
+                    entryCopies.addAll(copies);
+                    continue;
+                }
+                int predecessor = predecessors[block][index];
+                List<Instruction> instructions = blocks.get(predecessor);
+                Instruction last = instructions.isEmpty() ? null : instructions.get(instructions.size() - 1);
+                if(last instanceof CondBranchInstruction branch){
+                    boolean jumps = cfg.getJumpTarget(predecessor)==block;
+                    boolean fallsThrough = cfg.getFallThrough(predecessor)==block;
+                    if(jumps && fallsThrough){
+                        //the block is reached either way, so only the copies need to be on both edges
+                        instructions.addAll(instructions.size() - 1, inserted);
+                        copies = sequentialize(blockPhis, index);
+                        if(copies.isEmpty())
+                            continue;
+                    }
+                    if(jumps){
+                        //the copies of a taken branch go to a new block that jumps to the original target
+                        List<Instruction> split = fallsThrough ? sequentialize(blockPhis, index) : copies;
+                        String label = OllirInstructions.newLabel(method, "phi");
+                        method.getLabels().put(label, split.get(0));
+                        split.add(new GotoInstruction(branch.getLabel()));
+                        branch.setLabel(label);
+                        splitBlocks.addAll(split);
+                    }
+                    if(fallsThrough)
+                        fallThroughCopies.get(predecessor).addAll(copies);
+                }
+                else if(last!=null && last.getInstType()==InstructionType.GOTO)
+                    instructions.addAll(instructions.size() - 1, copies);
+                else
+                    instructions.addAll(copies);
+            }
+            blockPhis.clear();
+            blockEdges.clear();
+        }
+
+        List<Instruction> instructions = new ArrayList<>(entryCopies);
+        List<String> pendingLabels = new ArrayList<>();
+        for(int block=0;block<getNrBlocks();block++){
+            if(!isReachable(block))
+                continue;
+            pendingLabels.addAll(blockLabels.get(block));
+            List<Instruction> blockInstructions = new ArrayList<>(blocks.get(block));
+            blockInstructions.addAll(fallThroughCopies.get(block));
+            for(Instruction instruction:blockInstructions){
+                OllirInstructions.moveLabels(method, pendingLabels, instruction);
+                pendingLabels.clear();
+                instructions.add(instruction);
+            }
+        }
+        instructions.addAll(splitBlocks);
+        method.getInstructions().clear();
+        method.getInstructions().addAll(instructions);
+        OllirInstructions.removeUnusedLabels(method);
+    }
+
+    /**
+     * Copies that give the phis of a block their argument for one edge, as if they all happened at the same time.
+     * A copy only runs when no other copy still has to read the variable it writes; when only cycles are left
+     * (like a swap), one of the variables is saved in a new variable first.
+     */
+    private List<Instruction> sequentialize(List<Phi> blockPhis, int index){
+        List<String[]> pending = new ArrayList<>();
+        for(Phi phi:blockPhis){
+            if(!phi.getDest().equals(phi.getArgument(index)))
+                pending.add(new String[]{phi.getDest(), phi.getArgument(index)});
+        }
+        List<Instruction> copies = new ArrayList<>();
+        while(!pending.isEmpty()){
+            boolean emitted = false;
+            for(Iterator<String[]> iterator=pending.iterator();iterator.hasNext();){
+                String[] copy = iterator.next();
+                boolean read = false;
+                for(String[] other:pending)
+                    read = read || other[1].equals(copy[0]);
+                if(!read){
+                    copies.add(createCopy(copy[0], copy[1]));
+                    iterator.remove();
+                    emitted = true;
+                }
+            }
+            if(!emitted){
+                String saved = pending.get(0)[0];
+                String temporary = newVersion(variables.get(saved));
+                copies.add(createCopy(temporary, saved));
+                for(String[] copy:pending){
+                    if(copy[1].equals(saved))
+                        copy[1] = temporary;
+                }
+            }
+        }
+        return copies;
+    }
+
+    private Instruction createCopy(String dest, String source){
+        Type type = getType(dest);
+        return new AssignInstruction(new Operand(dest, type), type, new SingleOpInstruction(new Operand(source, type)));
+    }
+}
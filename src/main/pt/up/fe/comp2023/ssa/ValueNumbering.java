@@ -0,0 +1,204 @@
+package pt.up.fe.comp2023.ssa;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Value numbering on a method in SSA form. Each computation without side effects gets a key made of its
+ * operation and the variables and literals it reads, and a computation whose key was already computed into a
+ * variable becomes a copy of that variable (removed afterwards by {@link CopyPropagation}). With
+ * {@link #LOCAL} the keys are only reused inside each block; with {@link #GLOBAL} a block also sees the keys
+ * of the blocks that dominate it, which always run before it.
+ *
+ * Array elements and fields can change, so their keys also carry the number of the last write to memory
+ * that they depend on: an array store invalidates the loads of elements, a putfield the loads of fields and
+ * a call both. A block only keeps the memory of its immediate dominator when that is its single predecessor,
+ * otherwise there may be writes on the way. The length of an array never changes.
+ */
+public class ValueNumbering {
+    public static final String NONE = "none";
+    public static final String LOCAL = "local";
+    public static final String GLOBAL = "global";
+
+    private final SsaForm ssa;
+    private final boolean global;
+    private final Map<String,String> available;
+    private int nrMemoryStates;
+    private int arrays;
+    private int fields;
+    private boolean changed;
+
+    public ValueNumbering(SsaForm ssa, String level){
+        if(!level.equals(LOCAL) && !level.equals(GLOBAL))
+            throw new RuntimeException("Unknown value numbering '" + level + "', expected none, local or global.");
+        this.ssa = ssa;
+        this.global = level.equals(GLOBAL);
+        this.available = new HashMap<>();
+    }
+
+    /**
+     * Returns true when a computation was replaced by a copy.
+     */
+    public boolean optimize(){
+        changed = false;
+        if(ssa.getNrBlocks()==0)
+            return false;
+        int[] arraysAtEnd = new int[ssa.getNrBlocks()];
+        int[] fieldsAtEnd = new int[ssa.getNrBlocks()];
+        List<List<String>> added = new ArrayList<>();
+        for(int block=0;block<ssa.getNrBlocks();block++)
+            added.add(new ArrayList<>());
+
+        Deque<int[]> pending = new ArrayDeque<>();
+        pending.push(new int[]{0, 0});
+        while(!pending.isEmpty()){
+            int[] frame = pending.pop();
+            int block = frame[0];
+            List<String> blockKeys = added.get(block);
+            if(frame[1]==1){
+                //leaving the subtree of the block, its keys are no longer available
+                restore(blockKeys);
+                continue;
+            }
+            pending.push(new int[]{block, 1});
+
+            int[] predecessors = ssa.getPredecessors(block);
+            int idom = ssa.getDominatorTree().getImmediateDominator(block);
+            if(block!=0 && predecessors.length==1 && predecessors[0]==idom){
+                arrays = arraysAtEnd[idom];
+                fields = fieldsAtEnd[idom];
+            }
+            else {
+                arrays = nrMemoryStates++;
+                fields = nrMemoryStates++;
+            }
+            List<Instruction> instructions = ssa.getInstructions(block);
+            for(int i=0;i<instructions.size();i++)
+                instructions.set(i, visitInstruction(instructions.get(i), blockKeys));
+            arraysAtEnd[block] = arrays;
+            fieldsAtEnd[block] = fields;
+
+            if(!global)
+                restore(blockKeys);
+            int[] children = ssa.getDominatorTree().getChildren(block);
+            for(int i=children.length-1;i>=0;i--)
+                pending.push(new int[]{children[i], 0});
+        }
+        return changed;
+    }
+
+    private void restore(List<String> added){
+        for(String key:added)
+            available.remove(key);
+        added.clear();
+    }
+
+    private Instruction visitInstruction(Instruction instruction, List<String> blockKeys){
+        switch(instruction.getInstType()){
+            case ASSIGN -> {
+                AssignInstruction assign = (AssignInstruction) instruction;
+                if(assign.getDest() instanceof ArrayOperand){
+                    arrays = nrMemoryStates++;
+                    return instruction;
+                }
+                killMemory(assign.getRhs());
+                String dest = ((Operand) assign.getDest()).getName();
+                String key = getKey(assign.getRhs());
+                if(key==null || !ssa.isVariable(dest))
+                    return instruction;
+                String value = available.get(key);
+                if(value!=null){
+                    changed = true;
+                    Type type = ssa.getType(dest);
+                    return new AssignInstruction(assign.getDest(), assign.getTypeOfAssign(), new SingleOpInstruction(new Operand(value, type)));
+                }
+                blockKeys.add(key);
+                available.put(key, dest);
+            }
+            case PUTFIELD -> fields = nrMemoryStates++;
+            case CALL -> killMemory(instruction);
+            default -> {
+                //branches, gotos and returns do not write to memory
+            }
+        }
+        return instruction;
+    }
+
+    private void killMemory(Instruction instruction){
+        if(!(instruction instanceof CallInstruction call))
+            return;
+        CallType type = call.getInvocationType();
+        if(type==CallType.arraylength || type==CallType.NEW)
+            return;
+        arrays = nrMemoryStates++;
+        fields = nrMemoryStates++;
+    }
+
+    /**
+     * Key of the value computed by the right side of an assignment, or null when it cannot be reused.
+     */
+    private String getKey(Instruction rhs){
+        switch(rhs.getInstType()){
+            case BINARYOPER -> {
+                BinaryOpInstruction operation = (BinaryOpInstruction) rhs;
+                String left = getKey(operation.getLeftOperand());
+                String right = getKey(operation.getRightOperand());
+                if(left==null || right==null)
+                    return null;
+                OperationType type = operation.getOperation().getOpType();
+                if(isCommutative(type) && left.compareTo(right)>0){
+                    String swap = left;
+                    left = right;
+                    right = swap;
+                }
+                return type + "(" + left + "," + right + ")";
+            }
+            case UNARYOPER -> {
+                UnaryOpInstruction operation = (UnaryOpInstruction) rhs;
+                String operand = getKey(operation.getOperand());
+                return operand==null ? null : operation.getOperation().getOpType() + "(" + operand + ")";
+            }
+            case NOPER -> {
+                //copies and literals are left to the copy and constant propagation
+                if(!(((SingleOpInstruction) rhs).getSingleOperand() instanceof ArrayOperand element))
+                    return null;
+                if(element.getIndexOperands().size()!=1)
+                    return null;
+                String index = getKey(element.getIndexOperands().get(0));
+                return index==null ? null : element.getName() + "[" + index + "]@" + arrays;
+            }
+            case GETFIELD -> {
+                GetFieldInstruction getField = (GetFieldInstruction) rhs;
+                if(!(getField.getFirstOperand() instanceof Operand object) || !(getField.getSecondOperand() instanceof Operand field))
+                    return null;
+                return object.getName() + "." + field.getName() + "@" + fields;
+            }
+            case CALL -> {
+                CallInstruction call = (CallInstruction) rhs;
+                if(call.getInvocationType()!=CallType.arraylength)
+                    return null;
+                String array = getKey(call.getFirstArg());
+                return array==null ? null : "length(" + array + ")";
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+
+    private static String getKey(Element element){
+        if(element instanceof LiteralElement literal)
+            return literal.getLiteral() + "." + literal.getType().getTypeOfElement();
+        if(element instanceof Operand operand && !(element instanceof ArrayOperand))
+            return operand.getName();
+        return null;
+    }
+
+    private static boolean isCommutative(OperationType type){
+        return switch(type){
+            case ADD, MUL, AND, ANDB, OR, ORB, XOR, EQ, NEQ -> true;
+            default -> false;
+        };
+    }
+}
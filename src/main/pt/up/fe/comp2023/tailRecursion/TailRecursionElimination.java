@@ -0,0 +1,247 @@
+package pt.up.fe.comp2023.tailRecursion;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp2023.controlFlow.OllirInstructions;
+
+import java.util.*;
+
+/**
+ * Turns the calls of a method to itself whose value is returned right away into a jump to the start of the
+ * method, after assigning the arguments to the parameters, so the recursion runs in a loop.
+ *
+ * A call whose value is added to or multiplied by another value before being returned is turned into a jump
+ * as well: an accumulator starts at 0 (or 1), the call adds (or multiplies) the other value to it, and every
+ * return gives the accumulator combined with the value it returned. Both operations are associative and
+ * commutative on ints, even when they overflow, so the result is the same. A method only accumulates with
+ * one of the operations.
+ */
+public class TailRecursionElimination {
+    private final Method method;
+    private final String className;
+
+    public TailRecursionElimination(Method method){
+        this.method = method;
+        this.className = method.getOllirClass().getClassName();
+    }
+
+    private record TailCall(Instruction site, OperationType operation, Element accumulated){}
+
+    /**
+     * Returns true when a call was turned into a jump.
+     */
+    public boolean optimize(){
+        if(method.isConstructMethod())
+            return false;
+        List<Instruction> instructions = method.getInstructions();
+        Map<Instruction,Integer> positions = new HashMap<>();
+        for(int i=0;i<instructions.size();i++)
+            positions.put(instructions.get(i), i);
+
+        List<TailCall> tailCalls = new ArrayList<>();
+        OperationType accumulation = null;
+        for(int i=0;i<instructions.size();i++){
+            TailCall tailCall = findTailCall(i, positions);
+            if(tailCall==null)
+                continue;
+            if(tailCall.operation()!=null){
+                if(accumulation==null)
+                    accumulation = tailCall.operation();
+                else if(accumulation!=tailCall.operation())
+                    continue;
+            }
+            tailCalls.add(tailCall);
+        }
+        if(tailCalls.isEmpty())
+            return false;
+
+        Instruction first = instructions.get(0);
+        String start = OllirInstructions.newLabel(method, "tailcall");
+        method.getLabels().put(start, first);
+        Operand accumulator = null;
+        if(accumulation!=null){
+            Type type = method.getReturnType();
+            accumulator = new Operand(OllirInstructions.newVariable(method, "acc", type), type);
+            String identity = accumulation==OperationType.MUL ? "1" : "0";
+            instructions.add(0, new AssignInstruction(copy(accumulator), type, new SingleOpInstruction(new LiteralElement(identity, type))));
+            accumulateReturns(accumulation, accumulator);
+        }
+        for(TailCall tailCall:tailCalls)
+            replaceCall(tailCall, accumulator, start);
+        return true;
+    }
+
+    /**
+     * Follows the value of the call at the given position through copies and gotos, and returns the tail call
+     * when it reaches a return, or null when it is used in any other way.
+     */
+    private TailCall findTailCall(int position, Map<Instruction,Integer> positions){
+        List<Instruction> instructions = method.getInstructions();
+        Instruction site = instructions.get(position);
+        CallInstruction call = getSelfCall(site);
+        if(call==null)
+            return null;
+        Set<String> holders = new HashSet<>();
+        if(site instanceof AssignInstruction assign){
+            if(assign.getDest() instanceof ArrayOperand)
+                return null;
+            holders.add(((Operand) assign.getDest()).getName());
+        }
+        Set<String> assigned = new HashSet<>(holders);
+        OperationType operation = null;
+        Element accumulated = null;
+
+        int current = position + 1;
+        for(int steps=0;steps<instructions.size() && current<instructions.size();steps++){
+            Instruction instruction = instructions.get(current);
+            switch(instruction.getInstType()){
+                case GOTO -> {
+                    Instruction target = method.getLabels().get(((GotoInstruction) instruction).getLabel());
+                    if(target==null || !positions.containsKey(target))
+                        return null;
+                    current = positions.get(target);
+                    continue;
+                }
+                case RETURN -> {
+                    ReturnInstruction ret = (ReturnInstruction) instruction;
+                    if(!ret.hasReturnValue())
+                        return holders.isEmpty() && operation==null ? new TailCall(site, null, null) : null;
+                    if(ret.getOperand() instanceof Operand operand && !(operand instanceof ArrayOperand) && holders.contains(operand.getName()))
+                        return new TailCall(site, operation, accumulated);
+                    return null;
+                }
+                case ASSIGN -> {
+                    AssignInstruction assign = (AssignInstruction) instruction;
+                    if(!(assign.getDest() instanceof Operand dest) || dest instanceof ArrayOperand)
+                        return null;
+                    Instruction rhs = assign.getRhs();
+                    boolean holds;
+                    //the instructions after the call no longer run, so they cannot have other effects
+                    if(rhs instanceof SingleOpInstruction single && !(single.getSingleOperand() instanceof ArrayOperand))
+                        holds = isHolder(single.getSingleOperand(), holders);
+                    else if(rhs instanceof BinaryOpInstruction binary && operation==null && isAccumulation(binary, holders, assigned)){
+                        operation = binary.getOperation().getOpType();
+                        accumulated = isHolder(binary.getLeftOperand(), holders) ? binary.getRightOperand() : binary.getLeftOperand();
+                        holders.clear();
+                        holds = true;
+                    }
+                    else
+                        return null;
+                    if(holds)
+                        holders.add(dest.getName());
+                    else
+                        holders.remove(dest.getName());
+                    assigned.add(dest.getName());
+                }
+                default -> {
+                    return null;
+                }
+            }
+            current++;
+        }
+        return null;
+    }
+
+    private CallInstruction getSelfCall(Instruction instruction){
+        CallInstruction call = null;
+        if(instruction instanceof CallInstruction callInstruction)
+            call = callInstruction;
+        else if(instruction instanceof AssignInstruction assign && assign.getRhs() instanceof CallInstruction callInstruction)
+            call = callInstruction;
+        if(call==null || !(call.getFirstArg() instanceof Operand receiver) || !(call.getSecondArg() instanceof LiteralElement name))
+            return null;
+        if(!name.getLiteral().replace("\"", "").equals(method.getMethodName()))
+            return null;
+        if(method.isStaticMethod())
+            return call.getInvocationType()==CallType.invokestatic && receiver.getName().equals(className) ? call : null;
+        return call.getInvocationType()==CallType.invokevirtual && receiver.getName().equals("this") ? call : null;
+    }
+
+    private static boolean isHolder(Element element, Set<String> holders){
+        return element instanceof Operand operand && !(element instanceof ArrayOperand) && holders.contains(operand.getName());
+    }
+
+    /**
+     * The value of the call added to or multiplied by a literal or a variable that kept the value it had
+     * before the call.
+     */
+    private boolean isAccumulation(BinaryOpInstruction operation, Set<String> holders, Set<String> assigned){
+        OperationType type = operation.getOperation().getOpType();
+        if((type!=OperationType.ADD && type!=OperationType.MUL) || method.getReturnType().getTypeOfElement()!=ElementType.INT32)
+            return false;
+        Element left = operation.getLeftOperand();
+        Element right = operation.getRightOperand();
+        Element other;
+        if(isHolder(left, holders))
+            other = right;
+        else if(isHolder(right, holders))
+            other = left;
+        else
+            return false;
+        if(other instanceof LiteralElement)
+            return true;
+        return other instanceof Operand operand && !(other instanceof ArrayOperand) && !assigned.contains(operand.getName());
+    }
+
+    private void accumulateReturns(OperationType accumulation, Operand accumulator){
+        List<Instruction> instructions = method.getInstructions();
+        Map<Instruction,List<String>> labels = OllirInstructions.getLabelsByInstruction(method);
+        Type type = method.getReturnType();
+        for(int i=0;i<instructions.size();i++){
+            if(!(instructions.get(i) instanceof ReturnInstruction ret) || !ret.hasReturnValue())
+                continue;
+            Operand result = new Operand(OllirInstructions.newVariable(method, "acc", type), type);
+            Instruction combine = new AssignInstruction(copy(result), type,
+                    new BinaryOpInstruction(copy(accumulator), new Operation(accumulation, type), ret.getOperand()));
+            ret.setOperand(result);
+            OllirInstructions.moveLabels(method, labels.get(ret), combine);
+            instructions.add(i, combine);
+            i++;
+        }
+    }
+
+    /**
+     * Replaces the call by the update of the accumulator, the assignment of the arguments to the parameters
+     * and the jump to the start. The arguments can read the parameters, so they go through new variables first.
+     */
+    private void replaceCall(TailCall tailCall, Operand accumulator, String start){
+        List<Instruction> instructions = method.getInstructions();
+        Instruction site = tailCall.site();
+        CallInstruction call = getSelfCall(site);
+        List<Instruction> replacement = new ArrayList<>();
+        if(tailCall.operation()!=null){
+            Type type = method.getReturnType();
+            replacement.add(new AssignInstruction(copy(accumulator), type,
+                    new BinaryOpInstruction(copy(accumulator), new Operation(tailCall.operation(), type), copy(tailCall.accumulated()))));
+        }
+        List<Element> parameters = method.getParams();
+        List<Element> arguments = call.getListOfOperands();
+        List<Operand> values = new ArrayList<>();
+        for(int i=0;i<parameters.size();i++){
+            Type type = parameters.get(i).getType();
+            Operand value = new Operand(OllirInstructions.newVariable(method, "tail", type), type);
+            replacement.add(new AssignInstruction(value, type, new SingleOpInstruction(arguments.get(i))));
+            values.add(value);
+        }
+        for(int i=0;i<parameters.size();i++){
+            Operand parameter = (Operand) parameters.get(i);
+            replacement.add(new AssignInstruction(new Operand(parameter.getName(), parameter.getType()), parameter.getType(),
+                    new SingleOpInstruction(copy(values.get(i)))));
+        }
+        replacement.add(new GotoInstruction(start));
+
+        int position = instructions.indexOf(site);
+        OllirInstructions.moveLabels(method, OllirInstructions.getLabelsByInstruction(method).get(site), replacement.get(0));
+        instructions.remove(position);
+        instructions.addAll(position, replacement);
+    }
+
+    private static Operand copy(Operand operand){
+        return new Operand(operand.getName(), operand.getType());
+    }
+
+    private static Element copy(Element element){
+        if(element instanceof LiteralElement literal)
+            return new LiteralElement(literal.getLiteral(), literal.getType());
+        return copy((Operand) element);
+    }
+}
@@ -0,0 +1,146 @@
+package pt.up.fe.comp.cpf;
+
+import org.junit.Test;
+import pt.up.fe.comp.CpUtils;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2023.jasmin.ClassFileBackend;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.Map;
+import java.util.spi.ToolProvider;
+
+/**
+ * The programs of {@link Cpf4_Jasmin}, with the class file written directly instead of assembled from Jasmin.
+ * They run with the verifier on, so the StackMapTable of each method is checked too. Each program runs once
+ * as generated and once after the peephole optimizer. The programs in frames are compiled from Jmm, with
+ * registers shared by variables of different types and with unrolled loops.
+ */
+public class Cpf4_ClassFile {
+
+    static JasminResult getClassFileResult(String filename, Map<String, String> config) {
+        var ollirResult = new OllirResult(SpecsIo.getResource("pt/up/fe/comp/cpf/4_jasmin/" + filename), config);
+        return new ClassFileBackend().toJasmin(ollirResult);
+    }
+
+    static JasminResult getJmmClassFileResult(String filename, Map<String, String> config) {
+        var ollirResult = TestUtils.optimize(SpecsIo.getResource("pt/up/fe/comp/cpf/4_jasmin/" + filename), config);
+        return new ClassFileBackend().toJasmin(ollirResult);
+    }
+
+    /**
+     * The class file as javap prints it, with the frames of its StackMapTables.
+     */
+    static String javap(JasminResult result) {
+        File classFile = result.compile();
+        var output = new StringWriter();
+        var javap = ToolProvider.findFirst("javap").orElseThrow();
+        javap.run(new PrintWriter(output, true), new PrintWriter(output, true), "-v", classFile.getAbsolutePath());
+        return output.toString();
+    }
+
+    static void runClassFile(String filename, String expected) {
+        CpUtils.runJasmin(getClassFileResult(filename, Collections.emptyMap()), expected);
+        CpUtils.runJasmin(getClassFileResult(filename, Map.of("optimize", "true")), expected);
+    }
+
+    @Test
+    public void section2_Arithmetic_Simple_and() {
+        runClassFile("arithmetic/Arithmetic_and.ollir", "0");
+    }
+
+    @Test
+    public void section2_Arithmetic_Simple_less() {
+        runClassFile("arithmetic/Arithmetic_less.ollir", "1");
+    }
+
+    @Test
+    public void section3_ControlFlow_If_Simple() {
+        runClassFile("control_flow/SimpleIfElseStat.ollir", "Result: 5\nResult: 8");
+    }
+
+    @Test
+    public void section3_ControlFlow_Inverted() {
+        runClassFile("control_flow/SimpleControlFlow.ollir", "Result: 3");
+    }
+
+    @Test
+    public void section3_ControlFlow_If_Not_Simple() {
+        runClassFile("control_flow/SimpleIfElseNot.ollir", "10\n200");
+    }
+
+    @Test
+    public void section3_ControlFlow_While_Simple() {
+        runClassFile("control_flow/SimpleWhileStat.ollir", "Result: 0\nResult: 1\nResult: 2");
+    }
+
+    @Test
+    public void section3_ControlFlow_Mixed_Switch() {
+        runClassFile("control_flow/SwitchStat.ollir",
+                "Result: 1\nResult: 2\nResult: 3\nResult: 4\nResult: 5\nResult: 6\nResult: 7");
+    }
+
+    @Test
+    public void section3_ControlFlow_Mixed_Nested() {
+        runClassFile("control_flow/IfWhileNested.ollir", "Result: 1\nResult: 2\nResult: 1");
+    }
+
+    @Test
+    public void section4_Calls_Misc_ConditionArgs() {
+        runClassFile("calls/ConditionArgsFuncCall.ollir", "Result: 10");
+    }
+
+    @Test
+    public void section5_Arrays_Init_Array() {
+        runClassFile("arrays/ArrayInit.ollir", "Result: 5");
+    }
+
+    @Test
+    public void section5_Arrays_Store_Array() {
+        runClassFile("arrays/ArrayAccess.ollir", "Result: 1\nResult: 2\nResult: 3\nResult: 4\nResult: 5");
+    }
+
+    @Test
+    public void section5_Arrays_Load_ComplexArrayAccess() {
+        runClassFile("arrays/ComplexArrayAccess.ollir", "Result: 1\nResult: 2\nResult: 3\nResult: 4\nResult: 5");
+    }
+
+    @Test
+    public void section5_Arrays_As_Arg_Simple() {
+        runClassFile("arrays/ArrayAsArg.ollir", "Result: 2");
+    }
+
+    /*checks a join where a register was only written in one branch, or with another type, which becomes top*/
+    @Test
+    public void section7_Frames_IfElse_MergeToTop() {
+        var result = getJmmClassFileResult("frames/IfElseTypes.jmm", Map.of("registerAllocation", "0"));
+        CpUtils.runJasmin(result, "Result: 37");
+
+        var classFile = javap(result);
+        CpUtils.matches(classFile, "append \\*/\\s+offset_delta = \\d+\\s+locals = \\[ top, top, int \\]");
+        CpUtils.matches(classFile, "full_frame \\*/\\s+offset_delta = \\d+\\s+locals = \\[[^\\]]*top, int \\]");
+    }
+
+    /*checks the frames of an unrolled loop, whose limit is only set when the unrolled copy runs*/
+    @Test
+    public void section7_Frames_Loop_ChopAppend() {
+        var result = getJmmClassFileResult("frames/LoopFrames.jmm", Map.of("optimize", "true"));
+        CpUtils.runJasmin(result, "Result: 2\nResult: 11");
+
+        var classFile = javap(result);
+        CpUtils.matches(classFile, "append \\*/\\s+offset_delta = \\d+\\s+locals = \\[ int, int \\]");
+        CpUtils.matches(classFile, "chop \\*/");
+    }
+
+    /*the classes without a main are only written*/
+    @Test
+    public void section6_Limits_Compile() {
+        getClassFileResult("limits/LocalLimits.ollir", Collections.emptyMap()).compile();
+        getClassFileResult("basic/BasicMethodsArray.ollir", Collections.emptyMap()).compile();
+    }
+}
@@ -188,6 +188,12 @@ public class Cpf4_Jasmin {
 
     }
 
+    /*checks that the int arguments of a call on this are loaded, and not this*/
+    @Test
+    public void section4_Calls_This_IntArgs() {
+        CpUtils.runJasmin(getJasminResult("calls/ThisIntArgs.ollir"), "Result: 9");
+    }
+
 
     /*checks if an array is correctly initialized*/
     @Test
@@ -204,6 +210,12 @@ public class Cpf4_Jasmin {
 
     }
 
+    /*checks that a product, the result of a call and a length are stored into the elements of an array*/
+    @Test
+    public void section5_Arrays_Store_ComputedValues() {
+        CpUtils.runJasmin(getJasminResult("arrays/ArrayStoreComputed.ollir"), "Result: 7\nResult: 2\nResult: 3");
+    }
+
     /*checks multiple expressions as indexes to access the elements of an array*/
     @Test
     public void section5_Arrays_Load_ComplexArrayAccess() {
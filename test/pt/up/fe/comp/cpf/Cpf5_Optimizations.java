@@ -14,18 +14,34 @@
 package pt.up.fe.comp.cpf;
 
 import org.junit.Test;
+import org.specs.comp.ollir.AssignInstruction;
+import org.specs.comp.ollir.CondBranchInstruction;
+import org.specs.comp.ollir.Operand;
+import org.specs.comp.ollir.OperationType;
 import pt.up.fe.comp.CpUtils;
 import pt.up.fe.comp.TestUtils;
 import pt.up.fe.comp.jmm.jasmin.JasminResult;
 import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2023.algebraicSimplification.AlgebraicSimplification;
+import pt.up.fe.comp2023.deadCode.DeadCodeElimination;
+import pt.up.fe.comp2023.registerAllocation.MethodVisitor;
+import pt.up.fe.comp2023.ssa.CopyPropagation;
+import pt.up.fe.comp2023.ssa.Phi;
+import pt.up.fe.comp2023.ssa.SsaForm;
 import pt.up.fe.specs.util.SpecsIo;
 import pt.up.fe.specs.util.SpecsStrings;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 public class Cpf5_Optimizations {
 
     static OllirResult getOllirResult(String filename) {
@@ -37,10 +53,35 @@ public class Cpf5_Optimizations {
         return TestUtils.backend(resource);
     }
 
-    static JasminResult getJasminResultOpt(String filename) {
+    /**
+     * Configuration of -o, with the given options as key=value.
+     */
+    static Map<String, String> getConfigOpt(String... options) {
         Map<String, String> config = new HashMap<>();
         config.put("optimize", "true");
-        return TestUtils.backend(SpecsIo.getResource("pt/up/fe/comp/cpf/5_optimizations/" + filename), config);
+        for (String option : options) {
+            String[] keyValue = option.split("=");
+            config.put(keyValue[0], keyValue[1]);
+        }
+        return config;
+    }
+
+    static OllirResult getOllirResultOpt(String filename, String... options) {
+        return TestUtils.optimize(SpecsIo.getResource("pt/up/fe/comp/cpf/5_optimizations/" + filename), getConfigOpt(options));
+    }
+
+    static JasminResult getJasminResultOpt(String filename, String... options) {
+        return TestUtils.backend(SpecsIo.getResource("pt/up/fe/comp/cpf/5_optimizations/" + filename), getConfigOpt(options));
+    }
+
+    /**
+     * Runs the program without -o, with -o, and with -o and each of the options, which must all print the same.
+     */
+    static void runOptimized(String filename, String expected, String... options) {
+        CpUtils.runJasmin(getJasminResult(filename), expected);
+        CpUtils.runJasmin(getJasminResultOpt(filename), expected);
+        for (String option : options)
+            CpUtils.runJasmin(getJasminResultOpt(filename, option), expected);
     }
 
     static JasminResult getJasminResultReg(String filename, int numReg) {
@@ -125,6 +166,23 @@ public class Cpf5_Optimizations {
     }
 
 
+    /**
+     * Test that the registers are allocated for programs with array lengths, whose calls have no list of operands,
+     * and with arguments that are read before anything is assigned to them.
+     */
+    @Test
+    public void section2_RegAlloc_ArraysAndCalls() {
+
+        Map<String, String> config = new HashMap<>();
+        config.put("registerAllocation", "32");
+        CpUtils.runJasmin(TestUtils.backend(SpecsIo.getResource("pt/up/fe/comp/cpf/4_jasmin/arrays/ArrayInit.jmm"), config),
+                "Result: 5");
+        CpUtils.runJasmin(TestUtils.backend(SpecsIo.getResource("pt/up/fe/comp/cpf/4_jasmin/arrays/ArrayAsArg.jmm"), config),
+                "Result: 2");
+        CpUtils.runJasmin(TestUtils.backend(SpecsIo.getResource("pt/up/fe/comp/cpf/4_jasmin/calls/ConditionArgsFuncCall.jmm"), config),
+                "Result: 10");
+    }
+
     @Test
     public void section2_RegAlloc_AtMostRequestedNumber() {
 
@@ -161,6 +219,68 @@ public class Cpf5_Optimizations {
     }
 
 
+    /**
+     * Test the smallest number of registers that compiles, with both allocators. Main only fits by spilling
+     * to an array and by reusing the register of its arguments, which are never read.
+     */
+    @Test
+    public void section2_RegAlloc_MinimumNumber() {
+
+        String filename = "reg_alloc/RegAllocMinimum.jmm";
+        String resource = SpecsIo.getResource("pt/up/fe/comp/cpf/5_optimizations/" + filename);
+        int minimumNumReg = 4;
+
+        for (String allocator : List.of("graph", "linear")) {
+            Map<String, String> config = new HashMap<>();
+            config.put("registerAllocation", String.valueOf(minimumNumReg));
+            config.put("allocator", allocator);
+            JasminResult optimized = TestUtils.backend(resource, config);
+            CpUtils.matches(CpUtils.getJasminMethod(optimized, "static main"), "newarray\\s+int");
+            CpUtils.matches(CpUtils.getJasminMethod(optimized, "static main"), "\\.limit\\s+locals\\s+" + minimumNumReg + "\\s+");
+            CpUtils.runJasmin(optimized, "Result: 110");
+
+            config.put("registerAllocation", String.valueOf(minimumNumReg - 1));
+            OllirResult tooFew = TestUtils.optimize(resource, config);
+            CpUtils.assertEquals("Expected one error with " + (minimumNumReg - 1) + " registers and the " + allocator + " allocator",
+                    1, TestUtils.getNumErrors(tooFew.getReports()), tooFew);
+            CpUtils.assertTrue("Expected the error to give the smallest number of registers",
+                    tooFew.getReports().get(0).getMessage().endsWith("at least " + minimumNumReg + " are needed"),
+                    tooFew);
+        }
+    }
+
+    /**
+     * Test that the linear scan compiles with as few registers as the graph coloring. The call in main needs
+     * every argument in a register, which the intervals only leave room for when their holes are used.
+     */
+    @Test
+    public void section2_RegAlloc_LinearScanFallback() {
+
+        Map<String, String> config = new HashMap<>();
+        config.put("registerAllocation", "5");
+        config.put("allocator", "linear");
+        JasminResult optimized = TestUtils.backend(SpecsIo.getResource("pt/up/fe/comp/cpf/4_jasmin/calls/ConditionArgsFuncCall.jmm"), config);
+        CpUtils.runJasmin(optimized, "Result: 10");
+    }
+
+    /**
+     * Test that -o compiles with the registers that are enough without it. The loop that replaces the tail call
+     * of fac needs a sixth register, so with five fac keeps calling itself.
+     */
+    @Test
+    public void section2_RegAlloc_OptimizedWithinBudget() {
+
+        String filename = "tail_recursion/TailFac.jmm";
+
+        JasminResult fits = getJasminResultOpt(filename, "registerAllocation=6");
+        assertFalse("Expected fac to no longer call itself with 6 registers", CpUtils.getJasminMethod(fits, "fac").contains("TailFac/fac"));
+        CpUtils.runJasmin(fits, "Result: 120\nResult: 1");
+
+        JasminResult fallback = getJasminResultOpt(filename, "registerAllocation=5");
+        CpUtils.matches(CpUtils.getJasminMethod(fallback, "fac"), "\\.limit\\s+locals\\s+5\\s+");
+        CpUtils.runJasmin(fallback, "Result: 120\nResult: 1");
+    }
+
     @Test
     public void section3_ConstProp_Simple() {
 
@@ -192,5 +312,262 @@ public class Cpf5_Optimizations {
         CpUtils.matches(optimized, "(bipush|sipush|ldc) 10\\s+imul");
     }
 
+    /**
+     * Test that a branch on a constant condition is replaced by a jump to the branch that is taken. The first if
+     * only keeps a constant, because its else is never run, so the condition of the second is constant too.
+     */
+    @Test
+    public void section3_ConstProp_Branch() {
+
+        String filename = "const_prop/PropBranch.jmm";
+
+        var original = CpUtils.getJasminMethod(getJasminResult(filename), "choose");
+        CpUtils.matches(original, CpUtils.IF_REGEX);
+
+        var ollirResult = getOllirResultOpt(filename);
+        var branches = CpUtils.getOllirNodes(CpUtils.getMethod(ollirResult, "choose"), node -> node instanceof CondBranchInstruction);
+        CpUtils.assertEquals("Expected no conditional branch in choose", 0, branches.size(), ollirResult);
+
+        var optimized = CpUtils.getJasminMethod(getJasminResultOpt(filename), "choose");
+        assertFalse("Expected no conditional jump in choose:\n" + optimized, Pattern.compile(CpUtils.IF_REGEX).matcher(optimized).find());
+        assertFalse("Expected the else branch to be removed:\n" + optimized, optimized.contains("isub"));
+
+        runOptimized(filename, "Result: 11", "inlining=0");
+    }
+
+    /**
+     * Test that the values stored in a variable that is never read are not computed.
+     */
+    @Test
+    public void section3_DeadCode_DeadStore() {
+
+        String filename = "dead_code/DeadStore.jmm";
+
+        var original = CpUtils.getJasminMethod(getJasminResult(filename), "compute");
+        CpUtils.matches(original, "imul");
+
+        var ollirResult = getOllirResult(filename);
+        var compute = CpUtils.getMethod(ollirResult, "compute");
+        assertTrue("Expected the dead stores to be removed", new DeadCodeElimination(compute).optimize());
+        var deadStores = CpUtils.getOllirNodes(compute, node -> node instanceof AssignInstruction assign
+                && ((Operand) assign.getDest()).getName().equals("dead"));
+        CpUtils.assertEquals("Expected no assignment to dead", 0, deadStores.size(), ollirResult);
+
+        var optimized = CpUtils.getJasminMethod(getJasminResultOpt(filename), "compute");
+        assertFalse("Expected the products stored in dead to be removed:\n" + optimized, optimized.contains("imul"));
+
+        runOptimized(filename, "Result: 7", "inlining=0");
+    }
+
+    static long countMatches(String code, String regex) {
+        return Pattern.compile(regex).matcher(code).results().count();
+    }
+
+    /**
+     * Test that the element and the length of the array, read before the if and again in both branches, are
+     * only read once with global value numbering. With local value numbering, each block still reads them.
+     */
+    @Test
+    public void section3_ValueNumbering_RepeatedLoads() {
+
+        String filename = "value_numbering/RepeatedLoads.jmm";
+
+        var global = CpUtils.getJasminMethod(getJasminResultOpt(filename), "combine");
+        assertEquals("Expected a[i] to be loaded once:\n" + global, 1, countMatches(global, "\\biaload\\b"));
+        assertEquals("Expected a.length to be read once:\n" + global, 1, countMatches(global, "\\barraylength\\b"));
+
+        for (String level : List.of("local", "none")) {
+            var code = CpUtils.getJasminMethod(getJasminResultOpt(filename, "valueNumbering=" + level), "combine");
+            assertEquals("Expected a[i] to be loaded in each block:\n" + code, 3, countMatches(code, "\\biaload\\b"));
+            assertEquals("Expected a.length to be read in each block:\n" + code, 3, countMatches(code, "\\barraylength\\b"));
+        }
+
+        runOptimized(filename, "Result: 34\nResult: 8", "valueNumbering=local", "valueNumbering=none");
+    }
+
+    /**
+     * Test that the product that does not change in the loop is computed once before it. Without unrolling it is
+     * no longer computed in the loop at all; with unrolling it is computed before the unrolled loop.
+     */
+    @Test
+    public void section3_CodeMotion_LoopInvariant() {
+
+        String filename = "code_motion/LoopInvariant.jmm";
+
+        var original = CpUtils.getJasminMethod(getJasminResult(filename), "scale");
+        var originalLoop = original.split("\\n\\s*\\w+:", 2);
+        assertFalse("Expected the product to be computed in the loop:\n" + original, originalLoop[0].contains("imul"));
+
+        var notUnrolled = CpUtils.getJasminMethod(getJasminResultOpt(filename, "unroll=1"), "scale");
+        var notUnrolledLoop = notUnrolled.split("\\n\\s*\\w+:", 2);
+        assertTrue("Expected the product to be computed before the loop:\n" + notUnrolled, notUnrolledLoop[0].contains("imul"));
+        assertFalse("Expected the product to be computed before the loop:\n" + notUnrolled, notUnrolledLoop[1].contains("imul"));
+
+        var unrolled = CpUtils.getJasminMethod(getJasminResultOpt(filename), "scale");
+        assertTrue("Expected the product to be computed before the loop:\n" + unrolled, unrolled.split("\\n\\s*\\w+:", 2)[0].contains("imul"));
+
+        var allocated = CpUtils.getJasminMethod(getJasminResultOpt(filename, "unroll=1", "registerAllocation=6"), "scale");
+        var allocatedLoop = allocated.split("\\n\\s*\\w+:", 2);
+        assertTrue("Expected the product to be computed before the loop with 6 registers:\n" + allocated, allocatedLoop[0].contains("imul"));
+        assertFalse("Expected the product to be computed before the loop with 6 registers:\n" + allocated, allocatedLoop[1].contains("imul"));
+
+        runOptimized(filename, "Result: 130\nResult: 0", "unroll=1", "valueNumbering=none");
+    }
+
+    /**
+     * Test that both calls to square are replaced by its body, and that they are kept with inlining=0.
+     */
+    @Test
+    public void section3_Inlining_Call() {
+
+        String filename = "inlining/InlineCall.jmm";
+
+        var inlined = CpUtils.getJasminMethod(getJasminResultOpt(filename), "compute");
+        assertFalse("Expected no call to square:\n" + inlined, inlined.contains("square"));
+        assertEquals("Expected the body of square twice:\n" + inlined, 2, countMatches(inlined, "\\bimul\\b"));
+
+        var called = CpUtils.getJasminMethod(getJasminResultOpt(filename, "inlining=0"), "compute");
+        assertEquals("Expected both calls to square:\n" + called, 2, countMatches(called, "invokevirtual\\s+InlineCall/square"));
+
+        runOptimized(filename, "Result: 25", "inlining=0", "inlining=1");
+    }
+
+    /**
+     * Test that the recursive call of fac, whose result is returned, becomes a jump back to its start.
+     */
+    @Test
+    public void section3_TailRecursion_Factorial() {
+
+        String filename = "tail_recursion/TailFac.jmm";
+
+        var original = CpUtils.getJasminMethod(getJasminResult(filename), "fac");
+        CpUtils.matches(original, "invokevirtual\\s+TailFac/fac");
+
+        for (JasminResult result : List.of(getJasminResultOpt(filename), getJasminResultOpt(filename, "inlining=0"))) {
+            var optimized = CpUtils.getJasminMethod(result, "fac");
+            assertFalse("Expected fac to no longer call itself:\n" + optimized, optimized.contains("TailFac/fac"));
+            CpUtils.matches(optimized, CpUtils.GOTO_REGEX);
+        }
 
+        runOptimized(filename, "Result: 120\nResult: 1", "inlining=0");
+    }
+
+    /**
+     * Test that x * 8 becomes a shift, and that x * 1 and the addition of 0 are removed.
+     */
+    @Test
+    public void section3_AlgebraicSimplification_MulByPowerOfTwo() {
+
+        String filename = "algebraic/MulByPowerOfTwo.jmm";
+
+        var ollirResult = getOllirResult(filename);
+        var scale = CpUtils.getMethod(ollirResult, "scale");
+        assertTrue("Expected the operations to be simplified", new AlgebraicSimplification(scale).optimize());
+        CpUtils.assertHasOperation(OperationType.SHL, scale, ollirResult);
+
+        var optimized = CpUtils.getJasminMethod(getJasminResultOpt(filename), "scale");
+        CpUtils.matches(optimized, "iconst_3\\s+ishl");
+        assertFalse("Expected no multiplication:\n" + optimized, optimized.contains("imul"));
+        assertEquals("Expected only the addition of x:\n" + optimized, 1, countMatches(optimized, "\\biadd\\b"));
+
+        runOptimized(filename, "Result: 45\nResult: -27", "inlining=0");
+    }
+
+    /**
+     * Test that the product of the induction variable by 7 is computed once before the loop and then grows by 7
+     * on every iteration, also with a fixed number of registers.
+     */
+    @Test
+    public void section3_StrengthReduction_InductionProduct() {
+
+        String filename = "algebraic/InductionProduct.jmm";
+
+        for (String registers : List.of("registerAllocation=0", "registerAllocation=5")) {
+            var sum = CpUtils.getJasminMethod(getJasminResultOpt(filename, "unroll=1", registers), "sum");
+            var loop = sum.split("\\n\\s*\\w+:", 2);
+            assertTrue("Expected the first product to be computed before the loop with " + registers + ":\n" + sum, loop[0].contains("imul"));
+            assertFalse("Expected no product in the loop with " + registers + ":\n" + sum, loop[1].contains("imul"));
+            CpUtils.matches(loop[1], "iinc\\s+\\d+\\s+7");
+        }
+
+        runOptimized(filename, "Result: 70\nResult: 0", "unroll=1", "registerAllocation=5");
+    }
+
+    /**
+     * Test that the body of the loop is repeated as many times as the unrolling factor, with the loop that
+     * runs the remaining iterations after it, and that unroll=1 leaves the loop as it is.
+     */
+    @Test
+    public void section3_LoopUnrolling_Factor() {
+
+        String filename = "loop_unrolling/UnrollSum.jmm";
+
+        for (int factor = 1; factor <= 4; factor++) {
+            var code = CpUtils.getJasminMethod(getJasminResultOpt(filename, "unroll=" + factor), "sum");
+            int expected = factor == 1 ? 1 : factor + 1;
+            assertEquals("Expected the element to be loaded " + expected + " times with unroll=" + factor + ":\n" + code,
+                    expected, countMatches(code, "\\biaload\\b"));
+        }
+        var unrolled = CpUtils.getJasminMethod(getJasminResultOpt(filename), "sum");
+        assertEquals("Expected the loop to be unrolled 4 times by default:\n" + unrolled, 5, countMatches(unrolled, "\\biaload\\b"));
+        var allocated = CpUtils.getJasminMethod(getJasminResultOpt(filename, "registerAllocation=7"), "sum");
+        assertEquals("Expected the loop to be unrolled 4 times with 7 registers:\n" + allocated, 5, countMatches(allocated, "\\biaload\\b"));
+        //with 5 registers the unrolled loop only fits by spilling
+        CpUtils.runJasmin(getJasminResultOpt(filename, "registerAllocation=5"), "Result: 91\nResult: 0");
+
+        runOptimized(filename, "Result: 91\nResult: 0", "unroll=1", "unroll=2", "unroll=3");
+    }
+
+    /**
+     * The only phi of the variable in the method.
+     */
+    static Phi getPhi(SsaForm ssa, String variable) {
+        List<Phi> phis = new ArrayList<>();
+        for (int block = 0; block < ssa.getNrBlocks(); block++) {
+            for (Phi phi : ssa.getPhis(block)) {
+                if (phi.getVariable().equals(variable))
+                    phis.add(phi);
+            }
+        }
+        assertEquals("Expected one phi of " + variable + " in method " + ssa.getMethod().getMethodName(), 1, phis.size());
+        return phis.get(0);
+    }
+
+    /**
+     * Test that the values of x from both branches of the if, and those of i from before the loop and from its
+     * back edge, meet in phis. In the loop of swap, a and b are copied into each other, so after the copies are
+     * propagated each phi takes the other's value through the back edge, and the copies that replace them must
+     * not lose one of the values.
+     */
+    @Test
+    public void section4_Ssa_PhisOnJoins() {
+        String filename = "ssa/SsaJoins.jmm";
+        String expected = "Result: 1\nResult: 2\nResult: 5\nResult: 21\nResult: 12";
+        OllirResult ollirResult = getOllirResult(filename);
+
+        SsaForm pick = SsaForm.construct(CpUtils.getMethod(ollirResult, "pick"));
+        assertEquals(2, getPhi(pick, "x").getNrArguments());
+
+        SsaForm count = SsaForm.construct(CpUtils.getMethod(ollirResult, "count"));
+        assertEquals(2, getPhi(count, "i").getNrArguments());
+
+        SsaForm swap = SsaForm.construct(CpUtils.getMethod(ollirResult, "swap"));
+        new CopyPropagation(swap).optimize();
+        Phi a = getPhi(swap, "a");
+        Phi b = getPhi(swap, "b");
+        boolean swapped = false;
+        for (int i = 0; i < a.getNrArguments(); i++)
+            swapped |= a.getArgument(i).equals(b.getDest()) && b.getArgument(i).equals(a.getDest());
+        assertTrue("Expected the phis of a and b to swap their values: " + a + ", " + b, swapped);
+
+        pick.destruct();
+        count.destruct();
+        swap.destruct();
+        ollirResult.getOllirClass().buildCFGs();
+        for (var method : ollirResult.getOllirClass().getMethods())
+            new MethodVisitor(method, 0).visit();
+        CpUtils.runJasmin(TestUtils.backend(ollirResult), expected);
+
+        runOptimized(filename, expected, "unroll=1", "valueNumbering=none");
+    }
 }
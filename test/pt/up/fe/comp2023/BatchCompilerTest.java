@@ -0,0 +1,47 @@
+package pt.up.fe.comp2023;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class BatchCompilerTest {
+
+    private static final List<String> CORPUS = List.of("test/pt/up/fe/comp/cpf/3_ollir", "test/pt/up/fe/comp/cpf/5_optimizations");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private List<JasminResult> compile(List<File> inputFiles, int threads) throws IOException {
+        Map<String, String> config = new HashMap<>();
+        config.put("optimize", "true");
+        config.put("registerAllocation", "-1");
+        config.put("debug", "false");
+        return new BatchCompiler(threads).compile(inputFiles, config, temporaryFolder.newFolder());
+    }
+
+    /**
+     * Compiling the corpus on several threads gives the same code as compiling one file after the other.
+     * The parallel run goes first, so the threads also race on the caches the libraries fill on first use.
+     */
+    @Test
+    public void parallelMatchesSequential() throws IOException {
+        List<File> inputFiles = BatchCompiler.collectInputFiles(CORPUS);
+        List<JasminResult> parallel = compile(inputFiles, 16);
+        List<JasminResult> sequential = compile(inputFiles, 1);
+        for (int i = 0; i < inputFiles.size(); i++) {
+            String file = inputFiles.get(i).getPath();
+            assertNotNull(file + ": " + parallel.get(i).getReports(), parallel.get(i).getJasminCode());
+            assertEquals(file, sequential.get(i).getJasminCode(), parallel.get(i).getJasminCode());
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package pt.up.fe.comp2023;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class LauncherTest {
+
+    @Test
+    public void inlineSize(){
+        Map<String, String> config = Launcher.parseArgs(new String[]{"-o", "-inline=0", "Test.jmm"});
+        assertEquals("0", config.get("inlining"));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void inlineSizeMissing(){
+        Launcher.parseArgs(new String[]{"-o", "-inline=", "Test.jmm"});
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void inlineSizeNotANumber(){
+        Launcher.parseArgs(new String[]{"-o", "-inline=abc", "Test.jmm"});
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void inlineSizeNegative(){
+        Launcher.parseArgs(new String[]{"-o", "-inline=-1", "Test.jmm"});
+    }
+
+    @Test
+    public void unrollFactor(){
+        Map<String, String> config = Launcher.parseArgs(new String[]{"-o", "-unroll=3", "Test.jmm"});
+        assertEquals("3", config.get("unroll"));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void unrollFactorNotANumber(){
+        Launcher.parseArgs(new String[]{"-o", "-unroll=abc", "Test.jmm"});
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void unrollFactorNegative(){
+        Launcher.parseArgs(new String[]{"-o", "-unroll=-2", "Test.jmm"});
+    }
+}
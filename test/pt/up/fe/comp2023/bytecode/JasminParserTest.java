@@ -0,0 +1,51 @@
+package pt.up.fe.comp2023.bytecode;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class JasminParserTest {
+
+    private static String code(String... lines){
+        return String.join("\n", lines);
+    }
+
+    /**
+     * Message of the exception that reading the code throws.
+     */
+    private static String failure(String code){
+        try {
+            JasminParser.parseInstructions(code);
+        } catch (RuntimeException e) {
+            return e.getMessage();
+        }
+        fail("Expected the code not to be understood");
+        return null;
+    }
+
+    @Test
+    public void printedBack(){
+        String code = code(
+                "\taload_0",
+                "\tgetfield Test/count I",
+                "\ticonst_1",
+                "\tiadd",
+                "\tireturn");
+        List<JvmInstruction> instructions = JasminParser.parseInstructions(code);
+        assertEquals(5, instructions.size());
+        assertEquals(code + "\n", JasminPrinter.printInstructions(instructions));
+    }
+
+    /**
+     * The line that is not understood is named, so the method it belongs to can be reported.
+     */
+    @Test
+    public void unknownInstruction(){
+        assertEquals("Unknown Jasmin instruction 'getfield Test/count'",
+                failure(code("aload_0", "getfield Test/count", "ireturn")));
+        assertEquals("Unknown Jasmin instruction 'iinc 1'", failure(code("iinc 1")));
+    }
+}
@@ -0,0 +1,200 @@
+package pt.up.fe.comp2023.bytecode;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PeepholeOptimizerTest {
+
+    private static List<JvmInstruction> parse(String... lines){
+        return JasminParser.parseInstructions(String.join("\n", lines));
+    }
+
+    /**
+     * Optimizes the code and checks that it became the expected one, comparing the Jasmin text of both.
+     */
+    private static List<JvmInstruction> assertOptimized(String[] code, String... expected){
+        List<JvmInstruction> instructions = parse(code);
+        assertTrue("Expected the code to change", PeepholeOptimizer.optimize(instructions));
+        assertEquals(JasminPrinter.printInstructions(parse(expected)), JasminPrinter.printInstructions(instructions));
+        return instructions;
+    }
+
+    private static String[] code(String... lines){
+        return lines;
+    }
+
+    @Test
+    public void compareWithZero(){
+        String[] code = code(
+                "iload_1", "iconst_0", "if_icmplt negative",
+                "iconst_0", "ireturn",
+                "negative:", "iconst_1", "ireturn");
+        assertEquals(2, StackSimulator.maxStack("test", parse(code)));
+
+        List<JvmInstruction> optimized = assertOptimized(code,
+                "iload_1", "iflt negative",
+                "iconst_0", "ireturn",
+                "negative:", "iconst_1", "ireturn");
+        assertEquals(1, StackSimulator.maxStack("test", optimized));
+    }
+
+    /**
+     * 0 < x is x > 0, the zero is the first operand so the comparison is swapped.
+     */
+    @Test
+    public void compareWithZeroSwapped(){
+        List<JvmInstruction> optimized = assertOptimized(code(
+                        "iconst_0", "iload_1", "if_icmplt positive",
+                        "iconst_0", "ireturn",
+                        "positive:", "iconst_1", "ireturn"),
+                "iload_1", "ifgt positive",
+                "iconst_0", "ireturn",
+                "positive:", "iconst_1", "ireturn");
+        assertEquals(1, StackSimulator.maxStack("test", optimized));
+    }
+
+    /**
+     * x == 0 and 0 == x are the same, so only the zero is removed.
+     */
+    @Test
+    public void compareWithZeroSwappedEquality(){
+        assertOptimized(code(
+                        "iconst_0", "iload_1", "if_icmpeq zero",
+                        "iconst_0", "ireturn",
+                        "zero:", "iconst_1", "ireturn"),
+                "iload_1", "ifeq zero",
+                "iconst_0", "ireturn",
+                "zero:", "iconst_1", "ireturn");
+    }
+
+    /**
+     * The boolean of a comparison that is only used by a branch is not built.
+     */
+    @Test
+    public void jumpOnCondition(){
+        String[] code = code(
+                "iload_1", "iload_2", "if_icmplt true",
+                "iconst_0", "goto end",
+                "true:", "iconst_1",
+                "end:", "ifeq else",
+                "iconst_1", "ireturn",
+                "else:", "iconst_2", "ireturn");
+        List<JvmInstruction> optimized = assertOptimized(code,
+                "iload_1", "iload_2", "if_icmpge else",
+                "iconst_1", "ireturn",
+                "else:", "iconst_2", "ireturn");
+        assertEquals(2, StackSimulator.maxStack("test", optimized));
+    }
+
+    /**
+     * With ifne the branch is taken when the comparison holds, so it is not negated.
+     */
+    @Test
+    public void jumpOnConditionNotNegated(){
+        assertOptimized(code(
+                        "iload_1", "iload_2", "if_icmplt true",
+                        "iconst_0", "goto end",
+                        "true:", "iconst_1",
+                        "end:", "ifne then",
+                        "iconst_2", "ireturn",
+                        "then:", "iconst_1", "ireturn"),
+                "iload_1", "iload_2", "if_icmplt then",
+                "iconst_2", "ireturn",
+                "then:", "iconst_1", "ireturn");
+    }
+
+    /**
+     * A boolean that is also stored is still needed, so the code is left as it is.
+     */
+    @Test
+    public void jumpOnConditionWithOtherUses(){
+        String[] code = code(
+                "iload_1", "iload_2", "if_icmplt true",
+                "iconst_0", "goto end",
+                "true:", "iconst_1",
+                "end:", "istore_3",
+                "iload_3", "iload_3", "iadd", "ireturn");
+        List<JvmInstruction> instructions = parse(code);
+        assertFalse(PeepholeOptimizer.optimize(instructions));
+        assertEquals(JasminPrinter.printInstructions(parse(code)), JasminPrinter.printInstructions(instructions));
+    }
+
+    @Test
+    public void removeStoreLoad(){
+        assertOptimized(code("iload_1", "iconst_2", "iadd", "istore_2", "iload_2", "ireturn"),
+                "iload_1", "iconst_2", "iadd", "ireturn");
+    }
+
+    /**
+     * The local is read again after the load, so the store stays.
+     */
+    @Test
+    public void keepStoreLoadWhenLive(){
+        String[] code = code("iload_1", "istore_2", "iload_2", "iload_2", "iadd", "ireturn");
+        List<JvmInstruction> instructions = parse(code);
+        assertFalse(PeepholeOptimizer.optimize(instructions));
+    }
+
+    /**
+     * The store is not read before the local is written again, so it only pops its value, which was a
+     * constant, so both go.
+     */
+    @Test
+    public void removeDeadStore(){
+        assertOptimized(code("iconst_5", "istore_2", "iload_1", "istore_2", "iload_2", "iload_2", "imul", "ireturn"),
+                "iload_1", "istore_2", "iload_2", "iload_2", "imul", "ireturn");
+    }
+
+    /**
+     * The local is read by the next iteration of the loop, through the back edge.
+     */
+    @Test
+    public void keepStoreReadByLoop(){
+        String[] code = code(
+                "iconst_0", "istore_2",
+                "loop:", "iload_2", "iload_1", "if_icmpge end",
+                "iload_2", "iconst_3", "iadd", "istore_2",
+                "goto loop",
+                "end:", "iload_2", "ireturn");
+        List<JvmInstruction> instructions = parse(code);
+        assertFalse(PeepholeOptimizer.optimize(instructions));
+    }
+
+    /**
+     * A jump to a goto goes straight to its target. The goto is then no longer reached, and the store and
+     * load that its label kept apart are removed as well.
+     */
+    @Test
+    public void chainJumps(){
+        assertOptimized(code(
+                        "iload_1", "ifeq first",
+                        "iconst_1", "istore_2", "goto exit",
+                        "first:", "goto second",
+                        "exit:", "iload_2", "ireturn",
+                        "second:", "iconst_3", "ireturn"),
+                "iload_1", "ifeq second",
+                "iconst_1", "ireturn",
+                "second:", "iconst_3", "ireturn");
+    }
+
+    /**
+     * A goto to a return returns.
+     */
+    @Test
+    public void chainJumpToReturn(){
+        assertOptimized(code(
+                        "iload_1", "ifeq else",
+                        "iconst_1", "invokestatic io/print(I)V", "goto end",
+                        "else:", "iconst_2", "invokestatic io/print(I)V",
+                        "end:", "return"),
+                "iload_1", "ifeq else",
+                "iconst_1", "invokestatic io/print(I)V", "return",
+                "else:", "iconst_2", "invokestatic io/print(I)V",
+                "return");
+    }
+}
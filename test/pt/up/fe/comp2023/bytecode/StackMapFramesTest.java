@@ -0,0 +1,119 @@
+package pt.up.fe.comp2023.bytecode;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static pt.up.fe.comp2023.bytecode.StackMapFrames.INTEGER;
+import static pt.up.fe.comp2023.bytecode.StackMapFrames.TOP;
+
+public class StackMapFramesTest {
+
+    private static JvmMethod method(String descriptor, int maxLocals, JvmInstruction... instructions){
+        JvmMethod method = new JvmMethod(JvmClass.ACC_PUBLIC | JvmClass.ACC_STATIC, "test", descriptor);
+        for(JvmInstruction instruction:instructions)
+            method.addInstruction(instruction);
+        method.setMaxLocals(maxLocals);
+        return method;
+    }
+
+    /**
+     * Register 1 holds an array in one branch and an int in the other, so it is top where they join.
+     */
+    @Test
+    public void differentTypesMergeToTop(){
+        JvmMethod method = method("(Z)I", 3,
+                JvmInstruction.local(Opcode.ILOAD, 0),
+                JvmInstruction.jump(Opcode.IFEQ, "else"),
+                JvmInstruction.constant(1),
+                JvmInstruction.newIntArray(),
+                JvmInstruction.local(Opcode.ASTORE, 1),
+                JvmInstruction.constant(5),
+                JvmInstruction.local(Opcode.ISTORE, 2),
+                JvmInstruction.jump(Opcode.GOTO, "join"),
+                JvmInstruction.label("else"),
+                JvmInstruction.constant(3),
+                JvmInstruction.local(Opcode.ISTORE, 1),
+                JvmInstruction.constant(7),
+                JvmInstruction.local(Opcode.ISTORE, 2),
+                JvmInstruction.label("join"),
+                JvmInstruction.local(Opcode.ILOAD, 2),
+                JvmInstruction.of(Opcode.IRETURN));
+
+        Map<String, StackMapFrames.Frame> frames = StackMapFrames.compute("Test", method, Map.of());
+
+        assertEquals(List.of(INTEGER, TOP, TOP), frames.get("else").locals());
+        assertEquals(List.of(INTEGER, TOP, INTEGER), frames.get("join").locals());
+        assertEquals(List.of(), frames.get("join").stack());
+    }
+
+    /**
+     * Two arrays of a register that is declared as an array keep the declared type.
+     */
+    @Test
+    public void referencesMergeToDeclaredType(){
+        JvmMethod method = method("(Z[I)I", 3,
+                JvmInstruction.local(Opcode.ILOAD, 0),
+                JvmInstruction.jump(Opcode.IFEQ, "else"),
+                JvmInstruction.local(Opcode.ALOAD, 1),
+                JvmInstruction.local(Opcode.ASTORE, 2),
+                JvmInstruction.jump(Opcode.GOTO, "join"),
+                JvmInstruction.label("else"),
+                JvmInstruction.constant(2),
+                JvmInstruction.newIntArray(),
+                JvmInstruction.local(Opcode.ASTORE, 2),
+                JvmInstruction.label("join"),
+                JvmInstruction.local(Opcode.ALOAD, 2),
+                JvmInstruction.of(Opcode.ARRAYLENGTH),
+                JvmInstruction.of(Opcode.IRETURN));
+
+        Map<String, StackMapFrames.Frame> frames = StackMapFrames.compute("Test", method, Map.of(2, "[I"));
+
+        assertEquals(List.of(INTEGER, "[I", "[I"), frames.get("join").locals());
+    }
+
+    /**
+     * The loop head gets a single frame, with the int that the body keeps in register 1.
+     */
+    @Test
+    public void loopHeadIsMergedWithBackEdge(){
+        JvmMethod method = method("(I)I", 2,
+                JvmInstruction.constant(0),
+                JvmInstruction.local(Opcode.ISTORE, 1),
+                JvmInstruction.label("loop"),
+                JvmInstruction.local(Opcode.ILOAD, 1),
+                JvmInstruction.local(Opcode.ILOAD, 0),
+                JvmInstruction.jump(Opcode.IF_ICMPGE, "end"),
+                JvmInstruction.iinc(1, 1),
+                JvmInstruction.jump(Opcode.GOTO, "loop"),
+                JvmInstruction.label("end"),
+                JvmInstruction.local(Opcode.ILOAD, 1),
+                JvmInstruction.of(Opcode.IRETURN));
+
+        Map<String, StackMapFrames.Frame> frames = StackMapFrames.compute("Test", method, Map.of());
+
+        assertEquals(List.of(INTEGER, INTEGER), frames.get("loop").locals());
+        assertEquals(List.of(INTEGER, INTEGER), frames.get("end").locals());
+    }
+
+    /**
+     * The code after a return is never reached, it is removed and gets no frame.
+     */
+    @Test
+    public void unreachableCodeIsRemoved(){
+        JvmMethod method = method("()I", 0,
+                JvmInstruction.constant(1),
+                JvmInstruction.of(Opcode.IRETURN),
+                JvmInstruction.label("dead"),
+                JvmInstruction.constant(2),
+                JvmInstruction.of(Opcode.IRETURN));
+
+        Map<String, StackMapFrames.Frame> frames = StackMapFrames.compute("Test", method, Map.of());
+
+        assertEquals(2, method.getInstructions().size());
+        assertFalse(frames.containsKey("dead"));
+    }
+}
@@ -0,0 +1,91 @@
+package pt.up.fe.comp2023.bytecode;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StackSimulatorTest {
+
+    private static List<JvmInstruction> parse(String... lines){
+        return JasminParser.parseInstructions(String.join("\n", lines));
+    }
+
+    /**
+     * Message of the exception that the simulation of the instructions throws.
+     */
+    private static String failure(List<JvmInstruction> instructions){
+        try {
+            StackSimulator.maxStack("test", instructions);
+        } catch (RuntimeException e) {
+            return e.getMessage();
+        }
+        fail("Expected the simulation to fail");
+        return null;
+    }
+
+    @Test
+    public void straightLine(){
+        assertEquals(3, StackSimulator.maxStack("test", parse(
+                "iload_1", "iload_2", "iload_3", "imul", "iadd", "ireturn")));
+    }
+
+    /**
+     * The highest path counts, even when it is not the first one followed.
+     */
+    @Test
+    public void highestBranch(){
+        assertEquals(4, StackSimulator.maxStack("test", parse(
+                "iload_1", "ifeq deep",
+                "iconst_1", "ireturn",
+                "deep:", "aload_0", "iconst_1", "iconst_2", "iconst_3", "iadd", "iadd",
+                "invokevirtual Test/f(I)I", "ireturn")));
+    }
+
+    /**
+     * A value left on the stack at the jump is counted at its target.
+     */
+    @Test
+    public void valueAcrossJoin(){
+        assertEquals(2, StackSimulator.maxStack("test", parse(
+                "iload_1", "ifeq false",
+                "iconst_1", "goto end",
+                "false:", "iconst_0",
+                "end:", "iload_2", "iadd", "ireturn")));
+    }
+
+    @Test
+    public void loop(){
+        assertEquals(2, StackSimulator.maxStack("test", parse(
+                "iconst_0", "istore_2",
+                "loop:", "iload_2", "iload_1", "if_icmpge end",
+                "iinc 2 1", "goto loop",
+                "end:", "iload_2", "ireturn")));
+    }
+
+    @Test
+    public void underflow(){
+        assertTrue(failure(parse("iload_1", "iadd", "ireturn")).startsWith("Stack underflow"));
+    }
+
+    @Test
+    public void inconsistentHeights(){
+        assertTrue(failure(parse(
+                "iload_1", "ifeq skip",
+                "iconst_1",
+                "skip:", "return")).startsWith("Inconsistent stack height"));
+    }
+
+    @Test
+    public void unknownLabel(){
+        assertTrue(failure(parse("goto nowhere")).startsWith("Unknown label nowhere"));
+    }
+
+    @Test
+    public void runsPastTheEnd(){
+        assertTrue(failure(parse("iconst_1", "istore_1")).startsWith("Execution runs past the end"));
+    }
+}
@@ -0,0 +1,72 @@
+package pt.up.fe.comp2023.controlFlow;
+
+import org.junit.Test;
+import org.specs.comp.ollir.Instruction;
+import org.specs.comp.ollir.Method;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class OllirInstructionsTest {
+
+    private static final String CODE = """
+            Labels {
+                .construct Labels().V {
+                    invokespecial(this, "<init>").V;
+                }
+
+                .method public static sign(a.i32).i32 {
+                    if (a.i32 <.bool 0.i32) goto negative;
+                    b.i32 :=.i32 1.i32;
+                    goto end;
+                negative:
+                again:
+                    b.i32 :=.i32 1.i32;
+                end:
+                    ret.i32 b.i32;
+                }
+            }
+            """;
+
+    private static Method getMethod(){
+        OllirResult ollirResult = new OllirResult(CODE, Collections.emptyMap());
+        for(Method method:ollirResult.getOllirClass().getMethods()){
+            if(method.getMethodName().equals("sign"))
+                return method;
+        }
+        throw new RuntimeException("Method sign not found");
+    }
+
+    @Test
+    public void labelsByInstruction(){
+        Method method = getMethod();
+        List<Instruction> instructions = method.getInstructions();
+        Map<Instruction, List<String>> labels = OllirInstructions.getLabelsByInstruction(method);
+
+        assertEquals(2, labels.size());
+        assertEquals(List.of("again", "negative"), labels.get(instructions.get(3)).stream().sorted().toList());
+        assertEquals(List.of("end"), labels.get(instructions.get(4)));
+        assertFalse(labels.containsKey(instructions.get(0)));
+    }
+
+    /**
+     * The two assignments of 1 to b print the same, but only the one after the labels has them.
+     */
+    @Test
+    public void labelsAreFoundByIdentity(){
+        Method method = getMethod();
+        List<Instruction> instructions = method.getInstructions();
+        Map<Instruction, List<String>> labels = OllirInstructions.getLabelsByInstruction(method);
+
+        assertEquals(instructions.get(1).toString(), instructions.get(3).toString());
+        assertFalse(labels.containsKey(instructions.get(1)));
+        for(String label:labels.get(instructions.get(3)))
+            assertSame(instructions.get(3), method.getLabels().get(label));
+    }
+}